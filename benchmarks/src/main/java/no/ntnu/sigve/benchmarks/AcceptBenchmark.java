@@ -0,0 +1,66 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast the server accepts connections: each operation connects a plain socket,
+ * waits for the session id the server sends to every new client, and disconnects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AcceptBenchmark {
+	private static final int PORT = 9103;
+
+	@Param({"blocking", "nio"})
+	private String transport;
+
+	@Param({"platform", "virtual"})
+	private String threads;
+
+	private Server server;
+	private InetSocketAddress address;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = BenchmarkSupport.startServer(
+				PORT, transport, threads, new BenchmarkSupport.RoutingProtocol());
+		address = new InetSocketAddress("localhost", PORT);
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	@Benchmark
+	public byte[] connect() throws IOException {
+		try (Socket socket = new Socket()) {
+			//Reset on close, so that benchmark runs do not exhaust ports in TIME_WAIT
+			socket.setSoLinger(true, 0);
+			socket.connect(address);
+			return Frames.readFrame(new DataInputStream(socket.getInputStream()));
+		}
+	}
+}
@@ -0,0 +1,95 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.communication.WriteBatching;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how many small messages per second a client gets through to the server, with and
+ * without write batching.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchingBenchmark {
+	private static final int PORT = 9104;
+	private static final int MESSAGES = 1000;
+
+	@Param({"off", "on"})
+	private String batching;
+
+	@Param({"blocking", "nio"})
+	private String transport;
+
+	private BenchmarkSupport.RoutingProtocol protocol;
+	private Server server;
+	private Client client;
+	private Message<Integer> message;
+	private long expected;
+
+	@Setup
+	public void setUp() throws IOException {
+		protocol = new BenchmarkSupport.RoutingProtocol();
+		server = BenchmarkSupport.startServer(PORT, transport, "platform", protocol);
+		client = new Client("localhost", PORT, new Protocol<>() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+			}
+
+			@Override
+			public void onClientConnect(Client caller, UUID clientId) {
+			}
+
+			@Override
+			public void onClientDisconnect(Client caller, UUID clientId) {
+			}
+		});
+		client.getSocketSettings().setTcpNoDelay(true);
+		if ("on".equals(batching)) {
+			client.setWriteBatching(WriteBatching.of(64 * 1024, Duration.ofNanos(200_000)));
+		}
+		client.connect();
+		message = new Message<>(null, 1);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.stopSocketCommunication();
+		server.close();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void send() {
+		for (int i = 0; i < MESSAGES; i++) {
+			client.sendOutgoingMessage(message);
+		}
+		expected += MESSAGES;
+		while (protocol.getReceived() < expected) {
+			LockSupport.parkNanos(10_000);
+		}
+	}
+}
@@ -0,0 +1,112 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.communication.Threads;
+import no.ntnu.sigve.server.BlockingServerTransport;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.server.ServerTransport;
+
+/**
+ * Shared setup for the benchmarks: servers built from benchmark parameters, and a server
+ * protocol that routes or counts what it receives.
+ */
+final class BenchmarkSupport {
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * Creates and starts a server.
+	 *
+	 * @param port      the port to listen on
+	 * @param transport {@code blocking} or {@code nio}
+	 * @param threads   {@code platform} or {@code virtual}
+	 * @param protocol  the server protocol
+	 * @return the started server
+	 * @throws IOException if the server could not bind its port
+	 */
+	static Server startServer(int port, String transport, String threads, Protocol<Server> protocol)
+			throws IOException {
+		Server server = new Server(port, protocol, transport(transport));
+		server.setThreadFactory(threadFactory(threads, "server"));
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Creates the thread factory named by a benchmark parameter.
+	 *
+	 * @param threads {@code platform} or {@code virtual}
+	 * @param prefix  the prefix of the thread names
+	 * @return the thread factory
+	 */
+	static ThreadFactory threadFactory(String threads, String prefix) {
+		return switch (threads) {
+			case "platform" -> Threads.platformThreads(prefix);
+			case "virtual" -> Threads.virtualThreads(prefix);
+			default -> throw new IllegalArgumentException("Unknown thread kind: " + threads);
+		};
+	}
+
+	private static ServerTransport transport(String transport) {
+		return switch (transport) {
+			case "blocking" -> new BlockingServerTransport();
+			case "nio" -> new NioServerTransport(Runtime.getRuntime().availableProcessors());
+			default -> throw new IllegalArgumentException("Unknown transport: " + transport);
+		};
+	}
+
+	/**
+	 * A server protocol that routes messages with a destination, and counts the ones without.
+	 */
+	static class RoutingProtocol implements Protocol<Server> {
+		private final AtomicLong received = new AtomicLong();
+
+		@Override
+		public void receiveMessage(Server caller, Message<?> message) {
+			if (message.getDestination() != null) {
+				caller.route(message);
+			} else {
+				received.incrementAndGet();
+			}
+		}
+
+		@Override
+		public void onClientConnect(Server caller, UUID clientId) {
+		}
+
+		@Override
+		public void onClientDisconnect(Server caller, UUID clientId) {
+		}
+
+		/**
+		 * Gets the number of messages received without a destination.
+		 *
+		 * @return the number of counted messages
+		 */
+		long getReceived() {
+			return received.get();
+		}
+	}
+
+	/**
+	 * A payload without a compact binary format, so that it goes through Java serialization.
+	 */
+	static class SamplePayload implements Serializable {
+		private final int id;
+		private final String name;
+		private final double[] values;
+
+		SamplePayload(int id, String name, double[] values) {
+			this.id = id;
+			this.name = name;
+			this.values = values;
+		}
+	}
+}
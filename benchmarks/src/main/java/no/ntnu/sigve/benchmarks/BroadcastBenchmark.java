@@ -0,0 +1,108 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the time from {@link Server#broadcast} until every connected client has received
+ * the message. The clients connect over loopback, so 10,000 of them need a file descriptor limit
+ * above 20,000, e.g. {@code ulimit -n 32768}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+	private static final int PORT = 9102;
+	private static final String READY = "ready";
+
+	@Param({"10", "100", "1000", "10000"})
+	private int clients;
+
+	@Param({"blocking", "nio"})
+	private String transport;
+
+	@Param({"platform", "virtual"})
+	private String threads;
+
+	private final List<Client> connected = new ArrayList<>();
+	private volatile CountDownLatch delivered;
+	private CountDownLatch ready;
+	private Server server;
+	private Message<String> announcement;
+
+	@Setup
+	public void setUp() throws IOException, InterruptedException {
+		server = BenchmarkSupport.startServer(
+				PORT, transport, threads, new BenchmarkSupport.RoutingProtocol());
+		ready = new CountDownLatch(clients);
+		Protocol<Client> protocol = new Protocol<>() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				if (READY.equals(message.getPayload())) {
+					ready.countDown();
+				} else {
+					delivered.countDown();
+				}
+			}
+
+			@Override
+			public void onClientConnect(Client caller, UUID clientId) {
+			}
+
+			@Override
+			public void onClientDisconnect(Client caller, UUID clientId) {
+			}
+		};
+		for (int i = 0; i < clients; i++) {
+			Client client = new Client("localhost", PORT, protocol);
+			client.setThreadFactory(BenchmarkSupport.threadFactory(threads, "client"));
+			client.connect();
+			//A message routed back to the client proves that the server has registered it
+			client.sendOutgoingMessage(new Message<>(client.getSessionId(), READY));
+			connected.add(client);
+		}
+		if (!ready.await(1, TimeUnit.MINUTES)) {
+			throw new IllegalStateException("Not every client was registered by the server");
+		}
+		announcement = new Message<>(null, "announcement");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		for (Client client : connected) {
+			client.stopSocketCommunication();
+		}
+		server.close();
+	}
+
+	@Benchmark
+	public void broadcast() throws InterruptedException {
+		CountDownLatch latch = new CountDownLatch(clients);
+		delivered = latch;
+		server.broadcast(announcement);
+		latch.await();
+	}
+}
@@ -0,0 +1,78 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.SerializationMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures encoding and decoding of messages, without any sockets involved. Both codecs keep
+ * state for the lifetime of a connection, so decoding is measured as part of a round trip
+ * through a pair of codecs, as it happens on a real connection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CodecBenchmark {
+	@Param({"binary", "serialization"})
+	private String codec;
+
+	@Param({"string", "object"})
+	private String payload;
+
+	private MessageCodec encoder;
+	private MessageCodec decoder;
+	private Message<?> message;
+
+	@Setup
+	public void setUp() {
+		Supplier<MessageCodec> factory = switch (codec) {
+			case "binary" -> BinaryMessageCodec::new;
+			case "serialization" -> SerializationMessageCodec::new;
+			default -> throw new IllegalArgumentException("Unknown codec: " + codec);
+		};
+		encoder = factory.get();
+		decoder = factory.get();
+		Serializable value = switch (payload) {
+			case "string" -> "The quick brown fox jumps over the lazy dog";
+			case "object" -> new BenchmarkSupport.SamplePayload(
+					42, "sample", new double[] {1.0, 2.0, 3.0, 4.0});
+			default -> throw new IllegalArgumentException("Unknown payload: " + payload);
+		};
+		Message<Serializable> sample = new Message<>(UUID.randomUUID(), value);
+		sample.assignSource(UUID.randomUUID());
+		message = sample;
+	}
+
+	@Benchmark
+	public byte[] encode() throws IOException {
+		return encoder.encode(message);
+	}
+
+	@Benchmark
+	public Message<?> encodeAndDecode() throws IOException, ClassNotFoundException {
+		byte[] frame = encoder.encode(message);
+		return decoder.decode(Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length));
+	}
+}
@@ -0,0 +1,116 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.CompressingMessageCodec;
+import no.ntnu.sigve.communication.CompressionMessage;
+import no.ntnu.sigve.communication.DeflateCompression;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Weighs the CPU cost of compression against the bandwidth it saves. Messages make a round trip
+ * through a pair of codecs that have completed the compression handshake, and the bytes each
+ * frame takes on the wire are reported next to the time it took.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+	@Param({"none", "deflate-fast", "deflate-default"})
+	private String compression;
+
+	@Param({"256", "4096", "65536"})
+	private int size;
+
+	@Param({"text", "random"})
+	private String payload;
+
+	private MessageCodec encoder;
+	private MessageCodec decoder;
+	private Message<?> message;
+
+	@Setup
+	public void setUp() throws IOException, ClassNotFoundException {
+		DeflateCompression deflate = switch (compression) {
+			case "none" -> null;
+			case "deflate-fast" -> new DeflateCompression(Deflater.BEST_SPEED);
+			case "deflate-default" -> new DeflateCompression();
+			default -> throw new IllegalArgumentException("Unknown compression: " + compression);
+		};
+		if (deflate == null) {
+			encoder = new BinaryMessageCodec();
+			decoder = new BinaryMessageCodec();
+		} else {
+			encoder = new CompressingMessageCodec(new BinaryMessageCodec(), List.of(deflate), 128);
+			decoder = new CompressingMessageCodec(new BinaryMessageCodec(), List.of(deflate), 128);
+			decoder.decode(body(encoder.encode(new CompressionMessage(DeflateCompression.NAME))));
+		}
+		message = new Message<>(null, payload(payload, size));
+	}
+
+	private static byte[] payload(String kind, int size) {
+		byte[] bytes = new byte[size];
+		if (kind.equals("random")) {
+			new Random(size).nextBytes(bytes);
+		} else {
+			byte[] text = ("{\"sensor\":\"temperature\",\"unit\":\"celsius\",\"values\":"
+					+ "[21.5,21.6,21.4,21.7]}\n").getBytes();
+			for (int i = 0; i < size; i++) {
+				bytes[i] = text[i % text.length];
+			}
+		}
+		return bytes;
+	}
+
+	private static byte[] body(byte[] frame) {
+		return Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length);
+	}
+
+	@Benchmark
+	public Message<?> roundTrip(WireBytes wire) throws IOException, ClassNotFoundException {
+		byte[] frame = encoder.encode(message);
+		wire.messages++;
+		wire.wireBytes += frame.length;
+		return decoder.decode(body(frame));
+	}
+
+	/**
+	 * Counts the bytes sent on the wire. Divide {@code wireBytes} by {@code messages} for the
+	 * average frame size.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class WireBytes {
+		public long messages;
+		public long wireBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			messages = 0;
+			wireBytes = 0;
+		}
+	}
+}
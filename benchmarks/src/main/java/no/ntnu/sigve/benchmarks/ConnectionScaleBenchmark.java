@@ -0,0 +1,123 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the round-trip latency of one client while the server holds many idle connections,
+ * and prints the heap and platform threads those connections cost. The idle connections are
+ * plain sockets, so that the footprint is the server's own. Both ends of every connection live
+ * in this process, so the file descriptor limit must exceed twice the number of connections,
+ * e.g. {@code ulimit -n 32768}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectionScaleBenchmark {
+	private static final int PORT = 9107;
+
+	@Param({"10000"})
+	private int connections;
+
+	@Param({"blocking", "nio"})
+	private String transport;
+
+	@Param({"platform", "virtual"})
+	private String threads;
+
+	private final List<Socket> idle = new ArrayList<>();
+	private final BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+	private Server server;
+	private Client client;
+	private Message<String> ping;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = BenchmarkSupport.startServer(
+				PORT, transport, threads, new BenchmarkSupport.RoutingProtocol());
+		long heapBefore = usedHeap();
+		int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		InetSocketAddress address = new InetSocketAddress("localhost", PORT);
+		for (int i = 0; i < connections; i++) {
+			Socket socket = new Socket();
+			idle.add(socket);
+			//Reset on close, so that benchmark runs do not exhaust ports in TIME_WAIT
+			socket.setSoLinger(true, 0);
+			socket.connect(address);
+			Frames.readFrame(new DataInputStream(socket.getInputStream()));
+		}
+		long heap = usedHeap() - heapBefore;
+		int platformThreads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+		System.out.printf("%n%d idle connections: %d KiB heap (%d bytes each), %d threads%n",
+				connections, heap / 1024, heap / connections, platformThreads);
+
+		client = new Client("localhost", PORT, new Protocol<>() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message);
+			}
+
+			@Override
+			public void onClientConnect(Client caller, UUID clientId) {
+			}
+
+			@Override
+			public void onClientDisconnect(Client caller, UUID clientId) {
+			}
+		});
+		client.setThreadFactory(BenchmarkSupport.threadFactory(threads, "client"));
+		client.getSocketSettings().setTcpNoDelay(true);
+		client.connect();
+		ping = new Message<>(client.getSessionId(), "ping");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.stopSocketCommunication();
+		server.close();
+		for (Socket socket : idle) {
+			socket.close();
+		}
+		idle.clear();
+	}
+
+	@Benchmark
+	public Message<?> route() throws InterruptedException {
+		client.sendOutgoingMessage(ping);
+		return received.take();
+	}
+
+	private static long usedHeap() {
+		System.gc();
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+}
@@ -0,0 +1,119 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.LocalServerTransport;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how the throughput of {@link Server#route} scales with the number of partitions, with
+ * one benchmark thread per core. Every thread drives its own pair of in-process clients, so that
+ * sockets do not hide the server's own scaling. Zero partitions runs the protocol on the threads
+ * reading from clients, as a server does by default. Vary the number of cores with {@code -t}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class PartitionBenchmark {
+	private static final int PORT = 9106;
+	private static final int BATCH = 64;
+
+	@Param({"0", "1", "2", "4", "8", "16", "32"})
+	private int partitions;
+
+	private Server server;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new Server(PORT, new BenchmarkSupport.RoutingProtocol(),
+				new LocalServerTransport());
+		if (partitions > 0) {
+			server.setPartitions(partitions, 64 * 1024);
+		}
+		server.start();
+	}
+
+	@TearDown
+	public void tearDown() {
+		server.close();
+	}
+
+	/**
+	 * A sender and a receiver driven by one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Pair {
+		private final Semaphore arrived = new Semaphore(0);
+		private Client sender;
+		private Client receiver;
+		private UUID destination;
+
+		@Setup
+		public void setUp(PartitionBenchmark benchmark) throws IOException {
+			sender = Client.inProcess(PORT, new CountingProtocol(null));
+			sender.connect();
+			receiver = Client.inProcess(PORT, new CountingProtocol(arrived));
+			receiver.connect();
+			destination = receiver.getSessionId();
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			sender.stopSocketCommunication();
+			receiver.stopSocketCommunication();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void route(Pair pair) throws InterruptedException {
+		//In-process messages are handed over as they are, so each needs a fresh object
+		for (int i = 0; i < BATCH; i++) {
+			pair.sender.sendOutgoingMessage(new Message<>(pair.destination, "route"));
+		}
+		pair.arrived.acquire(BATCH);
+	}
+
+	/**
+	 * Counts the messages a client receives.
+	 */
+	private record CountingProtocol(Semaphore arrived) implements Protocol<Client> {
+		@Override
+		public void receiveMessage(Client caller, Message<?> message) {
+			if (arrived != null) {
+				arrived.release();
+			}
+		}
+
+		@Override
+		public void onClientConnect(Client caller, UUID clientId) {
+		}
+
+		@Override
+		public void onClientDisconnect(Client caller, UUID clientId) {
+		}
+	}
+}
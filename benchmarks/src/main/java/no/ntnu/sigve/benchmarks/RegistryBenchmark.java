@@ -0,0 +1,143 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.LocalServerTransport;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Server#route} from one benchmark thread per core while another thread keeps
+ * connecting, broadcasting to and disconnecting clients, so that lookups in the server's client
+ * registry run alongside its inserts, removals and iterations. The clients are in-process, so
+ * that sockets do not hide contention in the registry. Compare with {@code churn=false} for
+ * routing on a registry that does not change.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class RegistryBenchmark {
+	private static final int PORT = 9108;
+	private static final int BATCH = 64;
+	private static final String ROUTED = "route";
+
+	@Param({"false", "true"})
+	private boolean churn;
+
+	private volatile boolean running;
+	private Server server;
+	private Thread churner;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = new Server(PORT, new BenchmarkSupport.RoutingProtocol(),
+				new LocalServerTransport());
+		server.start();
+		if (churn) {
+			running = true;
+			churner = new Thread(this::churn, "churn");
+			churner.start();
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		running = false;
+		if (churner != null) {
+			churner.join();
+		}
+		server.close();
+	}
+
+	private void churn() {
+		while (running) {
+			try {
+				Client client = Client.inProcess(PORT, new CountingProtocol(null));
+				client.connect();
+				server.broadcast(new Message<>(null, "churn"));
+				client.stopSocketCommunication();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * A sender and a receiver driven by one benchmark thread.
+	 */
+	@State(Scope.Thread)
+	public static class Pair {
+		private final Semaphore arrived = new Semaphore(0);
+		private Client sender;
+		private Client receiver;
+		private UUID destination;
+
+		@Setup
+		public void setUp(RegistryBenchmark benchmark) throws IOException {
+			sender = Client.inProcess(PORT, new CountingProtocol(null));
+			sender.connect();
+			receiver = Client.inProcess(PORT, new CountingProtocol(arrived));
+			receiver.connect();
+			destination = receiver.getSessionId();
+		}
+
+		@TearDown
+		public void tearDown() throws IOException {
+			sender.stopSocketCommunication();
+			receiver.stopSocketCommunication();
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH)
+	public void route(Pair pair) throws InterruptedException {
+		//In-process messages are handed over as they are, so each needs a fresh object
+		for (int i = 0; i < BATCH; i++) {
+			pair.sender.sendOutgoingMessage(new Message<>(pair.destination, ROUTED));
+		}
+		pair.arrived.acquire(BATCH);
+	}
+
+	/**
+	 * Counts the routed messages a client receives, ignoring the churn's broadcasts.
+	 */
+	private record CountingProtocol(Semaphore arrived) implements Protocol<Client> {
+		@Override
+		public void receiveMessage(Client caller, Message<?> message) {
+			if (arrived != null && ROUTED.equals(message.getPayload())) {
+				arrived.release();
+			}
+		}
+
+		@Override
+		public void onClientConnect(Client caller, UUID clientId) {
+		}
+
+		@Override
+		public void onClientDisconnect(Client caller, UUID clientId) {
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package no.ntnu.sigve.benchmarks;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.Server;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of a message sent by a client to itself through {@link Server#route},
+ * over loopback.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RoundTripBenchmark {
+	private static final int PORT = 9101;
+
+	@Param({"blocking", "nio"})
+	private String transport;
+
+	@Param({"platform", "virtual"})
+	private String threads;
+
+	private final BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+	private Server server;
+	private Client client;
+	private Message<String> ping;
+
+	@Setup
+	public void setUp() throws IOException {
+		server = BenchmarkSupport.startServer(
+				PORT, transport, threads, new BenchmarkSupport.RoutingProtocol());
+		client = new Client("localhost", PORT, new Protocol<>() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message);
+			}
+
+			@Override
+			public void onClientConnect(Client caller, UUID clientId) {
+			}
+
+			@Override
+			public void onClientDisconnect(Client caller, UUID clientId) {
+			}
+		});
+		client.setThreadFactory(BenchmarkSupport.threadFactory(threads, "client"));
+		client.getSocketSettings().setTcpNoDelay(true);
+		client.connect();
+		ping = new Message<>(client.getSessionId(), "ping");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		client.stopSocketCommunication();
+		server.close();
+	}
+
+	@Benchmark
+	public Message<?> route() throws InterruptedException {
+		client.sendOutgoingMessage(ping);
+		return received.take();
+	}
+}
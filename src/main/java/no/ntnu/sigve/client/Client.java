@@ -1,33 +1,121 @@
 package no.ntnu.sigve.client;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import no.ntnu.sigve.communication.AckMessage;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.CompressingMessageCodec;
+import no.ntnu.sigve.communication.Compression;
+import no.ntnu.sigve.communication.CompressionMessage;
+import no.ntnu.sigve.communication.Dispatcher;
+import no.ntnu.sigve.communication.FrameWriter;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Heartbeat;
+import no.ntnu.sigve.communication.HeartbeatMessage;
+import no.ntnu.sigve.communication.IdleMonitor;
+import no.ntnu.sigve.communication.LocalExchange;
+import no.ntnu.sigve.communication.LocalInbox;
 import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Metrics;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.PriorityLock;
 import no.ntnu.sigve.communication.Protocol;
 import no.ntnu.sigve.communication.ProtocolUser;
+import no.ntnu.sigve.communication.RejectionMessage;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.communication.ResumeMessage;
+import no.ntnu.sigve.communication.SocketSettings;
+import no.ntnu.sigve.communication.StreamAssembler;
+import no.ntnu.sigve.communication.StreamChunkMessage;
+import no.ntnu.sigve.communication.SubscriptionMessage;
+import no.ntnu.sigve.communication.Threads;
+import no.ntnu.sigve.communication.TimeoutWheel;
 import no.ntnu.sigve.communication.UuidMessage;
+import no.ntnu.sigve.communication.WriteBatching;
 
 /**
  * A client connection to a server. Capable of continuously reading information from the client and
  * sending messages.
  *
+ * <p>With a {@link ReconnectPolicy}, the client reconnects by itself when the connection drops.
+ * Messages sent in the meantime are held back, and if the server keeps sessions, the client
+ * resumes its session and both ends send again whatever the other did not receive.</p>
+ *
+ * <p>Messages are written on the sending thread. When several threads send at once, those sending
+ * messages with a higher {@link Priority} write first, so a control message waits for at most
+ * one bulk write.</p>
+ *
+ * <p>With {@link #setHeartbeat(Heartbeat) heartbeats}, a server that has gone silent is noticed
+ * and the connection closed, rather than waiting for a read that never completes.</p>
+ *
+ * <p>A client made with {@link #inProcess(int, Protocol)} connects to a server in the same JVM
+ * without a socket, handing message objects over instead of encoding them.</p>
+ *
  * @author Sigve Bjørkedal
  * @see Client#sendOutgoingMessage(Message) sendOutgoingMessage
  */
 public class Client implements ProtocolUser {
 	private static final String NOT_CONNECTED_MESSAGE = "Client is not connected";
+	private static final long HANDSHAKE_TIMEOUT_SECONDS = 10;
 
 	private final String address;
 	private final int port;
 	private final Protocol<Client> protocol;
+	private final PriorityLock outputLock = new PriorityLock();
+	private ThreadFactory threadFactory = Threads.platformThreads("client-listener");
+	private Supplier<? extends MessageCodec> codecFactory = BinaryMessageCodec::new;
+	private List<Compression> compressions = List.of();
+	private int compressionThreshold;
+	private final SocketSettings socketSettings = new SocketSettings();
+	private WriteBatching writeBatching = WriteBatching.disabled();
+	private Heartbeat heartbeat = Heartbeat.disabled();
+	private Dispatcher dispatcher;
+	private final Metrics metrics = new Metrics();
+	private final Map<Long, CompletableFuture<Message<?>>> pendingRequests =
+			new ConcurrentHashMap<>();
+	private final AtomicLong nextCorrelationId = new AtomicLong(1);
+	private final StreamAssembler streams = new StreamAssembler();
+	private final AtomicLong nextStreamId = new AtomicLong(1);
+	private ReconnectPolicy reconnectPolicy;
 
-	ObjectInputStream socketResponseStream;
-	private ObjectOutputStream output;
+	DataInputStream socketResponseStream;
+	private FrameWriter output;
+	private MessageCodec codec;
 	private Socket socket;
-	private UUID sessionId;
+	private volatile UUID sessionId;
+	private volatile ReplayBuffer replay;
+	private long resumeToken;
+	private volatile boolean reconnecting;
+	private volatile boolean closing;
+	private volatile IdleMonitor idle;
+	private boolean inProcess;
+	private volatile LocalInbox localInbox;
+	private volatile LocalInbox serverInbox;
 
 	/**
 	 * Creates a new client connection to a server.
@@ -42,36 +130,359 @@ public class Client implements ProtocolUser {
 		this.protocol = protocol;
 	}
 
+	/**
+	 * Creates a client that connects to a server in the same JVM, one created with a
+	 * {@link no.ntnu.sigve.server.LocalServerTransport LocalServerTransport}. Messages are handed
+	 * over as objects through lock-free queues rather than encoded and sent through a socket, so
+	 * codecs, compression, write batching, socket settings and heartbeats do not apply. There is
+	 * no connection that can drop, so the client never reconnects either.
+	 *
+	 * @param port     the port the server was created with
+	 * @param protocol the protocol by which the client will interpret messages.
+	 * @return a client connecting in process
+	 */
+	public static Client inProcess(int port, Protocol<Client> protocol) {
+		Client client = new Client(null, port, protocol);
+		client.inProcess = true;
+		return client;
+	}
+
+	/**
+	 * Sets the factory used to create the thread listening for messages from the server. Use
+	 * {@link Threads#virtualThreads(String)} to listen on a virtual thread. Must be called before
+	 * {@link #connect()}.
+	 *
+	 * @param threadFactory the factory creating the listener thread
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Sets the factory creating the codec that encodes and decodes messages on the wire. The
+	 * server must use the same kind of codec. Must be called before {@link #connect()}.
+	 *
+	 * @param codecFactory the factory creating the connection's codec
+	 */
+	public void setCodecFactory(Supplier<? extends MessageCodec> codecFactory) {
+		this.codecFactory = codecFactory;
+	}
+
+	/**
+	 * Sets the compression algorithms the client accepts, most preferred first. While connecting,
+	 * the client picks the first algorithm the server offers that is also in this list, and
+	 * frames of at least {@code threshold} bytes are compressed from then on. By default nothing
+	 * is compressed. Must be called before {@link #connect()}.
+	 *
+	 * @param threshold    the smallest frame body worth compressing, in bytes
+	 * @param compressions the accepted algorithms, most preferred first
+	 */
+	public void setCompressions(int threshold, Compression... compressions) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Compression threshold must not be negative");
+		}
+		this.compressionThreshold = threshold;
+		this.compressions = List.of(compressions);
+	}
+
+	/**
+	 * Makes the client reconnect by itself when its connection drops. By default, a dropped
+	 * connection is final. Must be called before {@link #connect()}.
+	 *
+	 * @param reconnectPolicy how to reconnect, or null to never reconnect
+	 */
+	public void setReconnectPolicy(ReconnectPolicy reconnectPolicy) {
+		this.reconnectPolicy = reconnectPolicy;
+	}
+
+	/**
+	 * Gets the TCP options applied to the client's socket. Changes must be made before
+	 * {@link #connect()}.
+	 *
+	 * @return the client's socket settings
+	 */
+	public SocketSettings getSocketSettings() {
+		return this.socketSettings;
+	}
+
+	/**
+	 * Sets how outgoing messages are gathered before being written to the socket. Batching is
+	 * disabled by default. With batching enabled, a batch is written when it is full, when its
+	 * linger time has passed, or when {@link #flush()} is called. Must be called before
+	 * {@link #connect()}.
+	 *
+	 * @param writeBatching the batching setting
+	 */
+	public void setWriteBatching(WriteBatching writeBatching) {
+		this.writeBatching = writeBatching;
+	}
+
+	/**
+	 * Sets how the connection is kept alive and checked for idleness. A connection on which
+	 * nothing is received within the heartbeat timeout is closed, and reconnected if the client
+	 * has a {@link ReconnectPolicy}. Pings from the server are answered either way. By default,
+	 * heartbeats are disabled. Must be called before {@link #connect()}.
+	 *
+	 * @param heartbeat the heartbeat setting
+	 */
+	public void setHeartbeat(Heartbeat heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+
+	/**
+	 * Makes {@link Protocol#receiveMessage(ProtocolUser, Message) receiveMessage} run on an
+	 * executor rather than on the thread listening to the server, so that a slow handler does
+	 * not stop the client from reading. Messages from one source run in order, one at a time;
+	 * messages from different sources are handled in parallel. By default, messages are handled
+	 * on the listening thread. Must be called before {@link #connect()}.
+	 *
+	 * @param executor      the executor handling messages, or null to handle them on the
+	 *                      listening thread
+	 * @param queueCapacity the largest number of messages waiting to be handled before the
+	 *                      listener waits
+	 */
+	public void setDispatcher(Executor executor, int queueCapacity) {
+		this.dispatcher = executor != null
+				? new Dispatcher(executor, queueCapacity, this.metrics)
+				: null;
+	}
+
+	/**
+	 * Gets the client's metrics. Use {@link Metrics#getSnapshot()} to read them, or
+	 * {@link Metrics#registerMBean(String)} to publish them over JMX.
+	 *
+	 * @return the client's metrics
+	 */
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
 	/**
 	 * Tries to connect to the server.
 	 *
-	 * @throws IOException If connecting to the server fails
+	 * @throws IOException If connecting to the server fails, or the server rejects the connection
 	 */
 	public void connect() throws IOException {
-		this.socket = new Socket(address, port);
+		this.closing = false;
+		if (inProcess) {
+			openInProcess();
+		} else {
+			open();
+		}
+		onClientConnected();
+	}
+
+	/**
+	 * Opens a connection, performs the handshake and starts listening. When reconnecting, the
+	 * session is resumed if the server still has it, and messages the server did not receive
+	 * are sent again.
+	 *
+	 * @return true if an earlier session was resumed
+	 * @throws IOException if connecting or the handshake fails
+	 */
+	private boolean open() throws IOException {
+		//A channel-backed socket, so that files can be transferred to it directly
+		Socket connectingSocket = SocketChannel.open().socket();
+		socketSettings.apply(connectingSocket);
+		connectingSocket.connect(new InetSocketAddress(address, port));
 
-		socketResponseStream =
-				new ObjectInputStream(this.socket.getInputStream());
-		this.output = new ObjectOutputStream(this.socket.getOutputStream());
+		DataInputStream input =
+				new DataInputStream(new BufferedInputStream(connectingSocket.getInputStream()));
+		FrameWriter writer = new FrameWriter(
+				connectingSocket.getOutputStream(), writeBatching, metrics.getWriteTime());
+		MessageCodec connectionCodec = compressions.isEmpty()
+				? codecFactory.get()
+				: new CompressingMessageCodec(codecFactory.get(), compressions, compressionThreshold);
+		connectionCodec.setMetrics(metrics);
 
-		UUID uuid = null;
+		UuidMessage handshake = null;
+		UUID connectedSession;
+		ResumeMessage reply = null;
 		try {
-			UuidMessage uuidMessage = (UuidMessage) socketResponseStream.readObject();
-			if (uuidMessage != null) {
-				uuid = uuidMessage.getPayload();
+			Message<?> first = decodeHandshake(input, connectionCodec);
+			if (first instanceof RejectionMessage rejection) {
+				throw new ConnectException("Connection rejected: " + rejection.getPayload());
+			} else if (first instanceof UuidMessage uuid) {
+				handshake = uuid;
 			}
-		} catch (ClassNotFoundException | ClassCastException e) {
-			//Do nothing
+			if (handshake == null || handshake.getPayload() == null) {
+				throw new IllegalStateException("Session ID was not received properly.");
+			}
+			System.out.println("Received session ID: " + handshake.getPayload());
+			if (connectionCodec instanceof CompressingMessageCodec compressing) {
+				String compression = compressing.choose(handshake.getCompressions());
+				if (compression != null) {
+					transmit(connectionCodec, writer, new CompressionMessage(compression));
+				}
+			}
+
+			connectedSession = handshake.getPayload();
+			if (handshake.getResumeToken() != 0 && reconnectPolicy == null) {
+				transmit(connectionCodec, writer, new ResumeMessage(null, 0, 0));
+			} else if (handshake.getResumeToken() != 0) {
+				ResumeMessage request = replay != null
+						? new ResumeMessage(sessionId, resumeToken, replay.getReceived())
+						: new ResumeMessage(connectedSession, handshake.getResumeToken(), 0);
+				transmit(connectionCodec, writer, request);
+				writer.flush();
+				reply = awaitResumeReply(input, connectionCodec);
+				connectedSession = reply.getPayload();
+			}
+			writer.flush();
+		} catch (IOException | RuntimeException e) {
+			connectionCodec.close();
+			connectingSocket.close();
+			throw e;
 		}
-		if (uuid != null) {
-			this.sessionId = uuid;
-			System.out.println("Received session ID: " + this.sessionId);
-		} else {
+
+		boolean resumed = false;
+		outputLock.lock(Priority.HIGH);
+		try {
+			this.socket = connectingSocket;
+			this.socketResponseStream = input;
+			this.output = writer;
+			this.codec = connectionCodec;
+			resumed = replay != null && reply != null && connectedSession.equals(sessionId);
+			if (resumed) {
+				replaySession(reply.getReceived());
+			} else {
+				this.replay = reply != null
+						? new ReplayBuffer(reconnectPolicy.getReplayCapacity())
+						: null;
+			}
+			if (reply != null) {
+				this.resumeToken = reply.getToken();
+			}
+			this.sessionId = connectedSession;
+			this.reconnecting = false;
+		} finally {
+			outputLock.unlock();
+		}
+
+		IdleMonitor monitor = new IdleMonitor(heartbeat, TimeoutWheel.shared(),
+				this::ping, () -> evict(connectingSocket));
+		this.idle = monitor;
+		threadFactory.newThread(new ClientListener(this, input, connectionCodec, monitor)).start();
+		monitor.start();
+		return resumed;
+	}
+
+	/**
+	 * Connects to a server in the same JVM and starts taking messages from the client's inbox.
+	 *
+	 * @throws IOException if no server in the JVM listens on the client's port
+	 */
+	private void openInProcess() throws IOException {
+		LocalInbox inbox = new LocalInbox(false);
+		LocalInbox server = LocalExchange.connect(port, inbox);
+		Message<?> handshake = inbox.poll(HANDSHAKE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+		if (!(handshake instanceof UuidMessage uuid) || uuid.getPayload() == null) {
+			inbox.close();
+			server.close();
 			throw new IllegalStateException("Session ID was not received properly.");
 		}
+		metrics.recordMessageIn(0);
+		System.out.println("Received session ID: " + uuid.getPayload());
+		this.sessionId = uuid.getPayload();
+		this.localInbox = inbox;
+		this.serverInbox = server;
+		threadFactory.newThread(() -> listenInProcess(inbox)).start();
+	}
 
-		new ClientListener(this, socketResponseStream).start();
-		onClientConnected();
+	/**
+	 * Handles messages from an in-process server until the connection closes.
+	 *
+	 * @param inbox the inbox the server delivers to
+	 */
+	private void listenInProcess(LocalInbox inbox) {
+		Message<?> message;
+		while ((message = inbox.take()) != null) {
+			metrics.recordMessageIn(0);
+			registerIncomingMessage(message);
+		}
+		connectionLost();
+	}
+
+	/**
+	 * Sends a ping from the shared timing wheel, unless another thread is writing. A write in
+	 * progress keeps the connection alive by itself, and waiting for it would hold up the wheel.
+	 */
+	private void ping() {
+		if (!outputLock.tryLock()) {
+			return;
+		}
+		try {
+			send(HeartbeatMessage.ping());
+		} finally {
+			outputLock.unlock();
+		}
+	}
+
+	/**
+	 * Closes a connection on which nothing was received within the heartbeat timeout. The
+	 * listener then reports the connection as lost.
+	 *
+	 * @param idleSocket the socket of the silent connection
+	 */
+	private void evict(Socket idleSocket) {
+		metrics.recordIdleTimeout();
+		try {
+			idleSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private Message<?> decodeHandshake(DataInputStream input, MessageCodec connectionCodec)
+			throws IOException {
+		byte[] body = Frames.readFrame(input);
+		metrics.recordMessageIn(Frames.HEADER_LENGTH + body.length);
+		try {
+			return connectionCodec.decode(body);
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Unknown handshake message", e);
+		}
+	}
+
+	/**
+	 * Reads frames until the server answers a resume request. Only handshake messages can come
+	 * before the answer.
+	 */
+	private ResumeMessage awaitResumeReply(DataInputStream input, MessageCodec connectionCodec)
+			throws IOException {
+		while (true) {
+			Message<?> message = decodeHandshake(input, connectionCodec);
+			if (message instanceof ResumeMessage reply) {
+				return reply;
+			}
+		}
+	}
+
+	/**
+	 * Sends again whatever the server did not receive before the connection dropped, followed by
+	 * the messages held back since. Must be called while holding the output lock.
+	 *
+	 * @param serverReceived the number of messages the server has received in the session
+	 * @throws IOException if the new connection fails as well
+	 */
+	private void replaySession(long serverReceived) throws IOException {
+		if (!replay.canRewind(serverReceived)) {
+			System.err.println("Some messages could not be sent again; the replay buffer overflowed");
+		}
+		List<Object> entries = replay.rewind(serverReceived);
+		for (int i = 0; i < entries.size(); i++) {
+			try {
+				write((Message<?>) entries.get(i));
+			} catch (IOException e) {
+				replay.holdUnsent(entries.subList(i, entries.size()));
+				throw e;
+			}
+		}
+		this.output.scheduleFlush();
+	}
+
+	private boolean isConnected() {
+		return socket != null || serverInbox != null;
 	}
 
 	/**
@@ -80,7 +491,7 @@ public class Client implements ProtocolUser {
 	 * @return The session ID
 	 */
 	public UUID getSessionId() {
-		if (socket == null) {
+		if (!isConnected()) {
 			throw new IllegalStateException(NOT_CONNECTED_MESSAGE);
 		}
 		return sessionId;
@@ -92,14 +503,287 @@ public class Client implements ProtocolUser {
 	 * @param message to send to the server.
 	 */
 	public void sendOutgoingMessage(Message<?> message) {
-		if (socket == null) {
+		if (!isConnected()) {
 			throw new IllegalStateException(NOT_CONNECTED_MESSAGE);
 		}
+		send(message);
+	}
+
+	/**
+	 * Sends a stream of bytes in chunks, reading the data as it goes. The receiver gets it
+	 * through {@link Protocol#onStream}. Messages sent by other threads go out between the
+	 * chunks.
+	 *
+	 * @param destination the receiving client, or null to send the stream to the server
+	 * @param data        the data to send, read until its end
+	 * @return the number of bytes sent
+	 * @throws IOException if reading the data or sending a chunk fails
+	 */
+	public long sendStream(UUID destination, InputStream data) throws IOException {
+		if (!isConnected()) {
+			throw new IllegalStateException(NOT_CONNECTED_MESSAGE);
+		}
+		return StreamAssembler.sendChunks(destination, nextStreamId.getAndIncrement(), data,
+				chunk -> {
+					if (!send(chunk)) {
+						throw new IOException("Could not send stream chunk");
+					}
+				});
+	}
+
+	/**
+	 * Sends a file as a stream. With the default binary codec, the chunks are transferred from
+	 * the file to the socket by the operating system, without being copied through the heap.
+	 * Such chunks are never compressed, and are not used in resumable sessions, which must be
+	 * able to send every chunk again.
+	 *
+	 * @param destination the receiving client, or null to send the file to the server
+	 * @param file        the file to send
+	 * @return the number of bytes sent
+	 * @throws IOException if reading the file or sending a chunk fails
+	 * @see #sendStream(UUID, InputStream)
+	 */
+	public long sendFile(UUID destination, Path file) throws IOException {
+		if (!isConnected()) {
+			throw new IllegalStateException(NOT_CONNECTED_MESSAGE);
+		}
+		CompressingMessageCodec compressing = codec instanceof CompressingMessageCodec wrapper
+				? wrapper
+				: null;
+		MessageCodec wireCodec = compressing != null ? compressing.getWrappedCodec() : codec;
+		if (!(wireCodec instanceof BinaryMessageCodec binary) || socket.getChannel() == null
+				|| replay != null) {
+			try (InputStream data = Files.newInputStream(file)) {
+				return sendStream(destination, data);
+			}
+		}
+		long streamId = nextStreamId.getAndIncrement();
+		try (FileChannel source = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = source.size();
+			long position = 0;
+			do {
+				int length = (int) Math.min(StreamChunkMessage.CHUNK_SIZE, size - position);
+				byte state = position + length >= size
+						? StreamChunkMessage.END
+						: StreamChunkMessage.DATA;
+				byte[] header = binary.encodeStreamChunkHeader(destination, streamId, state, length);
+				if (compressing != null) {
+					header = compressing.prepareHeader(header);
+				}
+				transferChunk(header, source, position, length);
+				position += length;
+			} while (position < size);
+			return size;
+		}
+	}
+
+	/**
+	 * Writes one chunk frame whose data comes straight from a file.
+	 *
+	 * @param header   the start of the frame
+	 * @param source   the file holding the chunk's data
+	 * @param position the position of the data in the file
+	 * @param length   the number of data bytes
+	 * @throws IOException if the transfer fails, in which case the connection is closed
+	 */
+	private void transferChunk(byte[] header, FileChannel source, long position, int length)
+			throws IOException {
+		SocketChannel channel = socket.getChannel();
+		outputLock.lock(Priority.NORMAL);
+		try {
+			long start = System.nanoTime();
+			this.output.write(header, 0, header.length);
+			this.output.flush();
+			long sent = 0;
+			while (sent < length) {
+				long count = source.transferTo(position + sent, length - sent, channel);
+				if (count <= 0) {
+					throw new IOException("File ended before the announced chunk");
+				}
+				sent += count;
+			}
+			metrics.getWriteTime().recordSince(start);
+			metrics.recordMessageOut(header.length + length);
+		} catch (IOException e) {
+			//A partly written frame cannot be recovered from
+			socket.close();
+			throw e;
+		} finally {
+			outputLock.unlock();
+		}
+	}
+
+	/**
+	 * Subscribes to a topic, so that messages the server publishes to it are received by the
+	 * client's protocol.
+	 *
+	 * @param topic the topic, a pattern ending in {@code /*} matching every topic below it, or
+	 *              {@code *} matching every topic
+	 */
+	public void subscribe(String topic) {
+		sendOutgoingMessage(new SubscriptionMessage(topic, true));
+	}
+
+	/**
+	 * Cancels a subscription made with {@link #subscribe(String)}.
+	 *
+	 * @param topic the topic or pattern that was subscribed to
+	 */
+	public void unsubscribe(String topic) {
+		sendOutgoingMessage(new SubscriptionMessage(topic, false));
+	}
+
+	/**
+	 * Sends a request to the server and returns a future for its response. The request gets a
+	 * correlation id, and the first message coming back that {@link Message#respondTo responds
+	 * to} it completes the future instead of being passed to the protocol. Any number of
+	 * requests may be in flight at the same time.
+	 *
+	 * <p>The future completes on the client's listening thread, or on the shared
+	 * {@link TimeoutWheel} thread when it times out; use the future's asynchronous methods for
+	 * slow follow-up work.</p>
+	 *
+	 * @param message the request to send
+	 * @param timeout how long to wait for the response before the future fails with a
+	 *                {@link TimeoutException}
+	 * @return a future completed with the response
+	 */
+	public CompletableFuture<Message<?>> request(Message<?> message, Duration timeout) {
+		if (!isConnected()) {
+			throw new IllegalStateException(NOT_CONNECTED_MESSAGE);
+		}
+		long correlationId = nextCorrelationId.getAndIncrement();
+		message.assignCorrelationId(correlationId);
+		CompletableFuture<Message<?>> response = new CompletableFuture<>();
+		pendingRequests.put(correlationId, response);
+		TimeoutWheel.Timeout expiry = TimeoutWheel.shared().schedule(() -> {
+			if (pendingRequests.remove(correlationId, response)) {
+				response.completeExceptionally(new TimeoutException(
+						"No response to request " + correlationId + " within " + timeout));
+			}
+		}, timeout);
+		response.whenComplete((result, failure) -> expiry.cancel());
+
+		if (!send(message) && pendingRequests.remove(correlationId, response)) {
+			response.completeExceptionally(new IOException("Could not send request"));
+		}
+		return response;
+	}
+
+	/**
+	 * Encodes a message and writes it to the server. While reconnecting, or if the connection
+	 * fails, messages are held back to be sent once the session is resumed.
+	 *
+	 * @param message the message to send
+	 * @return true if the message was written or held back
+	 */
+	private boolean send(Message<?> message) {
+		LocalInbox server = this.serverInbox;
+		if (server != null) {
+			return deliver(server, message);
+		}
+		outputLock.lock(message.getPriority());
 		try {
-			this.output.writeObject(message);
+			if (reconnecting) {
+				return holdBack(message);
+			}
+			write(message);
+			this.output.scheduleFlush();
+			return true;
 		} catch (IOException ioe) {
+			if (!(ioe instanceof EncodingException) && holdBack(message)) {
+				return true;
+			}
 			System.err.println("Could not send outgoing message. Here's the stacktrace:");
 			ioe.printStackTrace();
+			return false;
+		} finally {
+			outputLock.unlock();
+		}
+	}
+
+	/**
+	 * Writes a message on the current connection and counts it in the session. Must be called
+	 * while holding the output lock.
+	 *
+	 * @param message the message to write
+	 * @throws IOException if encoding or writing fails
+	 */
+	private void write(Message<?> message) throws IOException {
+		transmit(this.codec, this.output, message);
+		this.idle.written();
+		ReplayBuffer session = this.replay;
+		if (session != null && ReplayBuffer.isCounted(message)) {
+			session.sent(message);
+		}
+	}
+
+	private void transmit(MessageCodec connectionCodec, FrameWriter writer, Message<?> message)
+			throws IOException {
+		long start = System.nanoTime();
+		byte[] frame;
+		try {
+			frame = connectionCodec.encode(message);
+		} catch (IOException e) {
+			metrics.recordCodecError();
+			throw new EncodingException(e);
+		}
+		metrics.getEncodeTime().recordSince(start);
+		writer.write(frame, 0, frame.length);
+		metrics.recordMessageOut(frame.length);
+	}
+
+	/**
+	 * Hands a message to an in-process server.
+	 *
+	 * @param server  the inbox of the server
+	 * @param message the message to deliver
+	 * @return true if the message was delivered
+	 */
+	private boolean deliver(LocalInbox server, Message<?> message) {
+		try {
+			if (!server.deliver(message)) {
+				System.err.println("Could not send outgoing message: " + NOT_CONNECTED_MESSAGE);
+				return false;
+			}
+		} catch (IOException ioe) {
+			metrics.recordCodecError();
+			System.err.println("Could not send outgoing message. Here's the stacktrace:");
+			ioe.printStackTrace();
+			return false;
+		}
+		metrics.recordMessageOut(0);
+		return true;
+	}
+
+	private boolean holdBack(Message<?> message) {
+		ReplayBuffer session = this.replay;
+		if (session == null || !ReplayBuffer.isCounted(message)) {
+			return false;
+		}
+		if (!session.hold(message)) {
+			metrics.recordDroppedMessage();
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes any batched messages to the server immediately.
+	 */
+	public void flush() {
+		if (!isConnected()) {
+			throw new IllegalStateException(NOT_CONNECTED_MESSAGE);
+		}
+		if (serverInbox != null) {
+			//Nothing is batched in process
+			return;
+		}
+		try {
+			this.output.flush();
+		} catch (IOException ioe) {
+			System.err.println("Could not flush outgoing messages. Here's the stacktrace:");
+			ioe.printStackTrace();
 		}
 	}
 
@@ -109,15 +793,83 @@ public class Client implements ProtocolUser {
 	 * @param message the received message object
 	 */
 	public void registerIncomingMessage(Message<?> message) {
-		this.protocol.receiveMessage(this, message);
+		if (message instanceof CompressionMessage || message instanceof ResumeMessage) {
+			//Handshake messages; the codec has already switched
+			return;
+		}
+		if (message instanceof HeartbeatMessage heartbeat) {
+			if (heartbeat.isPing()) {
+				send(HeartbeatMessage.pong());
+			}
+			return;
+		}
+		ReplayBuffer session = this.replay;
+		if (message instanceof AckMessage ack) {
+			if (session != null) {
+				session.acknowledge(ack.getPayload());
+			}
+			return;
+		}
+		if (session != null && ReplayBuffer.isCounted(message)) {
+			long received = session.countReceived();
+			if (received % ReplayBuffer.ACK_INTERVAL == 0) {
+				send(new AckMessage(received));
+			}
+		}
+		if (message instanceof StreamChunkMessage chunk) {
+			try {
+				streams.accept(chunk, true, stream -> threadFactory
+						.newThread(() -> this.protocol.onStream(this, stream))
+						.start());
+			} catch (InterruptedIOException e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		if (message.isResponse()) {
+			CompletableFuture<Message<?>> response =
+					pendingRequests.remove(message.getCorrelationId());
+			if (response != null) {
+				response.complete(message);
+				return;
+			}
+		}
+		Dispatcher stage = this.dispatcher;
+		if (stage == null) {
+			this.protocol.receiveMessage(this, message);
+		} else {
+			stage.dispatch(message.getSource(),
+					() -> this.protocol.receiveMessage(this, message), true);
+		}
 	}
 
 	/**
-	 * Closes input and output streams and closes the socket.
+	 * Fails every request still waiting for a response.
+	 */
+	private void failPendingRequests() {
+		List<Long> correlationIds = new ArrayList<>(pendingRequests.keySet());
+		for (Long correlationId : correlationIds) {
+			CompletableFuture<Message<?>> response = pendingRequests.remove(correlationId);
+			if (response != null) {
+				response.completeExceptionally(new IOException("Connection closed"));
+			}
+		}
+	}
+
+	/**
+	 * Closes input and output streams and closes the socket, or the inboxes of an in-process
+	 * connection.
 	 * @throws IOException if closing the socket or streams fail.
 	 */
 	public void stopSocketCommunication() throws IOException{
+		this.closing = true;
 		this.protocol.onClientDisconnect(this, this.sessionId);
+		LocalInbox server = this.serverInbox;
+		if (server != null) {
+			server.close();
+			localInbox.close();
+			return;
+		}
 		socket.close();
 	}
 
@@ -129,10 +881,85 @@ public class Client implements ProtocolUser {
 		this.protocol.onClientConnect(this, this.sessionId);
 	}
 
+	/**
+	 * Handles a dropped connection: reconnects if the client has a {@link ReconnectPolicy} and
+	 * was not closed on purpose, and reports the disconnect otherwise.
+	 */
+	void connectionLost() {
+		IdleMonitor monitor = this.idle;
+		if (monitor != null) {
+			monitor.stop();
+		}
+		if (closing || reconnectPolicy == null || inProcess) {
+			closeCodec();
+			onClientDisconnected();
+			return;
+		}
+		//Set first, so that messages sent from now on are held back rather than encoded
+		this.reconnecting = true;
+		closeCodec();
+		threadFactory.newThread(this::reconnect).start();
+	}
+
+	/**
+	 * Releases the codec of the connection that was lost. A reconnect gets a codec of its own.
+	 */
+	private void closeCodec() {
+		outputLock.lock(Priority.HIGH);
+		try {
+			if (this.codec != null) {
+				this.codec.close();
+			}
+		} finally {
+			outputLock.unlock();
+		}
+	}
+
+	/**
+	 * Tries to reconnect until an attempt succeeds or the policy gives up. If the session could
+	 * not be resumed, the protocol is told that the old session disconnected and a new one
+	 * connected.
+	 */
+	private void reconnect() {
+		UUID previousSession = this.sessionId;
+		for (int attempt = 0; attempt < reconnectPolicy.getMaxAttempts() && !closing; attempt++) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(reconnectPolicy.delayNanos(attempt));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+			try {
+				if (!open()) {
+					failPendingRequests();
+					streams.abortAll();
+					this.protocol.onClientDisconnect(this, previousSession);
+					onClientConnected();
+				}
+				return;
+			} catch (IOException | IllegalStateException e) {
+				System.err.println("Reconnection attempt " + (attempt + 1) + " failed: " + e);
+			}
+		}
+		this.reconnecting = false;
+		onClientDisconnected();
+	}
+
 	/**
 	 * Notifies the connected protocol that the client has disconnected from the server.
 	 */
 	public void onClientDisconnected() {
+		failPendingRequests();
+		streams.abortAll();
 		this.protocol.onClientDisconnect(this, this.sessionId);
 	}
+
+	/**
+	 * An encoding failure, as opposed to a failing connection.
+	 */
+	private static class EncodingException extends IOException {
+		EncodingException(IOException cause) {
+			super(cause.getMessage(), cause);
+		}
+	}
 }
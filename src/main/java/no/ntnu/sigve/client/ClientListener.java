@@ -1,27 +1,52 @@
 package no.ntnu.sigve.client;
 
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.IdleMonitor;
 import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
 
 /**
  * A separate thread from a client which is responsible for actively listening for new messages from
- * the server.
+ * the server. The thread itself is created by the client's thread factory.
  */
-public class ClientListener extends Thread {
+public class ClientListener implements Runnable {
 
 	Client client;
-	ObjectInputStream messageStream;
+	DataInputStream messageStream;
+	MessageCodec codec;
+	IdleMonitor idle;
 
 	/**
 	 * Creates a new client listener.
 	 *
 	 * @param client the client this listener belongs to
 	 * @param messageStream the socket input stream this listener should listen to
+	 * @param codec the codec used to decode frames read from the stream
 	 */
-	public ClientListener(Client client, ObjectInputStream messageStream) {
+	public ClientListener(Client client, DataInputStream messageStream, MessageCodec codec) {
+		this(client, messageStream, codec, null);
+	}
+
+	/**
+	 * Creates a new client listener that reports every frame it reads to an idle monitor.
+	 *
+	 * @param client the client this listener belongs to
+	 * @param messageStream the socket input stream this listener should listen to
+	 * @param codec the codec used to decode frames read from the stream
+	 * @param idle the monitor watching the connection for idleness, or null
+	 */
+	public ClientListener(
+			Client client,
+			DataInputStream messageStream,
+			MessageCodec codec,
+			IdleMonitor idle
+	) {
 		this.client = client;
 		this.messageStream = messageStream;
+		this.codec = codec;
+		this.idle = idle;
 	}
 
 	/**
@@ -32,14 +57,27 @@ public class ClientListener extends Thread {
 	public void run() {
 		try {
 			Message<?> incomingMessage;
-			while ((incomingMessage = (Message<?>) messageStream.readObject()) != null) {
+			while ((incomingMessage = decode(Frames.readFrame(messageStream))) != null) {
 				handleIncomingMessage(incomingMessage);
 			}
 		} catch (IOException | ClassNotFoundException e) {
 			handleException(e);
 		} finally {
 			closeInput();
-			this.client.onClientDisconnected();
+			this.client.connectionLost();
+		}
+	}
+
+	private Message<?> decode(byte[] body) throws IOException, ClassNotFoundException {
+		if (this.idle != null) {
+			this.idle.read();
+		}
+		this.client.getMetrics().recordMessageIn(Frames.HEADER_LENGTH + body.length);
+		try {
+			return codec.decode(body);
+		} catch (ClassNotFoundException | ClassCastException e) {
+			this.client.getMetrics().recordCodecError();
+			throw e;
 		}
 	}
 
@@ -0,0 +1,109 @@
+package no.ntnu.sigve.client;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Controls how a {@link Client} reconnects after losing its connection. Attempts are spaced with
+ * exponential backoff: the delay doubles after every failed attempt up to a maximum, and each
+ * delay is picked at random from its upper half, so that many clients losing the same server do
+ * not all come back at the same moment.
+ *
+ * <p>If the server lets sessions be resumed, the client resumes its session on the new
+ * connection, and messages that did not make it across in either direction are sent again. The
+ * client keeps up to {@link #getReplayCapacity() a number of} messages the server has not
+ * acknowledged for this.</p>
+ */
+public final class ReconnectPolicy {
+	private final Duration initialDelay;
+	private final Duration maxDelay;
+	private final int maxAttempts;
+	private final int replayCapacity;
+
+	private ReconnectPolicy(
+			Duration initialDelay,
+			Duration maxDelay,
+			int maxAttempts,
+			int replayCapacity
+	) {
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.maxAttempts = maxAttempts;
+		this.replayCapacity = replayCapacity;
+	}
+
+	/**
+	 * Reconnection with exponential backoff, without a limit on the number of attempts and with
+	 * room for 1024 unacknowledged messages.
+	 *
+	 * @param initialDelay the delay before the first attempt
+	 * @param maxDelay     the longest delay between two attempts
+	 * @return the new policy
+	 */
+	public static ReconnectPolicy exponentialBackoff(Duration initialDelay, Duration maxDelay) {
+		if (initialDelay.isNegative() || initialDelay.isZero()
+				|| maxDelay.compareTo(initialDelay) < 0) {
+			throw new IllegalArgumentException("Delays must satisfy 0 < initial <= max");
+		}
+		return new ReconnectPolicy(initialDelay, maxDelay, Integer.MAX_VALUE, 1024);
+	}
+
+	/**
+	 * Limits the number of attempts. Once they have all failed, the client gives up and reports
+	 * the disconnect to its protocol.
+	 *
+	 * @param maxAttempts the number of attempts
+	 * @return a policy like this one, with the given limit
+	 */
+	public ReconnectPolicy withMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("There must be at least one attempt");
+		}
+		return new ReconnectPolicy(initialDelay, maxDelay, maxAttempts, replayCapacity);
+	}
+
+	/**
+	 * Sets the number of unacknowledged messages kept for resuming the session.
+	 *
+	 * @param replayCapacity the number of messages kept
+	 * @return a policy like this one, with the given capacity
+	 */
+	public ReconnectPolicy withReplayCapacity(int replayCapacity) {
+		if (replayCapacity < 1) {
+			throw new IllegalArgumentException("Replay capacity must be positive");
+		}
+		return new ReconnectPolicy(initialDelay, maxDelay, maxAttempts, replayCapacity);
+	}
+
+	/**
+	 * Gets the delay before an attempt.
+	 *
+	 * @param attempt the number of the attempt, starting at zero
+	 * @return the delay in nanoseconds
+	 */
+	long delayNanos(int attempt) {
+		long ceiling = initialDelay.toNanos() << Math.min(attempt, 30);
+		if (ceiling <= 0 || ceiling > maxDelay.toNanos()) {
+			ceiling = maxDelay.toNanos();
+		}
+		return ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1);
+	}
+
+	/**
+	 * Gets the number of attempts before the client gives up.
+	 *
+	 * @return the maximum number of attempts
+	 */
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * Gets the number of unacknowledged messages kept for resuming the session.
+	 *
+	 * @return the replay capacity
+	 */
+	public int getReplayCapacity() {
+		return replayCapacity;
+	}
+}
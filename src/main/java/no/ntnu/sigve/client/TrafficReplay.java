@@ -0,0 +1,414 @@
+package no.ntnu.sigve.client;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.HistogramSnapshot;
+import no.ntnu.sigve.communication.LatencyHistogram;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.communication.Threads;
+import no.ntnu.sigve.communication.TrafficCapture;
+
+/**
+ * Replays traffic recorded by a {@link no.ntnu.sigve.communication.TrafficRecorder} against a
+ * server, for load testing. The messages each recorded connection sent are decoded and sent
+ * again by a set of {@link Client}s, keeping the recorded timing scaled by the replay speed.
+ * Recorded connections are spread over the clients in turn, and destinations naming a recorded
+ * session are pointed at the client replaying it.
+ *
+ * <p>Recorded requests are sent as requests again, and the time until their response arrives
+ * is measured. Frames the default codec cannot decode, such as compressed ones, are skipped and
+ * counted in the {@link Report}.</p>
+ *
+ * <p>Instances are immutable; {@code with} methods return modified copies.</p>
+ */
+public final class TrafficReplay {
+	private final Path capture;
+	private final int clients;
+	private final double speed;
+	private final Duration requestTimeout;
+
+	private TrafficReplay(Path capture, int clients, double speed, Duration requestTimeout) {
+		this.capture = capture;
+		this.clients = clients;
+		this.speed = speed;
+		this.requestTimeout = requestTimeout;
+	}
+
+	/**
+	 * A replay of a capture file at recorded speed, with one client for every recorded
+	 * connection.
+	 *
+	 * @param capture the capture file
+	 * @return the new replay
+	 */
+	public static TrafficReplay of(Path capture) {
+		return new TrafficReplay(capture, 0, 1, Duration.ofSeconds(10));
+	}
+
+	/**
+	 * Sets the number of clients replaying the capture.
+	 *
+	 * @param clients the number of clients
+	 * @return a replay like this one, with the given number of clients
+	 */
+	public TrafficReplay withClients(int clients) {
+		if (clients < 1) {
+			throw new IllegalArgumentException("There must be at least one client");
+		}
+		return new TrafficReplay(capture, clients, speed, requestTimeout);
+	}
+
+	/**
+	 * Sets how fast the capture is replayed. At speed 2 the messages go out twice as fast as
+	 * they were recorded. With {@link Double#POSITIVE_INFINITY} the recorded timing is ignored
+	 * and every client sends as fast as it can.
+	 *
+	 * @param speed the factor to speed the recorded timing up by
+	 * @return a replay like this one, with the given speed
+	 */
+	public TrafficReplay withSpeed(double speed) {
+		if (!(speed > 0)) {
+			throw new IllegalArgumentException("Speed must be positive");
+		}
+		return new TrafficReplay(capture, clients, speed, requestTimeout);
+	}
+
+	/**
+	 * Sets how long to wait for the response to a replayed request. Requests still unanswered by
+	 * then count as failed.
+	 *
+	 * @param requestTimeout the time to wait for each response
+	 * @return a replay like this one, with the given timeout
+	 */
+	public TrafficReplay withRequestTimeout(Duration requestTimeout) {
+		if (requestTimeout.isNegative() || requestTimeout.isZero()) {
+			throw new IllegalArgumentException("Request timeout must be positive");
+		}
+		return new TrafficReplay(capture, clients, speed, requestTimeout);
+	}
+
+	/**
+	 * Replays the capture against a server, and waits until every message has been sent and
+	 * every request answered or timed out.
+	 *
+	 * @param address the address of the server
+	 * @param port    the port of the server
+	 * @return what the replay achieved
+	 * @throws IOException          if the capture cannot be read or a client cannot connect
+	 * @throws InterruptedException if interrupted while waiting for the replay to finish
+	 */
+	public Report run(String address, int port) throws IOException, InterruptedException {
+		Recording recording = load();
+		int count = clients > 0 ? clients : Math.max(recording.sessions.size(), 1);
+		AtomicLong received = new AtomicLong();
+		List<Client> connected = new ArrayList<>();
+		try {
+			for (int i = 0; i < count; i++) {
+				Client client = new Client(address, port, new ReplayProtocol(received));
+				client.connect();
+				connected.add(client);
+			}
+			Map<UUID, UUID> sessions = new HashMap<>();
+			for (int i = 0; i < recording.sessions.size(); i++) {
+				sessions.put(recording.sessions.get(i), connected.get(i % count).getSessionId());
+			}
+			return replay(recording, connected, sessions, received);
+		} finally {
+			for (Client client : connected) {
+				client.stopSocketCommunication();
+			}
+		}
+	}
+
+	/**
+	 * Reads the capture and decodes what every connection sent.
+	 */
+	private Recording load() throws IOException {
+		Recording recording = new Recording();
+		List<MessageCodec> codecs = new ArrayList<>();
+		try (TrafficCapture reader = new TrafficCapture(capture)) {
+			TrafficCapture.Record record;
+			while ((record = reader.next()) != null) {
+				if (record.getKind() == TrafficCapture.Kind.OPEN) {
+					recording.sessions.add(record.getSessionId());
+					codecs.add(new BinaryMessageCodec());
+				} else if (record.getKind() == TrafficCapture.Kind.IN) {
+					Message<?> message;
+					try {
+						message = codecs.get(record.getChannel()).decode(record.getBody());
+					} catch (IOException | ClassNotFoundException | ClassCastException e) {
+						recording.skipped++;
+						continue;
+					}
+					if (ReplayBuffer.isCounted(message)) {
+						recording.events.add(
+								new Event(record.getChannel(), record.getNanos(), message));
+					}
+				}
+			}
+		}
+		return recording;
+	}
+
+	private Report replay(
+			Recording recording,
+			List<Client> connected,
+			Map<UUID, UUID> sessions,
+			AtomicLong received
+	) throws InterruptedException {
+		List<List<Event>> perClient = new ArrayList<>();
+		connected.forEach(client -> perClient.add(new ArrayList<>()));
+		for (Event event : recording.events) {
+			perClient.get(event.channel % connected.size()).add(event);
+		}
+
+		LatencyHistogram sendTimes = new LatencyHistogram();
+		LatencyHistogram responseTimes = new LatencyHistogram();
+		AtomicLong failed = new AtomicLong();
+		ThreadFactory threads = Threads.platformThreads("replay");
+		List<Thread> senders = new ArrayList<>();
+		List<List<CompletableFuture<?>>> pending = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int i = 0; i < connected.size(); i++) {
+			Client client = connected.get(i);
+			List<Event> events = perClient.get(i);
+			List<CompletableFuture<?>> requests = new ArrayList<>();
+			Thread sender = threads.newThread(() -> {
+				for (Event event : events) {
+					waitUntil(start + scale(event.nanos));
+					requests.add(send(client, event.message, sessions, sendTimes, responseTimes,
+							failed));
+				}
+			});
+			sender.start();
+			senders.add(sender);
+			pending.add(requests);
+		}
+		List<CompletableFuture<?>> requests = new ArrayList<>();
+		for (int i = 0; i < senders.size(); i++) {
+			//Joining the sender makes its list of requests visible here
+			senders.get(i).join();
+			requests.addAll(pending.get(i));
+		}
+		CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0]))
+				.exceptionally(failure -> null)
+				.join();
+		long elapsed = System.nanoTime() - start;
+		return new Report(recording.events.size(), recording.skipped, received.get(),
+				failed.get(), Duration.ofNanos(elapsed), sendTimes.getSnapshot(),
+				responseTimes.getSnapshot());
+	}
+
+	private long scale(long nanos) {
+		return Double.isInfinite(speed) ? 0 : (long) (nanos / speed);
+	}
+
+	private static void waitUntil(long deadline) {
+		long remaining;
+		while ((remaining = deadline - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(remaining);
+		}
+	}
+
+	/**
+	 * Sends a recorded message again, as a request if it was recorded as one.
+	 *
+	 * @return the future of the request's response, or a completed future
+	 */
+	private CompletableFuture<?> send(
+			Client client,
+			Message<?> recorded,
+			Map<UUID, UUID> sessions,
+			LatencyHistogram sendTimes,
+			LatencyHistogram responseTimes,
+			AtomicLong failed
+	) {
+		long sentAt = System.nanoTime();
+		if (recorded.getClass() != Message.class) {
+			//Subscriptions and stream chunks are sent as they were recorded
+			client.sendOutgoingMessage(recorded);
+			sendTimes.recordSince(sentAt);
+			return CompletableFuture.completedFuture(null);
+		}
+		UUID destination = sessions.getOrDefault(recorded.getDestination(),
+				recorded.getDestination());
+		Message<Serializable> message = new Message<>(destination, recorded.getPayload());
+		message.setPriority(recorded.getPriority());
+		if (recorded.getCorrelationId() == 0 || recorded.isResponse()) {
+			client.sendOutgoingMessage(message);
+			sendTimes.recordSince(sentAt);
+			return CompletableFuture.completedFuture(null);
+		}
+		CompletableFuture<Message<?>> response = client.request(message, requestTimeout);
+		sendTimes.recordSince(sentAt);
+		return response.whenComplete((result, failure) -> {
+			if (failure == null) {
+				responseTimes.recordSince(sentAt);
+			} else {
+				failed.incrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * What was decoded from a capture.
+	 */
+	private static final class Recording {
+		private final List<UUID> sessions = new ArrayList<>();
+		private final List<Event> events = new ArrayList<>();
+		private long skipped;
+	}
+
+	/**
+	 * A message a recorded connection sent, and when.
+	 */
+	private record Event(int channel, long nanos, Message<?> message) {
+	}
+
+	/**
+	 * Counts what the replaying clients receive, and otherwise ignores it.
+	 */
+	private record ReplayProtocol(AtomicLong received) implements Protocol<Client> {
+		@Override
+		public void receiveMessage(Client caller, Message<?> message) {
+			received.incrementAndGet();
+		}
+
+		@Override
+		public void onClientConnect(Client caller, UUID clientId) {
+			//Nothing to do
+		}
+
+		@Override
+		public void onClientDisconnect(Client caller, UUID clientId) {
+			//Nothing to do
+		}
+	}
+
+	/**
+	 * The outcome of a replay. Times are in nanoseconds.
+	 */
+	public static final class Report {
+		private final long messagesSent;
+		private final long framesSkipped;
+		private final long messagesReceived;
+		private final long failedRequests;
+		private final Duration elapsed;
+		private final HistogramSnapshot sendTimes;
+		private final HistogramSnapshot responseTimes;
+
+		private Report(
+				long messagesSent,
+				long framesSkipped,
+				long messagesReceived,
+				long failedRequests,
+				Duration elapsed,
+				HistogramSnapshot sendTimes,
+				HistogramSnapshot responseTimes
+		) {
+			this.messagesSent = messagesSent;
+			this.framesSkipped = framesSkipped;
+			this.messagesReceived = messagesReceived;
+			this.failedRequests = failedRequests;
+			this.elapsed = elapsed;
+			this.sendTimes = sendTimes;
+			this.responseTimes = responseTimes;
+		}
+
+		/**
+		 * Gets the number of messages sent.
+		 *
+		 * @return the number of replayed messages
+		 */
+		public long getMessagesSent() {
+			return messagesSent;
+		}
+
+		/**
+		 * Gets the number of recorded frames that could not be decoded and were left out.
+		 *
+		 * @return the number of skipped frames
+		 */
+		public long getFramesSkipped() {
+			return framesSkipped;
+		}
+
+		/**
+		 * Gets the number of messages the replaying clients received, responses excluded.
+		 *
+		 * @return the number of received messages
+		 */
+		public long getMessagesReceived() {
+			return messagesReceived;
+		}
+
+		/**
+		 * Gets the number of requests that failed or got no response in time.
+		 *
+		 * @return the number of failed requests
+		 */
+		public long getFailedRequests() {
+			return failedRequests;
+		}
+
+		/**
+		 * Gets the time from the first message being due until the last response arrived.
+		 *
+		 * @return the duration of the replay
+		 */
+		public Duration getElapsed() {
+			return elapsed;
+		}
+
+		/**
+		 * Gets the achieved throughput.
+		 *
+		 * @return the messages sent per second
+		 */
+		public double getThroughput() {
+			return messagesSent / Math.max(elapsed.toNanos() / 1e9, 1e-9);
+		}
+
+		/**
+		 * Gets how long each send call took.
+		 *
+		 * @return the distribution of send times
+		 */
+		public HistogramSnapshot getSendTimes() {
+			return sendTimes;
+		}
+
+		/**
+		 * Gets how long each answered request took, from sending it until its response arrived.
+		 *
+		 * @return the distribution of response times
+		 */
+		public HistogramSnapshot getResponseTimes() {
+			return responseTimes;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d messages in %d ms (%.0f/s), %d skipped, %d failed requests,"
+							+ " send p50/p99 %d/%d ns, response p50/p99/p999 %d/%d/%d ns",
+					messagesSent, elapsed.toMillis(), getThroughput(), framesSkipped,
+					failedRequests, sendTimes.getP50(), sendTimes.getP99(),
+					responseTimes.getP50(), responseTimes.getP99(), responseTimes.getP999());
+		}
+	}
+}
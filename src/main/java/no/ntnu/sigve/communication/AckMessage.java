@@ -0,0 +1,17 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * A control message telling the other end of a resumable session how many messages have been
+ * received, so that it can remove them from its {@link ReplayBuffer}.
+ */
+public class AckMessage extends Message<Long> {
+	/**
+	 * Creates a new acknowledgement.
+	 *
+	 * @param received the number of messages received in the session so far
+	 */
+	public AckMessage(long received) {
+		super(null, received);
+		setPriority(Priority.HIGH);
+	}
+}
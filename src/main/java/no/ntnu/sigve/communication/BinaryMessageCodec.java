@@ -0,0 +1,417 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A compact binary codec. A frame body starts with a one-byte type id and a flags byte, followed
+ * by the source and destination as two 128-bit values and the correlation id as a 64-bit value
+ * (each present only if set), followed by the payload bytes:
+ *
+ * <pre>
+ * [type:1][flags:1][source:16]?[destination:16]?[correlation:8]?[payload:*]
+ * </pre>
+ *
+ * <p>The flags say which of these are present, whether the message is a response, and which
+ * {@link Priority} lane it travels in.</p>
+ *
+ * <p>Plain {@link Message}s with a {@code null}, {@link String}, {@code byte[]}, {@link Integer},
+ * {@link Long}, {@link Double}, {@link Boolean} or {@link UUID} payload, {@link UuidMessage}s and
+ * {@link HeartbeatMessage heartbeats} are written in this format, as are
+ * {@link StreamChunkMessage stream chunks}. Anything else, such as custom message subclasses or
+ * arbitrary serializable payloads, falls back to a per-connection
+ * {@link SerializationMessageCodec} and is sent with the {@link #TYPE_SERIALIZED} type id.</p>
+ *
+ * <p>{@link #encodeShared(Message) Shared} frames for messages without a binary format are
+ * serialized on a fresh object stream of their own, and sent with the
+ * {@link #TYPE_SERIALIZED_STANDALONE} type id, so they do not depend on the connection's stream.
+ * </p>
+ */
+public class BinaryMessageCodec implements MessageCodec {
+	/**
+	 * Type id of frames carrying a Java-serialized message.
+	 */
+	public static final byte TYPE_SERIALIZED = 0;
+	static final byte TYPE_NULL = 1;
+	static final byte TYPE_STRING = 2;
+	static final byte TYPE_BYTES = 3;
+	static final byte TYPE_INTEGER = 4;
+	static final byte TYPE_LONG = 5;
+	static final byte TYPE_DOUBLE = 6;
+	static final byte TYPE_BOOLEAN = 7;
+	static final byte TYPE_UUID = 8;
+	static final byte TYPE_UUID_MESSAGE = 9;
+	/**
+	 * Type id of frames carrying a message serialized on an object stream of its own.
+	 */
+	public static final byte TYPE_SERIALIZED_STANDALONE = 10;
+	static final byte TYPE_STREAM_CHUNK = 11;
+	static final byte TYPE_HEARTBEAT = 12;
+
+	private static final int FLAG_SOURCE = 1;
+	private static final int FLAG_DESTINATION = 2;
+	private static final int FLAG_CORRELATION = 4;
+	private static final int FLAG_RESPONSE = 8;
+	private static final int FLAG_HIGH_PRIORITY = 16;
+	private static final int FLAG_LOW_PRIORITY = 32;
+	private static final int UUID_LENGTH = 16;
+	private static final int PREAMBLE_LENGTH = Frames.HEADER_LENGTH + 2;
+
+	private final ResetPolicy resetPolicy;
+	private SerializationMessageCodec fallback;
+	private Metrics metrics;
+
+	/**
+	 * Creates a new binary codec whose serialization fallback uses the
+	 * {@link ResetPolicy#DEFAULT default} reset policy.
+	 */
+	public BinaryMessageCodec() {
+		this(ResetPolicy.DEFAULT);
+	}
+
+	/**
+	 * Creates a new binary codec.
+	 *
+	 * @param resetPolicy the reset policy of the serialization fallback
+	 */
+	public BinaryMessageCodec(ResetPolicy resetPolicy) {
+		this.resetPolicy = resetPolicy;
+	}
+
+	@Override
+	public byte[] encode(Message<?> message) throws IOException {
+		byte type = typeOf(message);
+		if (type == TYPE_SERIALIZED) {
+			byte[] frame = fallback().encode(message);
+			frame[Frames.HEADER_LENGTH] = TYPE_SERIALIZED;
+			return frame;
+		}
+		return encodeBinary(message, type);
+	}
+
+	@Override
+	public byte[] encodeShared(Message<?> message) throws IOException {
+		byte type = typeOf(message);
+		if (type == TYPE_SERIALIZED) {
+			return SerializationMessageCodec.encodeStandalone(
+					message, Frames.HEADER_LENGTH + 1, TYPE_SERIALIZED_STANDALONE);
+		}
+		return encodeBinary(message, type);
+	}
+
+	/**
+	 * Encodes a stream chunk without its data. The returned frame's length prefix covers the data
+	 * as well, so writing {@code dataLength} bytes of data right after it completes the frame.
+	 * This lets chunk data be sent straight from a file.
+	 *
+	 * @param destination the receiving client, or null for the server
+	 * @param streamId    the id of the stream
+	 * @param state       the state of the stream after this chunk
+	 * @param dataLength  the number of data bytes that will follow
+	 * @return the start of the chunk's frame
+	 */
+	public byte[] encodeStreamChunkHeader(
+			UUID destination,
+			long streamId,
+			byte state,
+			int dataLength
+	) {
+		byte[] header = encodeBinary(
+				new StreamChunkMessage(destination, streamId, state, new byte[0]), TYPE_STREAM_CHUNK);
+		Frames.putLength(header, header.length - Frames.HEADER_LENGTH + dataLength);
+		return header;
+	}
+
+	@Override
+	public boolean isIndependent(byte[] frame) {
+		//Chunks depend on the rest of their stream
+		return frame.length > Frames.HEADER_LENGTH
+				&& frame[Frames.HEADER_LENGTH] != TYPE_SERIALIZED
+				&& frame[Frames.HEADER_LENGTH] != TYPE_STREAM_CHUNK;
+	}
+
+	@Override
+	public Message<?> decode(byte[] body) throws IOException, ClassNotFoundException {
+		if (body.length == 0) {
+			throw new IOException("Empty frame");
+		}
+		if (body[0] == TYPE_SERIALIZED) {
+			return fallback().decode(body, 1);
+		}
+		if (body[0] == TYPE_SERIALIZED_STANDALONE) {
+			return SerializationMessageCodec.decodeStandalone(body, 1);
+		}
+		try {
+			return decodeBinary(ByteBuffer.wrap(body));
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Truncated frame", e);
+		}
+	}
+
+	/**
+	 * Gets the number of objects remembered by the serialization fallback's output stream.
+	 *
+	 * @return the fallback's handle count, or zero if nothing has fallen back yet
+	 * @see SerializationMessageCodec#getHandleCount()
+	 */
+	public long getHandleCount() {
+		return fallback == null ? 0 : fallback.getHandleCount();
+	}
+
+	@Override
+	public synchronized void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+		if (fallback != null) {
+			fallback.setMetrics(metrics);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		if (fallback != null) {
+			fallback.close();
+		}
+	}
+
+	private synchronized SerializationMessageCodec fallback() {
+		if (fallback == null) {
+			fallback = new SerializationMessageCodec(Frames.HEADER_LENGTH + 1, resetPolicy);
+			fallback.setMetrics(metrics);
+		}
+		return fallback;
+	}
+
+	/**
+	 * Finds the binary type id of a message.
+	 *
+	 * @param message the message to classify
+	 * @return the type id, or {@link #TYPE_SERIALIZED} if the message has no binary format
+	 */
+	static byte typeOf(Message<?> message) {
+		Object payload = message.getPayload();
+		if (message.getClass() == UuidMessage.class) {
+			return TYPE_UUID_MESSAGE;
+		}
+		if (message.getClass() == StreamChunkMessage.class) {
+			return TYPE_STREAM_CHUNK;
+		}
+		if (message.getClass() == HeartbeatMessage.class) {
+			return TYPE_HEARTBEAT;
+		}
+		if (message.getClass() != Message.class) {
+			return TYPE_SERIALIZED;
+		}
+		if (payload == null) {
+			return TYPE_NULL;
+		} else if (payload instanceof String) {
+			return TYPE_STRING;
+		} else if (payload instanceof byte[]) {
+			return TYPE_BYTES;
+		} else if (payload instanceof Integer) {
+			return TYPE_INTEGER;
+		} else if (payload instanceof Long) {
+			return TYPE_LONG;
+		} else if (payload instanceof Double) {
+			return TYPE_DOUBLE;
+		} else if (payload instanceof Boolean) {
+			return TYPE_BOOLEAN;
+		} else if (payload instanceof UUID) {
+			return TYPE_UUID;
+		}
+		return TYPE_SERIALIZED;
+	}
+
+	private static byte[] encodeBinary(Message<?> message, byte type) {
+		Object payload = message.getPayload();
+		byte[] payloadBytes = null;
+		int payloadLength;
+		switch (type) {
+			case TYPE_STRING -> {
+				payloadBytes = ((String) payload).getBytes(StandardCharsets.UTF_8);
+				payloadLength = payloadBytes.length;
+			}
+			case TYPE_BYTES -> {
+				payloadBytes = (byte[]) payload;
+				payloadLength = payloadBytes.length;
+			}
+			case TYPE_INTEGER -> payloadLength = Integer.BYTES;
+			case TYPE_LONG, TYPE_DOUBLE -> payloadLength = Long.BYTES;
+			case TYPE_BOOLEAN, TYPE_HEARTBEAT -> payloadLength = 1;
+			case TYPE_UUID -> payloadLength = UUID_LENGTH;
+			case TYPE_UUID_MESSAGE -> {
+				payloadBytes = encodeHandshake((UuidMessage) message);
+				payloadLength = UUID_LENGTH + payloadBytes.length;
+			}
+			case TYPE_STREAM_CHUNK -> {
+				payloadBytes = (byte[]) payload;
+				payloadLength = Long.BYTES + 1 + payloadBytes.length;
+			}
+			default -> payloadLength = 0;
+		}
+
+		UUID source = message.getSource();
+		UUID destination = message.getDestination();
+		long correlationId = message.getCorrelationId();
+		int flags = (source != null ? FLAG_SOURCE : 0)
+				| (destination != null ? FLAG_DESTINATION : 0)
+				| (correlationId != 0 ? FLAG_CORRELATION : 0)
+				| (message.isResponse() ? FLAG_RESPONSE : 0)
+				| priorityFlags(message.getPriority());
+		int length = PREAMBLE_LENGTH
+				+ (source != null ? UUID_LENGTH : 0)
+				+ (destination != null ? UUID_LENGTH : 0)
+				+ (correlationId != 0 ? Long.BYTES : 0)
+				+ payloadLength;
+
+		ByteBuffer frame = ByteBuffer.allocate(length);
+		frame.putInt(length - Frames.HEADER_LENGTH);
+		frame.put(type);
+		frame.put((byte) flags);
+		if (source != null) {
+			putUuid(frame, source);
+		}
+		if (destination != null) {
+			putUuid(frame, destination);
+		}
+		if (correlationId != 0) {
+			frame.putLong(correlationId);
+		}
+		switch (type) {
+			case TYPE_STRING, TYPE_BYTES -> frame.put(payloadBytes);
+			case TYPE_INTEGER -> frame.putInt((Integer) payload);
+			case TYPE_LONG -> frame.putLong((Long) payload);
+			case TYPE_DOUBLE -> frame.putDouble((Double) payload);
+			case TYPE_BOOLEAN, TYPE_HEARTBEAT -> frame.put((byte) ((Boolean) payload ? 1 : 0));
+			case TYPE_UUID -> putUuid(frame, (UUID) payload);
+			case TYPE_UUID_MESSAGE -> {
+				putUuid(frame, (UUID) payload);
+				frame.put(payloadBytes);
+			}
+			case TYPE_STREAM_CHUNK -> {
+				StreamChunkMessage chunk = (StreamChunkMessage) message;
+				frame.putLong(chunk.getStreamId());
+				frame.put(chunk.getState());
+				frame.put(payloadBytes);
+			}
+			default -> {
+				//No payload
+			}
+		}
+		return frame.array();
+	}
+
+	private static Message<?> decodeBinary(ByteBuffer body) throws IOException {
+		byte type = body.get();
+		int flags = body.get();
+		UUID source = (flags & FLAG_SOURCE) != 0 ? getUuid(body) : null;
+		UUID destination = (flags & FLAG_DESTINATION) != 0 ? getUuid(body) : null;
+		long correlationId = (flags & FLAG_CORRELATION) != 0 ? body.getLong() : 0;
+
+		Message<?> message = switch (type) {
+			case TYPE_NULL -> new Message<>(destination);
+			case TYPE_STRING -> new Message<>(destination, new String(
+					body.array(), body.position(), body.remaining(), StandardCharsets.UTF_8));
+			case TYPE_BYTES -> {
+				byte[] bytes = new byte[body.remaining()];
+				body.get(bytes);
+				yield new Message<>(destination, bytes);
+			}
+			case TYPE_INTEGER -> new Message<>(destination, body.getInt());
+			case TYPE_LONG -> new Message<>(destination, body.getLong());
+			case TYPE_DOUBLE -> new Message<>(destination, body.getDouble());
+			case TYPE_BOOLEAN -> new Message<>(destination, body.get() != 0);
+			case TYPE_HEARTBEAT -> new HeartbeatMessage(body.get() != 0);
+			case TYPE_UUID -> new Message<>(destination, getUuid(body));
+			case TYPE_UUID_MESSAGE -> {
+				UUID sessionId = getUuid(body);
+				List<String> compressions = getNames(body);
+				long resumeToken = body.remaining() >= Long.BYTES ? body.getLong() : 0;
+				yield new UuidMessage(sessionId, compressions, resumeToken);
+			}
+			case TYPE_STREAM_CHUNK -> {
+				long streamId = body.getLong();
+				byte state = body.get();
+				byte[] data = new byte[body.remaining()];
+				body.get(data);
+				yield new StreamChunkMessage(destination, streamId, state, data);
+			}
+			default -> throw new IOException("Unknown message type: " + type);
+		};
+		if (source != null) {
+			message.assignSource(source);
+		}
+		message.restoreCorrelation(correlationId, (flags & FLAG_RESPONSE) != 0);
+		if ((flags & FLAG_HIGH_PRIORITY) != 0) {
+			message.setPriority(Priority.HIGH);
+		} else if ((flags & FLAG_LOW_PRIORITY) != 0) {
+			message.setPriority(Priority.LOW);
+		}
+		return message;
+	}
+
+	private static int priorityFlags(Priority priority) {
+		return switch (priority) {
+			case HIGH -> FLAG_HIGH_PRIORITY;
+			case LOW -> FLAG_LOW_PRIORITY;
+			default -> 0;
+		};
+	}
+
+	/**
+	 * Encodes what the server offers in its handshake: the compression names as a count followed
+	 * by each name's length and UTF-8 bytes, then the resume token. Nothing is encoded if nothing
+	 * is offered.
+	 */
+	private static byte[] encodeHandshake(UuidMessage message) {
+		List<String> names = message.getCompressions();
+		if (names.isEmpty() && message.getResumeToken() == 0) {
+			return new byte[0];
+		}
+		List<byte[]> encoded = new ArrayList<>();
+		int length = 1;
+		for (String name : names) {
+			byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > 255) {
+				throw new IllegalArgumentException("Name is too long: " + name);
+			}
+			encoded.add(bytes);
+			length += 1 + bytes.length;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(length + Long.BYTES);
+		buffer.put((byte) encoded.size());
+		for (byte[] bytes : encoded) {
+			buffer.put((byte) bytes.length);
+			buffer.put(bytes);
+		}
+		buffer.putLong(message.getResumeToken());
+		return buffer.array();
+	}
+
+	private static List<String> getNames(ByteBuffer buffer) {
+		if (!buffer.hasRemaining()) {
+			return List.of();
+		}
+		int count = buffer.get() & 0xFF;
+		List<String> names = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[buffer.get() & 0xFF];
+			buffer.get(bytes);
+			names.add(new String(bytes, StandardCharsets.UTF_8));
+		}
+		return names;
+	}
+
+	private static void putUuid(ByteBuffer buffer, UUID uuid) {
+		buffer.putLong(uuid.getMostSignificantBits());
+		buffer.putLong(uuid.getLeastSignificantBits());
+	}
+
+	private static UUID getUuid(ByteBuffer buffer) {
+		return new UUID(buffer.getLong(), buffer.getLong());
+	}
+}
@@ -0,0 +1,225 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps another codec with the compression agreed on during the handshake. Until a
+ * {@link CompressionMessage} has passed in a direction, frames in that direction are exactly what
+ * the wrapped codec produces. After it, every frame body starts with a marker byte: frames below
+ * the size threshold, and frames that would not shrink, follow it as they are, and the rest are
+ * compressed:
+ *
+ * <pre>
+ * [length:4][0][frame body]
+ * [length:4][1][original length:4][compressed frame body]
+ * </pre>
+ */
+public class CompressingMessageCodec implements MessageCodec {
+	private static final byte RAW = 0;
+	private static final byte COMPRESSED = 1;
+	private static final int RAW_HEADER = Frames.HEADER_LENGTH + 1;
+	private static final int COMPRESSED_HEADER = RAW_HEADER + Integer.BYTES;
+
+	private final MessageCodec codec;
+	private final Map<String, Compression> supported = new LinkedHashMap<>();
+	private final int threshold;
+	private volatile Compression.Compressor compressor;
+	private volatile Compression.Decompressor decompressor;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new compressing codec.
+	 *
+	 * @param codec        the wrapped codec
+	 * @param compressions the supported algorithms, most preferred first
+	 * @param threshold    the smallest frame body that is compressed, in bytes
+	 */
+	public CompressingMessageCodec(
+			MessageCodec codec,
+			List<? extends Compression> compressions,
+			int threshold
+	) {
+		this.codec = codec;
+		compressions.forEach(compression -> supported.put(compression.getName(), compression));
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Gets the names of the supported algorithms, most preferred first.
+	 *
+	 * @return the algorithm names
+	 */
+	public List<String> getSupportedNames() {
+		return new ArrayList<>(supported.keySet());
+	}
+
+	/**
+	 * Picks the first offered algorithm that is also supported by this codec.
+	 *
+	 * @param offered the algorithms offered by the other side, most preferred first
+	 * @return the chosen algorithm's name, or null if none is supported
+	 */
+	public String choose(List<String> offered) {
+		return offered.stream().filter(supported::containsKey).findFirst().orElse(null);
+	}
+
+	/**
+	 * Gets the codec this codec wraps.
+	 *
+	 * @return the wrapped codec
+	 */
+	public MessageCodec getWrappedCodec() {
+		return codec;
+	}
+
+	@Override
+	public byte[] encode(Message<?> message) throws IOException {
+		if (closed) {
+			throw new IOException("Codec is closed");
+		}
+		byte[] frame = codec.encode(message);
+		if (message instanceof CompressionMessage selected) {
+			byte[] unmarked = prepareShared(frame);
+			compressor = lookup(selected.getPayload()).newCompressor();
+			return unmarked;
+		}
+		return prepareShared(frame);
+	}
+
+	@Override
+	public byte[] encodeShared(Message<?> message) throws IOException {
+		return codec.encodeShared(message);
+	}
+
+	@Override
+	public byte[] prepareShared(byte[] frame) {
+		if (compressor == null) {
+			return frame;
+		}
+		int bodyLength = frame.length - Frames.HEADER_LENGTH;
+		if (bodyLength >= threshold) {
+			byte[] compressed = compressor.compress(
+					frame, Frames.HEADER_LENGTH, bodyLength, COMPRESSED_HEADER);
+			if (compressed.length < RAW_HEADER + bodyLength) {
+				Frames.putLength(compressed, compressed.length - Frames.HEADER_LENGTH);
+				compressed[Frames.HEADER_LENGTH] = COMPRESSED;
+				putInt(compressed, RAW_HEADER, bodyLength);
+				return compressed;
+			}
+		}
+		byte[] marked = new byte[RAW_HEADER + bodyLength];
+		Frames.putLength(marked, bodyLength + 1);
+		marked[Frames.HEADER_LENGTH] = RAW;
+		System.arraycopy(frame, Frames.HEADER_LENGTH, marked, RAW_HEADER, bodyLength);
+		return marked;
+	}
+
+	/**
+	 * Turns the start of a frame produced by the wrapped codec into the start of a frame of this
+	 * codec, for senders that write the rest of the frame themselves. Such frames are never
+	 * compressed.
+	 *
+	 * @param header the start of a frame, whose length prefix covers the whole frame
+	 * @return the start of the same frame in this codec's format
+	 */
+	public byte[] prepareHeader(byte[] header) {
+		if (compressor == null) {
+			return header;
+		}
+		int length = ((header[0] & 0xFF) << 24) | ((header[1] & 0xFF) << 16)
+				| ((header[2] & 0xFF) << 8) | (header[3] & 0xFF);
+		byte[] marked = new byte[header.length + 1];
+		Frames.putLength(marked, length + 1);
+		marked[Frames.HEADER_LENGTH] = RAW;
+		System.arraycopy(header, Frames.HEADER_LENGTH, marked, RAW_HEADER,
+				header.length - Frames.HEADER_LENGTH);
+		return marked;
+	}
+
+	@Override
+	public boolean isIndependent(byte[] frame) {
+		if (compressor == null) {
+			return codec.isIndependent(frame);
+		}
+		if (frame.length <= Frames.HEADER_LENGTH || frame[Frames.HEADER_LENGTH] != RAW) {
+			//Compressed frames would have to be decompressed to tell
+			return false;
+		}
+		byte[] unmarked = new byte[frame.length - 1];
+		Frames.putLength(unmarked, unmarked.length - Frames.HEADER_LENGTH);
+		System.arraycopy(frame, RAW_HEADER, unmarked, Frames.HEADER_LENGTH,
+				unmarked.length - Frames.HEADER_LENGTH);
+		return codec.isIndependent(unmarked);
+	}
+
+	@Override
+	public Message<?> decode(byte[] body) throws IOException, ClassNotFoundException {
+		Message<?> message = codec.decode(decompressor == null ? body : unmark(body));
+		if (message instanceof CompressionMessage selected) {
+			decompressor = lookup(selected.getPayload()).newDecompressor();
+			if (closed) {
+				decompressor.close();
+			}
+		}
+		return message;
+	}
+
+	@Override
+	public void setMetrics(Metrics metrics) {
+		codec.setMetrics(metrics);
+	}
+
+	/**
+	 * Closes the compressor and decompressor of the connection, if compression was agreed on.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		Compression.Compressor usedCompressor = compressor;
+		if (usedCompressor != null) {
+			usedCompressor.close();
+		}
+		Compression.Decompressor usedDecompressor = decompressor;
+		if (usedDecompressor != null) {
+			usedDecompressor.close();
+		}
+		codec.close();
+	}
+
+	private byte[] unmark(byte[] body) throws IOException {
+		if (body.length == 0) {
+			throw new IOException("Empty frame");
+		}
+		if (body[0] == RAW) {
+			return Arrays.copyOfRange(body, 1, body.length);
+		}
+		if (body[0] != COMPRESSED || body.length < 1 + Integer.BYTES) {
+			throw new IOException("Unknown compression marker: " + body[0]);
+		}
+		int originalLength = ((body[1] & 0xFF) << 24) | ((body[2] & 0xFF) << 16)
+				| ((body[3] & 0xFF) << 8) | (body[4] & 0xFF);
+		Frames.checkLength(originalLength);
+		int offset = 1 + Integer.BYTES;
+		return decompressor.decompress(body, offset, body.length - offset, originalLength);
+	}
+
+	private Compression lookup(String name) throws IOException {
+		Compression compression = supported.get(name);
+		if (compression == null) {
+			throw new IOException("Unsupported compression: " + name);
+		}
+		return compression;
+	}
+
+	private static void putInt(byte[] buffer, int offset, int value) {
+		buffer[offset] = (byte) (value >>> 24);
+		buffer[offset + 1] = (byte) (value >>> 16);
+		buffer[offset + 2] = (byte) (value >>> 8);
+		buffer[offset + 3] = (byte) value;
+	}
+}
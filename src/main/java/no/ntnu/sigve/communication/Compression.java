@@ -0,0 +1,82 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+
+/**
+ * A compression algorithm that connections can agree on during the handshake. The server offers
+ * the algorithms it supports, and the client picks the first one it supports as well.
+ *
+ * <p>Every connection gets its own compressor and decompressor, which may keep buffers and
+ * native resources between frames. They are used by one thread at a time, and closed when the
+ * connection closes.</p>
+ *
+ * @see DeflateCompression
+ */
+public interface Compression {
+	/**
+	 * Gets the name identifying the algorithm in the handshake.
+	 *
+	 * @return the algorithm's name
+	 */
+	String getName();
+
+	/**
+	 * Creates a compressor for one connection.
+	 *
+	 * @return a new compressor
+	 */
+	Compressor newCompressor();
+
+	/**
+	 * Creates a decompressor for one connection.
+	 *
+	 * @return a new decompressor
+	 */
+	Decompressor newDecompressor();
+
+	/**
+	 * Compresses frame bodies.
+	 */
+	interface Compressor {
+		/**
+		 * Compresses bytes into a new array, leaving room for a header in front of them.
+		 *
+		 * @param input    the array holding the bytes to compress
+		 * @param offset   the offset of the bytes
+		 * @param length   the number of bytes
+		 * @param headroom the number of bytes to leave empty at the start of the result
+		 * @return the compressed bytes, preceded by {@code headroom} empty bytes
+		 */
+		byte[] compress(byte[] input, int offset, int length, int headroom);
+
+		/**
+		 * Releases the compressor's resources. It must not be used afterwards.
+		 */
+		default void close() {
+		}
+	}
+
+	/**
+	 * Decompresses frame bodies.
+	 */
+	interface Decompressor {
+		/**
+		 * Decompresses bytes.
+		 *
+		 * @param input          the array holding the compressed bytes
+		 * @param offset         the offset of the compressed bytes
+		 * @param length         the number of compressed bytes
+		 * @param originalLength the number of bytes they decompress to
+		 * @return the decompressed bytes
+		 * @throws IOException if the input is corrupt
+		 */
+		byte[] decompress(byte[] input, int offset, int length, int originalLength)
+				throws IOException;
+
+		/**
+		 * Releases the decompressor's resources. Decompressing afterwards fails.
+		 */
+		default void close() {
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * A handshake message naming the compression chosen for a connection. The client sends it to
+ * accept one of the algorithms offered in its {@link UuidMessage}, and the server sends it back to
+ * confirm. Every frame that follows it in the same direction is compressed with that algorithm
+ * once it is large enough.
+ */
+public class CompressionMessage extends Message<String> {
+	/**
+	 * Creates a new compression message.
+	 *
+	 * @param algorithm the name of the chosen algorithm
+	 */
+	public CompressionMessage(String algorithm) {
+		super(null, algorithm);
+	}
+}
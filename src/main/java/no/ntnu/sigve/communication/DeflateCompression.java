@@ -0,0 +1,131 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compression with the JDK's {@link Deflater} and {@link Inflater}. Each connection keeps one
+ * of each, together with its output buffer, and resets them between frames. Their native memory
+ * is freed as soon as the connection closes rather than when they are garbage collected.
+ */
+public class DeflateCompression implements Compression {
+	/**
+	 * The name of this algorithm in the handshake.
+	 */
+	public static final String NAME = "deflate";
+
+	private static final int RETAINED_CAPACITY = 64 * 1024;
+
+	private final int level;
+
+	/**
+	 * Creates a deflate compression with the default compression level.
+	 */
+	public DeflateCompression() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Creates a deflate compression.
+	 *
+	 * @param level the compression level, from {@link Deflater#BEST_SPEED} to
+	 *              {@link Deflater#BEST_COMPRESSION}
+	 */
+	public DeflateCompression(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+	@Override
+	public Compressor newCompressor() {
+		Deflater deflater = new Deflater(level);
+		return new Compressor() {
+			private byte[] buffer = new byte[8192];
+
+			private boolean ended;
+
+			@Override
+			public synchronized byte[] compress(
+					byte[] input,
+					int offset,
+					int length,
+					int headroom
+			) {
+				if (ended) {
+					throw new IllegalStateException("Compressor is closed");
+				}
+				deflater.reset();
+				deflater.setInput(input, offset, length);
+				deflater.finish();
+				int count = 0;
+				while (!deflater.finished()) {
+					if (count == buffer.length) {
+						buffer = Arrays.copyOf(buffer, buffer.length * 2);
+					}
+					count += deflater.deflate(buffer, count, buffer.length - count);
+				}
+				byte[] output = new byte[headroom + count];
+				System.arraycopy(buffer, 0, output, headroom, count);
+				if (buffer.length > RETAINED_CAPACITY) {
+					buffer = new byte[8192];
+				}
+				return output;
+			}
+
+			@Override
+			public synchronized void close() {
+				ended = true;
+				deflater.end();
+			}
+		};
+	}
+
+	@Override
+	public Decompressor newDecompressor() {
+		Inflater inflater = new Inflater();
+		return new Decompressor() {
+			private boolean ended;
+
+			@Override
+			public synchronized byte[] decompress(
+					byte[] input,
+					int offset,
+					int length,
+					int originalLength
+			) throws IOException {
+				if (ended) {
+					throw new IOException("Decompressor is closed");
+				}
+				inflater.reset();
+				inflater.setInput(input, offset, length);
+				byte[] output = new byte[originalLength];
+				int count = 0;
+				try {
+					while (count < originalLength) {
+						int inflated = inflater.inflate(output, count, originalLength - count);
+						if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+							throw new IOException("Compressed frame is shorter than announced");
+						}
+						count += inflated;
+					}
+				} catch (DataFormatException e) {
+					throw new IOException("Corrupt compressed frame", e);
+				}
+				return output;
+			}
+
+			@Override
+			public synchronized void close() {
+				ended = true;
+				inflater.end();
+			}
+		};
+	}
+}
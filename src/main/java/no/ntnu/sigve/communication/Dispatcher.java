@@ -0,0 +1,145 @@
+package no.ntnu.sigve.communication;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * A stage between reading messages and handling them, running protocol callbacks on an executor
+ * instead of on the thread that read them. A slow handler then no longer stops its connection
+ * from reading.
+ *
+ * <p>Callbacks are queued by key, usually the session a message came from. Callbacks with the
+ * same key run one at a time in the order they were dispatched, while different keys run in
+ * parallel on the executor. A key holds on to an executor thread for at most a batch of
+ * callbacks before making room for other keys.</p>
+ *
+ * <p>The number of queued callbacks is bounded. A reader that dispatches into a full dispatcher
+ * waits, leaving unread data in its socket, unless it must never block, in which case the bound
+ * is exceeded. The time callbacks wait before running is recorded in the
+ * {@link Metrics#getDispatchLag() dispatch lag} histogram.</p>
+ */
+public class Dispatcher {
+	private static final int BATCH_SIZE = 64;
+	private static final Object NO_KEY = new Object();
+
+	private final Executor executor;
+	private final Semaphore capacity;
+	private final Metrics metrics;
+	private final Map<Object, KeyQueue> queues = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new dispatcher.
+	 *
+	 * @param executor      the executor running the callbacks
+	 * @param queueCapacity the largest number of callbacks waiting to run
+	 * @param metrics       the metrics recording the dispatch lag
+	 */
+	public Dispatcher(Executor executor, int queueCapacity, Metrics metrics) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be positive");
+		}
+		this.executor = executor;
+		this.capacity = new Semaphore(queueCapacity);
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Queues a callback behind those already queued with the same key.
+	 *
+	 * @param key      the key ordering the callback, or null
+	 * @param task     the callback
+	 * @param mayBlock whether the calling thread may wait for room in the queue
+	 */
+	public void dispatch(Object key, Runnable task, boolean mayBlock) {
+		boolean reserved = capacity.tryAcquire();
+		if (!reserved && mayBlock) {
+			try {
+				capacity.acquire();
+				reserved = true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		Dispatch dispatch = new Dispatch(task, System.nanoTime(), reserved);
+		Object queueKey = key != null ? key : NO_KEY;
+		while (true) {
+			KeyQueue queue = queues.computeIfAbsent(queueKey, KeyQueue::new);
+			boolean schedule;
+			synchronized (queue) {
+				if (queue.removed) {
+					continue;
+				}
+				queue.tasks.add(dispatch);
+				schedule = !queue.scheduled;
+				queue.scheduled = true;
+			}
+			if (schedule) {
+				executor.execute(queue);
+			}
+			return;
+		}
+	}
+
+	/**
+	 * Gets the number of callbacks waiting to run or running.
+	 *
+	 * @return the number of queued callbacks
+	 */
+	public int getQueuedCount() {
+		int count = 0;
+		for (KeyQueue queue : queues.values()) {
+			synchronized (queue) {
+				count += queue.tasks.size();
+			}
+		}
+		return count;
+	}
+
+	private record Dispatch(Runnable task, long dispatchedNanos, boolean reserved) {
+	}
+
+	/**
+	 * The callbacks queued with one key. Scheduled on the executor while it has callbacks, and
+	 * removed from the dispatcher once it runs dry.
+	 */
+	private class KeyQueue implements Runnable {
+		private final Object key;
+		private final Queue<Dispatch> tasks = new ArrayDeque<>();
+		private boolean scheduled;
+		private boolean removed;
+
+		KeyQueue(Object key) {
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			for (int i = 0; i < BATCH_SIZE; i++) {
+				Dispatch dispatch;
+				synchronized (this) {
+					dispatch = tasks.poll();
+					if (dispatch == null) {
+						removed = true;
+						queues.remove(key, this);
+						return;
+					}
+				}
+				metrics.getDispatchLag().recordSince(dispatch.dispatchedNanos());
+				try {
+					dispatch.task().run();
+				} catch (RuntimeException e) {
+					e.printStackTrace();
+				} finally {
+					if (dispatch.reserved()) {
+						capacity.release();
+					}
+				}
+			}
+			executor.execute(this);
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes encoded frames to a blocking output stream according to a {@link WriteBatching}
+ * setting. With batching disabled every frame is written straight through; otherwise frames are
+ * gathered in a buffer which is written once it reaches the batch size, or when
+ * {@link #flush()} is called.
+ */
+public class FrameWriter {
+	private static final ScheduledExecutorService LINGER_TIMER =
+			Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "frame-writer-linger");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	private final OutputStream output;
+	private final WriteBatching batching;
+	private final LatencyHistogram writeTime;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final byte[] buffer;
+	private int count;
+	private boolean flushScheduled;
+
+	/**
+	 * Creates a new frame writer.
+	 *
+	 * @param output   the stream to write to, typically a socket's output stream
+	 * @param batching how frames are gathered before being written
+	 */
+	public FrameWriter(OutputStream output, WriteBatching batching) {
+		this(output, batching, null);
+	}
+
+	/**
+	 * Creates a new frame writer that records how long its writes to the stream take.
+	 *
+	 * @param output    the stream to write to, typically a socket's output stream
+	 * @param batching  how frames are gathered before being written
+	 * @param writeTime the histogram to record write times in, or null
+	 */
+	public FrameWriter(OutputStream output, WriteBatching batching, LatencyHistogram writeTime) {
+		this.output = output;
+		this.batching = batching;
+		this.writeTime = writeTime;
+		this.buffer = batching.isEnabled() ? new byte[batching.getMaxBatchBytes()] : null;
+	}
+
+	/**
+	 * Checks whether this writer gathers frames.
+	 *
+	 * @return true if frames are batched
+	 */
+	public boolean isBatching() {
+		return buffer != null;
+	}
+
+	/**
+	 * Checks whether the current batch still has room before it is written.
+	 *
+	 * @return true if another frame may join the current batch
+	 */
+	public boolean hasRoom() {
+		return buffer != null && count < buffer.length;
+	}
+
+	/**
+	 * Writes a frame, or adds it to the current batch.
+	 *
+	 * @param frame  the array holding the frame
+	 * @param offset the offset of the frame in the array
+	 * @param length the length of the frame
+	 * @throws IOException if writing to the stream fails
+	 */
+	public void write(byte[] frame, int offset, int length) throws IOException {
+		lock.lock();
+		try {
+			if (buffer == null) {
+				writeThrough(frame, offset, length);
+				return;
+			}
+			if (length > buffer.length - count) {
+				flushBuffer();
+			}
+			if (length >= buffer.length) {
+				writeThrough(frame, offset, length);
+				return;
+			}
+			System.arraycopy(frame, offset, buffer, count, length);
+			count += length;
+			if (count >= buffer.length) {
+				flushBuffer();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Makes sure that the current batch is written no later than the batching linger time from
+	 * now. Used by writers that have no thread of their own to notice that they went idle.
+	 */
+	public void scheduleFlush() {
+		lock.lock();
+		try {
+			if (buffer == null || count == 0 || flushScheduled) {
+				return;
+			}
+			flushScheduled = true;
+		} finally {
+			lock.unlock();
+		}
+		LINGER_TIMER.schedule(this::flushQuietly, batching.getMaxLingerNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Writes the current batch.
+	 *
+	 * @throws IOException if writing to the stream fails
+	 */
+	public void flush() throws IOException {
+		lock.lock();
+		try {
+			flushBuffer();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the underlying stream without writing the current batch.
+	 *
+	 * @throws IOException if closing the stream fails
+	 */
+	public void close() throws IOException {
+		output.close();
+	}
+
+	private void flushQuietly() {
+		try {
+			flush();
+		} catch (IOException e) {
+			System.err.println("Could not flush batched messages: " + e.getMessage());
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		flushScheduled = false;
+		if (count > 0) {
+			int length = count;
+			count = 0;
+			writeThrough(buffer, 0, length);
+		}
+	}
+
+	private void writeThrough(byte[] bytes, int offset, int length) throws IOException {
+		if (writeTime == null) {
+			output.write(bytes, offset, length);
+			return;
+		}
+		long start = System.nanoTime();
+		output.write(bytes, offset, length);
+		writeTime.recordSince(start);
+	}
+}
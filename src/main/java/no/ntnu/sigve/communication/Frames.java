@@ -0,0 +1,65 @@
+package no.ntnu.sigve.communication;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * Helpers for the length-prefixed frame format used on the wire. Every message is sent as a
+ * four-byte big-endian length followed by that many bytes of encoded message. Framing lets a
+ * receiver know where one message ends without having to decode it, which is what allows
+ * non-blocking transports to collect partial reads.
+ */
+public final class Frames {
+	/**
+	 * The number of bytes used by the length prefix of a frame.
+	 */
+	public static final int HEADER_LENGTH = 4;
+
+	/**
+	 * The largest frame body a receiver will accept.
+	 */
+	public static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+	private Frames() {
+	}
+
+	/**
+	 * Reads one complete frame body from a blocking stream.
+	 *
+	 * @param input the stream to read from
+	 * @return the body of the frame, without its length prefix
+	 * @throws IOException if reading fails or the frame length is invalid
+	 */
+	public static byte[] readFrame(DataInputStream input) throws IOException {
+		int length = input.readInt();
+		checkLength(length);
+		byte[] body = new byte[length];
+		input.readFully(body);
+		return body;
+	}
+
+	/**
+	 * Verifies that a frame length read from the wire is acceptable.
+	 *
+	 * @param length the length to check
+	 * @throws IOException if the length is negative or exceeds {@link #MAX_FRAME_LENGTH}
+	 */
+	public static void checkLength(int length) throws IOException {
+		if (length < 0 || length > MAX_FRAME_LENGTH) {
+			throw new IOException("Invalid frame length: " + length);
+		}
+	}
+
+	/**
+	 * Writes a frame length into the first {@link #HEADER_LENGTH} bytes of a buffer.
+	 *
+	 * @param buffer the buffer holding the frame
+	 * @param length the length of the body following the header
+	 */
+	public static void putLength(byte[] buffer, int length) {
+		buffer[0] = (byte) (length >>> 24);
+		buffer[1] = (byte) (length >>> 16);
+		buffer[2] = (byte) (length >>> 8);
+		buffer[3] = (byte) length;
+	}
+}
@@ -0,0 +1,77 @@
+package no.ntnu.sigve.communication;
+
+import java.time.Duration;
+
+/**
+ * Controls heartbeats and idle detection on a connection. A connection that has written nothing
+ * for {@link #getIntervalNanos() the interval} sends a {@link HeartbeatMessage ping}, which the
+ * other end answers. A connection that has received nothing at all for
+ * {@link #getTimeoutNanos() the timeout} is taken to be dead and closed.
+ *
+ * <p>Without heartbeats, a peer that vanishes without closing its socket, such as a machine that
+ * loses power, leaves a half-open connection that is never noticed by a reader waiting for data.
+ * The timeout should cover a few intervals, so that one late ping is not fatal.</p>
+ */
+public final class Heartbeat {
+	private static final Heartbeat DISABLED = new Heartbeat(0, 0);
+
+	private final long intervalNanos;
+	private final long timeoutNanos;
+
+	private Heartbeat(long intervalNanos, long timeoutNanos) {
+		this.intervalNanos = intervalNanos;
+		this.timeoutNanos = timeoutNanos;
+	}
+
+	/**
+	 * No heartbeats: idle connections are kept open for as long as their socket is.
+	 *
+	 * @return the disabled heartbeat setting
+	 */
+	public static Heartbeat disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Heartbeats with a ping interval and an idle timeout.
+	 *
+	 * @param interval the time without writing after which a ping is sent
+	 * @param timeout  the time without receiving anything after which the connection is closed;
+	 *                 must be longer than the interval
+	 * @return the new heartbeat setting
+	 */
+	public static Heartbeat of(Duration interval, Duration timeout) {
+		if (interval.isNegative() || interval.isZero() || timeout.compareTo(interval) <= 0) {
+			throw new IllegalArgumentException(
+					"The interval must be positive and shorter than the timeout");
+		}
+		return new Heartbeat(interval.toNanos(), timeout.toNanos());
+	}
+
+	/**
+	 * Checks whether heartbeats are sent at all.
+	 *
+	 * @return true if heartbeats are enabled
+	 */
+	public boolean isEnabled() {
+		return intervalNanos > 0;
+	}
+
+	/**
+	 * Gets the time without writing after which a ping is sent.
+	 *
+	 * @return the ping interval in nanoseconds
+	 */
+	public long getIntervalNanos() {
+		return intervalNanos;
+	}
+
+	/**
+	 * Gets the time without receiving anything after which the connection is closed.
+	 *
+	 * @return the idle timeout in nanoseconds
+	 */
+	public long getTimeoutNanos() {
+		return timeoutNanos;
+	}
+}
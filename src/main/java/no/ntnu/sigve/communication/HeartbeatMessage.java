@@ -0,0 +1,46 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * A control message keeping an idle connection alive. A ping is answered with a pong by the
+ * connection that receives it; neither reaches the protocol. Heartbeats travel in the
+ * {@link Priority#HIGH high} lane, so that a backlog of bulk traffic does not delay them past the
+ * idle timeout.
+ */
+public class HeartbeatMessage extends Message<Boolean> {
+	/**
+	 * Creates a new heartbeat.
+	 *
+	 * @param ping true for a ping, which asks for an answer, false for the answer
+	 */
+	public HeartbeatMessage(boolean ping) {
+		super(null, ping);
+		setPriority(Priority.HIGH);
+	}
+
+	/**
+	 * Creates a ping.
+	 *
+	 * @return a new ping
+	 */
+	public static HeartbeatMessage ping() {
+		return new HeartbeatMessage(true);
+	}
+
+	/**
+	 * Creates an answer to a ping.
+	 *
+	 * @return a new pong
+	 */
+	public static HeartbeatMessage pong() {
+		return new HeartbeatMessage(false);
+	}
+
+	/**
+	 * Checks whether this heartbeat asks for an answer.
+	 *
+	 * @return true for a ping, false for a pong
+	 */
+	public boolean isPing() {
+		return getPayload();
+	}
+}
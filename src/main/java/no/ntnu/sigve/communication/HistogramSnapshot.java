@@ -0,0 +1,105 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * An immutable copy of a {@link LatencyHistogram}. All values are in nanoseconds.
+ */
+public class HistogramSnapshot {
+	private final long[] counts;
+	private final long count;
+	private final long sum;
+	private final long min;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long count, long sum, long min, long max) {
+		this.counts = counts;
+		this.count = count;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * Gets the number of recorded values.
+	 *
+	 * @return the number of values
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * Gets the smallest recorded value.
+	 *
+	 * @return the minimum, or zero if nothing was recorded
+	 */
+	public long getMin() {
+		return min;
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 *
+	 * @return the maximum, or zero if nothing was recorded
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	/**
+	 * Gets the mean of the recorded values.
+	 *
+	 * @return the mean, or zero if nothing was recorded
+	 */
+	public double getMean() {
+		return count == 0 ? 0 : (double) sum / count;
+	}
+
+	/**
+	 * Gets the median.
+	 *
+	 * @return the 50th percentile
+	 */
+	public long getP50() {
+		return getValueAtPercentile(50);
+	}
+
+	/**
+	 * Gets the 99th percentile.
+	 *
+	 * @return the 99th percentile
+	 */
+	public long getP99() {
+		return getValueAtPercentile(99);
+	}
+
+	/**
+	 * Gets the 99.9th percentile.
+	 *
+	 * @return the 99.9th percentile
+	 */
+	public long getP999() {
+		return getValueAtPercentile(99.9);
+	}
+
+	/**
+	 * Gets the value that the given percentage of recorded values are at or below, rounded up to
+	 * the precision of the histogram and capped at the maximum.
+	 *
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the value at the percentile, or zero if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestValueOf(i), max);
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,108 @@
+package no.ntnu.sigve.communication;
+
+import java.time.Duration;
+
+/**
+ * Watches one connection for idleness according to a {@link Heartbeat} setting. The connection
+ * reports every read and write; the monitor pings the peer when the connection has written
+ * nothing for an interval, and gives up on it when it has received nothing for the timeout.
+ *
+ * <p>Reads and writes only update a timestamp. The checks run on a shared
+ * {@link TimeoutWheel}, and every monitor has at most one timeout pending on it, rescheduled for
+ * the earliest moment anything can be due. A hundred thousand idle connections therefore cost a
+ * hundred thousand wheel entries and no threads.</p>
+ */
+public class IdleMonitor {
+	private final Heartbeat heartbeat;
+	private final TimeoutWheel wheel;
+	private final Runnable ping;
+	private final Runnable timeout;
+	private volatile long lastRead;
+	private volatile long lastWrite;
+	private TimeoutWheel.Timeout check;
+	private boolean stopped;
+
+	/**
+	 * Creates a new monitor. It does nothing until {@link #start() started}.
+	 *
+	 * @param heartbeat the heartbeat setting; nothing is monitored if it is disabled
+	 * @param wheel     the wheel running the checks
+	 * @param ping      sends a {@link HeartbeatMessage#ping() ping} to the peer
+	 * @param timeout   closes the connection once the timeout has passed
+	 */
+	public IdleMonitor(Heartbeat heartbeat, TimeoutWheel wheel, Runnable ping, Runnable timeout) {
+		this.heartbeat = heartbeat;
+		this.wheel = wheel;
+		this.ping = ping;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * Starts monitoring, counting the connection as active right now.
+	 */
+	public synchronized void start() {
+		if (!heartbeat.isEnabled() || stopped) {
+			return;
+		}
+		long now = System.nanoTime();
+		lastRead = now;
+		lastWrite = now;
+		schedule(heartbeat.getIntervalNanos());
+	}
+
+	/**
+	 * Records that something was received from the peer.
+	 */
+	public void read() {
+		lastRead = System.nanoTime();
+	}
+
+	/**
+	 * Records that something was written to the peer.
+	 */
+	public void written() {
+		lastWrite = System.nanoTime();
+	}
+
+	/**
+	 * Stops monitoring. The monitor cannot be restarted.
+	 */
+	public synchronized void stop() {
+		stopped = true;
+		if (check != null) {
+			check.cancel();
+			check = null;
+		}
+	}
+
+	private void schedule(long delayNanos) {
+		check = wheel.schedule(this::check, Duration.ofNanos(delayNanos));
+	}
+
+	/**
+	 * Runs on the wheel's thread. Pings and closing are left to the callbacks, which must not
+	 * block for long.
+	 */
+	private void check() {
+		long now = System.nanoTime();
+		long readIdle = now - lastRead;
+		long writeIdle = now - lastWrite;
+		if (readIdle >= heartbeat.getTimeoutNanos()) {
+			stop();
+			timeout.run();
+			return;
+		}
+		if (writeIdle >= heartbeat.getIntervalNanos()) {
+			lastWrite = now;
+			writeIdle = 0;
+			ping.run();
+		}
+		long next = Math.min(heartbeat.getTimeoutNanos() - readIdle,
+				heartbeat.getIntervalNanos() - writeIdle);
+		synchronized (this) {
+			if (!stopped) {
+				schedule(next);
+			}
+		}
+	}
+}
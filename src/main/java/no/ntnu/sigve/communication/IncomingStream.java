@@ -0,0 +1,232 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A stream of bytes arriving in chunks from another connection. Only a few chunks are buffered:
+ * once the buffer is full, the connection delivering them waits until the stream is read, so a
+ * large stream never has to fit in memory.
+ *
+ * <p>Closing the stream before its end discards the rest of it.</p>
+ */
+public class IncomingStream {
+	private static final int BUFFERED_CHUNKS = 16;
+
+	private final UUID source;
+	private final long streamId;
+	private final Deque<byte[]> chunks = new ArrayDeque<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+	private final InputStream input = new ChunkInputStream();
+	private byte[] current;
+	private int position;
+	private boolean finished;
+	private boolean closed;
+	private IOException failure;
+
+	/**
+	 * Creates a new incoming stream.
+	 *
+	 * @param source   the sender of the stream, or null if it was sent by the server
+	 * @param streamId the sender's id of the stream
+	 */
+	IncomingStream(UUID source, long streamId) {
+		this.source = source;
+		this.streamId = streamId;
+	}
+
+	/**
+	 * Gets the sender of the stream.
+	 *
+	 * @return the session ID of the sending client, or null if the server sent it
+	 */
+	public UUID getSource() {
+		return source;
+	}
+
+	/**
+	 * Gets the sender's id of the stream.
+	 *
+	 * @return the stream id
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * Gets the stream's bytes as an input stream. It reports the end of the stream once every
+	 * chunk has been read, and throws an {@link IOException} if the sender aborted or the
+	 * connection was lost.
+	 *
+	 * @return the input stream
+	 */
+	public InputStream getInputStream() {
+		return input;
+	}
+
+	/**
+	 * Gets the stream's bytes as a channel.
+	 *
+	 * @return a channel reading from {@link #getInputStream()}
+	 */
+	public ReadableByteChannel getChannel() {
+		return Channels.newChannel(input);
+	}
+
+	/**
+	 * Discards the stream, including any chunks that have not arrived yet.
+	 */
+	public void discard() {
+		lock.lock();
+		try {
+			closed = true;
+			chunks.clear();
+			current = null;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Adds a chunk to the stream.
+	 *
+	 * @param data     the chunk's bytes
+	 * @param mayBlock whether to wait for room if the buffer is full. Threads that must never
+	 *                 block buffer the chunk regardless.
+	 * @throws InterruptedIOException if interrupted while waiting for room
+	 */
+	void append(byte[] data, boolean mayBlock) throws InterruptedIOException {
+		lock.lock();
+		try {
+			while (mayBlock && chunks.size() >= BUFFERED_CHUNKS && !closed) {
+				changed.await();
+			}
+			if (!closed && data.length > 0) {
+				chunks.addLast(data);
+				changed.signalAll();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while delivering a stream");
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks the stream as complete.
+	 */
+	void finish() {
+		lock.lock();
+		try {
+			finished = true;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks the stream as failed. Reading fails once the chunks that did arrive are read.
+	 *
+	 * @param cause the reason the stream failed
+	 */
+	void abort(IOException cause) {
+		lock.lock();
+		try {
+			failure = cause;
+			changed.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * An input stream over the chunks, blocking until more arrive.
+	 */
+	private class ChunkInputStream extends InputStream {
+		@Override
+		public int read() throws IOException {
+			byte[] single = new byte[1];
+			return read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] destination, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			lock.lock();
+			try {
+				if (!awaitData()) {
+					return -1;
+				}
+				int count = Math.min(length, current.length - position);
+				System.arraycopy(current, position, destination, offset, count);
+				position += count;
+				if (position == current.length) {
+					current = null;
+				}
+				return count;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public int available() {
+			lock.lock();
+			try {
+				return current == null ? 0 : current.length - position;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		@Override
+		public void close() {
+			discard();
+		}
+
+		/**
+		 * Waits until there are bytes to read. Must be called while holding the lock.
+		 *
+		 * @return false at the end of the stream
+		 * @throws IOException if the stream failed or was closed
+		 */
+		private boolean awaitData() throws IOException {
+			try {
+				while (current == null) {
+					if (closed) {
+						throw new IOException("Stream closed");
+					}
+					if (!chunks.isEmpty()) {
+						current = chunks.pollFirst();
+						position = 0;
+						changed.signalAll();
+					} else if (failure != null) {
+						throw new IOException("Stream failed", failure);
+					} else if (finished) {
+						return false;
+					} else {
+						changed.await();
+					}
+				}
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted while reading a stream");
+			}
+		}
+	}
+}
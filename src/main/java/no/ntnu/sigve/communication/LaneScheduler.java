@@ -0,0 +1,56 @@
+package no.ntnu.sigve.communication;
+
+import java.util.function.IntPredicate;
+
+/**
+ * Decides which {@link Priority} lane is served next. The highest lane with something waiting
+ * is usually chosen, but after {@link #FAIRNESS_INTERVAL} turns in a row that passed over a
+ * waiting lower lane, one of the lower lanes gets a turn. Those turns rotate over the lower
+ * lanes, so bulk traffic slows down under pressure from higher lanes but never stops.
+ *
+ * <p>Not thread-safe; callers serialize access with their own lock.</p>
+ */
+public final class LaneScheduler {
+	/**
+	 * The number of turns a higher lane may take in a row while a lower lane is waiting.
+	 */
+	public static final int FAIRNESS_INTERVAL = 8;
+
+	private static final int LANE_COUNT = Priority.values().length;
+
+	private int passedOver;
+	private int lastFairLane;
+
+	/**
+	 * Chooses the next lane to serve.
+	 *
+	 * @param waiting tells whether the lane with a given {@link Priority#ordinal() index} has
+	 *                something waiting
+	 * @return the index of the lane to serve, or -1 if nothing is waiting
+	 */
+	public int next(IntPredicate waiting) {
+		int first = 0;
+		while (first < LANE_COUNT && !waiting.test(first)) {
+			first++;
+		}
+		if (first == LANE_COUNT) {
+			return -1;
+		}
+		if (passedOver >= FAIRNESS_INTERVAL) {
+			for (int step = 1; step <= LANE_COUNT; step++) {
+				int lane = (lastFairLane + step) % LANE_COUNT;
+				if (lane > first && waiting.test(lane)) {
+					lastFairLane = lane;
+					passedOver = 0;
+					return lane;
+				}
+			}
+		}
+		boolean lowerWaiting = false;
+		for (int lane = first + 1; lane < LANE_COUNT && !lowerWaiting; lane++) {
+			lowerWaiting = waiting.test(lane);
+		}
+		passedOver = lowerWaiting ? passedOver + 1 : 0;
+		return first;
+	}
+}
@@ -0,0 +1,92 @@
+package no.ntnu.sigve.communication;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds, in the style of an HDR histogram. Values are
+ * counted in logarithmic buckets that are each split into 32 linear sub-buckets, so any recorded
+ * value is reported with an error of at most about three percent, using a fixed 15 KB of memory
+ * no matter how many values are recorded.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = SUB_BUCKETS * 2;
+	private static final int BUCKET_COUNT =
+			LINEAR_LIMIT + (Long.SIZE - SUB_BUCKET_BITS - 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanos the duration in nanoseconds. Negative values are recorded as zero.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(nanos, 0);
+		counts.incrementAndGet(indexOf(value));
+		sum.add(value);
+		max.accumulate(value);
+		min.accumulate(value);
+	}
+
+	/**
+	 * Records the time passed since a start time taken with {@link System#nanoTime()}.
+	 *
+	 * @param startNanos the start time
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Takes a copy of the histogram. Values recorded while the copy is taken may or may not be
+	 * included.
+	 *
+	 * @return a snapshot of the recorded values
+	 */
+	public HistogramSnapshot getSnapshot() {
+		long[] copy = new long[BUCKET_COUNT];
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new HistogramSnapshot(copy, count, sum.sum(), count == 0 ? 0 : min.get(), max.get());
+	}
+
+	/**
+	 * Finds the bucket counting a value.
+	 *
+	 * @param value a non-negative value
+	 * @return the index of its bucket
+	 */
+	static int indexOf(long value) {
+		if (value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * Finds the highest value counted by a bucket.
+	 *
+	 * @param index the index of the bucket
+	 * @return the largest value that falls in the bucket
+	 */
+	static long highestValueOf(int index) {
+		if (index < LINEAR_LIMIT) {
+			return index;
+		}
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
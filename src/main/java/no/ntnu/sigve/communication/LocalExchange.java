@@ -0,0 +1,65 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * The registry through which clients find servers in the same JVM. A server listening in
+ * process registers an acceptor under its port number, which is a namespace of its own,
+ * separate from the ports of the operating system.
+ *
+ * <p>An acceptor is given the inbox of a connecting client and answers with the inbox the
+ * client should deliver its messages to.</p>
+ */
+public final class LocalExchange {
+	private static final Map<Integer, UnaryOperator<LocalInbox>> ACCEPTORS =
+			new ConcurrentHashMap<>();
+
+	private LocalExchange() {
+	}
+
+	/**
+	 * Registers an acceptor for a port.
+	 *
+	 * @param port     the port to listen on
+	 * @param acceptor the acceptor connecting clients on the port, answering null to refuse
+	 * @throws BindException if another acceptor is registered for the port
+	 */
+	public static void listen(int port, UnaryOperator<LocalInbox> acceptor)
+			throws BindException {
+		if (ACCEPTORS.putIfAbsent(port, acceptor) != null) {
+			throw new BindException("In-process port " + port + " is already in use");
+		}
+	}
+
+	/**
+	 * Removes an acceptor registered with {@link #listen(int, UnaryOperator)}.
+	 *
+	 * @param port     the port the acceptor listens on
+	 * @param acceptor the acceptor to remove
+	 */
+	public static void unlisten(int port, UnaryOperator<LocalInbox> acceptor) {
+		ACCEPTORS.remove(port, acceptor);
+	}
+
+	/**
+	 * Connects a client to the acceptor listening on a port.
+	 *
+	 * @param port        the port to connect to
+	 * @param clientInbox the inbox receiving messages sent to the client
+	 * @return the inbox receiving messages sent by the client
+	 * @throws IOException if nothing listens on the port or the connection was refused
+	 */
+	public static LocalInbox connect(int port, LocalInbox clientInbox) throws IOException {
+		UnaryOperator<LocalInbox> acceptor = ACCEPTORS.get(port);
+		LocalInbox serverInbox = acceptor != null ? acceptor.apply(clientInbox) : null;
+		if (serverInbox == null) {
+			throw new ConnectException("Nothing accepts in-process connections on port " + port);
+		}
+		return serverInbox;
+	}
+}
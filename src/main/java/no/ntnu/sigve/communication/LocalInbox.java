@@ -0,0 +1,128 @@
+package no.ntnu.sigve.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The receiving end of one direction of an in-process connection. Any number of threads deliver
+ * message objects to it through a lock-free queue, and a single consumer thread takes them out
+ * in the order they were delivered. Nothing is encoded on the way, unless the inbox copies every
+ * message it is given, so that sender and receiver never share an object.
+ *
+ * @see LocalExchange
+ */
+public class LocalInbox {
+	private final Queue<Message<?>> messages = new ConcurrentLinkedQueue<>();
+	private final boolean copyOnDelivery;
+	private volatile Thread consumer;
+	private volatile boolean closed;
+
+	/**
+	 * Creates a new inbox.
+	 *
+	 * @param copyOnDelivery true to deliver serialized copies of messages rather than the
+	 *                       messages themselves
+	 */
+	public LocalInbox(boolean copyOnDelivery) {
+		this.copyOnDelivery = copyOnDelivery;
+	}
+
+	/**
+	 * Hands a message to the inbox. The sender must not modify the message afterwards, unless
+	 * the inbox copies it.
+	 *
+	 * @param message the message to deliver
+	 * @return false if the inbox is closed and the message was discarded
+	 * @throws IOException if the message had to be copied and could not be serialized
+	 */
+	public boolean deliver(Message<?> message) throws IOException {
+		if (closed) {
+			return false;
+		}
+		messages.add(copyOnDelivery ? copy(message) : message);
+		LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Takes the next message, waiting until one is delivered. Messages delivered before the
+	 * inbox was closed are still taken. Must only be called by the consuming thread.
+	 *
+	 * @return the next message, or null once the inbox is closed and empty
+	 */
+	public Message<?> take() {
+		this.consumer = Thread.currentThread();
+		Message<?> message;
+		while ((message = messages.poll()) == null && !closed) {
+			LockSupport.park(this);
+		}
+		return message != null ? message : messages.poll();
+	}
+
+	/**
+	 * Takes the next message, waiting at most the given time for one to be delivered. Must only
+	 * be called by the consuming thread.
+	 *
+	 * @param timeout the longest time to wait
+	 * @param unit    the unit of the timeout
+	 * @return the next message, or null if none was delivered in time or the inbox is closed
+	 */
+	public Message<?> poll(long timeout, TimeUnit unit) {
+		this.consumer = Thread.currentThread();
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		Message<?> message;
+		while ((message = messages.poll()) == null && !closed) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return null;
+			}
+			LockSupport.parkNanos(this, remaining);
+		}
+		return message != null ? message : messages.poll();
+	}
+
+	/**
+	 * Closes the inbox. Further messages are discarded, and the consumer takes what is left
+	 * before being told that the inbox is closed.
+	 */
+	public void close() {
+		this.closed = true;
+		LockSupport.unpark(consumer);
+	}
+
+	/**
+	 * Checks whether the inbox has been closed.
+	 *
+	 * @return true if the inbox is closed
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Copies a message by serializing and deserializing it.
+	 *
+	 * @param message the message to copy
+	 * @return an equal message sharing no objects with the original
+	 * @throws IOException if the message could not be serialized
+	 */
+	public static Message<?> copy(Message<?> message) throws IOException {
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		try (ObjectOutputStream output = new ObjectOutputStream(buffer)) {
+			output.writeObject(message);
+		}
+		try (ObjectInputStream input = new ObjectInputStream(
+				new ByteArrayInputStream(buffer.toByteArray()))) {
+			return (Message<?>) input.readObject();
+		} catch (ClassNotFoundException e) {
+			throw new IOException("Could not copy message", e);
+		}
+	}
+}
@@ -12,11 +12,22 @@ import java.util.UUID;
  * set server-side to ensure global recognition of the source.</li>
  * <li>{@link Message#payload Payload} is the content of the message. A string containing the
  * information to be sent.</li></ul>
+ *
+ * <p>A message may also carry a correlation id, which ties a response to the request it answers.
+ * Requests get their id from {@link no.ntnu.sigve.client.Client#request Client.request}, and a
+ * response is marked with {@link #respondTo(Message)}.</p>
+ *
+ * <p>A message travels in a {@link Priority} lane, {@link Priority#NORMAL normal} unless
+ * {@link #setPriority(Priority) set} otherwise. The lane is kept when the server routes the
+ * message on.</p>
  */
 public class Message<T extends Serializable> implements Serializable {
 	private UUID source;
 	private UUID destination;
 	private T payload;
+	private long correlationId;
+	private boolean response;
+	private Priority priority;
 
 	/**
 	 * Creates a new message for the given destination.
@@ -69,6 +80,77 @@ public class Message<T extends Serializable> implements Serializable {
 		return this.destination;
 	}
 
+	/**
+	 * Assigns this message's correlation id. Done by the client sending a request.
+	 *
+	 * @param correlationId a non-zero id, unique among the sender's pending requests
+	 */
+	public final void assignCorrelationId(long correlationId) {
+		if (this.correlationId == 0) {
+			this.correlationId = correlationId;
+		} else {
+			System.err.println("Could not change correlation id: Message already has one.");
+		}
+	}
+
+	/**
+	 * Marks this message as the response to a request, so that it completes the request's
+	 * future when it reaches the requesting client.
+	 *
+	 * @param request the request being answered
+	 */
+	public final void respondTo(Message<?> request) {
+		this.correlationId = request.correlationId;
+		this.response = true;
+	}
+
+	/**
+	 * Restores the correlation of a decoded message.
+	 *
+	 * @param correlationId the correlation id, or zero
+	 * @param response      whether the message is a response
+	 */
+	final void restoreCorrelation(long correlationId, boolean response) {
+		this.correlationId = correlationId;
+		this.response = response;
+	}
+
+	/**
+	 * Gets the correlation id of the message.
+	 *
+	 * @return the correlation id, or zero if the message has none
+	 */
+	public final long getCorrelationId() {
+		return this.correlationId;
+	}
+
+	/**
+	 * Checks whether the message is a response to a request.
+	 *
+	 * @return true if the message was marked with {@link #respondTo(Message)}
+	 */
+	public final boolean isResponse() {
+		return this.response;
+	}
+
+	/**
+	 * Sets the lane the message travels in.
+	 *
+	 * @param priority the priority of the message
+	 */
+	public final void setPriority(Priority priority) {
+		this.priority = priority;
+	}
+
+	/**
+	 * Gets the lane the message travels in.
+	 *
+	 * @return the priority of the message
+	 */
+	public final Priority getPriority() {
+		return this.priority != null ? this.priority : Priority.NORMAL;
+	}
+
 	/**
 	 * Sets the message's payload.
 	 *
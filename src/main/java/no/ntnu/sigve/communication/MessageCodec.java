@@ -0,0 +1,91 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+
+/**
+ * Turns messages into frames and back. A codec instance belongs to one connection and may keep
+ * state between messages, so both ends of a connection must use the same kind of codec.
+ *
+ * <p>Encoding and decoding are independent; a connection may encode on one thread and decode on
+ * another. Encoding is not thread safe by itself, since frames must be written in the order they
+ * were encoded.</p>
+ *
+ * @see BinaryMessageCodec
+ * @see SerializationMessageCodec
+ */
+public interface MessageCodec {
+	/**
+	 * Encodes a message into a complete frame, including the length prefix.
+	 *
+	 * @param message the message to encode
+	 * @return the frame, ready to be written to the wire
+	 * @throws IOException if the message could not be encoded
+	 */
+	byte[] encode(Message<?> message) throws IOException;
+
+	/**
+	 * Encodes a message into a frame that every connection using this kind of codec can decode,
+	 * independent of what has been sent on that connection before. This lets a broadcast be
+	 * encoded once and the same frame be written to every receiver. Unlike
+	 * {@link #encode(Message)}, this method must be thread safe and must not change the state of
+	 * the codec.
+	 *
+	 * @param message the message to encode
+	 * @return the shared frame, or null if this codec can only encode per connection
+	 * @throws IOException if the message could not be encoded
+	 */
+	default byte[] encodeShared(Message<?> message) throws IOException {
+		return null;
+	}
+
+	/**
+	 * Adapts a frame from {@link #encodeShared(Message)} to this connection, for codecs that
+	 * transform every frame they send. It is called in sending order with {@link #encode(Message)},
+	 * under the same rules.
+	 *
+	 * @param frame the shared frame
+	 * @return the frame to write on this connection
+	 */
+	default byte[] prepareShared(byte[] frame) {
+		return frame;
+	}
+
+	/**
+	 * Checks whether a frame produced by this kind of codec can be left out without affecting
+	 * how later frames on the same connection are decoded. Only independent frames may be
+	 * discarded when a connection falls behind.
+	 *
+	 * @param frame an encoded frame, including its length prefix
+	 * @return true if the frame can be discarded safely
+	 */
+	default boolean isIndependent(byte[] frame) {
+		return false;
+	}
+
+	/**
+	 * Decodes the message carried by one frame body.
+	 *
+	 * @param body the frame body, without its length prefix
+	 * @return the decoded message
+	 * @throws IOException if the frame is corrupt
+	 * @throws ClassNotFoundException if the message class is unknown
+	 * @throws ClassCastException if the frame did not contain a message
+	 */
+	Message<?> decode(byte[] body) throws IOException, ClassNotFoundException;
+
+	/**
+	 * Has the codec record what it tracks about its connection, such as the size of an object
+	 * stream's handle table, in the metrics of the server or client owning the connection.
+	 *
+	 * @param metrics the metrics to record in
+	 */
+	default void setMetrics(Metrics metrics) {
+	}
+
+	/**
+	 * Releases what the codec holds on to, such as native compression state, once its
+	 * connection has closed. The codec must not be used afterwards.
+	 */
+	default void close() {
+	}
+}
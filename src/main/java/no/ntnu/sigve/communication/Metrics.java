@@ -0,0 +1,243 @@
+package no.ntnu.sigve.communication;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms for one server or client. Every update is a single lock-free
+ * addition, so the metrics are always collected.
+ *
+ * <p>Not every metric applies to both sides: clients never accept or disconnect connections,
+ * route messages or queue outgoing frames, and leave those metrics at zero.</p>
+ */
+public class Metrics implements MetricsMXBean {
+	private final LongAdder messagesIn = new LongAdder();
+	private final LongAdder bytesIn = new LongAdder();
+	private final LongAdder messagesOut = new LongAdder();
+	private final LongAdder bytesOut = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder disconnected = new LongAdder();
+	private final LongAdder routeMisses = new LongAdder();
+	private final LongAdder codecErrors = new LongAdder();
+	private final LongAdder droppedMessages = new LongAdder();
+	private final LongAdder idleTimeouts = new LongAdder();
+	private final LongAdder forwarded = new LongAdder();
+	private final LongAdder throttled = new LongAdder();
+	private final LongAdder rejectedConnections = new LongAdder();
+	private final LongAdder streamHandles = new LongAdder();
+	private final LongAdder streamResets = new LongAdder();
+	private final LatencyHistogram encodeTime = new LatencyHistogram();
+	private final LatencyHistogram queueWait = new LatencyHistogram();
+	private final LatencyHistogram writeTime = new LatencyHistogram();
+	private final LatencyHistogram dispatchLag = new LatencyHistogram();
+	private final LatencyHistogram hopTime = new LatencyHistogram();
+	private ObjectName objectName;
+
+	/**
+	 * Counts a received message.
+	 *
+	 * @param frameLength the length of its frame, including the length prefix
+	 */
+	public void recordMessageIn(int frameLength) {
+		messagesIn.increment();
+		bytesIn.add(frameLength);
+	}
+
+	/**
+	 * Counts a message that was written to a socket.
+	 *
+	 * @param frameLength the length of its frame, including the length prefix
+	 */
+	public void recordMessageOut(int frameLength) {
+		messagesOut.increment();
+		bytesOut.add(frameLength);
+	}
+
+	/**
+	 * Counts an accepted connection.
+	 */
+	public void recordAccept() {
+		accepted.increment();
+	}
+
+	/**
+	 * Counts a closed connection.
+	 */
+	public void recordDisconnect() {
+		disconnected.increment();
+	}
+
+	/**
+	 * Counts a message that was discarded because its destination is not connected.
+	 */
+	public void recordRouteMiss() {
+		routeMisses.increment();
+	}
+
+	/**
+	 * Counts a message that could not be encoded or decoded.
+	 */
+	public void recordCodecError() {
+		codecErrors.increment();
+	}
+
+	/**
+	 * Counts a message that was discarded by an overflow policy.
+	 */
+	public void recordDroppedMessage() {
+		droppedMessages.increment();
+	}
+
+	/**
+	 * Counts a connection that was closed because nothing was received within the heartbeat
+	 * timeout.
+	 */
+	public void recordIdleTimeout() {
+		idleTimeouts.increment();
+	}
+
+	/**
+	 * Counts a message forwarded to the cluster node owning its destination.
+	 */
+	public void recordForward() {
+		forwarded.increment();
+	}
+
+	/**
+	 * Counts a message after which reading from its connection was paused by a rate limit.
+	 */
+	public void recordThrottle() {
+		throttled.increment();
+	}
+
+	/**
+	 * Counts a connection that was turned away because the server was full.
+	 */
+	public void recordRejectedConnection() {
+		rejectedConnections.increment();
+	}
+
+	/**
+	 * Adjusts the number of objects that the serialization streams of open connections remember
+	 * for back-references.
+	 *
+	 * @param delta the number of objects remembered since the last adjustment, negative when a
+	 *              stream forgets them
+	 */
+	public void recordStreamHandles(long delta) {
+		streamHandles.add(delta);
+	}
+
+	/**
+	 * Counts a reset of a serialization stream.
+	 */
+	public void recordStreamReset() {
+		streamResets.increment();
+	}
+
+	/**
+	 * Gets the histogram of the time spent encoding messages.
+	 *
+	 * @return the encode time histogram
+	 */
+	public LatencyHistogram getEncodeTime() {
+		return encodeTime;
+	}
+
+	/**
+	 * Gets the histogram of the time frames wait in outbound queues.
+	 *
+	 * @return the queue wait histogram
+	 */
+	public LatencyHistogram getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Gets the histogram of the time spent in socket writes.
+	 *
+	 * @return the write time histogram
+	 */
+	public LatencyHistogram getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Gets the histogram of the time received messages wait before a {@link Dispatcher} hands
+	 * them to the protocol.
+	 *
+	 * @return the dispatch lag histogram
+	 */
+	public LatencyHistogram getDispatchLag() {
+		return dispatchLag;
+	}
+
+	/**
+	 * Gets the histogram of the time messages forwarded by other cluster nodes took to arrive.
+	 *
+	 * @return the cluster hop time histogram
+	 */
+	public LatencyHistogram getHopTime() {
+		return hopTime;
+	}
+
+	@Override
+	public MetricsSnapshot getSnapshot() {
+		return new MetricsSnapshot(
+				messagesIn.sum(),
+				bytesIn.sum(),
+				messagesOut.sum(),
+				bytesOut.sum(),
+				accepted.sum(),
+				disconnected.sum(),
+				routeMisses.sum(),
+				codecErrors.sum(),
+				droppedMessages.sum(),
+				idleTimeouts.sum(),
+				forwarded.sum(),
+				throttled.sum(),
+				rejectedConnections.sum(),
+				streamHandles.sum(),
+				streamResets.sum(),
+				encodeTime.getSnapshot(),
+				queueWait.getSnapshot(),
+				writeTime.getSnapshot(),
+				dispatchLag.getSnapshot(),
+				hopTime.getSnapshot()
+		);
+	}
+
+	/**
+	 * Registers these metrics with the platform MBean server, under
+	 * {@code no.ntnu.sigve:type=Metrics,name=<name>}.
+	 *
+	 * @param name the name identifying the server or client
+	 * @throws JMException if the name is invalid or already taken
+	 */
+	public synchronized void registerMBean(String name) throws JMException {
+		unregisterMBean();
+		ObjectName registered = new ObjectName(
+				"no.ntnu.sigve:type=Metrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+		objectName = registered;
+	}
+
+	/**
+	 * Removes these metrics from the platform MBean server, if they were registered.
+	 */
+	public synchronized void unregisterMBean() {
+		if (objectName == null) {
+			return;
+		}
+		MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+		try {
+			mbeanServer.unregisterMBean(objectName);
+		} catch (JMException e) {
+			System.err.println("Could not unregister metrics: " + e.getMessage());
+		}
+		objectName = null;
+	}
+}
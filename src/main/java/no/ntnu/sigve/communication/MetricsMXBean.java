@@ -0,0 +1,13 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * The management interface under which {@link Metrics} are registered with JMX.
+ */
+public interface MetricsMXBean {
+	/**
+	 * Gets the current values of all counters and histograms.
+	 *
+	 * @return a snapshot of the metrics
+	 */
+	MetricsSnapshot getSnapshot();
+}
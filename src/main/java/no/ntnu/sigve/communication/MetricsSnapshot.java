@@ -0,0 +1,255 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * An immutable copy of a {@link Metrics} instance. Counters are totals since the server or client
+ * was created. Histograms are in nanoseconds.
+ */
+public class MetricsSnapshot {
+	private final long messagesIn;
+	private final long bytesIn;
+	private final long messagesOut;
+	private final long bytesOut;
+	private final long accepted;
+	private final long disconnected;
+	private final long routeMisses;
+	private final long codecErrors;
+	private final long droppedMessages;
+	private final long idleTimeouts;
+	private final long forwarded;
+	private final long throttled;
+	private final long rejectedConnections;
+	private final long streamHandles;
+	private final long streamResets;
+	private final HistogramSnapshot encodeTime;
+	private final HistogramSnapshot queueWait;
+	private final HistogramSnapshot writeTime;
+	private final HistogramSnapshot dispatchLag;
+	private final HistogramSnapshot hopTime;
+
+	MetricsSnapshot(
+			long messagesIn,
+			long bytesIn,
+			long messagesOut,
+			long bytesOut,
+			long accepted,
+			long disconnected,
+			long routeMisses,
+			long codecErrors,
+			long droppedMessages,
+			long idleTimeouts,
+			long forwarded,
+			long throttled,
+			long rejectedConnections,
+			long streamHandles,
+			long streamResets,
+			HistogramSnapshot encodeTime,
+			HistogramSnapshot queueWait,
+			HistogramSnapshot writeTime,
+			HistogramSnapshot dispatchLag,
+			HistogramSnapshot hopTime
+	) {
+		this.messagesIn = messagesIn;
+		this.bytesIn = bytesIn;
+		this.messagesOut = messagesOut;
+		this.bytesOut = bytesOut;
+		this.accepted = accepted;
+		this.disconnected = disconnected;
+		this.routeMisses = routeMisses;
+		this.codecErrors = codecErrors;
+		this.droppedMessages = droppedMessages;
+		this.idleTimeouts = idleTimeouts;
+		this.forwarded = forwarded;
+		this.throttled = throttled;
+		this.rejectedConnections = rejectedConnections;
+		this.streamHandles = streamHandles;
+		this.streamResets = streamResets;
+		this.encodeTime = encodeTime;
+		this.queueWait = queueWait;
+		this.writeTime = writeTime;
+		this.dispatchLag = dispatchLag;
+		this.hopTime = hopTime;
+	}
+
+	/**
+	 * Gets the number of messages received.
+	 *
+	 * @return the number of messages received
+	 */
+	public long getMessagesIn() {
+		return messagesIn;
+	}
+
+	/**
+	 * Gets the number of bytes received.
+	 *
+	 * @return the number of bytes received
+	 */
+	public long getBytesIn() {
+		return bytesIn;
+	}
+
+	/**
+	 * Gets the number of messages written.
+	 *
+	 * @return the number of messages written
+	 */
+	public long getMessagesOut() {
+		return messagesOut;
+	}
+
+	/**
+	 * Gets the number of bytes written.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long getBytesOut() {
+		return bytesOut;
+	}
+
+	/**
+	 * Gets the number of accepted connections.
+	 *
+	 * @return the number of accepted connections
+	 */
+	public long getAccepted() {
+		return accepted;
+	}
+
+	/**
+	 * Gets the number of closed connections.
+	 *
+	 * @return the number of closed connections
+	 */
+	public long getDisconnected() {
+		return disconnected;
+	}
+
+	/**
+	 * Gets the number of messages discarded because their destination was not connected.
+	 *
+	 * @return the number of messages discarded because their destination was not connected
+	 */
+	public long getRouteMisses() {
+		return routeMisses;
+	}
+
+	/**
+	 * Gets the number of messages that could not be encoded or decoded.
+	 *
+	 * @return the number of messages that could not be encoded or decoded
+	 */
+	public long getCodecErrors() {
+		return codecErrors;
+	}
+
+	/**
+	 * Gets the number of messages discarded by an overflow policy.
+	 *
+	 * @return the number of messages discarded by an overflow policy
+	 */
+	public long getDroppedMessages() {
+		return droppedMessages;
+	}
+
+	/**
+	 * Gets the number of connections closed because nothing was received within the heartbeat
+	 * timeout.
+	 *
+	 * @return the number of connections closed for being idle
+	 */
+	public long getIdleTimeouts() {
+		return idleTimeouts;
+	}
+
+	/**
+	 * Gets the number of messages forwarded to other cluster nodes.
+	 *
+	 * @return the number of forwarded messages
+	 */
+	public long getForwarded() {
+		return forwarded;
+	}
+
+	/**
+	 * Gets the number of messages after which reading was paused by a rate limit.
+	 *
+	 * @return the number of throttled messages
+	 */
+	public long getThrottled() {
+		return throttled;
+	}
+
+	/**
+	 * Gets the number of connections turned away because the server was full.
+	 *
+	 * @return the number of rejected connections
+	 */
+	public long getRejectedConnections() {
+		return rejectedConnections;
+	}
+
+	/**
+	 * Gets the number of objects the serialization streams of open connections currently
+	 * remember for back-references. Unlike the other counters, this drops again as streams are
+	 * reset and connections close.
+	 *
+	 * @return the number of remembered objects
+	 */
+	public long getStreamHandles() {
+		return streamHandles;
+	}
+
+	/**
+	 * Gets the number of times a serialization stream was reset.
+	 *
+	 * @return the number of stream resets
+	 */
+	public long getStreamResets() {
+		return streamResets;
+	}
+
+	/**
+	 * Gets the time spent encoding messages.
+	 *
+	 * @return the time spent encoding messages
+	 */
+	public HistogramSnapshot getEncodeTime() {
+		return encodeTime;
+	}
+
+	/**
+	 * Gets the time frames waited in outbound queues.
+	 *
+	 * @return the time frames waited in outbound queues
+	 */
+	public HistogramSnapshot getQueueWait() {
+		return queueWait;
+	}
+
+	/**
+	 * Gets the time spent in socket writes.
+	 *
+	 * @return the time spent in socket writes
+	 */
+	public HistogramSnapshot getWriteTime() {
+		return writeTime;
+	}
+
+	/**
+	 * Gets the time received messages waited before being handed to the protocol.
+	 *
+	 * @return the time received messages waited for dispatch
+	 */
+	public HistogramSnapshot getDispatchLag() {
+		return dispatchLag;
+	}
+
+	/**
+	 * Gets the time messages forwarded by other cluster nodes took to arrive.
+	 *
+	 * @return the time of each hop between cluster nodes
+	 */
+	public HistogramSnapshot getHopTime() {
+		return hopTime;
+	}
+}
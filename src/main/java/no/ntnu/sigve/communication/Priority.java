@@ -0,0 +1,22 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * The lane a message travels in. Where messages queue up before being written, higher lanes are
+ * served first, so that a latency-sensitive message does not wait behind bulk traffic. Lower
+ * lanes still get a turn regularly, see {@link LaneScheduler}. Messages in the same lane keep
+ * their order.
+ */
+public enum Priority {
+	/**
+	 * Control and latency-sensitive messages.
+	 */
+	HIGH,
+	/**
+	 * Ordinary messages. The default.
+	 */
+	NORMAL,
+	/**
+	 * Bulk traffic that may wait.
+	 */
+	LOW
+}
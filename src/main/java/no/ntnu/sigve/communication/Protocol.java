@@ -34,4 +34,29 @@ public interface Protocol<T extends ProtocolUser> {
 	 * @param clientId the UUID of the removed connection
 	 */
 	public void onClientDisconnect(T caller, UUID clientId);
+
+	/**
+	 * An event that is fired when messages to a connection pile up faster than the client reads
+	 * them, and again once the backlog has drained. Producers can use it to throttle themselves
+	 * instead of running into the connection's overflow policy. Ignored by default.
+	 *
+	 * @param caller the {@link ProtocolUser} that fired the event
+	 * @param clientId the UUID of the connection
+	 * @param writable false if the connection's backlog exceeded its high watermark, true if it
+	 *     drained below its low watermark
+	 */
+	public default void onWritabilityChanged(T caller, UUID clientId, boolean writable) {
+	}
+
+	/**
+	 * An event that is fired when another connection starts sending a stream to this
+	 * {@link ProtocolUser}. It is fired on a thread of its own, which may read the whole stream
+	 * before returning. Streams are discarded by default.
+	 *
+	 * @param caller the {@link ProtocolUser} that fired the event
+	 * @param stream the incoming stream
+	 */
+	public default void onStream(T caller, IncomingStream stream) {
+		stream.discard();
+	}
 }
@@ -0,0 +1,17 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * A handshake message sent in place of a {@link UuidMessage} when the server turns a connection
+ * away, for instance because it is full. The server closes the connection right after sending
+ * it.
+ */
+public class RejectionMessage extends Message<String> {
+	/**
+	 * Creates a new rejection message.
+	 *
+	 * @param reason why the connection was turned away
+	 */
+	public RejectionMessage(String reason) {
+		super(null, reason);
+	}
+}
@@ -0,0 +1,177 @@
+package no.ntnu.sigve.communication;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * What one end of a resumable session remembers across connections: how many messages it has
+ * sent and received, and the messages the other end has not acknowledged yet.
+ *
+ * <p>Messages are not numbered on the wire. Both ends count the same messages in the same order,
+ * leaving out handshake and acknowledgement messages, so a count is enough to tell where the
+ * other end stopped. When a connection is resumed, the messages after the other end's count are
+ * sent again, followed by those held back while there was no connection.</p>
+ *
+ * <p>The buffer holds a bounded number of messages. When it overflows, the oldest unacknowledged
+ * messages are forgotten, and a connection that would need them can no longer be resumed.</p>
+ */
+public class ReplayBuffer {
+	/**
+	 * The number of received messages after which the receiver sends an {@link AckMessage}.
+	 */
+	public static final int ACK_INTERVAL = 64;
+
+	private final int capacity;
+	private final Deque<Object> unacknowledged = new ArrayDeque<>();
+	private final Deque<Object> held = new ArrayDeque<>();
+	private long sent;
+	private long received;
+
+	/**
+	 * Creates a new replay buffer.
+	 *
+	 * @param capacity the number of messages the buffer holds
+	 */
+	public ReplayBuffer(int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Replay capacity must be positive");
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Checks whether a message is counted and replayed in a resumable session. Handshake and
+	 * acknowledgement messages belong to one connection and are not.
+	 *
+	 * @param message the message to check
+	 * @return true if the message is counted
+	 */
+	public static boolean isCounted(Message<?> message) {
+		return !(message instanceof UuidMessage
+				|| message instanceof CompressionMessage
+				|| message instanceof ResumeMessage
+				|| message instanceof AckMessage
+				|| message instanceof HeartbeatMessage);
+	}
+
+	/**
+	 * Records that a message has been handed to the connection.
+	 *
+	 * @param entry the message, or whatever is needed to send it again
+	 */
+	public synchronized void sent(Object entry) {
+		sent++;
+		unacknowledged.addLast(entry);
+		while (unacknowledged.size() + held.size() > capacity && !unacknowledged.isEmpty()) {
+			unacknowledged.removeFirst();
+		}
+	}
+
+	/**
+	 * Holds back a message while the session has no connection.
+	 *
+	 * @param entry the message, or whatever is needed to send it
+	 * @return false if the buffer is full and the message was not held
+	 */
+	public synchronized boolean hold(Object entry) {
+		if (unacknowledged.size() + held.size() >= capacity) {
+			return false;
+		}
+		held.addLast(entry);
+		return true;
+	}
+
+	/**
+	 * Holds back messages that were queued on a connection but never sent, ahead of everything
+	 * held so far.
+	 *
+	 * @param entries the messages, oldest first
+	 */
+	public synchronized void holdUnsent(List<?> entries) {
+		for (int i = entries.size() - 1; i >= 0; i--) {
+			held.addFirst(entries.get(i));
+		}
+	}
+
+	/**
+	 * Forgets the messages the other end has confirmed receiving.
+	 *
+	 * @param count the number of messages the other end has received
+	 */
+	public synchronized void acknowledge(long count) {
+		long firstRetained = sent - unacknowledged.size();
+		while (firstRetained < count && !unacknowledged.isEmpty()) {
+			unacknowledged.removeFirst();
+			firstRetained++;
+		}
+	}
+
+	/**
+	 * Checks whether the buffer still holds every message after the other end's count.
+	 *
+	 * @param peerReceived the number of messages the other end has received
+	 * @return true if nothing the other end is missing has been forgotten
+	 */
+	public synchronized boolean canRewind(long peerReceived) {
+		return peerReceived >= sent - unacknowledged.size() && peerReceived <= sent;
+	}
+
+	/**
+	 * Prepares the buffer for a resumed connection. Returns the messages after the other end's
+	 * count that are still held, oldest first, and empties the buffer; they are counted again as
+	 * they are sent.
+	 *
+	 * @param peerReceived the number of messages the other end has received
+	 * @return the messages to send again
+	 * @see #canRewind(long)
+	 */
+	public synchronized List<Object> rewind(long peerReceived) {
+		acknowledge(peerReceived);
+		List<Object> replay = new ArrayList<>(unacknowledged);
+		replay.addAll(held);
+		unacknowledged.clear();
+		held.clear();
+		sent = peerReceived;
+		return replay;
+	}
+
+	/**
+	 * Takes the messages held back while the session had no connection, which were never sent.
+	 *
+	 * @return the held messages, oldest first
+	 */
+	public synchronized List<Object> takeHeld() {
+		List<Object> taken = new ArrayList<>(held);
+		held.clear();
+		return taken;
+	}
+
+	/**
+	 * Records that a message has been received.
+	 *
+	 * @return the number of messages received so far
+	 */
+	public synchronized long countReceived() {
+		return ++received;
+	}
+
+	/**
+	 * Gets the number of messages received so far.
+	 *
+	 * @return the number of received messages
+	 */
+	public synchronized long getReceived() {
+		return received;
+	}
+
+	/**
+	 * Gets the number of messages waiting for acknowledgement or held back.
+	 *
+	 * @return the number of buffered messages
+	 */
+	public synchronized int size() {
+		return unacknowledged.size() + held.size();
+	}
+}
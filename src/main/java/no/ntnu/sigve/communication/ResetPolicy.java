@@ -0,0 +1,95 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * Decides when a {@link SerializationMessageCodec} resets its object stream. An object stream
+ * remembers every object it has written, so that later references to it can be sent as short
+ * back-references. Without a reset that table grows for as long as the connection lives, and an
+ * object that was mutated after being sent is sent again as a reference to its old state.
+ *
+ * <p>A reset forgets every remembered object and class description, so resetting more often
+ * trades a little bandwidth for bounded memory.</p>
+ */
+public final class ResetPolicy {
+	/**
+	 * The policy used unless another one is given: reset after 1024 messages or 1 MiB, whichever
+	 * comes first.
+	 */
+	public static final ResetPolicy DEFAULT = new ResetPolicy(1024, 1024 * 1024);
+
+	private static final ResetPolicy NEVER = new ResetPolicy(Long.MAX_VALUE, Long.MAX_VALUE);
+	private static final ResetPolicy EVERY_MESSAGE = new ResetPolicy(1, Long.MAX_VALUE);
+
+	private final long maxMessages;
+	private final long maxBytes;
+
+	private ResetPolicy(long maxMessages, long maxBytes) {
+		if (maxMessages < 1 || maxBytes < 1) {
+			throw new IllegalArgumentException("Reset thresholds must be positive");
+		}
+		this.maxMessages = maxMessages;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * A policy that never resets the stream. Memory use grows with every distinct object sent.
+	 *
+	 * @return the never-resetting policy
+	 */
+	public static ResetPolicy never() {
+		return NEVER;
+	}
+
+	/**
+	 * A policy that resets the stream after every message, so that no message ever refers back
+	 * to an object sent in an earlier one.
+	 *
+	 * @return the per-message policy
+	 */
+	public static ResetPolicy everyMessage() {
+		return EVERY_MESSAGE;
+	}
+
+	/**
+	 * A policy that resets the stream after a number of messages.
+	 *
+	 * @param messages the number of messages between resets
+	 * @return the new policy
+	 */
+	public static ResetPolicy everyMessages(long messages) {
+		return new ResetPolicy(messages, Long.MAX_VALUE);
+	}
+
+	/**
+	 * A policy that resets the stream once a number of bytes have been written since the last
+	 * reset.
+	 *
+	 * @param bytes the number of bytes between resets
+	 * @return the new policy
+	 */
+	public static ResetPolicy everyBytes(long bytes) {
+		return new ResetPolicy(Long.MAX_VALUE, bytes);
+	}
+
+	/**
+	 * A policy that resets the stream after a number of messages or bytes, whichever comes
+	 * first.
+	 *
+	 * @param messages the number of messages between resets
+	 * @param bytes    the number of bytes between resets
+	 * @return the new policy
+	 */
+	public static ResetPolicy every(long messages, long bytes) {
+		return new ResetPolicy(messages, bytes);
+	}
+
+	/**
+	 * Checks whether the stream is due for a reset.
+	 *
+	 * @param messagesSinceReset the number of messages written since the last reset
+	 * @param bytesSinceReset    the number of bytes written since the last reset
+	 * @return true if the stream should be reset before the next message
+	 */
+	public boolean isDue(long messagesSinceReset, long bytesSinceReset) {
+		return messagesSinceReset >= maxMessages || bytesSinceReset >= maxBytes;
+	}
+}
@@ -0,0 +1,50 @@
+package no.ntnu.sigve.communication;
+
+import java.util.UUID;
+
+/**
+ * A handshake message attaching a connection to a resumable session. The client sends it right
+ * after receiving its {@link UuidMessage}, naming the session it wants, with the session's resume
+ * token and the number of messages it has received in that session. A new session is asked for
+ * with the ID and token from the {@link UuidMessage} itself, and a null session ID declines
+ * resumption altogether.
+ *
+ * <p>The server answers with a resume message of its own, naming the session the connection now
+ * belongs to and the number of messages it has received from the client. If that is not the
+ * session the client asked for, the old session could not be resumed.</p>
+ */
+public class ResumeMessage extends Message<UUID> {
+	private final long token;
+	private final long received;
+
+	/**
+	 * Creates a new resume message.
+	 *
+	 * @param sessionId the session to attach to, or null to decline resumption
+	 * @param token     the session's resume token
+	 * @param received  the number of messages received in the session so far
+	 */
+	public ResumeMessage(UUID sessionId, long token, long received) {
+		super(null, sessionId);
+		this.token = token;
+		this.received = received;
+	}
+
+	/**
+	 * Gets the session's resume token.
+	 *
+	 * @return the resume token
+	 */
+	public long getToken() {
+		return token;
+	}
+
+	/**
+	 * Gets the number of messages the sender has received in the session.
+	 *
+	 * @return the number of received messages
+	 */
+	public long getReceived() {
+		return received;
+	}
+}
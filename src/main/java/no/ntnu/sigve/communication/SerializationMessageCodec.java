@@ -0,0 +1,310 @@
+package no.ntnu.sigve.communication;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Encodes and decodes messages for one connection using Java object serialization. The object
+ * streams live for as long as the connection does, exactly like a plain socket object stream,
+ * but every message is cut into its own frame so that the receiver never has to block in the
+ * middle of an object.
+ *
+ * <p>This codec handles any {@link java.io.Serializable} payload and any {@link Message}
+ * subclass, at the cost of class descriptors and full object graphs on the wire. The
+ * {@link BinaryMessageCodec} falls back to it for messages it has no compact format for.</p>
+ *
+ * <p>The output stream is reset according to a {@link ResetPolicy}, so that the objects it
+ * remembers for back-references do not accumulate for the lifetime of the connection. The size
+ * of its handle table and its resets are recorded in the connection's {@link Metrics}.</p>
+ */
+public class SerializationMessageCodec implements MessageCodec {
+	private final FrameBuffer outputBuffer = new FrameBuffer();
+	private final FrameFeed inputFeed = new FrameFeed();
+	private final int headerLength;
+	private final ResetPolicy resetPolicy;
+	private CountingObjectOutputStream output;
+	private ObjectInputStream input;
+	private long messagesSinceReset;
+	private long bytesSinceReset;
+	private long resetCount;
+	private long reportedHandles;
+	private volatile Metrics metrics;
+
+	/**
+	 * Creates a new serialization codec with the {@link ResetPolicy#DEFAULT default} reset
+	 * policy.
+	 */
+	public SerializationMessageCodec() {
+		this(ResetPolicy.DEFAULT);
+	}
+
+	/**
+	 * Creates a new serialization codec.
+	 *
+	 * @param resetPolicy the policy deciding when the output stream is reset
+	 */
+	public SerializationMessageCodec(ResetPolicy resetPolicy) {
+		this(Frames.HEADER_LENGTH, resetPolicy);
+	}
+
+	/**
+	 * Creates a new serialization codec that reserves room for extra header bytes at the start
+	 * of every frame. The length prefix covers the extra bytes, which the caller fills in.
+	 *
+	 * @param headerLength the total header length, at least {@link Frames#HEADER_LENGTH}
+	 * @param resetPolicy  the policy deciding when the output stream is reset
+	 */
+	SerializationMessageCodec(int headerLength, ResetPolicy resetPolicy) {
+		this.headerLength = headerLength;
+		this.resetPolicy = resetPolicy;
+	}
+
+	@Override
+	public byte[] encode(Message<?> message) throws IOException {
+		outputBuffer.reset();
+		outputBuffer.write(new byte[headerLength]);
+		if (output == null) {
+			output = new CountingObjectOutputStream(outputBuffer);
+		} else if (resetPolicy.isDue(messagesSinceReset, bytesSinceReset)) {
+			output.reset();
+			output.handleCount = 0;
+			messagesSinceReset = 0;
+			bytesSinceReset = 0;
+			resetCount++;
+			if (metrics != null) {
+				metrics.recordStreamReset();
+			}
+		}
+		output.writeObject(message);
+		output.flush();
+		reportHandles();
+
+		int length = outputBuffer.size() - Frames.HEADER_LENGTH;
+		messagesSinceReset++;
+		bytesSinceReset += length;
+		Frames.putLength(outputBuffer.buffer(), length);
+		byte[] frame = outputBuffer.toByteArray();
+		outputBuffer.trim();
+		return frame;
+	}
+
+	/**
+	 * Serializes a message on an object stream of its own, so that the frame can be decoded
+	 * without any knowledge of earlier frames.
+	 *
+	 * @param message      the message to encode
+	 * @param headerLength the total header length, at least {@link Frames#HEADER_LENGTH}
+	 * @param type         the byte to put right after the length prefix, if there is room
+	 * @return the encoded frame
+	 * @throws IOException if the message could not be serialized
+	 */
+	static byte[] encodeStandalone(Message<?> message, int headerLength, byte type)
+			throws IOException {
+		FrameBuffer buffer = new FrameBuffer();
+		buffer.write(new byte[headerLength]);
+		try (ObjectOutputStream standalone = new ObjectOutputStream(buffer)) {
+			standalone.writeObject(message);
+		}
+		byte[] frame = buffer.toByteArray();
+		Frames.putLength(frame, frame.length - Frames.HEADER_LENGTH);
+		if (headerLength > Frames.HEADER_LENGTH) {
+			frame[Frames.HEADER_LENGTH] = type;
+		}
+		return frame;
+	}
+
+	/**
+	 * Decodes a message serialized with {@link #encodeStandalone(Message, int, byte)}.
+	 *
+	 * @param body   the frame body, without its length prefix
+	 * @param offset the number of leading bytes to skip
+	 * @return the decoded message
+	 * @throws IOException if the frame is corrupt
+	 * @throws ClassNotFoundException if the message class is unknown
+	 */
+	static Message<?> decodeStandalone(byte[] body, int offset)
+			throws IOException, ClassNotFoundException {
+		try (ObjectInputStream standalone = new ObjectInputStream(
+				new ByteArrayInputStream(body, offset, body.length - offset))) {
+			return (Message<?>) standalone.readObject();
+		}
+	}
+
+	/**
+	 * Gets the number of objects the output stream currently remembers for back-references,
+	 * not counting class descriptions. This is the part of the stream's handle table that
+	 * grows with the messages sent, and drops to zero on every reset.
+	 *
+	 * @return the number of objects written since the last reset
+	 */
+	public long getHandleCount() {
+		return output == null ? 0 : output.handleCount;
+	}
+
+	private void reportHandles() {
+		Metrics target = metrics;
+		if (target != null && output.handleCount != reportedHandles) {
+			target.recordStreamHandles(output.handleCount - reportedHandles);
+			reportedHandles = output.handleCount;
+		}
+	}
+
+	@Override
+	public void setMetrics(Metrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Takes the objects the output stream remembers out of the metrics, since they go away with
+	 * the connection.
+	 */
+	@Override
+	public void close() {
+		Metrics target = metrics;
+		metrics = null;
+		if (target != null) {
+			target.recordStreamHandles(-reportedHandles);
+		}
+	}
+
+	/**
+	 * Gets the number of times the output stream has been reset.
+	 *
+	 * @return the number of resets so far
+	 */
+	public long getResetCount() {
+		return resetCount;
+	}
+
+	@Override
+	public Message<?> decode(byte[] body) throws IOException, ClassNotFoundException {
+		return decode(body, 0);
+	}
+
+	/**
+	 * Decodes the message carried by a frame body, skipping a number of leading bytes that
+	 * belong to an enclosing codec.
+	 *
+	 * @param body   the frame body, without its length prefix
+	 * @param offset the number of leading bytes to skip
+	 * @return the decoded message
+	 * @throws IOException if the frame is corrupt
+	 * @throws ClassNotFoundException if the message class is unknown
+	 */
+	Message<?> decode(byte[] body, int offset) throws IOException, ClassNotFoundException {
+		inputFeed.append(body, offset);
+		if (input == null) {
+			input = new ObjectInputStream(inputFeed);
+		}
+		return (Message<?>) input.readObject();
+	}
+
+	/**
+	 * A byte array output stream that exposes its backing array, so the length prefix can be
+	 * patched in after the body has been written.
+	 */
+	private static class FrameBuffer extends ByteArrayOutputStream {
+		private static final int RETAINED_CAPACITY = 64 * 1024;
+
+		byte[] buffer() {
+			return buf;
+		}
+
+		/**
+		 * Releases the backing array if an unusually large message made it grow, so that one
+		 * large message does not pin its buffer for the rest of the connection.
+		 */
+		void trim() {
+			if (buf.length > RETAINED_CAPACITY) {
+				buf = new byte[256];
+			}
+		}
+	}
+
+	/**
+	 * An object output stream counting the objects that are assigned back-reference handles.
+	 * {@link #replaceObject(Object)} is called exactly once for every object that is written
+	 * in full rather than as a reference to an earlier one.
+	 */
+	private static class CountingObjectOutputStream extends ObjectOutputStream {
+		private long handleCount;
+
+		CountingObjectOutputStream(ByteArrayOutputStream output) throws IOException {
+			super(output);
+			enableReplaceObject(true);
+		}
+
+		@Override
+		protected Object replaceObject(Object object) {
+			handleCount++;
+			return object;
+		}
+	}
+
+	/**
+	 * An input stream fed with one frame body at a time. It reports end of stream when it runs
+	 * dry, which never happens while decoding a complete frame.
+	 */
+	private static class FrameFeed extends InputStream {
+		private final Deque<byte[]> frames = new ArrayDeque<>();
+		private int position;
+
+		void append(byte[] body, int offset) {
+			if (body.length > offset) {
+				if (frames.isEmpty()) {
+					position = offset;
+				} else if (offset > 0) {
+					body = Arrays.copyOfRange(body, offset, body.length);
+				}
+				frames.addLast(body);
+			}
+		}
+
+		@Override
+		public int read() {
+			byte[] current = frames.peekFirst();
+			if (current == null) {
+				return -1;
+			}
+			int value = current[position++] & 0xFF;
+			advance(current);
+			return value;
+		}
+
+		@Override
+		public int read(byte[] destination, int offset, int length) {
+			if (length == 0) {
+				return 0;
+			}
+			byte[] current = frames.peekFirst();
+			if (current == null) {
+				return -1;
+			}
+			int count = Math.min(length, current.length - position);
+			System.arraycopy(current, position, destination, offset, count);
+			position += count;
+			advance(current);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			byte[] current = frames.peekFirst();
+			return current == null ? 0 : current.length - position;
+		}
+
+		private void advance(byte[] current) {
+			if (position == current.length) {
+				frames.removeFirst();
+				position = 0;
+			}
+		}
+	}
+}
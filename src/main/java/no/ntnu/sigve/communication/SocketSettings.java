@@ -0,0 +1,59 @@
+package no.ntnu.sigve.communication;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * TCP options applied to the sockets of a client or server. Options that are not set are left at
+ * the operating system's defaults.
+ */
+public class SocketSettings {
+	private Boolean tcpNoDelay;
+	private int sendBufferSize;
+	private int receiveBufferSize;
+
+	/**
+	 * Sets whether {@code TCP_NODELAY} is enabled, i.e. whether Nagle's algorithm is turned off.
+	 * Enable it when small messages should leave immediately, or when
+	 * {@link WriteBatching write batching} already gathers them.
+	 *
+	 * @param tcpNoDelay true to send segments without delay
+	 */
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	/**
+	 * Sets the sizes of the socket's kernel buffers. A size of zero leaves that buffer at the
+	 * operating system's default.
+	 *
+	 * @param sendBufferSize    the size of the send buffer in bytes
+	 * @param receiveBufferSize the size of the receive buffer in bytes
+	 */
+	public void setBufferSizes(int sendBufferSize, int receiveBufferSize) {
+		if (sendBufferSize < 0 || receiveBufferSize < 0) {
+			throw new IllegalArgumentException("Buffer sizes cannot be negative");
+		}
+		this.sendBufferSize = sendBufferSize;
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	/**
+	 * Applies the settings to a socket. The receive buffer size should be applied before the
+	 * socket connects, so that a large TCP window can be negotiated.
+	 *
+	 * @param socket the socket to configure
+	 * @throws SocketException if an option could not be set
+	 */
+	public void apply(Socket socket) throws SocketException {
+		if (tcpNoDelay != null) {
+			socket.setTcpNoDelay(tcpNoDelay);
+		}
+		if (sendBufferSize > 0) {
+			socket.setSendBufferSize(sendBufferSize);
+		}
+		if (receiveBufferSize > 0) {
+			socket.setReceiveBufferSize(receiveBufferSize);
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package no.ntnu.sigve.communication;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Reassembles incoming {@link StreamChunkMessage chunks} into {@link IncomingStream}s, and cuts
+ * outgoing data into chunks.
+ */
+public class StreamAssembler {
+	private final Map<StreamKey, IncomingStream> openStreams = new ConcurrentHashMap<>();
+
+	/**
+	 * Sends chunks to their destination.
+	 */
+	public interface ChunkSink {
+		/**
+		 * Sends one chunk.
+		 *
+		 * @param chunk the chunk to send
+		 * @throws IOException if the chunk could not be sent
+		 */
+		void send(StreamChunkMessage chunk) throws IOException;
+	}
+
+	/**
+	 * Hands a received chunk to its stream, opening the stream on its first chunk.
+	 *
+	 * @param chunk    the received chunk, with its source assigned
+	 * @param mayBlock whether the calling thread may wait for the reader to catch up
+	 * @param onOpened receives every newly opened stream
+	 * @throws InterruptedIOException if interrupted while waiting for the reader
+	 */
+	public void accept(
+			StreamChunkMessage chunk,
+			boolean mayBlock,
+			Consumer<IncomingStream> onOpened
+	) throws InterruptedIOException {
+		StreamKey key = new StreamKey(chunk.getSource(), chunk.getStreamId());
+		IncomingStream stream = openStreams.get(key);
+		if (stream == null) {
+			stream = new IncomingStream(chunk.getSource(), chunk.getStreamId());
+			openStreams.put(key, stream);
+			onOpened.accept(stream);
+		}
+		stream.append(chunk.getPayload(), mayBlock);
+		if (chunk.getState() == StreamChunkMessage.END) {
+			openStreams.remove(key);
+			stream.finish();
+		} else if (chunk.getState() == StreamChunkMessage.ABORT) {
+			openStreams.remove(key);
+			stream.abort(new IOException("The sender aborted the stream"));
+		}
+	}
+
+	/**
+	 * Fails every open stream from a source, typically because it disconnected.
+	 *
+	 * @param source the session ID of the source, or null for the server
+	 */
+	public void abortFrom(UUID source) {
+		openStreams.entrySet().removeIf(entry -> {
+			if (!Objects.equals(entry.getKey().source(), source)) {
+				return false;
+			}
+			entry.getValue().abort(new IOException("Connection closed"));
+			return true;
+		});
+	}
+
+	/**
+	 * Fails every open stream.
+	 */
+	public void abortAll() {
+		openStreams.values().forEach(stream -> stream.abort(new IOException("Connection closed")));
+		openStreams.clear();
+	}
+
+	/**
+	 * Reads data until its end and sends it as a series of chunks. If reading fails, an abort
+	 * chunk is sent before the exception is rethrown.
+	 *
+	 * @param destination the receiving client, or null for the server
+	 * @param streamId    the id of the stream
+	 * @param data        the data to send
+	 * @param sink        sends each chunk
+	 * @return the number of bytes sent
+	 * @throws IOException if reading or sending fails
+	 */
+	public static long sendChunks(UUID destination, long streamId, InputStream data, ChunkSink sink)
+			throws IOException {
+		long total = 0;
+		byte[] next = readChunk(destination, streamId, data, sink);
+		while (true) {
+			byte[] chunk = next;
+			next = chunk.length < StreamChunkMessage.CHUNK_SIZE
+					? null
+					: readChunk(destination, streamId, data, sink);
+			boolean last = next == null || next.length == 0;
+			sink.send(new StreamChunkMessage(destination, streamId,
+					last ? StreamChunkMessage.END : StreamChunkMessage.DATA, chunk));
+			total += chunk.length;
+			if (last) {
+				return total;
+			}
+		}
+	}
+
+	private static byte[] readChunk(UUID destination, long streamId, InputStream data, ChunkSink sink)
+			throws IOException {
+		try {
+			return data.readNBytes(StreamChunkMessage.CHUNK_SIZE);
+		} catch (IOException e) {
+			sink.send(new StreamChunkMessage(
+					destination, streamId, StreamChunkMessage.ABORT, new byte[0]));
+			throw e;
+		}
+	}
+
+	/**
+	 * Identifies a stream by its sender and the sender's id for it.
+	 *
+	 * @param source   the sender, or null for the server
+	 * @param streamId the sender's stream id
+	 */
+	private record StreamKey(UUID source, long streamId) {
+	}
+}
@@ -0,0 +1,69 @@
+package no.ntnu.sigve.communication;
+
+import java.util.UUID;
+
+/**
+ * One chunk of a stream of bytes too large to send as a single message. A stream is sent as a
+ * series of chunks with the same stream id, the last of which is marked as the end (or as an
+ * abort, if the sender failed to read its data). Chunks are ordinary messages on the wire, so
+ * other messages can be sent between them.
+ *
+ * <p>Receivers do not see chunks; they get the reassembled stream through
+ * {@link Protocol#onStream(ProtocolUser, IncomingStream)}.</p>
+ */
+public class StreamChunkMessage extends Message<byte[]> {
+	/**
+	 * The number of data bytes in a full chunk.
+	 */
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * State of a chunk followed by more chunks.
+	 */
+	public static final byte DATA = 0;
+
+	/**
+	 * State of the last chunk of a complete stream.
+	 */
+	public static final byte END = 1;
+
+	/**
+	 * State of the last chunk of a stream the sender could not finish.
+	 */
+	public static final byte ABORT = 2;
+
+	private final long streamId;
+	private final byte state;
+
+	/**
+	 * Creates a new chunk.
+	 *
+	 * @param destination the receiving client, or null for the server
+	 * @param streamId    the id of the stream, unique among the sender's streams
+	 * @param state       {@link #DATA}, {@link #END} or {@link #ABORT}
+	 * @param data        the bytes carried by this chunk
+	 */
+	public StreamChunkMessage(UUID destination, long streamId, byte state, byte[] data) {
+		super(destination, data);
+		this.streamId = streamId;
+		this.state = state;
+	}
+
+	/**
+	 * Gets the id of the stream this chunk belongs to.
+	 *
+	 * @return the stream id
+	 */
+	public long getStreamId() {
+		return streamId;
+	}
+
+	/**
+	 * Gets the state of the stream after this chunk.
+	 *
+	 * @return {@link #DATA}, {@link #END} or {@link #ABORT}
+	 */
+	public byte getState() {
+		return state;
+	}
+}
@@ -0,0 +1,32 @@
+package no.ntnu.sigve.communication;
+
+/**
+ * A control message asking the server to subscribe or unsubscribe the sending client to a topic.
+ * The server handles it itself, without passing it on to its protocol.
+ *
+ * <p>Topics are strings made up of segments separated by {@code /}. A topic pattern ending in
+ * {@code /*} matches every topic below it, and {@code *} on its own matches every topic.</p>
+ */
+public class SubscriptionMessage extends Message<String> {
+	private final boolean subscribe;
+
+	/**
+	 * Creates a new subscription message.
+	 *
+	 * @param topic     the topic or topic pattern
+	 * @param subscribe true to subscribe, false to unsubscribe
+	 */
+	public SubscriptionMessage(String topic, boolean subscribe) {
+		super(null, topic);
+		this.subscribe = subscribe;
+	}
+
+	/**
+	 * Checks whether the client wants to subscribe or unsubscribe.
+	 *
+	 * @return true for a subscription, false for an unsubscription
+	 */
+	public boolean isSubscribe() {
+		return subscribe;
+	}
+}
@@ -0,0 +1,65 @@
+package no.ntnu.sigve.communication;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread factories for the threads started by clients and servers. Every listening loop and
+ * connection runs on a thread created by one of these, so the choice of factory decides what a
+ * connection costs.
+ *
+ * <p>Virtual threads need Java 21 or newer at runtime. They are looked up reflectively, so the
+ * library itself still runs on older runtimes with platform threads.</p>
+ */
+public final class Threads {
+	private Threads() {
+	}
+
+	/**
+	 * Creates a factory for ordinary platform threads, named with the given prefix and a counter.
+	 *
+	 * @param prefix the prefix of the thread names
+	 * @return a factory for platform threads
+	 */
+	public static ThreadFactory platformThreads(String prefix) {
+		AtomicLong counter = new AtomicLong();
+		return runnable -> new Thread(runnable, prefix + "-" + counter.getAndIncrement());
+	}
+
+	/**
+	 * Creates a factory for virtual threads, named with the given prefix and a counter. A blocked
+	 * virtual thread does not hold on to an operating system thread, so a connection served by
+	 * one costs kilobytes rather than a full thread stack.
+	 *
+	 * @param prefix the prefix of the thread names
+	 * @return a factory for virtual threads
+	 * @throws UnsupportedOperationException if the runtime does not support virtual threads
+	 */
+	public static ThreadFactory virtualThreads(String prefix) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			Method name = builderType.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, prefix + "-", 0L);
+			return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			throw new UnsupportedOperationException(
+					"Virtual threads require Java 21 or newer", e);
+		}
+	}
+
+	/**
+	 * Checks whether the runtime supports virtual threads.
+	 *
+	 * @return true if {@link #virtualThreads(String)} can be used
+	 */
+	public static boolean virtualThreadsSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+}
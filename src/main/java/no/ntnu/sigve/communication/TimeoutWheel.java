@@ -0,0 +1,202 @@
+package no.ntnu.sigve.communication;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel: a single thread that runs tasks once their timeout has passed. Timeouts
+ * are spread over a ring of slots by their deadline, and each tick the thread only looks at the
+ * slot the current time falls in, so scheduling and cancelling cost the same no matter how many
+ * timeouts are pending. Deadlines are rounded up to the next tick.
+ *
+ * <p>Tasks run on the wheel's thread and must be short; anything slow should be handed off to
+ * another thread.</p>
+ */
+public class TimeoutWheel {
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private static TimeoutWheel shared;
+
+	private final long tickNanos;
+	private final ArrayDeque<Timeout>[] slots;
+	private final int mask;
+	private final ThreadFactory threadFactory;
+	private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+	private long startNanos;
+	private boolean started;
+	private volatile boolean closed;
+
+	/**
+	 * A scheduled task.
+	 */
+	public static final class Timeout {
+		private final Runnable task;
+		private final long deadlineNanos;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private long rounds;
+
+		private Timeout(Runnable task, long deadlineNanos) {
+			this.task = task;
+			this.deadlineNanos = deadlineNanos;
+		}
+
+		/**
+		 * Cancels the timeout, unless its task has already run.
+		 *
+		 * @return true if the task will not run
+		 */
+		public boolean cancel() {
+			return state.compareAndSet(PENDING, CANCELLED) || state.get() == CANCELLED;
+		}
+
+		/**
+		 * Checks whether the task has run.
+		 *
+		 * @return true if the timeout expired
+		 */
+		public boolean isExpired() {
+			return state.get() == EXPIRED;
+		}
+	}
+
+	/**
+	 * Creates a new timing wheel. Its thread is started when the first task is scheduled.
+	 *
+	 * @param tick          the resolution of the wheel
+	 * @param slotCount     the number of slots, rounded up to a power of two. Timeouts longer
+	 *                      than one full turn of the wheel wait for several turns.
+	 * @param threadFactory the factory creating the wheel's thread
+	 */
+	public TimeoutWheel(Duration tick, int slotCount, ThreadFactory threadFactory) {
+		if (tick.isNegative() || tick.isZero() || slotCount < 1) {
+			throw new IllegalArgumentException("The tick and slot count must be positive");
+		}
+		int size = Integer.highestOneBit(Math.max(slotCount - 1, 1)) << 1;
+		this.tickNanos = tick.toNanos();
+		@SuppressWarnings("unchecked")
+		ArrayDeque<Timeout>[] ring = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[size];
+		for (int i = 0; i < size; i++) {
+			ring[i] = new ArrayDeque<>();
+		}
+		this.slots = ring;
+		this.mask = size - 1;
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Gets a wheel shared by every client and server in this JVM, ticking every ten milliseconds
+	 * on a daemon thread.
+	 *
+	 * @return the shared timing wheel
+	 */
+	public static synchronized TimeoutWheel shared() {
+		if (shared == null) {
+			shared = new TimeoutWheel(Duration.ofMillis(10), 512, runnable -> {
+				Thread thread = new Thread(runnable, "timeout-wheel");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return shared;
+	}
+
+	/**
+	 * Schedules a task to run once a delay has passed.
+	 *
+	 * @param task  the task to run
+	 * @param delay the delay before running it
+	 * @return a handle that can cancel the task
+	 * @throws IllegalStateException if the wheel has been closed
+	 */
+	public Timeout schedule(Runnable task, Duration delay) {
+		if (closed) {
+			throw new IllegalStateException("The timeout wheel is closed");
+		}
+		startIfNeeded();
+		Timeout timeout = new Timeout(task, System.nanoTime() + Math.max(delay.toNanos(), 0));
+		scheduled.add(timeout);
+		return timeout;
+	}
+
+	/**
+	 * Stops the wheel's thread. Pending tasks never run.
+	 */
+	public void close() {
+		closed = true;
+	}
+
+	private synchronized void startIfNeeded() {
+		if (!started) {
+			started = true;
+			startNanos = System.nanoTime();
+			threadFactory.newThread(this::run).start();
+		}
+	}
+
+	private void run() {
+		long tick = 0;
+		while (!closed) {
+			long sleep = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+			if (sleep > 0) {
+				LockSupport.parkNanos(this, sleep);
+				continue;
+			}
+			transferScheduled(tick);
+			expire(slots[(int) (tick & mask)]);
+			tick++;
+		}
+		scheduled.clear();
+	}
+
+	/**
+	 * Moves newly scheduled timeouts into their slots. Only called by the wheel's thread.
+	 *
+	 * @param tick the tick being processed
+	 */
+	private void transferScheduled(long tick) {
+		Timeout timeout;
+		while ((timeout = scheduled.poll()) != null) {
+			if (timeout.state.get() != PENDING) {
+				continue;
+			}
+			long elapsed = timeout.deadlineNanos - startNanos;
+			long expiryTick = Math.max((elapsed + tickNanos - 1) / tickNanos, tick);
+			timeout.rounds = (expiryTick - tick) / slots.length;
+			slots[(int) (expiryTick & mask)].addLast(timeout);
+		}
+	}
+
+	private void expire(Deque<Timeout> slot) {
+		Iterator<Timeout> iterator = slot.iterator();
+		while (iterator.hasNext()) {
+			Timeout timeout = iterator.next();
+			if (timeout.state.get() != PENDING) {
+				iterator.remove();
+			} else if (timeout.rounds > 0) {
+				timeout.rounds--;
+			} else {
+				iterator.remove();
+				if (timeout.state.compareAndSet(PENDING, EXPIRED)) {
+					runQuietly(timeout.task);
+				}
+			}
+		}
+	}
+
+	private static void runQuietly(Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package no.ntnu.sigve.communication;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Reads a capture file written by a {@link TrafficRecorder}, one record at a time.
+ */
+public class TrafficCapture implements Closeable {
+	private final DataInputStream input;
+	private final long startMillis;
+	private long nanos;
+
+	/**
+	 * What a record in a capture stands for.
+	 */
+	public enum Kind {
+		/**
+		 * A connection was accepted. The body is the session ID it was accepted with.
+		 */
+		OPEN,
+		/**
+		 * A frame was read from the client.
+		 */
+		IN,
+		/**
+		 * A frame was written to the client.
+		 */
+		OUT,
+		/**
+		 * The connection closed.
+		 */
+		CLOSE
+	}
+
+	/**
+	 * One record of a capture.
+	 */
+	public static final class Record {
+		private final Kind kind;
+		private final int channel;
+		private final long nanos;
+		private final byte[] body;
+
+		private Record(Kind kind, int channel, long nanos, byte[] body) {
+			this.kind = kind;
+			this.channel = channel;
+			this.nanos = nanos;
+			this.body = body;
+		}
+
+		/**
+		 * Gets what the record stands for.
+		 *
+		 * @return the kind of record
+		 */
+		public Kind getKind() {
+			return kind;
+		}
+
+		/**
+		 * Gets the connection the record belongs to. Connections are numbered from zero in the
+		 * order they were accepted.
+		 *
+		 * @return the channel number
+		 */
+		public int getChannel() {
+			return channel;
+		}
+
+		/**
+		 * Gets the time of the record.
+		 *
+		 * @return the nanoseconds since the capture started
+		 */
+		public long getNanos() {
+			return nanos;
+		}
+
+		/**
+		 * Gets the frame body of an {@link Kind#IN} or {@link Kind#OUT} record.
+		 *
+		 * @return the frame body, without its length prefix
+		 */
+		public byte[] getBody() {
+			return body;
+		}
+
+		/**
+		 * Gets the session ID of an {@link Kind#OPEN} record.
+		 *
+		 * @return the session ID the connection was accepted with
+		 */
+		public UUID getSessionId() {
+			ByteBuffer buffer = ByteBuffer.wrap(body);
+			return new UUID(buffer.getLong(), buffer.getLong());
+		}
+	}
+
+	/**
+	 * Opens a capture file.
+	 *
+	 * @param file the capture file
+	 * @throws IOException if the file cannot be read or is not a capture
+	 */
+	public TrafficCapture(Path file) throws IOException {
+		this.input = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file), 64 * 1024));
+		if (input.readInt() != TrafficRecorder.MAGIC
+				|| input.readByte() != TrafficRecorder.VERSION) {
+			input.close();
+			throw new IOException("Not a traffic capture: " + file);
+		}
+		this.startMillis = input.readLong();
+	}
+
+	/**
+	 * Gets the wall-clock time the capture started.
+	 *
+	 * @return the start time in milliseconds since the epoch
+	 */
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @return the next record, or null at the end of the capture
+	 * @throws IOException if the capture is corrupt
+	 */
+	public Record next() throws IOException {
+		int kind = input.read();
+		if (kind < 0) {
+			return null;
+		}
+		if (kind < TrafficRecorder.KIND_OPEN || kind > TrafficRecorder.KIND_CLOSE) {
+			throw new IOException("Unknown record kind: " + kind);
+		}
+		int channel = (int) readVarLong();
+		nanos += readVarLong();
+		long length = readVarLong();
+		Frames.checkLength((int) Math.min(length, Integer.MAX_VALUE));
+		byte[] body = new byte[(int) length];
+		input.readFully(body);
+		return new Record(Kind.values()[kind - TrafficRecorder.KIND_OPEN], channel, nanos, body);
+	}
+
+	private long readVarLong() throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < Long.SIZE; shift += 7) {
+			int next = input.read();
+			if (next < 0) {
+				throw new EOFException("Capture ends in the middle of a record");
+			}
+			value |= (long) (next & 0x7F) << shift;
+			if ((next & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed number in capture");
+	}
+
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
@@ -0,0 +1,166 @@
+package no.ntnu.sigve.communication;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+
+/**
+ * Records the frames a server reads and writes to a capture file, for replaying the traffic later
+ * with {@link no.ntnu.sigve.client.TrafficReplay}. Every connection becomes a {@link Channel} of
+ * the capture, and every frame is stored with the time it passed, so that the capture holds both
+ * what was sent and when.
+ *
+ * <p>The file starts with {@link #MAGIC}, a version byte and the wall-clock start time in
+ * milliseconds. Each record is a kind byte followed by variable-length numbers: the channel, the
+ * nanoseconds since the previous record and the length of the frame body, and then the body
+ * itself. Opening a channel stores the session ID as its body. Records are buffered, so a capture
+ * is only complete once the recorder is {@link #close() closed}.</p>
+ *
+ * @see TrafficCapture
+ */
+public class TrafficRecorder implements Closeable {
+	/**
+	 * The first four bytes of a capture file.
+	 */
+	public static final int MAGIC = 0x53434150;
+	static final byte VERSION = 1;
+	static final byte KIND_OPEN = 1;
+	static final byte KIND_IN = 2;
+	static final byte KIND_OUT = 3;
+	static final byte KIND_CLOSE = 4;
+
+	private final DataOutputStream output;
+	private int nextChannel;
+	private long lastNanos;
+	private boolean stopped;
+
+	private TrafficRecorder(Path file) throws IOException {
+		this.output = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024));
+		output.writeInt(MAGIC);
+		output.writeByte(VERSION);
+		output.writeLong(System.currentTimeMillis());
+		this.lastNanos = System.nanoTime();
+	}
+
+	/**
+	 * Creates a capture file, replacing any file already there, and starts recording to it.
+	 *
+	 * @param file the capture file
+	 * @return the recorder
+	 * @throws IOException if the file cannot be created
+	 */
+	public static TrafficRecorder create(Path file) throws IOException {
+		return new TrafficRecorder(file);
+	}
+
+	/**
+	 * Starts recording a connection.
+	 *
+	 * @param sessionId the session ID the connection was accepted with
+	 * @return the channel to record the connection's frames on
+	 */
+	public synchronized Channel open(UUID sessionId) {
+		Channel channel = new Channel(nextChannel++);
+		byte[] body = ByteBuffer.allocate(16)
+				.putLong(sessionId.getMostSignificantBits())
+				.putLong(sessionId.getLeastSignificantBits())
+				.array();
+		write(KIND_OPEN, channel.id, body, 0, body.length);
+		return channel;
+	}
+
+	private synchronized void write(byte kind, int channel, byte[] data, int offset, int length) {
+		if (stopped) {
+			return;
+		}
+		try {
+			long now = System.nanoTime();
+			output.writeByte(kind);
+			writeVarLong(channel);
+			writeVarLong(now - lastNanos);
+			writeVarLong(length);
+			output.write(data, offset, length);
+			lastNanos = now;
+		} catch (IOException e) {
+			//Stop recording rather than fail the connection
+			stopped = true;
+			e.printStackTrace();
+		}
+	}
+
+	private void writeVarLong(long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			output.writeByte((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+
+	/**
+	 * Flushes what has been recorded and closes the capture file. Frames recorded afterwards are
+	 * ignored.
+	 */
+	@Override
+	public synchronized void close() {
+		if (stopped) {
+			return;
+		}
+		stopped = true;
+		try {
+			output.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * The frames of one connection.
+	 */
+	public final class Channel {
+		private final int id;
+		private boolean closed;
+
+		private Channel(int id) {
+			this.id = id;
+		}
+
+		/**
+		 * Records a frame read from the client.
+		 *
+		 * @param body the frame body, without its length prefix
+		 */
+		public void in(byte[] body) {
+			write(KIND_IN, id, body, 0, body.length);
+		}
+
+		/**
+		 * Records a frame written to the client.
+		 *
+		 * @param frame  an array holding the frame, including its length prefix
+		 * @param offset the position of the frame in the array
+		 * @param length the length of the frame, including its length prefix
+		 */
+		public void out(byte[] frame, int offset, int length) {
+			write(KIND_OUT, id, frame, offset + Frames.HEADER_LENGTH,
+					length - Frames.HEADER_LENGTH);
+		}
+
+		/**
+		 * Records that the connection closed.
+		 */
+		public void close() {
+			synchronized (TrafficRecorder.this) {
+				if (!closed) {
+					closed = true;
+					write(KIND_CLOSE, id, new byte[0], 0, 0);
+				}
+			}
+		}
+	}
+}
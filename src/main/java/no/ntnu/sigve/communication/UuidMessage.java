@@ -1,17 +1,55 @@
 package no.ntnu.sigve.communication;
 
+import java.util.List;
 import java.util.UUID;
 
 /**
- * A specific message used for providing a connected client with its server-side ID.
+ * A specific message used for providing a connected client with its server-side ID. It also
+ * carries the {@link Compression compression} algorithms the server offers for the connection,
+ * and the token for resuming the session if the server keeps sessions across connections.
  */
 public class UuidMessage extends Message<UUID> {
+	private final String[] compressions;
+	private final long resumeToken;
+
 	/**
 	 * Creates a new UUIDMessage.
 	 *
 	 * @param payload the UUID to be transmitted.
 	 */
 	public UuidMessage(UUID payload) {
+		this(payload, List.of(), 0);
+	}
+
+	/**
+	 * Creates a new UUIDMessage offering compression algorithms and session resumption.
+	 *
+	 * @param payload      the UUID to be transmitted.
+	 * @param compressions the names of the offered algorithms, most preferred first
+	 * @param resumeToken  the token for resuming the session, or zero if sessions cannot be
+	 *                     resumed
+	 */
+	public UuidMessage(UUID payload, List<String> compressions, long resumeToken) {
 		super(null, payload);
+		this.compressions = compressions.toArray(new String[0]);
+		this.resumeToken = resumeToken;
+	}
+
+	/**
+	 * Gets the compression algorithms offered by the server.
+	 *
+	 * @return the names of the offered algorithms, most preferred first
+	 */
+	public List<String> getCompressions() {
+		return List.of(compressions);
+	}
+
+	/**
+	 * Gets the token for resuming the session.
+	 *
+	 * @return the resume token, or zero if the server does not keep sessions
+	 */
+	public long getResumeToken() {
+		return resumeToken;
 	}
 }
@@ -0,0 +1,77 @@
+package no.ntnu.sigve.communication;
+
+import java.time.Duration;
+
+/**
+ * Controls how outgoing frames are gathered before they are written to the socket. Without
+ * batching every message costs at least one write call, and usually one TCP segment. With
+ * batching, frames are collected in a buffer that is written when it reaches
+ * {@link #getMaxBatchBytes() a size threshold}, when the writer has nothing more to send, or at
+ * the latest {@link #getMaxLingerNanos() a linger time} after the first frame in the batch.
+ *
+ * <p>This is similar to Nagle's algorithm, but under the application's control. It combines well
+ * with {@link SocketSettings#setTcpNoDelay(boolean) TCP_NODELAY}, which turns off the kernel's
+ * own delaying.</p>
+ */
+public final class WriteBatching {
+	private static final WriteBatching DISABLED = new WriteBatching(0, 0);
+
+	private final int maxBatchBytes;
+	private final long maxLingerNanos;
+
+	private WriteBatching(int maxBatchBytes, long maxLingerNanos) {
+		this.maxBatchBytes = maxBatchBytes;
+		this.maxLingerNanos = maxLingerNanos;
+	}
+
+	/**
+	 * No batching: every frame is written as soon as it is sent.
+	 *
+	 * @return the disabled batching setting
+	 */
+	public static WriteBatching disabled() {
+		return DISABLED;
+	}
+
+	/**
+	 * Batching with a size threshold and a maximum linger time.
+	 *
+	 * @param maxBatchBytes the number of buffered bytes that triggers a write
+	 * @param maxLinger     the longest time a frame may wait for more frames to join it; zero
+	 *                      only gathers frames that are already waiting to be sent
+	 * @return the new batching setting
+	 */
+	public static WriteBatching of(int maxBatchBytes, Duration maxLinger) {
+		if (maxBatchBytes < 1 || maxLinger.isNegative()) {
+			throw new IllegalArgumentException("Batch size must be positive and linger not negative");
+		}
+		return new WriteBatching(maxBatchBytes, maxLinger.toNanos());
+	}
+
+	/**
+	 * Checks whether frames are batched at all.
+	 *
+	 * @return true if batching is enabled
+	 */
+	public boolean isEnabled() {
+		return maxBatchBytes > 0;
+	}
+
+	/**
+	 * Gets the number of buffered bytes that triggers a write.
+	 *
+	 * @return the batch size threshold
+	 */
+	public int getMaxBatchBytes() {
+		return maxBatchBytes;
+	}
+
+	/**
+	 * Gets the longest time a frame may wait for more frames to join it.
+	 *
+	 * @return the maximum linger time in nanoseconds
+	 */
+	public long getMaxLingerNanos() {
+		return maxLingerNanos;
+	}
+}
@@ -0,0 +1,171 @@
+package no.ntnu.sigve.server;
+
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Controls how a {@link ServerTransport} accepts connections. Accepting is kept apart from the
+ * work of setting a connection up: acceptor threads only take sockets off the listening queue
+ * and hand them to a small pool of handshake threads, which apply socket settings, send the
+ * session ID and notify the protocol. A slow client or protocol callback therefore never holds up
+ * the next accept.
+ *
+ * <p>Under a burst of connections, such as every client reconnecting after a deploy, the
+ * {@link #withBacklog(int) backlog} decides how many connections the operating system queues
+ * before refusing new ones. With {@link #withReusePort(boolean) SO_REUSEPORT}, every acceptor
+ * thread gets a listening socket of its own on the same port and the kernel spreads incoming
+ * connections over them, so the acceptors do not contend for one socket. Where the option is
+ * unsupported, the acceptors share a single socket.</p>
+ *
+ * <p>When the handshake threads fall behind and their queue is full, acceptor threads run
+ * handshakes themselves, which slows accepting down and leaves the rest of the burst waiting in
+ * the backlog.</p>
+ */
+public final class AcceptSettings {
+	private static final int HANDSHAKE_QUEUE_CAPACITY = 4096;
+	private static final AcceptSettings DEFAULTS = new AcceptSettings(
+			1, 0, false, Runtime.getRuntime().availableProcessors());
+
+	private final int acceptorCount;
+	private final int backlog;
+	private final boolean reusePort;
+	private final int handshakeThreads;
+
+	private AcceptSettings(int acceptorCount, int backlog, boolean reusePort, int handshakeThreads) {
+		this.acceptorCount = acceptorCount;
+		this.backlog = backlog;
+		this.reusePort = reusePort;
+		this.handshakeThreads = handshakeThreads;
+	}
+
+	/**
+	 * One acceptor thread on one socket with the platform's default backlog, and one handshake
+	 * thread per available processor.
+	 *
+	 * @return the default settings
+	 */
+	public static AcceptSettings defaults() {
+		return DEFAULTS;
+	}
+
+	/**
+	 * Sets the number of threads accepting connections.
+	 *
+	 * @param acceptorCount the number of acceptor threads
+	 * @return settings like these, with the given number of acceptors
+	 */
+	public AcceptSettings withAcceptors(int acceptorCount) {
+		if (acceptorCount < 1) {
+			throw new IllegalArgumentException("At least one acceptor is required");
+		}
+		return new AcceptSettings(acceptorCount, backlog, reusePort, handshakeThreads);
+	}
+
+	/**
+	 * Sets the number of connections the operating system queues before they are accepted. The
+	 * operating system may cap it, e.g. at {@code net.core.somaxconn} on Linux.
+	 *
+	 * @param backlog the requested backlog, or zero for the platform default
+	 * @return settings like these, with the given backlog
+	 */
+	public AcceptSettings withBacklog(int backlog) {
+		if (backlog < 0) {
+			throw new IllegalArgumentException("The backlog cannot be negative");
+		}
+		return new AcceptSettings(acceptorCount, backlog, reusePort, handshakeThreads);
+	}
+
+	/**
+	 * Decides whether every acceptor binds a socket of its own with {@code SO_REUSEPORT}.
+	 *
+	 * @param reusePort true to bind one socket per acceptor
+	 * @return settings like these, with the given choice
+	 */
+	public AcceptSettings withReusePort(boolean reusePort) {
+		return new AcceptSettings(acceptorCount, backlog, reusePort, handshakeThreads);
+	}
+
+	/**
+	 * Sets the number of threads setting up accepted connections.
+	 *
+	 * @param handshakeThreads the number of handshake threads
+	 * @return settings like these, with the given number of handshake threads
+	 */
+	public AcceptSettings withHandshakeThreads(int handshakeThreads) {
+		if (handshakeThreads < 1) {
+			throw new IllegalArgumentException("At least one handshake thread is required");
+		}
+		return new AcceptSettings(acceptorCount, backlog, reusePort, handshakeThreads);
+	}
+
+	/**
+	 * Gets the number of threads accepting connections.
+	 *
+	 * @return the number of acceptor threads
+	 */
+	public int getAcceptorCount() {
+		return acceptorCount;
+	}
+
+	/**
+	 * Gets the requested accept backlog.
+	 *
+	 * @return the backlog, or zero for the platform default
+	 */
+	public int getBacklog() {
+		return backlog;
+	}
+
+	/**
+	 * Checks whether acceptors bind sockets of their own with {@code SO_REUSEPORT}.
+	 *
+	 * @return true if every acceptor binds its own socket
+	 */
+	public boolean isReusePort() {
+		return reusePort;
+	}
+
+	/**
+	 * Gets the number of threads setting up accepted connections.
+	 *
+	 * @return the number of handshake threads
+	 */
+	public int getHandshakeThreads() {
+		return handshakeThreads;
+	}
+
+	/**
+	 * Decides how many listening sockets to bind, given the options a socket supports.
+	 *
+	 * @param supportedOptions the options supported by the listening socket
+	 * @return the number of sockets to bind
+	 */
+	int socketCount(Set<SocketOption<?>> supportedOptions) {
+		if (!reusePort || acceptorCount == 1) {
+			return 1;
+		}
+		if (!supportedOptions.contains(StandardSocketOptions.SO_REUSEPORT)) {
+			System.err.println("SO_REUSEPORT is not supported; acceptors share one socket");
+			return 1;
+		}
+		return acceptorCount;
+	}
+
+	/**
+	 * Creates the pool of handshake threads.
+	 *
+	 * @param threadFactory the factory creating the threads
+	 * @return the new pool
+	 */
+	ExecutorService newHandshakeExecutor(ThreadFactory threadFactory) {
+		return new ThreadPoolExecutor(handshakeThreads, handshakeThreads, 0, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<>(HANDSHAKE_QUEUE_CAPACITY), threadFactory,
+				new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+}
@@ -0,0 +1,118 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.StandardSocketOptions;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The classic transport, in which every client is served by its own {@link ServerConnection}
+ * thread blocking on the socket. Simple and predictable, but every connection costs a thread.
+ *
+ * <p>Connections are accepted and set up as decided by its {@link AcceptSettings}.</p>
+ */
+public class BlockingServerTransport implements ServerTransport {
+	private final AcceptSettings acceptSettings;
+	private ServerSocket[] serverSockets;
+	private Thread[] listeners;
+	private ExecutorService handshakes;
+
+	/**
+	 * Creates a new blocking transport with the {@link AcceptSettings#defaults() default} accept
+	 * settings.
+	 */
+	public BlockingServerTransport() {
+		this(AcceptSettings.defaults());
+	}
+
+	/**
+	 * Creates a new blocking transport.
+	 *
+	 * @param acceptSettings how connections are accepted
+	 */
+	public BlockingServerTransport(AcceptSettings acceptSettings) {
+		this.acceptSettings = acceptSettings;
+	}
+
+	@Override
+	public void bind(int port) throws IOException {
+		ServerSocket first = new ServerSocket();
+		int count = acceptSettings.socketCount(first.supportedOptions());
+		this.serverSockets = new ServerSocket[count];
+		serverSockets[0] = first;
+		for (int i = 1; i < count; i++) {
+			serverSockets[i] = new ServerSocket();
+		}
+		for (ServerSocket serverSocket : serverSockets) {
+			if (count > 1) {
+				serverSocket.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			serverSocket.bind(new InetSocketAddress(port), acceptSettings.getBacklog());
+		}
+	}
+
+	@Override
+	public void start(Server server) {
+		this.handshakes = acceptSettings.newHandshakeExecutor(server.getThreadFactory());
+		this.listeners = new Thread[acceptSettings.getAcceptorCount()];
+		for (int i = 0; i < listeners.length; i++) {
+			ServerSocket serverSocket = serverSockets[i % serverSockets.length];
+			listeners[i] = server.getThreadFactory().newThread(
+					new ServerIncomingConnectionListener(server, serverSocket, handshakes));
+			listeners[i].start();
+		}
+	}
+
+	@Override
+	public void close() {
+		for (ServerSocket serverSocket : serverSockets) {
+			try {
+				serverSocket.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		if (listeners != null) {
+			for (Thread listener : listeners) {
+				awaitTermination(listener);
+			}
+		}
+		shutdown(handshakes);
+	}
+
+	/**
+	 * Waits for a thread blocked in accept to notice that its socket was closed. The socket only
+	 * releases its port once that thread has left the accept call.
+	 *
+	 * @param thread the thread to wait for, or null if it was never started
+	 */
+	static void awaitTermination(Thread thread) {
+		if (thread == null || thread == Thread.currentThread()) {
+			return;
+		}
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stops the handshake threads once they have set up every connection already accepted.
+	 *
+	 * @param handshakes the handshake threads, or null if they were never started
+	 */
+	static void shutdown(ExecutorService handshakes) {
+		if (handshakes == null) {
+			return;
+		}
+		handshakes.shutdown();
+		try {
+			handshakes.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package no.ntnu.sigve.server;
+
+import java.net.InetAddress;
+import java.util.UUID;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.ReplayBuffer;
+
+/**
+ * A server-side connection to one individual client, independent of the transport that carries
+ * it. The {@link Server} keeps one of these for every connected session.
+ */
+public interface ClientConnection {
+	/**
+	 * Gets the session ID of the connected client.
+	 *
+	 * @return the session ID of the client
+	 */
+	UUID getSessionId();
+
+	/**
+	 * Gets the address of the connected client.
+	 *
+	 * @return the remote address of the client
+	 */
+	InetAddress getInetAddress();
+
+	/**
+	 * Starts reading messages from the client. Called once the connection has been registered
+	 * with the server.
+	 */
+	void start();
+
+	/**
+	 * Sends a message to the client.
+	 *
+	 * @param message the message to send
+	 */
+	void sendMessage(Message<?> message);
+
+	/**
+	 * Sends a frame that has already been encoded with
+	 * {@link no.ntnu.sigve.communication.MessageCodec#encodeShared(Message) encodeShared}. The
+	 * frame may be shared with other connections and must not be modified.
+	 *
+	 * @param frame    the encoded frame, including its length prefix
+	 * @param priority the lane to queue the frame in
+	 */
+	void sendFrame(byte[] frame, Priority priority);
+
+	/**
+	 * Attaches the connection to a resumable session. From then on, messages that leave the
+	 * outbound queue are recorded in the session's replay buffer, and messages still queued when
+	 * the connection closes are handed back to it.
+	 *
+	 * @param sessionId the ID of the session, which replaces the ID the connection was accepted
+	 *                  with
+	 * @param replay    the session's replay buffer
+	 */
+	void attachSession(UUID sessionId, ReplayBuffer replay);
+
+	/**
+	 * Attempts to close the connection.
+	 */
+	void close();
+}
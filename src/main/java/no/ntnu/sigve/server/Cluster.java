@@ -0,0 +1,297 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+
+/**
+ * Joins a {@link Server} to other servers, its peer nodes, so that clients of different nodes can
+ * reach each other. Each node listens for links from its peers on a cluster port of its own, and
+ * opens a link to every peer it knows of. Links are ordinary {@link Client} connections carrying
+ * {@link ClusterMessage}s: a node announces over its links every session it gains or loses, and
+ * forwards messages for sessions owned by a peer to that peer.
+ *
+ * <p>A node only sends on the links it opened itself, and only receives on the links its peers
+ * opened to it, so every pair of nodes is joined by two links, one for each direction. Links
+ * that fail are opened again with backoff, and a peer whose link to this node drops is
+ * forgotten along with its sessions until it comes back and announces them again.</p>
+ *
+ * <p>Forwarded messages carry the wall-clock time they were sent, and the time they took to
+ * arrive is recorded as the hop time of the receiving node's {@link Server#getMetrics() metrics}.
+ * Across machines this is only as accurate as their clocks are synchronized.</p>
+ */
+class Cluster {
+	private static final long MIN_RETRY_MILLIS = 50;
+	private static final long MAX_RETRY_MILLIS = 1000;
+
+	private final Server server;
+	private final UUID nodeId = UUID.randomUUID();
+	private final Server linkServer;
+	private final List<Link> outbound = new ArrayList<>();
+	private final Map<UUID, Link> links = new ConcurrentHashMap<>();
+	private final Map<UUID, UUID> inbound = new ConcurrentHashMap<>();
+	private final Map<UUID, UUID> owners = new ConcurrentHashMap<>();
+	private final Object announcing = new Object();
+	private volatile boolean closed;
+
+	/**
+	 * Creates the cluster membership of a server, and binds its cluster port.
+	 *
+	 * @param server      the server joining the cluster
+	 * @param clusterPort the port peers open their links to
+	 * @param peers       the cluster ports of the peer nodes
+	 * @throws IOException if the cluster port cannot be bound
+	 */
+	Cluster(Server server, int clusterPort, List<InetSocketAddress> peers) throws IOException {
+		this.server = server;
+		this.linkServer = new Server(clusterPort, new InboundProtocol());
+		peers.forEach(peer -> outbound.add(new Link(peer)));
+	}
+
+	/**
+	 * Starts accepting links from peers, and starts opening links to them.
+	 */
+	void start() {
+		linkServer.setThreadFactory(server.getThreadFactory());
+		linkServer.start();
+		outbound.forEach(link -> server.getThreadFactory().newThread(link::open).start());
+	}
+
+	/**
+	 * Closes every link. Peers forget this node's sessions once its links are gone.
+	 */
+	void close() {
+		closed = true;
+		outbound.forEach(Link::close);
+		linkServer.close();
+	}
+
+	/**
+	 * Tells every peer that this node has gained or lost a session.
+	 *
+	 * @param sessionId the session
+	 * @param own       true if the session was gained, false if it was lost
+	 */
+	void announce(UUID sessionId, boolean own) {
+		synchronized (announcing) {
+			ClusterMessage announcement = ClusterMessage.ownership(nodeId, own, sessionId);
+			links.values().forEach(link -> link.send(announcement));
+		}
+	}
+
+	/**
+	 * Forwards a message to the node owning its destination, if a peer owns it.
+	 *
+	 * @param message the message to forward
+	 * @return true if the message was handed to a link
+	 */
+	boolean forward(Message<?> message) {
+		UUID owner = owners.get(message.getDestination());
+		Link link = owner == null ? null : links.get(owner);
+		if (link == null || !link.send(ClusterMessage.forward(nodeId, message))) {
+			return false;
+		}
+		server.getMetrics().recordForward();
+		return true;
+	}
+
+	/**
+	 * Sends a message to be broadcast to the clients of every peer.
+	 *
+	 * @param message the message to broadcast
+	 */
+	void broadcast(Message<?> message) {
+		ClusterMessage broadcast = ClusterMessage.broadcast(nodeId, message);
+		links.values().forEach(link -> link.send(broadcast));
+	}
+
+	/**
+	 * Gets the current wall-clock time with the precision forwarded messages are timed with.
+	 *
+	 * @return the microseconds since the epoch
+	 */
+	static long nowMicros() {
+		Instant now = Instant.now();
+		return TimeUnit.SECONDS.toMicros(now.getEpochSecond())
+				+ TimeUnit.NANOSECONDS.toMicros(now.getNano());
+	}
+
+	private void recordHop(ClusterMessage message) {
+		server.getMetrics().getHopTime().record(
+				TimeUnit.MICROSECONDS.toNanos(nowMicros() - message.getSentMicros()));
+	}
+
+	/**
+	 * Handles what peers send on the links they opened to this node.
+	 */
+	private class InboundProtocol implements Protocol<Server> {
+		@Override
+		public void receiveMessage(Server caller, Message<?> message) {
+			if (!(message instanceof ClusterMessage clusterMessage)) {
+				return;
+			}
+			switch (clusterMessage.getKind()) {
+				case HELLO -> {
+					inbound.put(message.getSource(), clusterMessage.getNodeId());
+					caller.route(ClusterMessage.welcome(message.getSource(), nodeId));
+				}
+				case OWN -> {
+					for (UUID session : clusterMessage.getSessions()) {
+						owners.put(session, clusterMessage.getNodeId());
+					}
+				}
+				case DISOWN -> {
+					for (UUID session : clusterMessage.getSessions()) {
+						owners.remove(session, clusterMessage.getNodeId());
+					}
+				}
+				case FORWARD -> {
+					recordHop(clusterMessage);
+					server.deliver(clusterMessage.getPayload());
+				}
+				case BROADCAST -> {
+					recordHop(clusterMessage);
+					server.broadcastLocally(clusterMessage.getPayload());
+				}
+				default -> System.err.println("Unexpected cluster message: "
+						+ clusterMessage.getKind());
+			}
+		}
+
+		@Override
+		public void onClientConnect(Server caller, UUID clientId) {
+			//Peers introduce themselves with a HELLO
+		}
+
+		@Override
+		public void onClientDisconnect(Server caller, UUID clientId) {
+			UUID peer = inbound.remove(clientId);
+			if (peer != null && !inbound.containsValue(peer)) {
+				owners.values().removeIf(peer::equals);
+			}
+		}
+	}
+
+	/**
+	 * A link from this node to one peer, opened again whenever it fails.
+	 */
+	private class Link implements Protocol<Client> {
+		private final InetSocketAddress peer;
+		private Client client;
+		private volatile UUID peerId;
+
+		Link(InetSocketAddress peer) {
+			this.peer = peer;
+		}
+
+		/**
+		 * Connects to the peer, retrying with backoff until it succeeds or the cluster closes.
+		 */
+		void open() {
+			long delay = MIN_RETRY_MILLIS;
+			while (!closed) {
+				Client connecting = new Client(peer.getHostString(), peer.getPort(), this);
+				connecting.setThreadFactory(server.getThreadFactory());
+				try {
+					synchronized (this) {
+						connecting.connect();
+						this.client = connecting;
+					}
+					if (closed) {
+						close();
+					} else {
+						connecting.sendOutgoingMessage(ClusterMessage.hello(nodeId));
+					}
+					return;
+				} catch (IOException e) {
+					//The peer is not up yet
+				}
+				try {
+					TimeUnit.MILLISECONDS.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				delay = Math.min(delay * 2, MAX_RETRY_MILLIS);
+			}
+		}
+
+		/**
+		 * Sends a message to the peer.
+		 *
+		 * @param message the message to send
+		 * @return false if the link is down
+		 */
+		boolean send(ClusterMessage message) {
+			Client current;
+			synchronized (this) {
+				current = this.client;
+			}
+			if (current == null) {
+				return false;
+			}
+			try {
+				current.sendOutgoingMessage(message);
+				return true;
+			} catch (IllegalStateException e) {
+				return false;
+			}
+		}
+
+		synchronized void close() {
+			Client current = this.client;
+			this.client = null;
+			if (current != null) {
+				try {
+					current.stopSocketCommunication();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		@Override
+		public void receiveMessage(Client caller, Message<?> message) {
+			if (message instanceof ClusterMessage welcome
+					&& welcome.getKind() == ClusterMessage.Kind.WELCOME) {
+				//The peer learns every session before anything is forwarded to it
+				synchronized (announcing) {
+					UUID[] sessions = server.getSessionIds().toArray(new UUID[0]);
+					send(ClusterMessage.ownership(nodeId, true, sessions));
+					this.peerId = welcome.getNodeId();
+					links.put(peerId, this);
+				}
+			}
+		}
+
+		@Override
+		public void onClientConnect(Client caller, UUID clientId) {
+			//The link is only usable once the peer has answered the HELLO
+		}
+
+		@Override
+		public void onClientDisconnect(Client caller, UUID clientId) {
+			synchronized (this) {
+				if (caller != this.client) {
+					return;
+				}
+				this.client = null;
+			}
+			if (peerId != null) {
+				links.remove(peerId, this);
+			}
+			if (!closed) {
+				server.getThreadFactory().newThread(this::open).start();
+			}
+		}
+	}
+}
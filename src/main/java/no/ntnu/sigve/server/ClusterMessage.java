@@ -0,0 +1,110 @@
+package no.ntnu.sigve.server;
+
+import java.util.UUID;
+import no.ntnu.sigve.communication.Message;
+
+/**
+ * A message between two nodes of a {@link Cluster}, sent over an inter-node link. Carries either
+ * news about which sessions a node owns, or a message for clients of the receiving node.
+ */
+final class ClusterMessage extends Message<Message<?>> {
+	/**
+	 * What a cluster message is for.
+	 */
+	enum Kind {
+		/**
+		 * Sent by a node that has opened a link, introducing itself.
+		 */
+		HELLO,
+		/**
+		 * The answer to a {@link #HELLO}, introducing the node at the other end of the link.
+		 */
+		WELCOME,
+		/**
+		 * Sessions the sending node now owns.
+		 */
+		OWN,
+		/**
+		 * Sessions the sending node no longer owns.
+		 */
+		DISOWN,
+		/**
+		 * A message for a client of the receiving node.
+		 */
+		FORWARD,
+		/**
+		 * A message for every client of the receiving node.
+		 */
+		BROADCAST
+	}
+
+	private final Kind kind;
+	private final UUID nodeId;
+	private final UUID[] sessions;
+	private final long sentMicros;
+
+	private ClusterMessage(
+			UUID destination,
+			Kind kind,
+			UUID nodeId,
+			UUID[] sessions,
+			Message<?> message
+	) {
+		super(destination, message);
+		this.kind = kind;
+		this.nodeId = nodeId;
+		this.sessions = sessions;
+		this.sentMicros = message == null ? 0 : Cluster.nowMicros();
+	}
+
+	static ClusterMessage hello(UUID nodeId) {
+		return new ClusterMessage(null, Kind.HELLO, nodeId, null, null);
+	}
+
+	static ClusterMessage welcome(UUID link, UUID nodeId) {
+		return new ClusterMessage(link, Kind.WELCOME, nodeId, null, null);
+	}
+
+	static ClusterMessage ownership(UUID nodeId, boolean own, UUID... sessions) {
+		return new ClusterMessage(null, own ? Kind.OWN : Kind.DISOWN, nodeId, sessions, null);
+	}
+
+	static ClusterMessage forward(UUID nodeId, Message<?> message) {
+		return new ClusterMessage(null, Kind.FORWARD, nodeId, null, message);
+	}
+
+	static ClusterMessage broadcast(UUID nodeId, Message<?> message) {
+		return new ClusterMessage(null, Kind.BROADCAST, nodeId, null, message);
+	}
+
+	Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * Gets the node that sent the message.
+	 *
+	 * @return the ID of the sending node
+	 */
+	UUID getNodeId() {
+		return nodeId;
+	}
+
+	/**
+	 * Gets the sessions of an {@link Kind#OWN} or {@link Kind#DISOWN} message.
+	 *
+	 * @return the sessions changing owner
+	 */
+	UUID[] getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * Gets the wall-clock time a forwarded message was sent, in microseconds since the epoch.
+	 *
+	 * @return the time the message was sent
+	 */
+	long getSentMicros() {
+		return sentMicros;
+	}
+}
@@ -0,0 +1,202 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.HeartbeatMessage;
+import no.ntnu.sigve.communication.LocalInbox;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.ReplayBuffer;
+
+/**
+ * An in-process connection from a {@link Server} to a client in the same JVM, made by a
+ * {@link LocalServerTransport}. Messages are delivered to the client's {@link LocalInbox} on the
+ * sending thread, and messages from the client are taken from the connection's own inbox by a
+ * thread created by the server's thread factory.
+ *
+ * <p>There is no socket to fill up, so messages are never queued on the server side, and
+ * priorities make no difference to the order in which they arrive. The one exception is while
+ * the connection is being set up: messages are held back until the server has registered it,
+ * so that a client never learns its session ID before other clients can reach it.</p>
+ *
+ * <p>Messages are not encoded, so {@link Server#setRateLimits rate limits} only count them, not
+ * their bytes. The thread taking messages from the client parks while the client is over its
+ * limits.</p>
+ */
+public class LocalServerConnection implements ClientConnection {
+	private final Server server;
+	private final LocalInbox clientInbox;
+	private final LocalInbox inbox;
+	private final boolean copyOnSend;
+	private final TokenBucket limiter;
+	private volatile UUID clientUuid;
+	private volatile ReplayBuffer replay;
+	private List<Message<?>> heldBack = new ArrayList<>();
+	private volatile boolean ready;
+	private MessageCodec frameCodec;
+	private boolean closed;
+
+	/**
+	 * Creates a new in-process connection from a {@link Server} to a
+	 * {@link no.ntnu.sigve.client.Client}.
+	 *
+	 * @param server      the connected server
+	 * @param clientInbox the inbox receiving messages sent to the client
+	 * @param clientUuid  the UUID of the connected client
+	 * @param copyOnSend  true to copy messages in both directions rather than share them
+	 */
+	public LocalServerConnection(
+			Server server,
+			LocalInbox clientInbox,
+			UUID clientUuid,
+			boolean copyOnSend
+	) {
+		this.server = server;
+		this.clientInbox = clientInbox;
+		this.inbox = new LocalInbox(copyOnSend);
+		this.clientUuid = clientUuid;
+		this.copyOnSend = copyOnSend;
+		this.limiter = server.newSessionLimiter();
+	}
+
+	/**
+	 * Gets the inbox the client delivers its messages to.
+	 *
+	 * @return the connection's inbox
+	 */
+	LocalInbox getInbox() {
+		return this.inbox;
+	}
+
+	@Override
+	public UUID getSessionId() {
+		return this.clientUuid;
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return InetAddress.getLoopbackAddress();
+	}
+
+	@Override
+	public void attachSession(UUID sessionId, ReplayBuffer replay) {
+		this.clientUuid = sessionId;
+		this.replay = replay;
+	}
+
+	@Override
+	public void start() {
+		server.getThreadFactory().newThread(this::run).start();
+	}
+
+	/**
+	 * Takes messages from the client until the connection closes.
+	 */
+	private void run() {
+		Message<?> message;
+		while ((message = inbox.take()) != null) {
+			server.getMetrics().recordMessageIn(0);
+			if (message instanceof HeartbeatMessage heartbeat) {
+				if (heartbeat.isPing()) {
+					sendMessage(HeartbeatMessage.pong());
+				}
+			} else {
+				message.assignSource(clientUuid);
+				server.registerIncomingMessage(message);
+			}
+			long pause = server.throttle(limiter, 0);
+			if (pause > 0) {
+				TokenBucket.pause(pause);
+			}
+		}
+		close();
+	}
+
+	/**
+	 * Delivers the messages held back while the connection was set up, and every message sent
+	 * from then on. Called once the server has registered the connection.
+	 */
+	void ready() {
+		synchronized (this) {
+			heldBack.forEach(this::deliver);
+			heldBack = null;
+			ready = true;
+		}
+	}
+
+	@Override
+	public void sendMessage(Message<?> message) {
+		if (!ready) {
+			synchronized (this) {
+				if (!ready) {
+					heldBack.add(message);
+					return;
+				}
+			}
+		}
+		deliver(message);
+	}
+
+	private void deliver(Message<?> message) {
+		try {
+			if (!clientInbox.deliver(copyOnSend ? LocalInbox.copy(message) : message)) {
+				return;
+			}
+		} catch (IOException e) {
+			server.getMetrics().recordCodecError();
+			e.printStackTrace();
+			return;
+		}
+		server.getMetrics().recordMessageOut(0);
+		ReplayBuffer session = this.replay;
+		if (session != null && ReplayBuffer.isCounted(message)) {
+			session.sent(message);
+		}
+	}
+
+	/**
+	 * Decodes a shared frame and delivers the message. The server hands in-process connections
+	 * messages rather than frames, so this is only a fallback.
+	 */
+	@Override
+	public void sendFrame(byte[] frame, Priority priority) {
+		Message<?> message;
+		try {
+			synchronized (this) {
+				if (frameCodec == null) {
+					frameCodec = server.newCodec();
+				}
+				message = frameCodec.decode(
+						Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length));
+			}
+		} catch (IOException | ClassNotFoundException e) {
+			server.getMetrics().recordCodecError();
+			e.printStackTrace();
+			return;
+		}
+		sendMessage(message);
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			if (frameCodec != null) {
+				frameCodec.close();
+			}
+		}
+		inbox.close();
+		clientInbox.close();
+		server.removeConnection(this);
+		server.releaseConnection();
+	}
+}
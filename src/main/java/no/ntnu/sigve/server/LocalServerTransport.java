@@ -0,0 +1,89 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.function.UnaryOperator;
+import no.ntnu.sigve.communication.LocalExchange;
+import no.ntnu.sigve.communication.LocalInbox;
+
+/**
+ * A transport for clients in the same JVM, made with
+ * {@link no.ntnu.sigve.client.Client#inProcess(int, no.ntnu.sigve.communication.Protocol)}. No
+ * socket is opened: the port only names the server within the JVM, and message objects are
+ * handed between client and server through {@link LocalInbox lock-free queues} without being
+ * encoded.
+ *
+ * <p>By default the receiver gets the very object that was sent, so neither side may modify a
+ * message after sending it. With copy-on-send, every message is copied through Java
+ * serialization instead, which isolates the two sides at the cost of the encoding.</p>
+ *
+ * <p>Connections are set up on handshake threads, like with the other transports, so
+ * {@link no.ntnu.sigve.communication.Protocol#onClientConnect onClientConnect} never runs on
+ * the connecting client's thread.</p>
+ */
+public class LocalServerTransport implements ServerTransport {
+	private final boolean copyOnSend;
+	private final UnaryOperator<LocalInbox> acceptor = this::accept;
+	private int port;
+	private volatile Server server;
+	private ExecutorService handshakes;
+
+	/**
+	 * Creates a new in-process transport that hands messages over without copying them.
+	 */
+	public LocalServerTransport() {
+		this(false);
+	}
+
+	/**
+	 * Creates a new in-process transport.
+	 *
+	 * @param copyOnSend true to give the receiver a copy of every message rather than the
+	 *                   message itself
+	 */
+	public LocalServerTransport(boolean copyOnSend) {
+		this.copyOnSend = copyOnSend;
+	}
+
+	@Override
+	public void bind(int port) throws IOException {
+		LocalExchange.listen(port, acceptor);
+		this.port = port;
+	}
+
+	@Override
+	public void start(Server server) {
+		this.handshakes = AcceptSettings.defaults().newHandshakeExecutor(server.getThreadFactory());
+		this.server = server;
+	}
+
+	/**
+	 * Accepts a client connecting in process. The client's inbox receives its session ID once
+	 * the connection has been set up on a handshake thread.
+	 *
+	 * @param clientInbox the inbox receiving messages sent to the client
+	 * @return the inbox receiving messages sent by the client, or null if the server is not
+	 *         accepting connections or is full
+	 */
+	private LocalInbox accept(LocalInbox clientInbox) {
+		Server accepting = this.server;
+		if (accepting == null || !accepting.reserveConnection()) {
+			return null;
+		}
+		LocalServerConnection connection = new LocalServerConnection(
+				accepting, clientInbox, UUID.randomUUID(), copyOnSend);
+		handshakes.execute(() -> {
+			accepting.acceptConnection(connection);
+			connection.ready();
+		});
+		return connection.getInbox();
+	}
+
+	@Override
+	public void close() {
+		LocalExchange.unlisten(port, acceptor);
+		this.server = null;
+		BlockingServerTransport.shutdown(handshakes);
+	}
+}
@@ -0,0 +1,465 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Metrics;
+
+/**
+ * Durable mail for sessions that have gone offline. Every session that expires, or is open when
+ * the server closes, gets a mailbox that accepts messages routed to it until its time to live
+ * runs out. A client presenting the session's resume token on a later connection, also after a
+ * restart, receives the mail in the order it was sent.
+ *
+ * <p>Mail is kept in an append-only log of memory-mapped segment files, written and read
+ * sequentially. Nothing is ever changed in place: taking a mailbox's mail appends a record saying
+ * so, and a segment file is deleted once nothing in it or before it is still needed. Writes reach
+ * the page cache right away, so they survive the process; segments are forced to disk when they
+ * fill up and when the mailbox is closed.</p>
+ *
+ * <p>The mailbox holds a lock on its directory while it is open, so that no other mailbox, in
+ * this process or another, appends to the same log. Closing it unmaps the segments and releases
+ * the lock; a closed mailbox keeps no more mail.</p>
+ *
+ * <p>A record is {@code [length:4][kind:1][expires:8][destination:16][token:8][frame body]},
+ * where the frame body is a message encoded with a {@link BinaryMessageCodec} on its own. The
+ * length is written last, so a record cut off by a crash reads as the end of the log.</p>
+ */
+class Mailbox {
+	static final int SEGMENT_SIZE = 16 * 1024 * 1024;
+	private static final int RECORD_HEADER = 1 + 8 + 16 + 8;
+	private static final byte KIND_OWNER = 1;
+	private static final byte KIND_MAIL = 2;
+	private static final byte KIND_TAKEN = 3;
+	private static final String SEGMENT_PREFIX = "mailbox-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String LOCK_FILE = "mailbox.lock";
+
+	private final Path directory;
+	private final long timeToLiveMillis;
+	private final long capacityBytes;
+	private final Metrics metrics;
+	private final MessageCodec codec = new BinaryMessageCodec();
+	private final Deque<Segment> segments = new ArrayDeque<>();
+	private final Map<UUID, Box> boxes = new HashMap<>();
+	private final FileChannel lockChannel;
+	private final FileLock lock;
+	private Segment current;
+	private boolean closed;
+
+	/**
+	 * Opens the mailbox log in a directory, creating it if needed, and recovers the mail that has
+	 * not expired.
+	 *
+	 * @param directory     the directory holding the segment files
+	 * @param timeToLive    how long mail and empty mailboxes are kept
+	 * @param capacityBytes the most bytes of mail one mailbox holds
+	 * @param metrics       the metrics to record mail that does not fit in
+	 * @throws IOException if the directory or a segment cannot be opened, or another mailbox
+	 *                     uses the directory
+	 */
+	Mailbox(Path directory, Duration timeToLive, long capacityBytes, Metrics metrics)
+			throws IOException {
+		this.directory = directory;
+		this.timeToLiveMillis = timeToLive.toMillis();
+		this.capacityBytes = capacityBytes;
+		this.metrics = metrics;
+		Files.createDirectories(directory);
+		this.lockChannel = FileChannel.open(directory.resolve(LOCK_FILE),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock acquired = null;
+		try {
+			acquired = lockChannel.tryLock();
+		} catch (OverlappingFileLockException e) {
+			//Held by another mailbox in this process
+		}
+		if (acquired == null) {
+			lockChannel.close();
+			throw new IOException("Mailbox directory is in use: " + directory);
+		}
+		this.lock = acquired;
+		try {
+			recover();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+	}
+
+	private void recover() throws IOException {
+		List<Path> files;
+		try (Stream<Path> listing = Files.list(directory)) {
+			files = listing.filter(Mailbox::isSegment).sorted().toList();
+		}
+		long now = System.currentTimeMillis();
+		for (Path file : files) {
+			Segment segment = new Segment(file, segmentId(file));
+			segments.addLast(segment);
+			ByteBuffer buffer = segment.buffer;
+			while (buffer.remaining() >= Integer.BYTES) {
+				int length = buffer.getInt(buffer.position());
+				if (length < RECORD_HEADER || length > buffer.remaining() - Integer.BYTES) {
+					break;
+				}
+				int position = buffer.position();
+				buffer.position(position + Integer.BYTES + length);
+				replay(segment, position, length, now);
+			}
+		}
+		if (segments.isEmpty()) {
+			roll(0);
+		} else {
+			current = segments.getLast();
+		}
+		purge(now);
+	}
+
+	/**
+	 * Applies one record read back from the log to the mailboxes.
+	 */
+	private void replay(Segment segment, int position, int length, long now) {
+		ByteBuffer record = segment.buffer.duplicate().position(position + Integer.BYTES);
+		byte kind = record.get();
+		long expires = record.getLong();
+		UUID destination = new UUID(record.getLong(), record.getLong());
+		long token = record.getLong();
+		if (kind == KIND_TAKEN) {
+			Box taken = boxes.remove(destination);
+			if (taken != null) {
+				taken.release();
+			}
+			return;
+		}
+		if (expires <= now) {
+			return;
+		}
+		Box box = boxes.computeIfAbsent(destination, id -> new Box(token));
+		box.expires = Math.max(box.expires, expires);
+		if (kind == KIND_OWNER) {
+			box.setOwnerRecord(segment);
+		} else if (kind == KIND_MAIL) {
+			box.add(new Mail(segment, position, length, expires));
+		}
+	}
+
+	/**
+	 * Opens a mailbox for a session that has gone offline. Mail routed to the session is kept
+	 * from then on, for the mailbox's time to live.
+	 *
+	 * @param sessionId the ID of the session
+	 * @param token     the token a client must present to take the mail
+	 */
+	synchronized void open(UUID sessionId, long token) {
+		if (closed) {
+			return;
+		}
+		long expires = System.currentTimeMillis() + timeToLiveMillis;
+		try {
+			Segment segment = append(KIND_OWNER, expires, sessionId, token, null);
+			Box box = boxes.computeIfAbsent(sessionId, id -> new Box(token));
+			box.expires = Math.max(box.expires, expires);
+			box.setOwnerRecord(segment);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Keeps a message for a session, if the session has a mailbox.
+	 *
+	 * @param sessionId the session to keep the message for
+	 * @param message   the message to keep
+	 * @return true if the session has a mailbox, whether or not the message fit in it
+	 */
+	synchronized boolean offer(UUID sessionId, Message<?> message) {
+		Box box = closed ? null : boxes.get(sessionId);
+		long now = System.currentTimeMillis();
+		if (box == null || box.expires <= now) {
+			return false;
+		}
+		try {
+			byte[] frame = codec.encodeShared(message);
+			int bodyLength = frame.length - Frames.HEADER_LENGTH;
+			if (box.bytes + bodyLength > capacityBytes
+					|| Integer.BYTES + RECORD_HEADER + bodyLength > SEGMENT_SIZE) {
+				metrics.recordDroppedMessage();
+				return true;
+			}
+			long expires = now + timeToLiveMillis;
+			Segment segment = append(KIND_MAIL, expires, sessionId, box.token, frame);
+			box.expires = Math.max(box.expires, expires);
+			box.add(new Mail(segment, segment.lastPosition,
+					RECORD_HEADER + bodyLength, expires));
+		} catch (IOException e) {
+			metrics.recordCodecError();
+			e.printStackTrace();
+		}
+		return true;
+	}
+
+	/**
+	 * Takes the mail of a session, oldest first, and closes its mailbox.
+	 *
+	 * @param sessionId the ID of the session
+	 * @param token     the session's resume token
+	 * @return the mail that has not expired, or an empty list if there is none or the token is
+	 *         wrong
+	 */
+	synchronized List<Message<?>> take(UUID sessionId, long token) {
+		Box box = closed ? null : boxes.get(sessionId);
+		if (box == null || box.token != token) {
+			return List.of();
+		}
+		long now = System.currentTimeMillis();
+		List<Message<?>> mail = new ArrayList<>();
+		for (Mail entry : box.mail) {
+			if (entry.expires > now) {
+				try {
+					mail.add(entry.read(codec));
+				} catch (IOException | ClassNotFoundException e) {
+					metrics.recordCodecError();
+					e.printStackTrace();
+				}
+			}
+		}
+		try {
+			append(KIND_TAKEN, 0, sessionId, token, null);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		boxes.remove(sessionId);
+		box.release();
+		purge(now);
+		return mail;
+	}
+
+	/**
+	 * Appends a record to the log, starting a new segment if the current one is full.
+	 *
+	 * @return the segment the record was written to
+	 */
+	private Segment append(byte kind, long expires, UUID destination, long token, byte[] frame)
+			throws IOException {
+		int bodyLength = frame == null ? 0 : frame.length - Frames.HEADER_LENGTH;
+		int length = RECORD_HEADER + bodyLength;
+		if (current.buffer.remaining() < Integer.BYTES + length) {
+			current.buffer.force();
+			roll(current.id + 1);
+			purge(System.currentTimeMillis());
+		}
+		ByteBuffer buffer = current.buffer;
+		int position = buffer.position();
+		buffer.position(position + Integer.BYTES);
+		buffer.put(kind)
+				.putLong(expires)
+				.putLong(destination.getMostSignificantBits())
+				.putLong(destination.getLeastSignificantBits())
+				.putLong(token);
+		if (frame != null) {
+			buffer.put(frame, Frames.HEADER_LENGTH, bodyLength);
+		}
+		buffer.putInt(position, length);
+		current.lastPosition = position;
+		return current;
+	}
+
+	private void roll(long id) throws IOException {
+		Path file = directory.resolve(
+				String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+		current = new Segment(file, id);
+		segments.addLast(current);
+	}
+
+	/**
+	 * Drops expired mail and mailboxes, and deletes the oldest segments while nothing in them is
+	 * needed any more.
+	 */
+	private void purge(long now) {
+		Iterator<Box> open = boxes.values().iterator();
+		while (open.hasNext()) {
+			Box box = open.next();
+			box.dropExpired(now);
+			if (box.expires <= now) {
+				open.remove();
+				box.release();
+			}
+		}
+		while (segments.size() > 1 && segments.getFirst().live == 0) {
+			Segment oldest = segments.removeFirst();
+			oldest.close();
+			try {
+				Files.deleteIfExists(oldest.file);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Forces written mail to disk, unmaps the segments and releases the directory.
+	 */
+	synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (current != null) {
+			current.buffer.force();
+		}
+		segments.forEach(Segment::close);
+		segments.clear();
+		boxes.clear();
+		try {
+			lock.release();
+			lockChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private static boolean isSegment(Path file) {
+		String name = file.getFileName().toString();
+		return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+	}
+
+	private static long segmentId(Path file) {
+		String name = file.getFileName().toString();
+		return Long.parseLong(name.substring(
+				SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Unmaps a segment right away rather than when the buffer is garbage collected, so that its
+	 * file can be deleted and mapped again. Where the JDK does not allow it, the mapping is left
+	 * to the garbage collector.
+	 */
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field instance = unsafeClass.getDeclaredField("theUnsafe");
+			instance.setAccessible(true);
+			Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			invokeCleaner.invoke(instance.get(null), buffer);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			//Unmapped once the buffer is collected
+		}
+	}
+
+	/**
+	 * One memory-mapped file of the log. It counts the records in it that are still needed.
+	 * Nothing may touch the buffer once the segment is closed.
+	 */
+	private static class Segment {
+		private final Path file;
+		private final long id;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int lastPosition;
+		private int live;
+
+		Segment(Path file, long id) throws IOException {
+			this.file = file;
+			this.id = id;
+			this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			try {
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+		}
+
+		void close() {
+			unmap(buffer);
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A message kept in the log.
+	 */
+	private record Mail(Segment segment, int position, int length, long expires) {
+		Message<?> read(MessageCodec codec) throws IOException, ClassNotFoundException {
+			byte[] body = new byte[length - RECORD_HEADER];
+			segment.buffer.get(position + Integer.BYTES + RECORD_HEADER, body);
+			return codec.decode(body);
+		}
+	}
+
+	/**
+	 * The mail kept for one offline session.
+	 */
+	private static class Box {
+		private final long token;
+		private final Deque<Mail> mail = new ArrayDeque<>();
+		private Segment ownerRecord;
+		private long expires;
+		private long bytes;
+
+		Box(long token) {
+			this.token = token;
+		}
+
+		void setOwnerRecord(Segment segment) {
+			if (ownerRecord != null) {
+				ownerRecord.live--;
+			}
+			ownerRecord = segment;
+			segment.live++;
+		}
+
+		void add(Mail entry) {
+			mail.addLast(entry);
+			entry.segment.live++;
+			bytes += entry.length - RECORD_HEADER;
+		}
+
+		void dropExpired(long now) {
+			while (!mail.isEmpty() && mail.getFirst().expires <= now) {
+				Mail expired = mail.removeFirst();
+				expired.segment.live--;
+				bytes -= expired.length - RECORD_HEADER;
+			}
+		}
+
+		/**
+		 * Lets go of every record of the mailbox.
+		 */
+		void release() {
+			mail.forEach(entry -> entry.segment.live--);
+			mail.clear();
+			bytes = 0;
+			if (ownerRecord != null) {
+				ownerRecord.live--;
+				ownerRecord = null;
+			}
+		}
+	}
+}
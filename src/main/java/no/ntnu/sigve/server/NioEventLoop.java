@@ -0,0 +1,153 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A loop multiplexing many {@link NioServerConnection}s over one {@link Selector}. The loop owns
+ * a single read buffer shared by all of its connections, so idle connections do not hold on to
+ * buffers of their own.
+ */
+public class NioEventLoop implements Runnable {
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final ThreadLocal<Boolean> IN_EVENT_LOOP = ThreadLocal.withInitial(() -> false);
+
+	private final Selector selector;
+	private final Queue<NioServerConnection> pendingRegistrations;
+	private final Queue<NioServerConnection> pendingResumes;
+	private final ByteBuffer readBuffer;
+	private volatile boolean running;
+
+	/**
+	 * Creates a new event loop.
+	 *
+	 * @throws IOException if the selector could not be opened
+	 */
+	public NioEventLoop() throws IOException {
+		this.selector = Selector.open();
+		this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+		this.pendingResumes = new ConcurrentLinkedQueue<>();
+		this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		this.running = true;
+	}
+
+	/**
+	 * Hands a connection to this loop. The connection is registered with the selector from the
+	 * loop's own thread.
+	 *
+	 * @param connection the connection to serve
+	 */
+	public void register(NioServerConnection connection) {
+		pendingRegistrations.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Has this loop read from a connection again once a rate limit no longer pauses it.
+	 *
+	 * @param connection the paused connection
+	 */
+	void resume(NioServerConnection connection) {
+		pendingResumes.add(connection);
+		selector.wakeup();
+	}
+
+	/**
+	 * Checks whether the calling thread is running an event loop. Event loop threads must never
+	 * block waiting for a connection to drain, since they may be the ones draining it.
+	 *
+	 * @return true if called from an event loop thread
+	 */
+	static boolean inEventLoop() {
+		return IN_EVENT_LOOP.get();
+	}
+
+	/**
+	 * Stops the loop and closes its selector.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+
+	@Override
+	public void run() {
+		IN_EVENT_LOOP.set(true);
+		try {
+			while (running) {
+				selector.select();
+				registerPendingConnections();
+				resumePendingConnections();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			closeSelector();
+		}
+	}
+
+	/**
+	 * Serves one ready connection. Protocol callbacks may run here, so an exception they throw
+	 * closes only the connection it came from, and the loop goes on serving the others.
+	 */
+	private void handle(SelectionKey key) {
+		NioServerConnection connection = (NioServerConnection) key.attachment();
+		try {
+			if (key.isValid() && key.isReadable()) {
+				connection.onReadable(readBuffer);
+			}
+			if (key.isValid() && key.isWritable()) {
+				connection.onWritable();
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+			connection.close();
+		}
+	}
+
+	private void registerPendingConnections() {
+		NioServerConnection connection;
+		while ((connection = pendingRegistrations.poll()) != null) {
+			try {
+				connection.register(selector);
+			} catch (ClosedChannelException e) {
+				connection.close();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				connection.close();
+			}
+		}
+	}
+
+	private void resumePendingConnections() {
+		NioServerConnection connection;
+		while ((connection = pendingResumes.poll()) != null) {
+			try {
+				connection.resumeReading();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+				connection.close();
+			}
+		}
+	}
+
+	private void closeSelector() {
+		try {
+			selector.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
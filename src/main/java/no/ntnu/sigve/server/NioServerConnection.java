@@ -0,0 +1,425 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.HeartbeatMessage;
+import no.ntnu.sigve.communication.IdleMonitor;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.communication.TimeoutWheel;
+import no.ntnu.sigve.communication.TrafficRecorder;
+
+/**
+ * A non-blocking connection from a {@link Server} to one individual client, served by a
+ * {@link NioEventLoop}. Reads happen on the event loop. Messages are put in an
+ * {@link OutboundQueue}, which is flushed directly on the caller's thread as far as the socket
+ * accepts; whatever is left is written once the loop reports the channel as writable again.
+ *
+ * <p>Queued frames are written with gathering writes, so frames that pile up while the socket is
+ * busy leave in one system call. If the server's {@link no.ntnu.sigve.communication.WriteBatching
+ * write batching} has a linger time, senders leave all writing to the event loop, which gathers
+ * everything queued by the time it gets to the connection.</p>
+ *
+ * <p>With {@link Server#setHeartbeat heartbeats} enabled, an {@link IdleMonitor} pings quiet
+ * clients and closes the connection of one that has gone silent.</p>
+ *
+ * <p>A client over its {@link Server#setRateLimits rate limits} is held back by taking the
+ * channel out of the selector's read interest. Frames already read stay buffered, and the
+ * event loop goes on with them once the pause is over.</p>
+ */
+public class NioServerConnection implements ClientConnection {
+	private static final int MAX_GATHERED_FRAMES = 64;
+
+	private final Server server;
+	private final SocketChannel channel;
+	private final NioEventLoop eventLoop;
+	private volatile UUID clientUuid;
+	private volatile ReplayBuffer replay;
+	private final MessageCodec codec;
+	private final OutboundQueue outbound;
+	private final ByteBuffer[] gathered = new ByteBuffer[MAX_GATHERED_FRAMES];
+	private final boolean flushOnEventLoop;
+	private final IdleMonitor idle;
+	private final TrafficRecorder.Channel capture;
+	private final TokenBucket limiter;
+	private final Runnable resume;
+	private ByteBuffer partialFrame;
+	private SelectionKey key;
+	private boolean closed;
+
+	/**
+	 * Creates a new non-blocking connection from a {@link Server} to a
+	 * {@link no.ntnu.sigve.client.Client}.
+	 *
+	 * @param server     the connected server
+	 * @param channel    the non-blocking channel connected to the client
+	 * @param eventLoop  the event loop that will serve this connection
+	 * @param clientUuid the UUID of the connected client
+	 */
+	public NioServerConnection(
+			Server server,
+			SocketChannel channel,
+			NioEventLoop eventLoop,
+			UUID clientUuid
+	) {
+		this.server = server;
+		this.channel = channel;
+		this.eventLoop = eventLoop;
+		this.clientUuid = clientUuid;
+		this.codec = server.newCodec();
+		this.outbound = server.newOutboundQueue(this, codec, this::recordSent);
+		this.flushOnEventLoop = server.getWriteBatching().getMaxLingerNanos() > 0;
+		this.idle = new IdleMonitor(server.getHeartbeat(), TimeoutWheel.shared(),
+				() -> enqueue(() -> server.encode(codec, HeartbeatMessage.ping()), null,
+						Priority.HIGH, false),
+				this::evict);
+		this.capture = server.openCapture(clientUuid);
+		this.limiter = server.newSessionLimiter();
+		this.resume = () -> eventLoop.resume(this);
+	}
+
+	@Override
+	public UUID getSessionId() {
+		return this.clientUuid;
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return this.channel.socket().getInetAddress();
+	}
+
+	@Override
+	public void attachSession(UUID sessionId, ReplayBuffer replay) {
+		this.clientUuid = sessionId;
+		this.replay = replay;
+	}
+
+	private void recordSent(Object entry) {
+		ReplayBuffer session = this.replay;
+		if (session != null) {
+			session.sent(entry);
+		}
+	}
+
+	@Override
+	public void start() {
+		this.eventLoop.register(this);
+		this.idle.start();
+	}
+
+	/**
+	 * Registers the channel with a selector. Called from the event loop's own thread.
+	 *
+	 * @param selector the selector of the event loop
+	 * @throws ClosedChannelException if the connection was closed before it was registered
+	 */
+	synchronized void register(Selector selector) throws ClosedChannelException {
+		int interest = outbound.isEmpty()
+				? SelectionKey.OP_READ
+				: SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+		this.key = channel.register(selector, interest, this);
+	}
+
+	@Override
+	public void sendMessage(Message<?> message) {
+		enqueue(() -> server.encode(codec, message),
+				ReplayBuffer.isCounted(message) ? message : null, message.getPriority(),
+				Server.mayBlock());
+	}
+
+	@Override
+	public void sendFrame(byte[] frame, Priority priority) {
+		enqueue(() -> codec.prepareShared(frame), frame, priority,
+				Server.mayBlock());
+	}
+
+	private void enqueue(
+			OutboundQueue.FrameSource source,
+			Object entry,
+			Priority priority,
+			boolean mayBlock
+	) {
+		try {
+			if (!outbound.offer(source, entry, priority, mayBlock)) {
+				close();
+				return;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (flushOnEventLoop) {
+			synchronized (this) {
+				updateWriteInterest(true);
+			}
+		} else {
+			flush();
+		}
+	}
+
+	/**
+	 * Flushes queued frames once the channel becomes writable. Called from the event loop.
+	 */
+	void onWritable() {
+		flush();
+	}
+
+	/**
+	 * Writes queued frames for as long as the socket accepts them. If the socket cannot take
+	 * everything, the event loop is asked to call again once the channel is writable.
+	 */
+	private void flush() {
+		boolean failed = false;
+		List<ByteBuffer> written = new ArrayList<>();
+		synchronized (this) {
+			if (closed || key == null) {
+				//Not started yet; the event loop flushes once the connection is registered
+				return;
+			}
+			try {
+				boolean pending = writeGathered(written);
+				updateWriteInterest(pending);
+			} catch (IOException e) {
+				failed = true;
+			}
+		}
+		if (!written.isEmpty()) {
+			idle.written();
+		}
+		written.forEach(outbound::written);
+		if (failed) {
+			close();
+		}
+	}
+
+	/**
+	 * Writes queued frames in gathering writes until the queue is empty or the socket is full.
+	 * Must be called while holding this connection's lock.
+	 *
+	 * @param written collects the frames that were written completely
+	 * @return true if frames are still waiting to be written
+	 * @throws IOException if writing to the channel fails
+	 */
+	private boolean writeGathered(List<ByteBuffer> written) throws IOException {
+		int count;
+		while ((count = outbound.peek(gathered)) > 0) {
+			long start = System.nanoTime();
+			channel.write(gathered, 0, count);
+			server.getMetrics().getWriteTime().recordSince(start);
+			for (int i = 0; i < count; i++) {
+				if (gathered[i].hasRemaining()) {
+					Arrays.fill(gathered, null);
+					return true;
+				}
+				server.getMetrics().recordMessageOut(gathered[i].capacity());
+				if (capture != null) {
+					capture.out(gathered[i].array(), 0, gathered[i].capacity());
+				}
+				written.add(outbound.poll());
+			}
+		}
+		Arrays.fill(gathered, null);
+		return false;
+	}
+
+	private void updateWriteInterest(boolean pending) {
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		if (pending) {
+			if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+				key.interestOpsOr(SelectionKey.OP_WRITE);
+				key.selector().wakeup();
+			}
+		} else {
+			key.interestOpsAnd(~SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Reads whatever the channel has available and handles every complete frame. Called from
+	 * the event loop with its shared read buffer.
+	 *
+	 * @param readBuffer the event loop's shared read buffer
+	 */
+	void onReadable(ByteBuffer readBuffer) {
+		readBuffer.clear();
+		try {
+			if (channel.read(readBuffer) < 0) {
+				close();
+				return;
+			}
+		} catch (IOException e) {
+			close();
+			return;
+		}
+		readBuffer.flip();
+		idle.read();
+
+		ByteBuffer source = readBuffer;
+		if (partialFrame != null) {
+			partialFrame = ensureCapacity(partialFrame, readBuffer.remaining());
+			partialFrame.put(readBuffer);
+			partialFrame.flip();
+			source = partialFrame;
+		}
+		consume(source);
+	}
+
+	/**
+	 * Handles every complete frame in a buffer, unless a rate limit pauses reading, and keeps
+	 * whatever is left for later.
+	 *
+	 * @param source the buffer to read frames from
+	 */
+	private void consume(ByteBuffer source) {
+		try {
+			readFrames(source);
+		} catch (IOException e) {
+			e.printStackTrace();
+			close();
+			return;
+		}
+
+		if (!source.hasRemaining()) {
+			partialFrame = null;
+		} else if (source == partialFrame) {
+			partialFrame.compact();
+		} else {
+			partialFrame = ByteBuffer.allocate(Math.max(source.remaining(), 1024));
+			partialFrame.put(source);
+		}
+	}
+
+	private void readFrames(ByteBuffer source) throws IOException {
+		while (source.remaining() >= Frames.HEADER_LENGTH) {
+			int length = source.getInt(source.position());
+			Frames.checkLength(length);
+			if (source.remaining() < Frames.HEADER_LENGTH + length) {
+				return;
+			}
+			source.position(source.position() + Frames.HEADER_LENGTH);
+			byte[] body = new byte[length];
+			source.get(body);
+			server.getMetrics().recordMessageIn(Frames.HEADER_LENGTH + length);
+			if (capture != null) {
+				capture.in(body);
+			}
+			handleFrame(body);
+			long pause = server.throttle(limiter, Frames.HEADER_LENGTH + length);
+			if (pause > 0) {
+				pauseReading(pause);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops the event loop from reading the channel until a pause is over.
+	 *
+	 * @param nanos how long to pause
+	 */
+	private void pauseReading(long nanos) {
+		synchronized (this) {
+			if (key != null && key.isValid()) {
+				key.interestOpsAnd(~SelectionKey.OP_READ);
+			}
+		}
+		TimeoutWheel.shared().schedule(resume, Duration.ofNanos(nanos));
+	}
+
+	/**
+	 * Reads the channel again after a pause, starting with the frames that were already read.
+	 * Called from the event loop.
+	 */
+	void resumeReading() {
+		synchronized (this) {
+			if (closed || key == null || !key.isValid()) {
+				return;
+			}
+			key.interestOpsOr(SelectionKey.OP_READ);
+		}
+		if (partialFrame != null) {
+			partialFrame.flip();
+			consume(partialFrame);
+		}
+	}
+
+	private void handleFrame(byte[] body) throws IOException {
+		Message<?> message = null;
+		try {
+			message = codec.decode(body);
+		} catch (ClassCastException | ClassNotFoundException e) {
+			server.getMetrics().recordCodecError();
+			e.printStackTrace();
+		}
+		if (message instanceof HeartbeatMessage heartbeat) {
+			if (heartbeat.isPing()) {
+				sendMessage(HeartbeatMessage.pong());
+			}
+		} else if (message != null) {
+			message.assignSource(clientUuid);
+			server.registerIncomingMessage(message);
+		}
+	}
+
+	private static ByteBuffer ensureCapacity(ByteBuffer buffer, int additional) {
+		if (buffer.remaining() >= additional) {
+			return buffer;
+		}
+		ByteBuffer larger = ByteBuffer.allocate(
+				Math.max(buffer.capacity() * 2, buffer.position() + additional));
+		buffer.flip();
+		larger.put(buffer);
+		return larger;
+	}
+
+	/**
+	 * Closes a connection that has received nothing within the heartbeat timeout. Runs on the
+	 * timing wheel, so the disconnect is handed to a thread of its own.
+	 */
+	private void evict() {
+		server.getMetrics().recordIdleTimeout();
+		server.getThreadFactory().newThread(this::close).start();
+	}
+
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		idle.stop();
+		if (capture != null) {
+			capture.close();
+		}
+		List<Object> unsent = outbound.close();
+		codec.close();
+		ReplayBuffer session = this.replay;
+		if (session != null && !unsent.isEmpty()) {
+			session.holdUnsent(unsent);
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		server.removeConnection(this);
+		server.releaseConnection();
+	}
+}
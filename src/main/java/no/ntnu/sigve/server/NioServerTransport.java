@@ -0,0 +1,161 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transport that serves every client from a small, fixed set of {@link NioEventLoop} threads
+ * using non-blocking channels. An idle connection costs a channel and a little bookkeeping rather
+ * than a thread, so a single server can hold tens of thousands of mostly idle clients.
+ *
+ * <p>Connections are accepted on dedicated threads, set up by handshake threads as decided by
+ * its {@link AcceptSettings}, and spread over the event loops in a round-robin fashion. Protocol
+ * callbacks for a client run on that client's event loop.</p>
+ */
+public class NioServerTransport implements ServerTransport {
+	private final int eventLoopCount;
+	private final AcceptSettings acceptSettings;
+	private final AtomicInteger nextEventLoop = new AtomicInteger();
+	private ServerSocketChannel[] serverChannels;
+	private NioEventLoop[] eventLoops;
+	private Thread[] acceptors;
+	private ExecutorService handshakes;
+
+	/**
+	 * Creates a new non-blocking transport with one event loop per available processor.
+	 */
+	public NioServerTransport() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new non-blocking transport with the {@link AcceptSettings#defaults() default}
+	 * accept settings.
+	 *
+	 * @param eventLoopCount the number of event loop threads serving connections
+	 */
+	public NioServerTransport(int eventLoopCount) {
+		this(eventLoopCount, AcceptSettings.defaults());
+	}
+
+	/**
+	 * Creates a new non-blocking transport.
+	 *
+	 * @param eventLoopCount the number of event loop threads serving connections
+	 * @param acceptSettings how connections are accepted
+	 */
+	public NioServerTransport(int eventLoopCount, AcceptSettings acceptSettings) {
+		if (eventLoopCount < 1) {
+			throw new IllegalArgumentException("At least one event loop is required");
+		}
+		this.eventLoopCount = eventLoopCount;
+		this.acceptSettings = acceptSettings;
+	}
+
+	@Override
+	public void bind(int port) throws IOException {
+		ServerSocketChannel first = ServerSocketChannel.open();
+		int count = acceptSettings.socketCount(first.supportedOptions());
+		this.serverChannels = new ServerSocketChannel[count];
+		serverChannels[0] = first;
+		for (int i = 1; i < count; i++) {
+			serverChannels[i] = ServerSocketChannel.open();
+		}
+		for (ServerSocketChannel serverChannel : serverChannels) {
+			if (count > 1) {
+				serverChannel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+			}
+			serverChannel.bind(new InetSocketAddress(port), acceptSettings.getBacklog());
+		}
+	}
+
+	@Override
+	public void start(Server server) {
+		this.eventLoops = new NioEventLoop[eventLoopCount];
+		try {
+			for (int i = 0; i < eventLoopCount; i++) {
+				eventLoops[i] = new NioEventLoop();
+				server.getThreadFactory().newThread(eventLoops[i]).start();
+			}
+		} catch (IOException ioe) {
+			ioe.printStackTrace();
+			close();
+			return;
+		}
+		this.handshakes = acceptSettings.newHandshakeExecutor(server.getThreadFactory());
+		this.acceptors = new Thread[acceptSettings.getAcceptorCount()];
+		for (int i = 0; i < acceptors.length; i++) {
+			ServerSocketChannel serverChannel = serverChannels[i % serverChannels.length];
+			acceptors[i] = server.getThreadFactory()
+					.newThread(() -> acceptConnections(server, serverChannel));
+			acceptors[i].start();
+		}
+	}
+
+	@Override
+	public void close() {
+		for (ServerSocketChannel serverChannel : serverChannels) {
+			try {
+				serverChannel.close();
+			} catch (IOException ioe) {
+				ioe.printStackTrace();
+			}
+		}
+		if (acceptors != null) {
+			for (Thread acceptor : acceptors) {
+				BlockingServerTransport.awaitTermination(acceptor);
+			}
+		}
+		BlockingServerTransport.shutdown(handshakes);
+		if (eventLoops != null) {
+			for (NioEventLoop eventLoop : eventLoops) {
+				if (eventLoop != null) {
+					eventLoop.shutdown();
+				}
+			}
+		}
+	}
+
+	private void acceptConnections(Server server, ServerSocketChannel serverChannel) {
+		while (serverChannel.isOpen()) {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				if (!server.reserveConnection()) {
+					server.rejectConnection(channel.socket());
+					continue;
+				}
+				handshakes.execute(() -> setUpConnection(server, channel));
+			} catch (IOException e) {
+				if (serverChannel.isOpen()) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void setUpConnection(Server server, SocketChannel channel) {
+		try {
+			channel.configureBlocking(false);
+			server.getSocketSettings().apply(channel.socket());
+		} catch (IOException e) {
+			e.printStackTrace();
+			server.releaseConnection();
+			try {
+				channel.close();
+			} catch (IOException closeFailure) {
+				//Already closed
+			}
+			return;
+		}
+		NioEventLoop eventLoop =
+				eventLoops[Math.floorMod(nextEventLoop.getAndIncrement(), eventLoops.length)];
+		server.acceptConnection(
+				new NioServerConnection(server, channel, eventLoop, UUID.randomUUID()));
+	}
+}
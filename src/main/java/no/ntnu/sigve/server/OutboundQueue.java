@@ -0,0 +1,481 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import no.ntnu.sigve.communication.LaneScheduler;
+import no.ntnu.sigve.communication.Metrics;
+import no.ntnu.sigve.communication.Priority;
+
+/**
+ * A bounded queue of encoded frames waiting to be written to one client. Senders add frames
+ * without touching the socket; the connection's writer drains the queue at whatever pace the
+ * client reads.
+ *
+ * <p>The queue is bounded in bytes. A frame is accepted as long as the queue is below its
+ * capacity, so it can exceed the capacity by at most one frame. Crossing the high watermark marks
+ * the connection as not writable, and draining below the low watermark marks it writable again;
+ * both transitions are reported to a {@link WritabilityListener}.</p>
+ *
+ * <p>The time from queuing a frame until the writer removes it is recorded as the queue wait.
+ * Blocking writers remove a frame before writing it, while non-blocking writers keep it queued
+ * until it has been written completely.</p>
+ *
+ * <p>Frames wait in one lane per {@link Priority}, and a {@link LaneScheduler} decides which lane
+ * the writer is served from next. A frame leaves its lane once the writer is about to write it,
+ * so a high-priority frame only waits for the frames the writer already has in hand, never for
+ * a backlog of bulk frames. Non-blocking writers take up to a gathering write's worth of frames
+ * at a time. Frames in the writer's hand are never dropped, since the writer may be writing them
+ * outside the lock.</p>
+ *
+ * <p>Every frame can carry an entry describing what it holds, which is handed to a listener as
+ * the frame leaves the queue to be written. Resumable sessions use it to remember what was sent.
+ * </p>
+ */
+class OutboundQueue {
+	private final Deque<QueuedFrame> frames = new ArrayDeque<>();
+	private final Deque<QueuedFrame>[] lanes = newLanes();
+	private final LaneScheduler scheduler = new LaneScheduler();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition notEmpty = lock.newCondition();
+	private final int capacity;
+	private final OverflowPolicy overflowPolicy;
+	private final int lowWatermark;
+	private final int highWatermark;
+	private final Predicate<ByteBuffer> droppable;
+	private final WritabilityListener listener;
+	private final Consumer<Object> sentListener;
+	private final Metrics metrics;
+	private long queuedBytes;
+	private long droppedCount;
+	private boolean writable = true;
+	private boolean closed;
+
+	/**
+	 * Receives changes in the writability of a connection.
+	 */
+	interface WritabilityListener {
+		/**
+		 * Called when the queue crosses one of its watermarks.
+		 *
+		 * @param writable false if the high watermark was exceeded, true if the queue drained
+		 *                 below the low watermark
+		 */
+		void onWritabilityChanged(boolean writable);
+	}
+
+	/**
+	 * Produces the frame to queue. Called while holding the queue's lock, so that frames are
+	 * queued in the order they were encoded.
+	 */
+	interface FrameSource {
+		/**
+		 * Produces the frame.
+		 *
+		 * @return the encoded frame
+		 * @throws IOException if encoding fails
+		 */
+		byte[] frame() throws IOException;
+	}
+
+	/**
+	 * Creates a new outbound queue.
+	 *
+	 * @param capacity       the number of bytes the queue may hold
+	 * @param overflowPolicy what to do with new frames once the queue is full
+	 * @param lowWatermark   the size below which the connection becomes writable again
+	 * @param highWatermark  the size above which the connection becomes not writable
+	 * @param droppable      decides whether a queued frame may be discarded
+	 * @param listener       receives writability changes
+	 * @param sentListener   receives the entries of frames as they leave the queue
+	 * @param metrics        the metrics to record queue waits and dropped frames in
+	 */
+	OutboundQueue(
+			int capacity,
+			OverflowPolicy overflowPolicy,
+			int lowWatermark,
+			int highWatermark,
+			Predicate<ByteBuffer> droppable,
+			WritabilityListener listener,
+			Consumer<Object> sentListener,
+			Metrics metrics
+	) {
+		this.capacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+		this.droppable = droppable;
+		this.listener = listener;
+		this.sentListener = sentListener;
+		this.metrics = metrics;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static Deque<QueuedFrame>[] newLanes() {
+		Deque<QueuedFrame>[] lanes = new Deque[Priority.values().length];
+		for (int i = 0; i < lanes.length; i++) {
+			lanes[i] = new ArrayDeque<>();
+		}
+		return lanes;
+	}
+
+	/**
+	 * Adds a frame to the queue, applying the overflow policy if the queue is full.
+	 *
+	 * @param source   produces the frame once it is certain to be queued
+	 * @param entry    what the frame holds, or null
+	 * @param priority the lane to queue the frame in
+	 * @param mayBlock whether the calling thread may be blocked by the {@link OverflowPolicy#BLOCK
+	 *                 BLOCK} policy. Threads that drain queues themselves must not block.
+	 * @return false if the connection should be disconnected
+	 * @throws IOException if the frame could not be produced
+	 */
+	boolean offer(FrameSource source, Object entry, Priority priority, boolean mayBlock)
+			throws IOException {
+		boolean changed = false;
+		lock.lock();
+		try {
+			if (closed) {
+				return false;
+			}
+			if (queuedBytes >= capacity) {
+				switch (overflowPolicy) {
+					case BLOCK -> {
+						if (mayBlock && !awaitRoom()) {
+							return !closed;
+						}
+					}
+					case DROP_OLDEST -> dropOldest();
+					case DROP_NEWEST -> {
+						countDropped();
+						return true;
+					}
+					default -> {
+						return false;
+					}
+				}
+				if (closed) {
+					return false;
+				}
+			}
+			byte[] frame = source.frame();
+			lanes[priority.ordinal()].addLast(
+					new QueuedFrame(ByteBuffer.wrap(frame), entry, System.nanoTime()));
+			queuedBytes += frame.length;
+			notEmpty.signal();
+			if (writable && queuedBytes > highWatermark) {
+				writable = false;
+				changed = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (changed) {
+			listener.onWritabilityChanged(false);
+		}
+		return true;
+	}
+
+	private boolean awaitRoom() {
+		try {
+			while (queuedBytes >= capacity && !closed) {
+				notFull.await();
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			countDropped();
+			return false;
+		}
+	}
+
+	/**
+	 * Drops the oldest droppable frames until the queue is below its capacity, starting with the
+	 * lowest lane and ending with the frames the writer has taken but not yet peeked at.
+	 */
+	private void dropOldest() {
+		for (int lane = lanes.length - 1; lane >= 0; lane--) {
+			dropOldest(lanes[lane]);
+		}
+		dropOldest(frames);
+	}
+
+	private void dropOldest(Deque<QueuedFrame> queue) {
+		Iterator<QueuedFrame> iterator = queue.iterator();
+		while (queuedBytes >= capacity && iterator.hasNext()) {
+			QueuedFrame queued = iterator.next();
+			if (!queued.inHand && droppable.test(queued.buffer)) {
+				iterator.remove();
+				queuedBytes -= queued.buffer.capacity();
+				countDropped();
+			}
+		}
+	}
+
+	/**
+	 * Moves frames from the lanes to the writer's hand, in the order the lanes are served.
+	 *
+	 * @param count the number of frames the writer should have in hand
+	 */
+	private void takeFromLanes(int count) {
+		while (frames.size() < count) {
+			int lane = scheduler.next(index -> !lanes[index].isEmpty());
+			if (lane < 0) {
+				return;
+			}
+			frames.addLast(lanes[lane].pollFirst());
+		}
+	}
+
+	private boolean hasFrames() {
+		if (!frames.isEmpty()) {
+			return true;
+		}
+		for (Deque<QueuedFrame> lane : lanes) {
+			if (!lane.isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void countDropped() {
+		droppedCount++;
+		metrics.recordDroppedMessage();
+	}
+
+	/**
+	 * Removes the first frame from the queue and records how long it waited.
+	 *
+	 * @return the removed frame, or null if the queue is empty
+	 */
+	private ByteBuffer removeFirst() {
+		takeFromLanes(1);
+		QueuedFrame frame = frames.pollFirst();
+		if (frame == null) {
+			return null;
+		}
+		metrics.getQueueWait().recordSince(frame.queuedAt);
+		if (frame.entry != null) {
+			sentListener.accept(frame.entry);
+		}
+		return frame.buffer;
+	}
+
+	/**
+	 * Waits for the next frame to write. The frame stays accounted for until
+	 * {@link #written(ByteBuffer)} is called.
+	 *
+	 * @return the next frame, or null if the queue was closed
+	 */
+	ByteBuffer take() {
+		lock.lock();
+		try {
+			while (!hasFrames() && !closed) {
+				notEmpty.awaitUninterruptibly();
+			}
+			return closed ? null : removeFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits a limited time for the next frame to write. The frame stays accounted for until
+	 * {@link #written(ByteBuffer)} is called.
+	 *
+	 * @param timeoutNanos the longest time to wait, in nanoseconds
+	 * @return the next frame, or null if none arrived in time or the queue was closed
+	 */
+	ByteBuffer take(long timeoutNanos) {
+		lock.lock();
+		try {
+			long remaining = timeoutNanos;
+			while (!hasFrames() && !closed && remaining > 0) {
+				remaining = notEmpty.awaitNanos(remaining);
+			}
+			return closed ? null : removeFirst();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the next frame to write without removing it. The frame is in the writer's hand until
+	 * {@link #poll()} removes it, and cannot be dropped meanwhile.
+	 *
+	 * @return the next frame, or null if the queue is empty
+	 */
+	ByteBuffer peek() {
+		lock.lock();
+		try {
+			takeFromLanes(1);
+			QueuedFrame frame = frames.peekFirst();
+			if (frame == null) {
+				return null;
+			}
+			frame.inHand = true;
+			return frame.buffer;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the next frames to write without removing them. The frames are in the writer's hand
+	 * until {@link #poll()} removes them, and cannot be dropped meanwhile.
+	 *
+	 * @param destination the array to fill with frames, oldest first
+	 * @return the number of frames put in the array
+	 */
+	int peek(ByteBuffer[] destination) {
+		lock.lock();
+		try {
+			takeFromLanes(destination.length);
+			int count = 0;
+			Iterator<QueuedFrame> iterator = frames.iterator();
+			while (count < destination.length && iterator.hasNext()) {
+				QueuedFrame frame = iterator.next();
+				frame.inHand = true;
+				destination[count++] = frame.buffer;
+			}
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the frame returned by {@link #peek()} once it has been written completely. The
+	 * frame stays accounted for until {@link #written(ByteBuffer)} is called.
+	 *
+	 * @return the removed frame
+	 */
+	ByteBuffer poll() {
+		lock.lock();
+		try {
+			return removeFirst();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks a frame as written, releasing its space in the queue.
+	 *
+	 * @param frame the frame that was written
+	 */
+	void written(ByteBuffer frame) {
+		boolean changed = false;
+		lock.lock();
+		try {
+			queuedBytes -= frame.capacity();
+			notFull.signalAll();
+			if (!writable && queuedBytes < lowWatermark) {
+				writable = true;
+				changed = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (changed) {
+			listener.onWritabilityChanged(true);
+		}
+	}
+
+	/**
+	 * Checks whether the queue is empty.
+	 *
+	 * @return true if no frames are waiting
+	 */
+	boolean isEmpty() {
+		lock.lock();
+		try {
+			return !hasFrames();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of bytes waiting to be written.
+	 *
+	 * @return the number of queued bytes
+	 */
+	long getQueuedBytes() {
+		lock.lock();
+		try {
+			return queuedBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the number of frames discarded by the overflow policy.
+	 *
+	 * @return the number of dropped frames
+	 */
+	long getDroppedCount() {
+		lock.lock();
+		try {
+			return droppedCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Closes the queue, discarding its frames and waking up every waiting thread.
+	 *
+	 * @return the entries of the discarded frames, in the order they would have been written
+	 */
+	List<Object> close() {
+		lock.lock();
+		try {
+			closed = true;
+			List<Object> unsent = new ArrayList<>();
+			takeFromLanes(Integer.MAX_VALUE);
+			for (QueuedFrame frame : frames) {
+				if (frame.entry != null) {
+					unsent.add(frame.entry);
+				}
+			}
+			frames.clear();
+			notEmpty.signalAll();
+			notFull.signalAll();
+			return unsent;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * A queued frame, what it holds, the time it was queued, and whether the writer has it in
+	 * hand. Guarded by the queue's lock.
+	 */
+	private static class QueuedFrame {
+		private final ByteBuffer buffer;
+		private final Object entry;
+		private final long queuedAt;
+		private boolean inHand;
+
+		QueuedFrame(ByteBuffer buffer, Object entry, long queuedAt) {
+			this.buffer = buffer;
+			this.entry = entry;
+			this.queuedAt = queuedAt;
+		}
+	}
+}
@@ -0,0 +1,29 @@
+package no.ntnu.sigve.server;
+
+/**
+ * What a connection does with a new message when its outbound queue is full, i.e. when the client
+ * is not reading as fast as the server is sending.
+ */
+public enum OverflowPolicy {
+	/**
+	 * Block the sending thread until the queue has room again. Nothing is lost, but one slow
+	 * client can slow down whoever is sending to it.
+	 */
+	BLOCK,
+
+	/**
+	 * Discard the oldest queued messages that can be discarded safely to make room for the new
+	 * one. Messages that later messages depend on, such as serialization stream frames, are kept.
+	 */
+	DROP_OLDEST,
+
+	/**
+	 * Discard the new message.
+	 */
+	DROP_NEWEST,
+
+	/**
+	 * Disconnect the slow client.
+	 */
+	DISCONNECT
+}
@@ -0,0 +1,209 @@
+package no.ntnu.sigve.server;
+
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import no.ntnu.sigve.communication.Metrics;
+
+/**
+ * Shards the sessions of a {@link Server} across a fixed number of partitions by hashing their
+ * session IDs. Each partition has a thread of its own that runs the protocol callbacks of its
+ * sessions in order, and sends the messages routed to its sessions, so that a session is only
+ * ever handled on one thread and partitions share nothing while they work.
+ *
+ * <p>Work is handed to a partition through a lock-free queue with any number of producers and
+ * the partition's thread as its single consumer. A message routed from one partition to a
+ * session of another is handed over to the other partition rather than sent on the spot; one
+ * routed within a partition, or from a thread outside the partitions, is sent right away.</p>
+ *
+ * <p>Each queue is bounded. Readers handing work to a full partition wait, while partitions
+ * handing messages to each other never do, so that two busy partitions cannot wait on each
+ * other. For the same reason, partition threads never wait for room in a connection's outbound
+ * queue. The time work waits in the queues is recorded in the
+ * {@link Metrics#getDispatchLag() dispatch lag} histogram.</p>
+ *
+ * <p>Once closed, a partition runs what is already queued and stops. Work handed to it after
+ * that runs on the calling thread, and callers waiting for room are let through.</p>
+ */
+class Partitions {
+	private static final ThreadLocal<Partition> CURRENT = new ThreadLocal<>();
+	private static final long CLOSE_CHECK_MILLIS = 100;
+
+	private final Partition[] partitions;
+	private final Metrics metrics;
+
+	/**
+	 * Creates the partitions. They do nothing until {@link #start started}.
+	 *
+	 * @param count         the number of partitions
+	 * @param queueCapacity the largest number of tasks waiting in each partition
+	 * @param metrics       the metrics recording the time tasks wait
+	 */
+	Partitions(int count, int queueCapacity, Metrics metrics) {
+		if (count < 1 || queueCapacity < 1) {
+			throw new IllegalArgumentException("Partition count and capacity must be positive");
+		}
+		this.partitions = new Partition[count];
+		for (int i = 0; i < count; i++) {
+			partitions[i] = new Partition(queueCapacity);
+		}
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Starts a thread for every partition.
+	 *
+	 * @param threadFactory the factory creating the threads
+	 */
+	void start(ThreadFactory threadFactory) {
+		for (Partition partition : partitions) {
+			threadFactory.newThread(partition).start();
+		}
+	}
+
+	/**
+	 * Stops the partitions once they have run what is already queued.
+	 */
+	void close() {
+		for (Partition partition : partitions) {
+			partition.close();
+		}
+	}
+
+	/**
+	 * Checks whether the calling thread runs a partition. Partition threads must never block
+	 * waiting for a connection to drain, since that would hold up every session of the partition.
+	 *
+	 * @return true if called from a partition thread
+	 */
+	static boolean inPartition() {
+		return CURRENT.get() != null;
+	}
+
+	private Partition partitionOf(UUID sessionId) {
+		if (sessionId == null) {
+			return partitions[0];
+		}
+		long bits = sessionId.getMostSignificantBits() ^ sessionId.getLeastSignificantBits();
+		return partitions[Math.floorMod((int) (bits ^ (bits >>> 32)), partitions.length)];
+	}
+
+	/**
+	 * Runs a task on the partition of a session, after the tasks already queued for it.
+	 *
+	 * @param sessionId the session the task concerns, or null
+	 * @param task      the task
+	 * @param mayBlock  whether the calling thread may wait for room in the partition's queue
+	 */
+	void execute(UUID sessionId, Runnable task, boolean mayBlock) {
+		partitionOf(sessionId).offer(task, mayBlock);
+	}
+
+	/**
+	 * Sends a message to a session, handing it over to the session's partition if the calling
+	 * thread belongs to another partition.
+	 *
+	 * @param destination the receiving session
+	 * @param send        sends the message to the session's connection
+	 */
+	void send(UUID destination, Runnable send) {
+		Partition target = partitionOf(destination);
+		Partition current = CURRENT.get();
+		if (current == null || current == target) {
+			send.run();
+		} else {
+			target.offer(send, false);
+		}
+	}
+
+	private record Task(Runnable task, long queuedNanos, boolean reserved) {
+	}
+
+	/**
+	 * One partition: a queue of tasks and the thread running them.
+	 */
+	private class Partition implements Runnable {
+		private final Queue<Task> tasks = new ConcurrentLinkedQueue<>();
+		private final Semaphore capacity;
+		private volatile Thread worker;
+		private volatile boolean closed;
+
+		Partition(int queueCapacity) {
+			this.capacity = new Semaphore(queueCapacity);
+		}
+
+		void offer(Runnable task, boolean mayBlock) {
+			if (closed) {
+				runTask(new Task(task, System.nanoTime(), false));
+				return;
+			}
+			boolean reserved = capacity.tryAcquire();
+			if (!reserved && mayBlock) {
+				reserved = awaitRoom();
+			}
+			Task queued = new Task(task, System.nanoTime(), reserved);
+			tasks.add(queued);
+			LockSupport.unpark(worker);
+			//The worker may have stopped before seeing the task
+			if (closed && tasks.remove(queued)) {
+				runTask(queued);
+			}
+		}
+
+		private boolean awaitRoom() {
+			try {
+				while (!closed) {
+					if (capacity.tryAcquire(CLOSE_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		void close() {
+			closed = true;
+			capacity.release(capacity.getQueueLength());
+			LockSupport.unpark(worker);
+		}
+
+		@Override
+		public void run() {
+			CURRENT.set(this);
+			this.worker = Thread.currentThread();
+			while (true) {
+				Task task = tasks.poll();
+				if (task != null) {
+					runTask(task);
+				} else if (closed) {
+					//Run whatever was queued before the producers saw the partition close
+					while ((task = tasks.poll()) != null) {
+						runTask(task);
+					}
+					return;
+				} else {
+					LockSupport.park(this);
+				}
+			}
+		}
+
+		private void runTask(Task task) {
+			metrics.getDispatchLag().recordSince(task.queuedNanos());
+			try {
+				task.task().run();
+			} catch (RuntimeException e) {
+				e.printStackTrace();
+			} finally {
+				if (task.reserved()) {
+					capacity.release();
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package no.ntnu.sigve.server;
+
+import java.time.Duration;
+
+/**
+ * Limits how fast clients may send, in messages per second, bytes per second or both. A client
+ * may send a burst of up to {@link #getBurstNanos() a burst's} worth at once, and is held to the
+ * rate from then on. A client that goes over the limit is not disconnected and loses nothing:
+ * the server stops reading from its socket until it is back within the limit, so that TCP slows
+ * the client down.
+ *
+ * @see Server#setRateLimits(RateLimit, RateLimit)
+ */
+public final class RateLimit {
+	private static final RateLimit UNLIMITED = new RateLimit(0, 0, Duration.ofSeconds(1).toNanos());
+
+	private final long messagesPerSecond;
+	private final long bytesPerSecond;
+	private final long burstNanos;
+
+	private RateLimit(long messagesPerSecond, long bytesPerSecond, long burstNanos) {
+		this.messagesPerSecond = messagesPerSecond;
+		this.bytesPerSecond = bytesPerSecond;
+		this.burstNanos = burstNanos;
+	}
+
+	/**
+	 * No limit. Clients are only held back by TCP. By default, limits allow a burst of one
+	 * second.
+	 *
+	 * @return the unlimited setting
+	 */
+	public static RateLimit unlimited() {
+		return UNLIMITED;
+	}
+
+	/**
+	 * Limits the number of messages.
+	 *
+	 * @param messagesPerSecond the number of messages allowed each second
+	 * @return a limit like this one, with the given message rate
+	 */
+	public RateLimit withMessagesPerSecond(long messagesPerSecond) {
+		if (messagesPerSecond < 1) {
+			throw new IllegalArgumentException("Message rate must be positive");
+		}
+		return new RateLimit(messagesPerSecond, bytesPerSecond, burstNanos);
+	}
+
+	/**
+	 * Limits the number of bytes, counting whole frames.
+	 *
+	 * @param bytesPerSecond the number of bytes allowed each second
+	 * @return a limit like this one, with the given byte rate
+	 */
+	public RateLimit withBytesPerSecond(long bytesPerSecond) {
+		if (bytesPerSecond < 1) {
+			throw new IllegalArgumentException("Byte rate must be positive");
+		}
+		return new RateLimit(messagesPerSecond, bytesPerSecond, burstNanos);
+	}
+
+	/**
+	 * Sets how much may be sent at once, as the time it takes to earn it at the limited rate.
+	 *
+	 * @param burst the time worth of messages and bytes that may be sent at once
+	 * @return a limit like this one, with the given burst
+	 */
+	public RateLimit withBurst(Duration burst) {
+		if (burst.isNegative() || burst.isZero()) {
+			throw new IllegalArgumentException("Burst must be positive");
+		}
+		return new RateLimit(messagesPerSecond, bytesPerSecond, burst.toNanos());
+	}
+
+	/**
+	 * Checks whether anything is limited.
+	 *
+	 * @return true if messages or bytes are limited
+	 */
+	public boolean isLimited() {
+		return messagesPerSecond > 0 || bytesPerSecond > 0;
+	}
+
+	/**
+	 * Gets the number of messages allowed each second.
+	 *
+	 * @return the message rate, or zero if messages are not limited
+	 */
+	public long getMessagesPerSecond() {
+		return messagesPerSecond;
+	}
+
+	/**
+	 * Gets the number of bytes allowed each second.
+	 *
+	 * @return the byte rate, or zero if bytes are not limited
+	 */
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	/**
+	 * Gets the burst, as the time it takes to earn it at the limited rate.
+	 *
+	 * @return the burst in nanoseconds
+	 */
+	public long getBurstNanos() {
+		return burstNanos;
+	}
+}
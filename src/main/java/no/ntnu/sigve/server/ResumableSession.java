@@ -0,0 +1,238 @@
+package no.ntnu.sigve.server;
+
+import java.net.InetAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Metrics;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.communication.ResumeMessage;
+import no.ntnu.sigve.communication.TimeoutWheel;
+
+/**
+ * A session that outlives its connections. When the connection drops, a stand-in takes its place
+ * in the server's maps and topic index and holds back everything sent to the session, until the
+ * client resumes it on a new connection or the session expires.
+ */
+class ResumableSession {
+	private final UUID sessionId;
+	private final long token;
+	private final ReplayBuffer replay;
+	private final Metrics metrics;
+	private ClientConnection connection;
+	private TimeoutWheel.Timeout expiry;
+
+	/**
+	 * Creates a new resumable session.
+	 *
+	 * @param sessionId      the ID of the session
+	 * @param token          the token a client must present to resume the session
+	 * @param replayCapacity the number of messages the session's replay buffer holds
+	 * @param connection     the connection the session starts on
+	 * @param metrics        the metrics to record messages dropped while detached in
+	 */
+	ResumableSession(
+			UUID sessionId,
+			long token,
+			int replayCapacity,
+			ClientConnection connection,
+			Metrics metrics
+	) {
+		this.sessionId = sessionId;
+		this.token = token;
+		this.replay = new ReplayBuffer(replayCapacity);
+		this.connection = connection;
+		this.metrics = metrics;
+	}
+
+	UUID getSessionId() {
+		return sessionId;
+	}
+
+	long getToken() {
+		return token;
+	}
+
+	ReplayBuffer getReplay() {
+		return replay;
+	}
+
+	synchronized ClientConnection getConnection() {
+		return connection;
+	}
+
+	synchronized boolean isDetached() {
+		return connection instanceof StandIn;
+	}
+
+	/**
+	 * Replaces a closed connection with a stand-in and starts the retention timer.
+	 *
+	 * @param closed    the connection that closed
+	 * @param retention how long the session waits to be resumed
+	 * @param onExpiry  called on the shared timing wheel if the session is not resumed in time;
+	 *                  must hand any real work to another thread
+	 * @return the stand-in, or null if the closed connection no longer served the session
+	 */
+	synchronized ClientConnection detach(
+			ClientConnection closed,
+			Duration retention,
+			Runnable onExpiry
+	) {
+		if (connection != closed) {
+			return null;
+		}
+		connection = new StandIn(closed.getInetAddress());
+		expiry = TimeoutWheel.shared().schedule(onExpiry, retention);
+		return connection;
+	}
+
+	/**
+	 * Attaches a new connection to the detached session, answers the client's resume message and
+	 * sends everything the client has not received.
+	 *
+	 * @param resumed      the new connection
+	 * @param peerReceived the number of messages the client has received in the session
+	 * @return the stand-in that was replaced, or null if the session could not be resumed
+	 */
+	synchronized ClientConnection resume(ClientConnection resumed, long peerReceived) {
+		if (!(connection instanceof StandIn standIn) || standIn.expired) {
+			return null;
+		}
+		if (!replay.canRewind(peerReceived)) {
+			return null;
+		}
+		List<Object> entries = replay.rewind(peerReceived);
+		expiry.cancel();
+		resumed.attachSession(sessionId, replay);
+		resumed.sendMessage(new ResumeMessage(sessionId, token, replay.getReceived()));
+		for (Object entry : entries) {
+			if (entry instanceof byte[] frame) {
+				resumed.sendFrame(frame, Priority.NORMAL);
+			} else {
+				resumed.sendMessage((Message<?>) entry);
+			}
+		}
+		standIn.resumedBy = resumed;
+		connection = resumed;
+		return standIn;
+	}
+
+	/**
+	 * Ends the session if it is still detached. The messages it held back that were never sent
+	 * are passed on, and messages the client did not acknowledge are discarded. Messages sent to
+	 * the stand-in after it expired, by senders that found it before it was removed from the
+	 * server, are passed on the same way.
+	 *
+	 * @param onExpired called before anything is passed on, while the session is certain to end
+	 * @param heldBack  receives the held messages, or whatever is needed to send them, oldest
+	 *                  first; null to discard them
+	 * @return the stand-in of the ended session, or null if it was not detached
+	 */
+	synchronized ClientConnection expire(Runnable onExpired, Consumer<Object> heldBack) {
+		if (!(connection instanceof StandIn standIn) || standIn.expired) {
+			return null;
+		}
+		expiry.cancel();
+		onExpired.run();
+		standIn.expired = true;
+		standIn.afterExpiry = heldBack;
+		List<Object> held = replay.takeHeld();
+		if (heldBack != null) {
+			held.forEach(heldBack);
+		}
+		replay.rewind(0);
+		return standIn;
+	}
+
+	/**
+	 * Takes the place of a detached session's connection. Messages sent to it are held back in
+	 * the replay buffer, and once the session is resumed, it passes them on to the new
+	 * connection.
+	 */
+	private class StandIn implements ClientConnection {
+		private final InetAddress address;
+		private ClientConnection resumedBy;
+		private boolean expired;
+		private Consumer<Object> afterExpiry;
+
+		StandIn(InetAddress address) {
+			this.address = address;
+		}
+
+		@Override
+		public UUID getSessionId() {
+			return sessionId;
+		}
+
+		@Override
+		public InetAddress getInetAddress() {
+			return address;
+		}
+
+		@Override
+		public void start() {
+			//Nothing to read from
+		}
+
+		@Override
+		public void sendMessage(Message<?> message) {
+			if (ReplayBuffer.isCounted(message)) {
+				ClientConnection target = hold(message);
+				if (target != null) {
+					target.sendMessage(message);
+				}
+			}
+		}
+
+		@Override
+		public void sendFrame(byte[] frame, Priority priority) {
+			ClientConnection target = hold(frame);
+			if (target != null) {
+				target.sendFrame(frame, priority);
+			}
+		}
+
+		/**
+		 * Holds back a message, unless the session has been resumed or has expired in the
+		 * meantime.
+		 *
+		 * @param entry the message to hold back
+		 * @return the connection to send the message on instead, or null if it was handled
+		 */
+		private ClientConnection hold(Object entry) {
+			Consumer<Object> expiredSink;
+			synchronized (ResumableSession.this) {
+				if (resumedBy != null) {
+					return resumedBy;
+				}
+				if (!expired) {
+					if (!replay.hold(entry)) {
+						metrics.recordDroppedMessage();
+					}
+					return null;
+				}
+				expiredSink = afterExpiry;
+			}
+			if (expiredSink != null) {
+				expiredSink.accept(entry);
+			} else {
+				metrics.recordDroppedMessage();
+			}
+			return null;
+		}
+
+		@Override
+		public void attachSession(UUID sessionId, ReplayBuffer replay) {
+			throw new UnsupportedOperationException("A stand-in cannot be attached");
+		}
+
+		@Override
+		public void close() {
+			//The session is closed by expiring
+		}
+	}
+}
@@ -1,32 +1,142 @@
 package no.ntnu.sigve.server;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.HashMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import no.ntnu.sigve.communication.AckMessage;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.CompressingMessageCodec;
+import no.ntnu.sigve.communication.Compression;
+import no.ntnu.sigve.communication.CompressionMessage;
+import no.ntnu.sigve.communication.Dispatcher;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Heartbeat;
 import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Metrics;
 import no.ntnu.sigve.communication.Protocol;
 import no.ntnu.sigve.communication.ProtocolUser;
+import no.ntnu.sigve.communication.RejectionMessage;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.communication.ResumeMessage;
+import no.ntnu.sigve.communication.SocketSettings;
+import no.ntnu.sigve.communication.StreamAssembler;
+import no.ntnu.sigve.communication.StreamChunkMessage;
+import no.ntnu.sigve.communication.SubscriptionMessage;
+import no.ntnu.sigve.communication.Threads;
+import no.ntnu.sigve.communication.TrafficRecorder;
 import no.ntnu.sigve.communication.UuidMessage;
+import no.ntnu.sigve.communication.WriteBatching;
 
 /**
  * A server running on the target machine. Can listen to incoming client connections and handle
  * clients independently. Once {@link Server#start() start()} is called, the server will be
  * occupied with a listening loop. The server can be shut down by calling {@link Server#close()}
  *
+ * <p>How connections are accepted and served is decided by the server's {@link ServerTransport}.
+ * By default every client gets its own thread; a {@link NioServerTransport} can be used instead to
+ * serve all clients from a small, fixed set of event loop threads.</p>
+ *
+ * <p>Connected sessions are kept in concurrent maps, so routing, broadcasting, accepting and
+ * removing clients never wait for each other. Broadcasts go to the sessions connected when the
+ * broadcast started.</p>
+ *
+ * <p>Clients can subscribe to topics, and {@link #publish(String, Message)} sends a message to the
+ * subscribers of a topic only. Subscriptions are indexed by topic, so publishing never looks at
+ * sessions that are not subscribed.</p>
+ *
+ * <p>Large payloads can be sent as streams, which travel in chunks between other messages. The
+ * server relays chunks addressed to a client without reassembling them.</p>
+ *
+ * <p>Connections can be {@link #setCompressions(int, Compression...) compressed} with an
+ * algorithm agreed on while the client connects.</p>
+ *
+ * <p>With {@link #setSessionResumption(Duration, int) session resumption}, a session survives its
+ * connection for a while. Messages sent to it in the meantime are held back, and a client that
+ * reconnects in time continues the session where it left off, with nothing lost on the way.
+ * A {@link #setMailbox(Path, Duration, long) mailbox} keeps messages for sessions that expired
+ * anyway, on disk, until their client comes back.</p>
+ *
+ * <p>With {@link #setHeartbeat(Heartbeat) heartbeats}, quiet clients are pinged, and clients that
+ * have gone silent are disconnected instead of holding on to their connection forever.</p>
+ *
+ * <p>Protocol callbacks run on the threads reading from clients, unless a
+ * {@link #setDispatcher(Executor, int) dispatcher} hands them to an executor, keeping the order
+ * of every session's messages. {@link #setPartitions(int, int) Partitions} instead give every
+ * session a fixed thread, shared with the other sessions of its partition.</p>
+ *
+ * <p>{@link #setRateLimits(RateLimit, RateLimit) Rate limits} hold back clients that send too
+ * much by pausing reads from their sockets, and a
+ * {@link #setMaxConnections(int) connection cap} turns new clients away once the server is
+ * full.</p>
+ *
+ * <p>Servers can be joined into a {@link #setCluster(int, InetSocketAddress...) cluster}, in
+ * which messages and broadcasts reach the clients of every node.</p>
+ *
+ * <p>Traffic, connection and error counts and latency histograms are collected in the server's
+ * {@link #getMetrics() metrics}.</p>
+ *
  * @author Sigve Bjørkedal
  */
 public class Server implements ProtocolUser {
 	private final int port;
-	private final ServerSocket genericServer;
+	private final ServerTransport transport;
 	private final Map<UUID, InetAddress> uuidToAddressMap;
-	private final Map<UUID, ServerConnection> clientConnections;
+	private final Map<UUID, ClientConnection> clientConnections;
 
 	private final Protocol<Server> protocol;
+	private ThreadFactory threadFactory = Threads.platformThreads("server");
+	private Supplier<? extends MessageCodec> codecFactory = BinaryMessageCodec::new;
+	private MessageCodec broadcastCodec = new BinaryMessageCodec();
+	private List<Compression> compressions = List.of();
+	private int compressionThreshold;
+	private int outboundCapacity = 8 * 1024 * 1024;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+	private int lowWatermark = 32 * 1024;
+	private int highWatermark = 64 * 1024;
+	private final SocketSettings socketSettings = new SocketSettings();
+	private WriteBatching writeBatching = WriteBatching.of(64 * 1024, Duration.ZERO);
+	private Heartbeat heartbeat = Heartbeat.disabled();
+	private Dispatcher dispatcher;
+	private Partitions partitions;
+	private RateLimit sessionLimit = RateLimit.unlimited();
+	private TokenBucket globalLimiter;
+	private int maxConnections = Integer.MAX_VALUE;
+	private final AtomicInteger connectionCount = new AtomicInteger();
+	private final Metrics metrics = new Metrics();
+	private final TopicIndex topics = new TopicIndex();
+	private final StreamAssembler streams = new StreamAssembler();
+	private final AtomicLong nextStreamId = new AtomicLong(1);
+	private final Map<UUID, PendingConnection> handshakes = new ConcurrentHashMap<>();
+	private final Map<UUID, ResumableSession> sessions = new ConcurrentHashMap<>();
+	private final SecureRandom tokens = new SecureRandom();
+	private Duration resumeRetention;
+	private int replayCapacity;
+	private Mailbox mailbox;
+	private TrafficRecorder recorder;
+	private Cluster cluster;
+	private volatile boolean closing;
 
 	/**
 	 * Creates a new server on the given port, with the given protocol to interpret messages.
@@ -36,31 +146,514 @@ public class Server implements ProtocolUser {
 	 * @throws IOException if creating the server fails.
 	 */
 	public Server(int port, Protocol<Server> protocol) throws IOException {
+		this(port, protocol, new BlockingServerTransport());
+	}
+
+	/**
+	 * Creates a new server on the given port, with the given protocol to interpret messages and
+	 * the given transport to serve connections.
+	 *
+	 * @param port      the port on which the server will listen for incoming connections.
+	 * @param protocol  the protocol by which the server will interpret messages.
+	 * @param transport the transport used to accept and serve client connections.
+	 * @throws IOException if creating the server fails.
+	 */
+	public Server(int port, Protocol<Server> protocol, ServerTransport transport)
+			throws IOException {
 		this.protocol = protocol;
-		this.genericServer = new ServerSocket(port);
-		this.uuidToAddressMap = new HashMap<>();
-		this.clientConnections = new HashMap<>();
+		this.transport = transport;
+		this.transport.bind(port);
+		this.uuidToAddressMap = new ConcurrentHashMap<>();
+		this.clientConnections = new ConcurrentHashMap<>();
 		this.port = port;
 	}
 
+	/**
+	 * Sets the factory used to create the server's threads: the listening loop, and with the
+	 * default transport one thread per connected client. Use
+	 * {@link Threads#virtualThreads(String)} to serve every client on a virtual thread. Must be
+	 * called before {@link #start()}.
+	 *
+	 * @param threadFactory the factory creating the server's threads
+	 */
+	public void setThreadFactory(ThreadFactory threadFactory) {
+		this.threadFactory = threadFactory;
+	}
+
+	/**
+	 * Gets the factory used to create the server's threads.
+	 *
+	 * @return the server's thread factory
+	 */
+	ThreadFactory getThreadFactory() {
+		return this.threadFactory;
+	}
+
+	/**
+	 * Sets the factory creating the codec that encodes and decodes messages for each connection.
+	 * Clients must use the same kind of codec. Must be called before {@link #start()}.
+	 *
+	 * @param codecFactory the factory creating a codec for each connection
+	 */
+	public void setCodecFactory(Supplier<? extends MessageCodec> codecFactory) {
+		this.codecFactory = codecFactory;
+		this.broadcastCodec = codecFactory.get();
+	}
+
+	/**
+	 * Creates a codec for a new connection, recording in this server's metrics. The codec must
+	 * be closed once the connection is.
+	 *
+	 * @return a new codec instance
+	 */
+	MessageCodec newCodec() {
+		MessageCodec codec = compressions.isEmpty()
+				? this.codecFactory.get()
+				: new CompressingMessageCodec(
+						this.codecFactory.get(), compressions, compressionThreshold);
+		codec.setMetrics(metrics);
+		return codec;
+	}
+
+	/**
+	 * Sets the compression algorithms offered to connecting clients, most preferred first. Each
+	 * client picks one of them while connecting, and from then on frames of at least
+	 * {@code threshold} bytes are compressed in both directions. Clients that accept none of them
+	 * are served uncompressed. By default nothing is offered. Must be called before
+	 * {@link #start()}.
+	 *
+	 * @param threshold    the smallest frame body worth compressing, in bytes
+	 * @param compressions the offered algorithms, most preferred first
+	 */
+	public void setCompressions(int threshold, Compression... compressions) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Compression threshold must not be negative");
+		}
+		this.compressionThreshold = threshold;
+		this.compressions = List.of(compressions);
+	}
+
+	/**
+	 * Lets sessions survive their connections. A session whose connection drops is kept for the
+	 * retention time, and messages sent to it are held back until the client resumes it. Each end
+	 * keeps up to {@code replayCapacity} messages the other has not acknowledged, and sends them
+	 * again when the session is resumed. The protocol is told about the disconnect only once the
+	 * session expires. Clients resume sessions if they have a
+	 * {@link no.ntnu.sigve.client.ReconnectPolicy}. Must be called before {@link #start()}.
+	 *
+	 * @param retention      how long a session waits to be resumed
+	 * @param replayCapacity the number of messages held for each session
+	 */
+	public void setSessionResumption(Duration retention, int replayCapacity) {
+		if (retention.isNegative() || retention.isZero() || replayCapacity < 1) {
+			throw new IllegalArgumentException("Retention and replay capacity must be positive");
+		}
+		this.resumeRetention = retention;
+		this.replayCapacity = replayCapacity;
+	}
+
+	/**
+	 * Keeps messages for offline sessions in a durable mailbox. When a resumable session expires,
+	 * or is open while the server closes, the messages it held back and every message routed to
+	 * it for the next {@code timeToLive} are appended to a memory-mapped log in
+	 * {@code directory}, up to {@code capacityBytes} per session. A client that later tries to
+	 * resume the session, on this server or on one started on the same directory, is given a new
+	 * session and receives the mail in order. Requires
+	 * {@link #setSessionResumption(Duration, int) session resumption}, whose tokens prove that a
+	 * client owns the mail. Must be called before {@link #start()}.
+	 *
+	 * @param directory     the directory holding the log, which one server uses at a time
+	 * @param timeToLive    how long mail is kept
+	 * @param capacityBytes the most bytes of mail kept for one session
+	 * @throws IOException if the log cannot be opened
+	 */
+	public void setMailbox(Path directory, Duration timeToLive, long capacityBytes)
+			throws IOException {
+		if (timeToLive.isNegative() || timeToLive.isZero() || capacityBytes < 1) {
+			throw new IllegalArgumentException("Time to live and capacity must be positive");
+		}
+		this.mailbox = new Mailbox(directory, timeToLive, capacityBytes, this.metrics);
+	}
+
+	/**
+	 * Joins the server to a cluster of servers, so that a message routed to a client of another
+	 * node is forwarded to that node, and broadcasts reach the clients of every node. The server
+	 * accepts links from the other nodes on {@code clusterPort}, and opens links to the cluster
+	 * ports of its peers, retrying until they are up. Nodes tell each other which sessions they
+	 * own over these links, so no coordination service is needed. Must be called before
+	 * {@link #start()}.
+	 *
+	 * @param clusterPort the port on which the server accepts links from other nodes
+	 * @param peers       the cluster ports of the other nodes
+	 * @throws IOException if the cluster port cannot be bound
+	 */
+	public void setCluster(int clusterPort, InetSocketAddress... peers) throws IOException {
+		this.cluster = new Cluster(this, clusterPort, List.of(peers));
+	}
+
+	/**
+	 * Records every frame read from and written to socket connections, so that the traffic can be
+	 * replayed later with {@link no.ntnu.sigve.client.TrafficReplay}. In-process connections are
+	 * not recorded. The caller owns the recorder and closes it once the capture is complete. Must
+	 * be called before {@link #start()}.
+	 *
+	 * @param recorder the recorder to write frames to, or null to stop recording
+	 */
+	public void setTrafficRecorder(TrafficRecorder recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Starts recording a new connection, if traffic is being recorded.
+	 *
+	 * @param sessionId the session ID the connection was accepted with
+	 * @return the channel to record the connection on, or null if nothing is recorded
+	 */
+	TrafficRecorder.Channel openCapture(UUID sessionId) {
+		TrafficRecorder current = this.recorder;
+		return current == null ? null : current.open(sessionId);
+	}
+
+	/**
+	 * Sets the size of each connection's outbound queue, and what happens to new messages when a
+	 * client falls so far behind that its queue is full. By default each queue holds 8 MiB and
+	 * senders block while it is full. Must be called before {@link #start()}.
+	 *
+	 * @param capacity       the number of bytes each connection may have waiting to be sent
+	 * @param overflowPolicy what to do with new messages for a connection whose queue is full
+	 */
+	public void setOutboundQueue(int capacity, OverflowPolicy overflowPolicy) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("Outbound queue capacity must be positive");
+		}
+		this.outboundCapacity = capacity;
+		this.overflowPolicy = overflowPolicy;
+	}
+
+	/**
+	 * Sets the watermarks at which the protocol is told that a connection is falling behind, see
+	 * {@link Protocol#onWritabilityChanged(ProtocolUser, UUID, boolean)}. Defaults to 32 KiB and
+	 * 64 KiB. Must be called before {@link #start()}.
+	 *
+	 * @param lowWatermark  the backlog in bytes below which a connection becomes writable again
+	 * @param highWatermark the backlog in bytes above which a connection becomes not writable
+	 */
+	public void setWriteBufferWatermarks(int lowWatermark, int highWatermark) {
+		if (lowWatermark < 0 || highWatermark < lowWatermark) {
+			throw new IllegalArgumentException("Watermarks must satisfy 0 <= low <= high");
+		}
+		this.lowWatermark = lowWatermark;
+		this.highWatermark = highWatermark;
+	}
+
+	/**
+	 * Gets the TCP options applied to every accepted client socket. Changes must be made before
+	 * {@link #start()}.
+	 *
+	 * @return the server's socket settings
+	 */
+	public SocketSettings getSocketSettings() {
+		return this.socketSettings;
+	}
+
+	/**
+	 * Sets how queued messages are gathered before being written to each client. By default,
+	 * messages that are already queued when the writer gets to them are written together, up to
+	 * 64 KiB at a time, without waiting for more. Must be called before {@link #start()}.
+	 *
+	 * @param writeBatching the batching setting
+	 */
+	public void setWriteBatching(WriteBatching writeBatching) {
+		this.writeBatching = writeBatching;
+	}
+
+	/**
+	 * Gets the batching setting for connection writers.
+	 *
+	 * @return the server's batching setting
+	 */
+	WriteBatching getWriteBatching() {
+		return this.writeBatching;
+	}
+
+	/**
+	 * Sets how connections are kept alive and checked for idleness. Clients that send nothing
+	 * within the heartbeat timeout are disconnected, or detached if their session can be
+	 * resumed. By default, heartbeats are disabled. Must be called before {@link #start()}.
+	 *
+	 * @param heartbeat the heartbeat setting
+	 */
+	public void setHeartbeat(Heartbeat heartbeat) {
+		this.heartbeat = heartbeat;
+	}
+
+	/**
+	 * Makes protocol callbacks run on an executor rather than on the threads reading from
+	 * clients, so that a slow handler does not stop its connection from reading. Callbacks for
+	 * one session run in order, one at a time; different sessions are handled in parallel. By
+	 * default, callbacks run on the reading thread. Must be called before {@link #start()}.
+	 *
+	 * @param executor      the executor running the callbacks, e.g. a
+	 *                      {@link java.util.concurrent.ForkJoinPool}, or null to run callbacks on
+	 *                      the reading threads
+	 * @param queueCapacity the largest number of callbacks waiting to run before readers wait
+	 */
+	public void setDispatcher(Executor executor, int queueCapacity) {
+		this.dispatcher = executor != null
+				? new Dispatcher(executor, queueCapacity, this.metrics)
+				: null;
+	}
+
+	/**
+	 * Shards sessions across partitions by their session IDs. Each partition runs the protocol
+	 * callbacks of its sessions on a thread of its own, and sends the messages routed to them, so
+	 * that partitions scale with the number of cores without sharing work. Messages routed to a
+	 * session of another partition are handed over to that partition through a lock-free queue.
+	 * Callbacks for one session run in order, one at a time. Partitions take the place of a
+	 * {@link #setDispatcher(Executor, int) dispatcher}. Must be called before {@link #start()}.
+	 *
+	 * @param count         the number of partitions, usually the number of cores
+	 * @param queueCapacity the largest number of tasks waiting in each partition before readers
+	 *                      wait
+	 */
+	public void setPartitions(int count, int queueCapacity) {
+		this.partitions = new Partitions(count, queueCapacity, this.metrics);
+	}
+
+	/**
+	 * Limits how fast clients may send. Every session is held to the per-session limit on its
+	 * own, and all sessions together to the global limit. A client that goes over either limit
+	 * is not disconnected; the server stops reading from it until it is back within the limits,
+	 * leaving the rest in the socket's buffers so that TCP slows the client down. Clients in the
+	 * same JVM are only limited by their number of messages. By default, nothing is limited.
+	 * Must be called before {@link #start()}.
+	 *
+	 * @param perSession the limit for each session
+	 * @param global     the limit for all sessions together
+	 */
+	public void setRateLimits(RateLimit perSession, RateLimit global) {
+		this.sessionLimit = perSession;
+		this.globalLimiter = global.isLimited() ? new TokenBucket(global) : null;
+	}
+
+	/**
+	 * Creates the rate limiter of a new connection.
+	 *
+	 * @return a limiter enforcing the per-session limit, or null if sessions are not limited
+	 */
+	TokenBucket newSessionLimiter() {
+		return sessionLimit.isLimited() ? new TokenBucket(sessionLimit) : null;
+	}
+
+	/**
+	 * Charges a received message to the rate limits.
+	 *
+	 * @param session     the limiter of the connection the message came from, or null
+	 * @param frameLength the length of the message's frame
+	 * @return how long to pause reading from the connection, in nanoseconds, or zero
+	 */
+	long throttle(TokenBucket session, int frameLength) {
+		TokenBucket global = this.globalLimiter;
+		long pause = session != null ? session.take(frameLength) : 0;
+		if (global != null) {
+			pause = Math.max(pause, global.take(frameLength));
+		}
+		if (pause > 0) {
+			metrics.recordThrottle();
+		}
+		return pause;
+	}
+
+	/**
+	 * Caps the number of open connections. Clients connecting while the server is full are sent
+	 * a {@link RejectionMessage} and disconnected, and fail to connect. By default, connections
+	 * are not capped. Must be called before {@link #start()}.
+	 *
+	 * @param maxConnections the largest number of open connections
+	 */
+	public void setMaxConnections(int maxConnections) {
+		if (maxConnections < 1) {
+			throw new IllegalArgumentException("Connection cap must be positive");
+		}
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Makes room for a new connection, unless the server is full. Connections given room must
+	 * {@link #releaseConnection() release} it when they close.
+	 *
+	 * @return true if the connection may be accepted
+	 */
+	boolean reserveConnection() {
+		while (true) {
+			int count = connectionCount.get();
+			if (count >= maxConnections) {
+				metrics.recordRejectedConnection();
+				return false;
+			}
+			if (connectionCount.compareAndSet(count, count + 1)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Frees the room of a closed connection.
+	 */
+	void releaseConnection() {
+		connectionCount.decrementAndGet();
+	}
+
+	/**
+	 * Turns a connection away because the server is full, telling the client why.
+	 *
+	 * @param rejected the socket of the connection
+	 */
+	void rejectConnection(Socket rejected) {
+		MessageCodec codec = newCodec();
+		try (rejected) {
+			byte[] frame = encode(codec, new RejectionMessage("Server is full"));
+			rejected.getOutputStream().write(frame);
+			rejected.getOutputStream().flush();
+		} catch (IOException e) {
+			//The client is gone already
+		} finally {
+			codec.close();
+		}
+	}
+
+	/**
+	 * Checks whether the calling thread may wait for room in a queue. Event loop and partition
+	 * threads must not, since other connections depend on them to make progress.
+	 *
+	 * @return true if the calling thread may block
+	 */
+	static boolean mayBlock() {
+		return !NioEventLoop.inEventLoop() && !Partitions.inPartition();
+	}
+
+	/**
+	 * Runs a protocol callback for a session, on its partition or the dispatcher if there is one.
+	 *
+	 * @param sessionId the session the callback concerns
+	 * @param callback  the callback
+	 */
+	private void dispatch(UUID sessionId, Runnable callback) {
+		Partitions sharded = this.partitions;
+		Dispatcher stage = this.dispatcher;
+		if (sharded != null) {
+			sharded.execute(sessionId, callback, mayBlock());
+		} else if (stage == null) {
+			callback.run();
+		} else {
+			stage.dispatch(sessionId, callback, mayBlock());
+		}
+	}
+
+	/**
+	 * Gets the heartbeat setting for connections.
+	 *
+	 * @return the server's heartbeat setting
+	 */
+	Heartbeat getHeartbeat() {
+		return this.heartbeat;
+	}
+
+	/**
+	 * Gets the server's metrics. Use {@link Metrics#getSnapshot()} to read them, or
+	 * {@link Metrics#registerMBean(String)} to publish them over JMX.
+	 *
+	 * @return the server's metrics
+	 */
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * Encodes a message for a connection, recording the encoding time or the failure.
+	 *
+	 * @param codec   the codec of the connection
+	 * @param message the message to encode
+	 * @return the encoded frame
+	 * @throws IOException if the message could not be encoded
+	 */
+	byte[] encode(MessageCodec codec, Message<?> message) throws IOException {
+		long start = System.nanoTime();
+		try {
+			byte[] frame = codec.encode(message);
+			metrics.getEncodeTime().recordSince(start);
+			return frame;
+		} catch (IOException | RuntimeException e) {
+			metrics.recordCodecError();
+			throw e;
+		}
+	}
+
+	/**
+	 * Creates the outbound queue of a new connection.
+	 *
+	 * @param connection   the connection
+	 * @param codec        the codec of the connection
+	 * @param sentListener receives what each frame holds as it leaves the queue
+	 * @return a new outbound queue
+	 */
+	OutboundQueue newOutboundQueue(
+			ClientConnection connection,
+			MessageCodec codec,
+			Consumer<Object> sentListener
+	) {
+		return new OutboundQueue(
+				outboundCapacity,
+				overflowPolicy,
+				lowWatermark,
+				highWatermark,
+				frame -> codec.isIndependent(frame.array()),
+				writable -> this.protocol.onWritabilityChanged(
+						this, connection.getSessionId(), writable),
+				sentListener,
+				metrics
+		);
+	}
+
 	/**
 	 * Causes the server to start listening for new connections and handle incoming messages.
 	 */
 	public void start() {
 		System.out.println("Server started on port " + this.port);
-		new ServerIncomingConnectionListener(this, genericServer).start();
+		if (partitions != null) {
+			partitions.start(threadFactory);
+		}
+		this.transport.start(this);
+		if (cluster != null) {
+			cluster.start();
+		}
 	}
 
 	/**
 	 * Closes the server, and terminates all connected clients.
 	 */
 	public void close() {
-		try {
-			clientConnections.values().forEach(ServerConnection::close);
-			genericServer.close();
-		} catch (IOException ioe) {
-			ioe.printStackTrace();
+		this.closing = true;
+		if (cluster != null) {
+			cluster.close();
+		}
+		this.transport.close();
+		if (mailbox != null) {
+			//Readers may remove their connections after the mailbox is closed
+			sessions.values().forEach(
+					session -> mailbox.open(session.getSessionId(), session.getToken()));
+		}
+		handshakes.values().forEach(pending -> pending.connection().close());
+		List<ClientConnection> connections = new ArrayList<>(clientConnections.values());
+		connections.forEach(ClientConnection::close);
+		new ArrayList<>(sessions.values()).forEach(this::expire);
+		if (mailbox != null) {
+			mailbox.close();
 		}
+		if (partitions != null) {
+			partitions.close();
+		}
+		this.metrics.unregisterMBean();
 	}
 
 	/**
@@ -71,17 +664,144 @@ public class Server implements ProtocolUser {
 	 */
 	public void acceptIncomingConnection(Socket incomingConnection) throws IOException {
 		UUID sessionId = UUID.randomUUID();
-		ServerConnection connection = new ServerConnection(this, incomingConnection, sessionId);
-		connection.sendMessage(new UuidMessage(sessionId));
+		socketSettings.apply(incomingConnection);
+		acceptConnection(new ServerConnection(this, incomingConnection, sessionId));
+	}
 
-		synchronized (this) {
-			this.uuidToAddressMap.put(sessionId, incomingConnection.getInetAddress());
-			this.clientConnections.put(sessionId, connection);
-		}
+	/**
+	 * Registers a newly accepted connection, sends the client its session ID and starts reading
+	 * from it. Notifies the protocol. If sessions can be resumed, the connection is registered
+	 * once the client has answered with a {@link ResumeMessage}, saying which session it belongs
+	 * to.
+	 *
+	 * @param connection the accepted connection
+	 */
+	void acceptConnection(ClientConnection connection) {
+		UUID sessionId = connection.getSessionId();
+		//Nothing can drop between the ends of an in-process connection
+		long resumeToken = resumeRetention != null
+				&& !(connection instanceof LocalServerConnection) ? newResumeToken() : 0;
+		connection.sendMessage(new UuidMessage(sessionId,
+				compressions.stream().map(Compression::getName).toList(), resumeToken));
 
+		if (resumeToken != 0) {
+			this.handshakes.put(sessionId, new PendingConnection(connection, resumeToken));
+			connection.start();
+			this.metrics.recordAccept();
+			return;
+		}
+		//Registered before reading starts, so that a client leaving at once is removed again
+		this.metrics.recordAccept();
+		register(connection);
 		connection.start();
+	}
+
+	private long newResumeToken() {
+		long token;
+		do {
+			token = tokens.nextLong();
+		} while (token == 0);
+		return token;
+	}
+
+	private void register(ClientConnection connection) {
+		UUID sessionId = connection.getSessionId();
+		this.uuidToAddressMap.put(sessionId, connection.getInetAddress());
+		this.clientConnections.put(sessionId, connection);
+		if (cluster != null) {
+			cluster.announce(sessionId, true);
+		}
+		dispatch(sessionId, () -> this.protocol.onClientConnect(this, sessionId));
+	}
+
+	/**
+	 * Gets the sessions of the clients connected to this server.
+	 *
+	 * @return the session IDs, including those of sessions waiting to be resumed
+	 */
+	Collection<UUID> getSessionIds() {
+		return new ArrayList<>(clientConnections.keySet());
+	}
 
-		this.protocol.onClientConnect(this, sessionId);
+	/**
+	 * Removes a connection that has closed. A resumable session is kept for its retention time
+	 * instead, with a stand-in holding back messages sent to it.
+	 *
+	 * @param connection the connection that closed
+	 */
+	void removeConnection(ClientConnection connection) {
+		UUID sessionId = connection.getSessionId();
+		PendingConnection pending = handshakes.get(sessionId);
+		if (pending != null && pending.connection() == connection) {
+			handshakes.remove(sessionId, pending);
+			this.metrics.recordDisconnect();
+			return;
+		}
+		ResumableSession session = sessions.get(sessionId);
+		if (session == null) {
+			removeExistingConnection(sessionId);
+			return;
+		}
+		if (closing) {
+			sessions.remove(sessionId, session);
+			if (mailbox != null) {
+				mailbox.open(sessionId, session.getToken());
+			}
+			removeExistingConnection(sessionId);
+			return;
+		}
+		//Expiry is due on the shared timing wheel, whose thread must not do the work itself
+		ClientConnection standIn = session.detach(connection, resumeRetention,
+				() -> threadFactory.newThread(() -> expire(session)).start());
+		if (standIn != null) {
+			this.clientConnections.replace(sessionId, connection, standIn);
+			this.topics.transfer(connection, standIn);
+		}
+	}
+
+	/**
+	 * Ends a detached session that was not resumed in time. Notifies the protocol.
+	 *
+	 * @param session the session to end
+	 */
+	private void expire(ResumableSession session) {
+		UUID sessionId = session.getSessionId();
+		ClientConnection standIn = mailbox == null
+				? session.expire(() -> { }, null)
+				: session.expire(() -> mailbox.open(sessionId, session.getToken()),
+						entry -> keepHeldBack(sessionId, entry));
+		if (standIn == null) {
+			return;
+		}
+		this.sessions.remove(sessionId, session);
+		this.clientConnections.remove(sessionId, standIn);
+		if (cluster != null) {
+			cluster.announce(sessionId, false);
+		}
+		this.topics.unsubscribeAll(standIn);
+		this.uuidToAddressMap.remove(sessionId);
+		this.streams.abortFrom(sessionId);
+		this.metrics.recordDisconnect();
+		dispatch(sessionId, () -> this.protocol.onClientDisconnect(this, sessionId));
+	}
+
+	/**
+	 * Moves a message held back for an expired session to its mailbox.
+	 *
+	 * @param sessionId the expired session
+	 * @param entry     the held message, or its shared frame
+	 */
+	private void keepHeldBack(UUID sessionId, Object entry) {
+		try {
+			Message<?> message = entry instanceof byte[] frame
+					? codecFactory.get().decode(
+							Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length))
+					: (Message<?>) entry;
+			mailbox.offer(sessionId, message);
+		} catch (IOException | ClassNotFoundException e) {
+			metrics.recordCodecError();
+			e.printStackTrace();
+		}
 	}
 
 	/**
@@ -90,49 +810,209 @@ public class Server implements ProtocolUser {
 	 * @param sessionId the UUID of the disconnecting client.
 	 */
 	public void removeExistingConnection(UUID sessionId) {
-		this.protocol.onClientDisconnect(this, sessionId);
+		dispatch(sessionId, () -> this.protocol.onClientDisconnect(this, sessionId));
+
+		this.uuidToAddressMap.remove(sessionId);
+		ClientConnection connection = this.clientConnections.remove(sessionId);
+		this.streams.abortFrom(sessionId);
+		if (connection != null && cluster != null) {
+			cluster.announce(sessionId, false);
+		}
+		if (connection != null) {
+			this.topics.unsubscribeAll(connection);
+			this.metrics.recordDisconnect();
+		}
+	}
+
+	/**
+	 * Subscribes a client to a topic. Clients usually subscribe themselves with
+	 * {@link no.ntnu.sigve.client.Client#subscribe(String)}.
+	 *
+	 * @param sessionId the session ID of the client
+	 * @param topic     the topic, a pattern ending in {@code /*} matching every topic below it,
+	 *                  or {@code *} matching every topic
+	 * @throws IllegalArgumentException if the topic pattern is invalid
+	 */
+	public void subscribe(UUID sessionId, String topic) {
+		ClientConnection connection = clientConnections.get(sessionId);
+		if (connection == null) {
+			return;
+		}
+		this.topics.subscribe(topic, connection);
+		if (!clientConnections.containsKey(sessionId)) {
+			//The client disconnected while subscribing
+			this.topics.unsubscribeAll(connection);
+		}
+	}
+
+	/**
+	 * Removes a client's subscription to a topic.
+	 *
+	 * @param sessionId the session ID of the client
+	 * @param topic     the topic or pattern the client subscribed with
+	 * @throws IllegalArgumentException if the topic pattern is invalid
+	 */
+	public void unsubscribe(UUID sessionId, String topic) {
+		ClientConnection connection = clientConnections.get(sessionId);
+		if (connection != null) {
+			this.topics.unsubscribe(topic, connection);
+		}
+	}
 
-		synchronized (this) {
-			this.uuidToAddressMap.remove(sessionId);
-			this.clientConnections.remove(sessionId);
+	/**
+	 * Sends a message to every client subscribed to a topic, encoding it only once if the codec
+	 * allows it.
+	 *
+	 * @param topic   the topic to publish to. It may not contain wildcards.
+	 * @param message the message to send
+	 * @throws IllegalArgumentException if the topic contains a wildcard
+	 */
+	public void publish(String topic, Message<?> message) {
+		Collection<ClientConnection> subscribers = topics.subscribersOf(topic);
+		if (!subscribers.isEmpty()) {
+			sendToAll(message, subscribers);
 		}
 	}
 
 
 	/**
-	 * Broadcasts a given message to all currently connected clients. This method
-	 * iterates through each client connection and sends the specified message.
+	 * Broadcasts a given message to all currently connected clients. The message is encoded once
+	 * and the same frame is queued for every client. In a {@link #setCluster cluster}, the
+	 * message reaches the clients of every node.
 	 *
 	 * @param message The message to be broadcasted to all clients.
 	 */
-	public synchronized void broadcast(Message<?> message) {
-		for (ServerConnection connection : clientConnections.values()) {
-			connection.sendMessage(message);
+	public void broadcast(Message<?> message) {
+		broadcastLocally(message);
+		if (cluster != null) {
+			cluster.broadcast(message);
 		}
 	}
 
+	/**
+	 * Broadcasts a message to the clients connected to this node only.
+	 *
+	 * @param message the message to broadcast
+	 */
+	void broadcastLocally(Message<?> message) {
+		sendToAll(message, new ArrayList<>(clientConnections.values()));
+	}
+
 	/**
 	 * Broadcasts a given message to all currently connected clients according to a predicate.
 	 *
 	 * @param message   the message to be broadcast
 	 * @param predicate a predicate to filter the session IDs
 	 */
-	public synchronized void broadcastFiltered(Message<?> message, Predicate<UUID> predicate) {
-		clientConnections.keySet().stream()
-				.filter(predicate)
-				.forEach(key -> clientConnections.get(key).sendMessage(message));
+	public void broadcastFiltered(Message<?> message, Predicate<UUID> predicate) {
+		List<ClientConnection> connections = new ArrayList<>();
+		clientConnections.forEach((sessionId, connection) -> {
+			if (predicate.test(sessionId)) {
+				connections.add(connection);
+			}
+		});
+		sendToAll(message, connections);
 	}
 
 	/**
-	 * Routes a message to one specific target address. If the target does not exist, the message
-	 * is discarded.
+	 * Sends one message to several connections, encoding it only once if the codec allows it.
+	 * In-process connections are given the message itself.
+	 *
+	 * @param message     the message to send
+	 * @param connections the connections to send it to
+	 */
+	private void sendToAll(Message<?> message, Collection<ClientConnection> connections) {
+		byte[] frame = null;
+		long start = System.nanoTime();
+		try {
+			frame = broadcastCodec.encodeShared(message);
+		} catch (IOException e) {
+			metrics.recordCodecError();
+			e.printStackTrace();
+			return;
+		}
+		if (frame != null) {
+			metrics.getEncodeTime().recordSince(start);
+		}
+		for (ClientConnection connection : connections) {
+			if (frame != null && !(connection instanceof LocalServerConnection)) {
+				connection.sendFrame(frame, message.getPriority());
+			} else {
+				connection.sendMessage(message);
+			}
+		}
+	}
+
+	/**
+	 * Sends a stream of bytes to a client in chunks, reading the data as it goes. The client
+	 * receives it through {@link Protocol#onStream}. Messages sent by other threads are queued
+	 * between the chunks, and the connection's outbound queue limits how far the sender gets
+	 * ahead of the client.
+	 *
+	 * @param sessionId the session ID of the receiving client
+	 * @param data      the data to send, read until its end
+	 * @return the number of bytes sent
+	 * @throws IOException if the client is not connected or reading the data fails
+	 */
+	public long sendStream(UUID sessionId, InputStream data) throws IOException {
+		ClientConnection connection = clientConnections.get(sessionId);
+		if (connection == null) {
+			throw new IOException("Target client not found: " + sessionId);
+		}
+		return StreamAssembler.sendChunks(
+				sessionId, nextStreamId.getAndIncrement(), data, connection::sendMessage);
+	}
+
+	/**
+	 * Sends a file to a client as a stream.
+	 *
+	 * @param sessionId the session ID of the receiving client
+	 * @param file      the file to send
+	 * @return the number of bytes sent
+	 * @throws IOException if the client is not connected or reading the file fails
+	 * @see #sendStream(UUID, InputStream)
+	 */
+	public long sendFile(UUID sessionId, Path file) throws IOException {
+		try (InputStream data = Files.newInputStream(file)) {
+			return sendStream(sessionId, data);
+		}
+	}
+
+	/**
+	 * Routes a message to one specific target address. In a {@link #setCluster cluster}, a
+	 * message for a client of another node is forwarded to that node. If the target does not
+	 * exist, the message is kept in the target's mailbox if it has one, and discarded otherwise.
 	 *
 	 * @param message the message to be sent
 	 */
-	public synchronized void route(Message<?> message) {
-		if (clientConnections.containsKey(message.getDestination())) {
-			clientConnections.get(message.getDestination()).sendMessage(message);
+	public void route(Message<?> message) {
+		route(message, true);
+	}
+
+	/**
+	 * Routes a message forwarded by another cluster node to a client of this node.
+	 *
+	 * @param message the forwarded message
+	 */
+	void deliver(Message<?> message) {
+		route(message, false);
+	}
+
+	private void route(Message<?> message, boolean mayForward) {
+		UUID destination = message.getDestination();
+		ClientConnection connection =
+				destination == null ? null : clientConnections.get(destination);
+		if (connection != null && partitions != null) {
+			partitions.send(destination, () -> connection.sendMessage(message));
+		} else if (connection != null) {
+			connection.sendMessage(message);
+		} else if (destination != null && mayForward && cluster != null
+				&& cluster.forward(message)) {
+			//Sent on to the node owning the destination
+		} else if (destination != null && mailbox != null && mailbox.offer(destination, message)) {
+			//Kept for when the client comes back
 		} else {
+			this.metrics.recordRouteMiss();
 			System.out.println("Target client not found, discarding message");
 		}
 	}
@@ -143,6 +1023,159 @@ public class Server implements ProtocolUser {
 	 * @param message the message to arrive.
 	 */
 	public void registerIncomingMessage(Message<?> message) {
-		this.protocol.receiveMessage(this, message);
+		if (!sessions.isEmpty() && ReplayBuffer.isCounted(message)) {
+			countReceived(message);
+		}
+		if (message instanceof SubscriptionMessage subscription) {
+			handleSubscription(subscription);
+			return;
+		}
+		if (message instanceof StreamChunkMessage chunk) {
+			handleChunk(chunk);
+			return;
+		}
+		if (message instanceof CompressionMessage compression) {
+			handleCompression(compression);
+			return;
+		}
+		if (message instanceof ResumeMessage resume) {
+			handleResume(resume);
+			return;
+		}
+		if (message instanceof AckMessage ack) {
+			ResumableSession session = sessions.get(ack.getSource());
+			if (session != null) {
+				session.getReplay().acknowledge(ack.getPayload());
+			}
+			return;
+		}
+		dispatch(message.getSource(), () -> this.protocol.receiveMessage(this, message));
+	}
+
+	private void handleChunk(StreamChunkMessage chunk) {
+		if (chunk.getDestination() != null) {
+			route(chunk);
+			return;
+		}
+		try {
+			streams.accept(chunk, mayBlock(), stream -> threadFactory
+					.newThread(() -> this.protocol.onStream(this, stream))
+					.start());
+		} catch (InterruptedIOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Counts a message received in a resumable session, and acknowledges every
+	 * {@link ReplayBuffer#ACK_INTERVAL} messages.
+	 *
+	 * @param message the received message
+	 */
+	private void countReceived(Message<?> message) {
+		ResumableSession session = sessions.get(message.getSource());
+		if (session != null) {
+			long received = session.getReplay().countReceived();
+			if (received % ReplayBuffer.ACK_INTERVAL == 0) {
+				session.getConnection().sendMessage(new AckMessage(received));
+			}
+		}
+	}
+
+	private void handleResume(ResumeMessage resume) {
+		UUID connectionId = resume.getSource();
+		PendingConnection pending = handshakes.remove(connectionId);
+		if (pending == null) {
+			return;
+		}
+		ClientConnection connection = pending.connection();
+		UUID requested = resume.getPayload();
+		if (requested == null) {
+			//The client does not resume sessions
+			register(connection);
+			return;
+		}
+		if (!requested.equals(connectionId) && resumeSession(requested, resume, connection)) {
+			return;
+		}
+		ResumableSession session = new ResumableSession(
+				connectionId, pending.token(), replayCapacity, connection, metrics);
+		connection.attachSession(connectionId, session.getReplay());
+		connection.sendMessage(new ResumeMessage(connectionId, pending.token(), 0));
+		this.sessions.put(connectionId, session);
+		register(connection);
+		if (mailbox != null && !requested.equals(connectionId)) {
+			//The session is gone, but mail kept for it goes to its client's new session
+			mailbox.take(requested, resume.getToken()).forEach(connection::sendMessage);
+		}
+	}
+
+	/**
+	 * Continues an earlier session on a new connection.
+	 *
+	 * @param sessionId  the session the client asked for
+	 * @param resume     the client's resume message
+	 * @param connection the new connection
+	 * @return true if the session was resumed
+	 */
+	private boolean resumeSession(
+			UUID sessionId,
+			ResumeMessage resume,
+			ClientConnection connection
+	) {
+		ResumableSession session = sessions.get(sessionId);
+		if (session == null || session.getToken() != resume.getToken()) {
+			return false;
+		}
+		if (!session.isDetached()) {
+			//The old connection has not noticed that the client is gone
+			ClientConnection previous = session.getConnection();
+			previous.close();
+			removeConnection(previous);
+		}
+		ClientConnection standIn = session.resume(connection, resume.getReceived());
+		if (standIn == null) {
+			//Messages the client missed are no longer held
+			expire(session);
+			return false;
+		}
+		this.uuidToAddressMap.put(sessionId, connection.getInetAddress());
+		this.clientConnections.replace(sessionId, standIn, connection);
+		this.topics.transfer(standIn, connection);
+		return true;
+	}
+
+	private void handleCompression(CompressionMessage compression) {
+		//The connection's codec decodes compressed frames from here on; confirming makes it
+		//compress what it sends as well
+		ClientConnection connection = clientConnections.get(compression.getSource());
+		if (connection == null) {
+			PendingConnection pending = handshakes.get(compression.getSource());
+			connection = pending != null ? pending.connection() : null;
+		}
+		if (connection != null && !compressions.isEmpty()) {
+			connection.sendMessage(new CompressionMessage(compression.getPayload()));
+		}
+	}
+
+	private void handleSubscription(SubscriptionMessage subscription) {
+		try {
+			if (subscription.isSubscribe()) {
+				subscribe(subscription.getSource(), subscription.getPayload());
+			} else {
+				unsubscribe(subscription.getSource(), subscription.getPayload());
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println("Ignoring subscription: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * A connection waiting for the client to say which session it belongs to.
+	 *
+	 * @param connection the connection
+	 * @param token      the token offered for a new session on it
+	 */
+	private record PendingConnection(ClientConnection connection, long token) {
 	}
 }
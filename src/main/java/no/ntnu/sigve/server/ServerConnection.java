@@ -1,23 +1,51 @@
 package no.ntnu.sigve.server;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.UUID;
+import no.ntnu.sigve.communication.FrameWriter;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.HeartbeatMessage;
+import no.ntnu.sigve.communication.IdleMonitor;
 import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.communication.TimeoutWheel;
+import no.ntnu.sigve.communication.TrafficRecorder;
 
 /**
  * A connection from a {@link Server} to one individual client. Handles the connection independent
- * of other connected clients.
+ * of other connected clients, on a thread created by the server's thread factory.
+ *
+ * <p>Messages sent to the client are put in an {@link OutboundQueue} and written by a second
+ * thread, so a client that reads slowly never stalls the thread sending to it.</p>
+ *
+ * <p>With {@link Server#setHeartbeat heartbeats} enabled, an {@link IdleMonitor} closes the
+ * socket of a client that has gone silent, which ends the blocked read and removes the
+ * connection like any other disconnect.</p>
+ *
+ * <p>A client over its {@link Server#setRateLimits rate limits} is held back by parking the
+ * reading thread until it is within them again.</p>
  */
-public class ServerConnection extends Thread {
+public class ServerConnection implements Runnable, ClientConnection {
 	private final Socket clientSocket;
-	private final ObjectInputStream input;
-	private final ObjectOutputStream replyOutput;
+	private final DataInputStream input;
+	private final FrameWriter replyOutput;
+	private final MessageCodec codec;
+	private final OutboundQueue outbound;
 	private final Server server;
-	private final UUID clientUuid;
+	private final IdleMonitor idle;
+	private final TrafficRecorder.Channel capture;
+	private final TokenBucket limiter;
+	private volatile UUID clientUuid;
+	private volatile ReplayBuffer replay;
 
 	/**
 	 * Creates a new threaded connection from a {@link Server} to a
@@ -37,8 +65,76 @@ public class ServerConnection extends Thread {
 		this.server = server;
 		this.clientUuid = clientUuid;
 
-		replyOutput = new ObjectOutputStream(clientSocket.getOutputStream());
-		input = new ObjectInputStream(clientSocket.getInputStream());
+		replyOutput = new FrameWriter(clientSocket.getOutputStream(),
+				server.getWriteBatching(), server.getMetrics().getWriteTime());
+		input = new DataInputStream(new BufferedInputStream(clientSocket.getInputStream()));
+		codec = server.newCodec();
+		outbound = server.newOutboundQueue(this, codec, this::recordSent);
+		idle = new IdleMonitor(server.getHeartbeat(), TimeoutWheel.shared(),
+				() -> enqueue(() -> server.encode(codec, HeartbeatMessage.ping()), null,
+						Priority.HIGH, false),
+				this::evict);
+		capture = server.openCapture(clientUuid);
+		limiter = server.newSessionLimiter();
+	}
+
+	@Override
+	public UUID getSessionId() {
+		return this.clientUuid;
+	}
+
+	@Override
+	public InetAddress getInetAddress() {
+		return this.clientSocket.getInetAddress();
+	}
+
+	@Override
+	public void attachSession(UUID sessionId, ReplayBuffer replay) {
+		this.clientUuid = sessionId;
+		this.replay = replay;
+	}
+
+	private void recordSent(Object entry) {
+		ReplayBuffer session = this.replay;
+		if (session != null) {
+			session.sent(entry);
+		}
+	}
+
+	@Override
+	public void start() {
+		server.getThreadFactory().newThread(this).start();
+		server.getThreadFactory().newThread(this::writeQueuedFrames).start();
+		idle.start();
+	}
+
+	/**
+	 * Writes queued frames to the client until the connection is closed. When batching, frames
+	 * that are queued while a batch has room join it, and the batch is written once it is full
+	 * or no further frame arrives within the linger time.
+	 */
+	private void writeQueuedFrames() {
+		long linger = server.getWriteBatching().getMaxLingerNanos();
+		ByteBuffer frame;
+		try {
+			while ((frame = outbound.take()) != null) {
+				do {
+					try {
+						replyOutput.write(frame.array(), frame.position(), frame.remaining());
+						if (capture != null) {
+							capture.out(frame.array(), frame.position(), frame.remaining());
+						}
+						server.getMetrics().recordMessageOut(frame.capacity());
+					} finally {
+						outbound.written(frame);
+					}
+				} while (replyOutput.hasRoom() && (frame = outbound.take(linger)) != null);
+				replyOutput.flush();
+				idle.written();
+			}
+		} catch (IOException e) {
+			close();
+		}
 	}
 
 	@Override
@@ -47,8 +143,9 @@ public class ServerConnection extends Thread {
 		while (keepRunning) {
 			keepRunning = readClientRequest();
 		}
-		this.server.removeExistingConnection(this.clientUuid);
 		closeConnection();
+		this.server.removeConnection(this);
+		this.server.releaseConnection();
 	}
 
 	/**
@@ -64,22 +161,42 @@ public class ServerConnection extends Thread {
 	private boolean readClientRequest() {
 		Message<? extends Serializable> message = null;
 		boolean retval = false;
+		int frameLength = 0;
 
 		try {
-			message = (Message<?>) input.readObject();
+			byte[] body = Frames.readFrame(input);
+			idle.read();
+			frameLength = Frames.HEADER_LENGTH + body.length;
+			server.getMetrics().recordMessageIn(frameLength);
+			if (capture != null) {
+				capture.in(body);
+			}
+			message = codec.decode(body);
 		} catch (ClassCastException | ClassNotFoundException e) {
+			server.getMetrics().recordCodecError();
 			e.printStackTrace();
 			retval = true;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
-		if (message != null) {
+		if (message instanceof HeartbeatMessage heartbeat) {
+			if (heartbeat.isPing()) {
+				sendMessage(HeartbeatMessage.pong());
+			}
+			retval = true;
+		} else if (message != null) {
 			message.assignSource(clientUuid);
 			server.registerIncomingMessage(message);
 			retval = true;
 		}
 
+		if (retval && frameLength > 0) {
+			long pause = server.throttle(limiter, frameLength);
+			if (pause > 0) {
+				TokenBucket.pause(pause);
+			}
+		}
 		return retval;
 	}
 
@@ -89,18 +206,47 @@ public class ServerConnection extends Thread {
 	 *
 	 * @param message the message to send
 	 */
+	@Override
 	public void sendMessage(Message<?> message) {
+		enqueue(() -> server.encode(codec, message),
+				ReplayBuffer.isCounted(message) ? message : null, message.getPriority());
+	}
+
+	@Override
+	public void sendFrame(byte[] frame, Priority priority) {
+		enqueue(() -> codec.prepareShared(frame), frame, priority);
+	}
+
+	private void enqueue(OutboundQueue.FrameSource source, Object entry, Priority priority) {
+		enqueue(source, entry, priority, Server.mayBlock());
+	}
+
+	private void enqueue(
+			OutboundQueue.FrameSource source,
+			Object entry,
+			Priority priority,
+			boolean mayBlock
+	) {
 		try {
-			replyOutput.writeObject(message);
+			if (!outbound.offer(source, entry, priority, mayBlock)) {
+				close();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 	}
 
 	/**
-	 * Attempts to close the connection.
+	 * Closes a connection that has received nothing within the heartbeat timeout.
 	 */
+	private void evict() {
+		server.getMetrics().recordIdleTimeout();
+		close();
+	}
+
+	@Override
 	public void close() {
+		closeQueue();
 		try {
 			this.clientSocket.close();
 			input.close();
@@ -117,6 +263,8 @@ public class ServerConnection extends Thread {
 	 * is no longer needed or when an exception occurs.
 	 */
 	private void closeConnection() {
+		closeQueue();
+		codec.close();
 		try {
 			if (input != null) {
 				input.close();
@@ -142,4 +290,18 @@ public class ServerConnection extends Thread {
 		}
 	}
 
+	/**
+	 * Closes the outbound queue, handing messages that were never sent back to the session.
+	 */
+	private void closeQueue() {
+		idle.stop();
+		if (capture != null) {
+			capture.close();
+		}
+		List<Object> unsent = outbound.close();
+		ReplayBuffer session = this.replay;
+		if (session != null && !unsent.isEmpty()) {
+			session.holdUnsent(unsent);
+		}
+	}
 }
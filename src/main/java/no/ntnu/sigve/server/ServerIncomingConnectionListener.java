@@ -3,23 +3,45 @@ package no.ntnu.sigve.server;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.Executor;
 
 /**
- * A thread for listening and attempting to accept incoming client connections.
+ * A thread for listening and attempting to accept incoming client connections. The thread itself
+ * is created by the server's thread factory. Accepted sockets are handed to an executor to be set
+ * up, so the listener is back in accept right away. Connections beyond the server's
+ * {@link Server#setMaxConnections(int) connection cap} are rejected on the spot.
  */
-public class ServerIncomingConnectionListener extends Thread {
+public class ServerIncomingConnectionListener implements Runnable {
 	private final Server server;
 	private final ServerSocket serverSocket;
+	private final Executor handshakes;
 
 	/**
-	 * Creates a new incoming connection listener for a {@link Server}.
+	 * Creates a new incoming connection listener for a {@link Server} that sets up every
+	 * connection itself before accepting the next.
 	 *
 	 * @param server the server for which this listener is listening
 	 * @param serverSocket the socket from which to accept connections
 	 */
 	public ServerIncomingConnectionListener(Server server, ServerSocket serverSocket) {
+		this(server, serverSocket, Runnable::run);
+	}
+
+	/**
+	 * Creates a new incoming connection listener for a {@link Server}.
+	 *
+	 * @param server the server for which this listener is listening
+	 * @param serverSocket the socket from which to accept connections
+	 * @param handshakes the executor setting up accepted connections
+	 */
+	public ServerIncomingConnectionListener(
+			Server server,
+			ServerSocket serverSocket,
+			Executor handshakes
+	) {
 		this.server = server;
 		this.serverSocket = serverSocket;
+		this.handshakes = handshakes;
 	}
 
 	@Override
@@ -27,7 +49,11 @@ public class ServerIncomingConnectionListener extends Thread {
 		while (!serverSocket.isClosed()) {
 			try {
 				Socket client = this.serverSocket.accept();
-				this.attemptToAcceptConnection(client);
+				if (!this.server.reserveConnection()) {
+					this.server.rejectConnection(client);
+					continue;
+				}
+				this.handshakes.execute(() -> attemptToAcceptConnection(client));
 			} catch (IOException e) {
 				if (!serverSocket.isClosed()) {
 					e.printStackTrace();
@@ -37,12 +63,21 @@ public class ServerIncomingConnectionListener extends Thread {
 	}
 
 	/**
-	 * Attempts to form a connection with the server.
+	 * Attempts to form a connection with the server. The socket is closed if that fails.
 	 *
 	 * @param connection the client to connect
-	 * @throws IOException if the connection is refused
 	 */
-	private synchronized void attemptToAcceptConnection(Socket connection) throws IOException {
-		this.server.acceptIncomingConnection(connection);
+	private void attemptToAcceptConnection(Socket connection) {
+		try {
+			this.server.acceptIncomingConnection(connection);
+		} catch (IOException e) {
+			e.printStackTrace();
+			this.server.releaseConnection();
+			try {
+				connection.close();
+			} catch (IOException closeFailure) {
+				//Already closed
+			}
+		}
 	}
 }
@@ -0,0 +1,33 @@
+package no.ntnu.sigve.server;
+
+import java.io.IOException;
+
+/**
+ * The engine a {@link Server} uses to accept connections and move bytes to and from its clients.
+ * A transport is bound to a port when the server is created, and starts handing connections to
+ * the server once the server is started.
+ *
+ * @see BlockingServerTransport
+ * @see NioServerTransport
+ */
+public interface ServerTransport {
+	/**
+	 * Binds the transport to a port.
+	 *
+	 * @param port the port on which to listen for incoming connections
+	 * @throws IOException if the port could not be bound
+	 */
+	void bind(int port) throws IOException;
+
+	/**
+	 * Starts accepting incoming connections on behalf of a server.
+	 *
+	 * @param server the server that should receive the accepted connections
+	 */
+	void start(Server server);
+
+	/**
+	 * Stops accepting connections and releases the bound port.
+	 */
+	void close();
+}
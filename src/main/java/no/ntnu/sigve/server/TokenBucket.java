@@ -0,0 +1,84 @@
+package no.ntnu.sigve.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Enforces a {@link RateLimit} as a token bucket, kept as the time at which the bucket will be
+ * full again for each of messages and bytes. Taking tokens moves that time forward by what they
+ * cost; once it runs more than a burst ahead of the clock, the caller is told how long to pause.
+ * Tokens are always taken, so a pause pays off debt instead of the message being refused.
+ *
+ * <p>Taking tokens is a compare-and-set on a single number per dimension, so buckets can be
+ * shared between threads, and nothing is allocated.</p>
+ */
+final class TokenBucket {
+	private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	private final long nanosPerMessage;
+	private final long bytesPerSecond;
+	private final long burstNanos;
+	private final AtomicLong messagesFullAt;
+	private final AtomicLong bytesFullAt;
+
+	/**
+	 * Creates a full bucket.
+	 *
+	 * @param limit the limit to enforce, which must limit something
+	 */
+	TokenBucket(RateLimit limit) {
+		this.nanosPerMessage = limit.getMessagesPerSecond() > 0
+				? Math.max(NANOS_PER_SECOND / limit.getMessagesPerSecond(), 1)
+				: 0;
+		this.bytesPerSecond = limit.getBytesPerSecond();
+		this.burstNanos = limit.getBurstNanos();
+		long now = System.nanoTime();
+		this.messagesFullAt = new AtomicLong(now);
+		this.bytesFullAt = new AtomicLong(now);
+	}
+
+	/**
+	 * Takes the tokens for one message.
+	 *
+	 * @param bytes the size of the message
+	 * @return how long to pause before reading more, in nanoseconds, or zero
+	 */
+	long take(int bytes) {
+		long now = System.nanoTime();
+		long pause = 0;
+		if (nanosPerMessage > 0) {
+			pause = take(messagesFullAt, nanosPerMessage, now);
+		}
+		if (bytesPerSecond > 0 && bytes > 0) {
+			long cost = bytes * NANOS_PER_SECOND / bytesPerSecond;
+			pause = Math.max(pause, take(bytesFullAt, cost, now));
+		}
+		return pause;
+	}
+
+	private long take(AtomicLong fullAt, long cost, long now) {
+		while (true) {
+			long current = fullAt.get();
+			long next = (current - now > 0 ? current : now) + cost;
+			if (fullAt.compareAndSet(current, next)) {
+				long pause = next - burstNanos - now;
+				return pause > 0 ? pause : 0;
+			}
+		}
+	}
+
+	/**
+	 * Pauses the calling thread.
+	 *
+	 * @param nanos how long to pause
+	 */
+	static void pause(long nanos) {
+		long deadline = System.nanoTime() + nanos;
+		long remaining = nanos;
+		while (remaining > 0) {
+			LockSupport.parkNanos(remaining);
+			remaining = deadline - System.nanoTime();
+		}
+	}
+}
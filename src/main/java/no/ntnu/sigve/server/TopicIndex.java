@@ -0,0 +1,167 @@
+package no.ntnu.sigve.server;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An index from topics to the connections subscribed to them. Exact subscriptions and
+ * {@code prefix/*} subscriptions are kept in separate maps, so finding the subscribers of a topic
+ * takes one lookup per segment of the topic, independent of the number of topics and sessions.
+ */
+class TopicIndex {
+	static final String WILDCARD = "*";
+	private static final char SEPARATOR = '/';
+
+	private final Map<String, Set<ClientConnection>> exact = new ConcurrentHashMap<>();
+	private final Map<String, Set<ClientConnection>> prefixes = new ConcurrentHashMap<>();
+	private final Map<UUID, Set<String>> patternsBySession = new ConcurrentHashMap<>();
+
+	/**
+	 * Subscribes a connection to a topic or topic pattern.
+	 *
+	 * @param pattern    the topic, or a pattern ending in {@code /*}, or {@code *}
+	 * @param connection the subscribing connection
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	void subscribe(String pattern, ClientConnection connection) {
+		String key = keyOf(pattern);
+		indexOf(pattern).compute(key, (k, subscribers) -> {
+			Set<ClientConnection> set = subscribers != null
+					? subscribers
+					: ConcurrentHashMap.newKeySet();
+			set.add(connection);
+			return set;
+		});
+		patternsBySession
+				.computeIfAbsent(connection.getSessionId(), id -> ConcurrentHashMap.newKeySet())
+				.add(pattern);
+	}
+
+	/**
+	 * Removes a connection's subscription to a topic or topic pattern.
+	 *
+	 * @param pattern    the pattern the connection subscribed with
+	 * @param connection the unsubscribing connection
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	void unsubscribe(String pattern, ClientConnection connection) {
+		removeFromIndex(pattern, connection);
+		Set<String> patterns = patternsBySession.get(connection.getSessionId());
+		if (patterns != null) {
+			patterns.remove(pattern);
+		}
+	}
+
+	/**
+	 * Removes every subscription of a connection.
+	 *
+	 * @param connection the connection that went away
+	 */
+	void unsubscribeAll(ClientConnection connection) {
+		Set<String> patterns = patternsBySession.remove(connection.getSessionId());
+		if (patterns != null) {
+			patterns.forEach(pattern -> removeFromIndex(pattern, connection));
+		}
+	}
+
+	/**
+	 * Moves every subscription of a session from one connection to another, when the session
+	 * continues on a different connection.
+	 *
+	 * @param from the connection that held the subscriptions
+	 * @param to   the connection taking them over, with the same session ID
+	 */
+	void transfer(ClientConnection from, ClientConnection to) {
+		Set<String> patterns = patternsBySession.get(from.getSessionId());
+		if (patterns != null) {
+			patterns.forEach(pattern -> indexOf(pattern).computeIfPresent(keyOf(pattern),
+					(k, subscribers) -> {
+						if (subscribers.remove(from)) {
+							subscribers.add(to);
+						}
+						return subscribers;
+					}));
+		}
+	}
+
+	/**
+	 * Finds the connections subscribed to a topic, either directly or through a pattern. Each
+	 * connection is included once.
+	 *
+	 * @param topic the published topic
+	 * @return the subscribed connections
+	 * @throws IllegalArgumentException if the topic contains a wildcard
+	 */
+	Collection<ClientConnection> subscribersOf(String topic) {
+		if (topic.contains(WILDCARD)) {
+			throw new IllegalArgumentException("Cannot publish to a pattern: " + topic);
+		}
+		List<Set<ClientConnection>> matches = new ArrayList<>();
+		addIfPresent(matches, exact.get(topic));
+		addIfPresent(matches, prefixes.get(""));
+		for (int i = topic.indexOf(SEPARATOR); i >= 0; i = topic.indexOf(SEPARATOR, i + 1)) {
+			addIfPresent(matches, prefixes.get(topic.substring(0, i + 1)));
+		}
+		if (matches.isEmpty()) {
+			return Collections.emptyList();
+		}
+		if (matches.size() == 1) {
+			return new ArrayList<>(matches.get(0));
+		}
+		Set<ClientConnection> subscribers = new LinkedHashSet<>();
+		matches.forEach(subscribers::addAll);
+		return subscribers;
+	}
+
+	private void removeFromIndex(String pattern, ClientConnection connection) {
+		indexOf(pattern).computeIfPresent(keyOf(pattern), (k, subscribers) -> {
+			subscribers.remove(connection);
+			return subscribers.isEmpty() ? null : subscribers;
+		});
+	}
+
+	private static void addIfPresent(
+			List<Set<ClientConnection>> matches,
+			Set<ClientConnection> subscribers
+	) {
+		if (subscribers != null && !subscribers.isEmpty()) {
+			matches.add(subscribers);
+		}
+	}
+
+	private Map<String, Set<ClientConnection>> indexOf(String pattern) {
+		return pattern.endsWith(WILDCARD) ? prefixes : exact;
+	}
+
+	/**
+	 * Gets the key a pattern is indexed under: the topic itself, or the prefix before the
+	 * wildcard including its trailing separator.
+	 *
+	 * @param pattern the pattern to index
+	 * @return the key in the exact or prefix map
+	 * @throws IllegalArgumentException if the pattern is invalid
+	 */
+	private static String keyOf(String pattern) {
+		int wildcard = pattern.indexOf(WILDCARD);
+		if (pattern.isEmpty()) {
+			throw new IllegalArgumentException("Topic must not be empty");
+		}
+		if (wildcard < 0) {
+			return pattern;
+		}
+		boolean valid = wildcard == pattern.length() - 1
+				&& (wildcard == 0 || pattern.charAt(wildcard - 1) == SEPARATOR);
+		if (!valid) {
+			throw new IllegalArgumentException(
+					"A wildcard may only be a topic's last segment: " + pattern);
+		}
+		return pattern.substring(0, wildcard);
+	}
+}
@@ -0,0 +1,136 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.server.AcceptSettings;
+import no.ntnu.sigve.server.BlockingServerTransport;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.server.ServerTransport;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for accepting connections with several acceptors and separate handshake threads.
+ */
+class AcceptTest {
+	private static final int PORT = 8093;
+	private static final int CLIENT_COUNT = 100;
+	private static final AcceptSettings BURST = AcceptSettings.defaults()
+			.withAcceptors(2)
+			.withBacklog(1024)
+			.withReusePort(true);
+
+	private Server server;
+	private final AtomicInteger connected = new AtomicInteger();
+
+	@AfterEach
+	void stopServer() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private void startServer(ServerTransport transport) throws IOException {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void onClientConnect(Server caller, UUID clientId) {
+				connected.incrementAndGet();
+			}
+		}, transport);
+		server.start();
+	}
+
+	private void connectBurst() throws Exception {
+		ExecutorService connectors = Executors.newFixedThreadPool(16);
+		List<Future<Client>> clients = new ArrayList<>();
+		for (int i = 0; i < CLIENT_COUNT; i++) {
+			clients.add(connectors.submit(() -> {
+				Client client = new Client("localhost", PORT, new TestClientProtocol());
+				client.connect();
+				return client;
+			}));
+		}
+		for (Future<Client> client : clients) {
+			assertNotNull(client.get(10, TimeUnit.SECONDS).getSessionId());
+		}
+		connectors.shutdown();
+		for (int i = 0; i < 100 && connected.get() < CLIENT_COUNT; i++) {
+			Thread.sleep(20);
+		}
+		assertEquals(CLIENT_COUNT, connected.get());
+		for (Future<Client> client : clients) {
+			client.get().stopSocketCommunication();
+		}
+	}
+
+	@Test
+	void burstIsAcceptedByBlockingTransport() throws Exception {
+		startServer(new BlockingServerTransport(BURST));
+		connectBurst();
+	}
+
+	@Test
+	void burstIsAcceptedByNioTransport() throws Exception {
+		startServer(new NioServerTransport(2, BURST));
+		connectBurst();
+	}
+
+	@Test
+	void slowConnectCallbackDoesNotHoldUpAccepting() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicInteger calls = new AtomicInteger();
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void onClientConnect(Server caller, UUID clientId) {
+				if (calls.getAndIncrement() == 0) {
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+			}
+		}, new BlockingServerTransport(AcceptSettings.defaults().withHandshakeThreads(2)));
+		server.start();
+
+		Client slow = new Client("localhost", PORT, new TestClientProtocol());
+		slow.connect();
+		Client next = new Client("localhost", PORT, new TestClientProtocol());
+		CompletableFuture<Void> connecting = CompletableFuture.runAsync(() -> {
+			try {
+				next.connect();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+
+		connecting.get(5, TimeUnit.SECONDS);
+		assertNotNull(next.getSessionId());
+		release.countDown();
+		slow.stopSocketCommunication();
+		next.stopSocketCommunication();
+	}
+
+	@Test
+	void settingsAreValidated() {
+		AcceptSettings defaults = AcceptSettings.defaults();
+		assertThrows(IllegalArgumentException.class, () -> defaults.withAcceptors(0));
+		assertThrows(IllegalArgumentException.class, () -> defaults.withBacklog(-1));
+		assertThrows(IllegalArgumentException.class, () -> defaults.withHandshakeThreads(0));
+	}
+}
@@ -0,0 +1,184 @@
+package no.ntnu.sigve;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.OverflowPolicy;
+import no.ntnu.sigve.server.Server;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the outbound queues of a server sending to a client that does not read.
+ */
+class BackpressureTest {
+	private static final int PORT = 8082;
+	private static final String PAYLOAD = "x".repeat(10_000);
+	private static final String SMALL_PAYLOAD = "y".repeat(500);
+
+	private final EventProtocol protocol = new EventProtocol();
+	private Server server;
+	private Socket stalledClient;
+
+	private UUID connectStalledClient(Server server) throws IOException {
+		server.start();
+		stalledClient = new Socket("localhost", PORT);
+		return await().atMost(5, TimeUnit.SECONDS).until(protocol.connected::peek, id -> id != null);
+	}
+
+	@AfterEach
+	void stopServer() throws IOException {
+		if (stalledClient != null) {
+			stalledClient.close();
+		}
+		server.close();
+	}
+
+	@Test
+	void slowConsumerIsDisconnected() throws IOException {
+		server = new Server(PORT, protocol, new NioServerTransport(1));
+		server.setOutboundQueue(64 * 1024, OverflowPolicy.DISCONNECT);
+		server.setWriteBufferWatermarks(16 * 1024, 32 * 1024);
+		UUID sessionId = connectStalledClient(server);
+
+		for (int i = 0; i < 5_000 && !protocol.disconnected.contains(sessionId); i++) {
+			server.route(new Message<>(sessionId, PAYLOAD));
+		}
+
+		await().atMost(5, TimeUnit.SECONDS).until(() -> protocol.disconnected.contains(sessionId));
+		assertEquals(Boolean.FALSE, protocol.writability.peek());
+	}
+
+	@Test
+	void newestMessagesAreDroppedWithoutBlockingTheSender() throws IOException {
+		server = new Server(PORT, protocol);
+		server.setOutboundQueue(64 * 1024, OverflowPolicy.DROP_NEWEST);
+		UUID sessionId = connectStalledClient(server);
+
+		assertTimeoutPreemptively(Duration.ofSeconds(10), () -> {
+			for (int i = 0; i < 5_000; i++) {
+				server.route(new Message<>(sessionId, PAYLOAD));
+			}
+		});
+		assertFalse(protocol.disconnected.contains(sessionId));
+		assertEquals(Boolean.FALSE, protocol.writability.peek());
+	}
+
+	@Test
+	void droppingOldestMessagesKeepsTheStreamIntact() throws Exception {
+		server = new Server(PORT, protocol, new NioServerTransport(1));
+		server.setOutboundQueue(16 * 1024, OverflowPolicy.DROP_OLDEST);
+		server.start();
+		SlowProtocol slow = new SlowProtocol();
+		Client client = new Client("localhost", PORT, slow);
+		client.connect();
+		UUID sessionId = client.getSessionId();
+
+		//Several senders, so that frames are dropped while the writer has others in hand
+		List<Thread> senders = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			int first = t * 5_000;
+			Thread sender = new Thread(() -> {
+				for (int i = first; i < first + 5_000; i++) {
+					server.route(new Message<>(sessionId, i + ":" + SMALL_PAYLOAD));
+				}
+			});
+			senders.add(sender);
+			sender.start();
+		}
+		for (Thread sender : senders) {
+			sender.join();
+		}
+		server.route(new Message<>(sessionId, "last"));
+
+		try {
+			await().atMost(60, TimeUnit.SECONDS).until(() -> slow.last || slow.disconnected);
+			assertFalse(slow.disconnected);
+			assertTrue(slow.corrupt.isEmpty(), () -> "Corrupt payloads: " + slow.corrupt);
+			assertTrue(server.getMetrics().getSnapshot().getDroppedMessages() > 0);
+		} finally {
+			client.stopSocketCommunication();
+		}
+	}
+
+	/**
+	 * A client protocol that reads slowly and checks every payload it receives.
+	 */
+	private static class SlowProtocol implements Protocol<Client> {
+		private final Set<String> ids = ConcurrentHashMap.newKeySet();
+		private final Queue<String> corrupt = new ConcurrentLinkedQueue<>();
+		private volatile boolean last;
+		private volatile boolean disconnected;
+
+		@Override
+		public void receiveMessage(Client caller, Message<?> message) {
+			if ("last".equals(message.getPayload())) {
+				last = true;
+				return;
+			}
+			String payload = String.valueOf(message.getPayload());
+			int separator = payload.indexOf(':');
+			if (separator < 0 || !payload.substring(separator + 1).equals(SMALL_PAYLOAD)
+					|| !ids.add(payload.substring(0, separator))) {
+				corrupt.add(payload.substring(0, Math.min(payload.length(), 20)));
+			}
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		@Override
+		public void onClientConnect(Client caller, UUID clientId) {
+		}
+
+		@Override
+		public void onClientDisconnect(Client caller, UUID clientId) {
+			disconnected = true;
+		}
+	}
+
+	/**
+	 * A server protocol recording connection events.
+	 */
+	private static class EventProtocol implements Protocol<Server> {
+		private final Queue<UUID> connected = new ConcurrentLinkedQueue<>();
+		private final Queue<UUID> disconnected = new ConcurrentLinkedQueue<>();
+		private final Queue<Boolean> writability = new ConcurrentLinkedQueue<>();
+
+		@Override
+		public void receiveMessage(Server caller, Message<?> message) {
+		}
+
+		@Override
+		public void onClientConnect(Server caller, UUID clientId) {
+			connected.add(clientId);
+		}
+
+		@Override
+		public void onClientDisconnect(Server caller, UUID clientId) {
+			disconnected.add(clientId);
+		}
+
+		@Override
+		public void onWritabilityChanged(Server caller, UUID clientId, boolean writable) {
+			writability.add(writable);
+		}
+	}
+}
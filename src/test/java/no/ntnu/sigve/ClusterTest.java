@@ -0,0 +1,125 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MetricsSnapshot;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for routing and broadcasting between the nodes of a cluster on localhost.
+ */
+class ClusterTest {
+	private static final int FIRST_PORT = 8100;
+	private static final int SECOND_PORT = 8101;
+	private static final int FIRST_CLUSTER_PORT = 8102;
+	private static final int SECOND_CLUSTER_PORT = 8103;
+
+	private Server first;
+	private Server second;
+	private final BlockingQueue<Object> atFirst = new LinkedBlockingQueue<>();
+	private final BlockingQueue<Object> atSecond = new LinkedBlockingQueue<>();
+
+	@BeforeEach
+	void startNodes() throws IOException {
+		first = startNode(FIRST_PORT, FIRST_CLUSTER_PORT, SECOND_CLUSTER_PORT);
+		second = startNode(SECOND_PORT, SECOND_CLUSTER_PORT, FIRST_CLUSTER_PORT);
+	}
+
+	@AfterEach
+	void stopNodes() {
+		first.close();
+		second.close();
+	}
+
+	/**
+	 * Starts a node that routes payloads "1" and "2", and broadcasts "all".
+	 */
+	private static Server startNode(int port, int clusterPort, int peerPort) throws IOException {
+		Server node = new Server(port, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server server, Message<?> message) {
+				if ("all".equals(message.getPayload())) {
+					server.broadcast(message);
+				} else {
+					super.receiveMessage(server, message);
+				}
+			}
+		});
+		node.setCluster(clusterPort, new InetSocketAddress("localhost", peerPort));
+		node.start();
+		return node;
+	}
+
+	private static Client connect(int port, BlockingQueue<Object> received) throws IOException {
+		Client client = new Client("localhost", port, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message.getPayload());
+			}
+		});
+		client.connect();
+		return client;
+	}
+
+	/**
+	 * Sends messages from one client to another until the nodes know about each other's sessions
+	 * and the first one arrives.
+	 */
+	private static void awaitLink(Client sender, Client receiver, BlockingQueue<Object> received)
+			throws InterruptedException {
+		for (int attempt = 0; attempt < 100; attempt++) {
+			sender.sendOutgoingMessage(new Message<>(receiver.getSessionId(), "1"));
+			if (received.poll(50, TimeUnit.MILLISECONDS) != null) {
+				received.clear();
+				return;
+			}
+		}
+		fail("The nodes never linked up");
+	}
+
+	@Test
+	void messagesAreForwardedToTheOwningNode() throws Exception {
+		Client onFirst = connect(FIRST_PORT, atFirst);
+		Client onSecond = connect(SECOND_PORT, atSecond);
+		awaitLink(onFirst, onSecond, atSecond);
+		awaitLink(onSecond, onFirst, atFirst);
+
+		onFirst.sendOutgoingMessage(new Message<>(onSecond.getSessionId(), "1"));
+		onFirst.sendOutgoingMessage(new Message<>(onSecond.getSessionId(), "2"));
+		assertEquals("1", atSecond.poll(5, TimeUnit.SECONDS));
+		assertEquals("2", atSecond.poll(5, TimeUnit.SECONDS));
+
+		MetricsSnapshot metrics = second.getMetrics().getSnapshot();
+		//Forwards are counted once handed to the link, so only those before the last are certain
+		assertTrue(first.getMetrics().getSnapshot().getForwarded() >= 2);
+		assertTrue(metrics.getHopTime().getCount() >= 2);
+		assertEquals(0, metrics.getRouteMisses());
+		onFirst.stopSocketCommunication();
+		onSecond.stopSocketCommunication();
+	}
+
+	@Test
+	void broadcastsReachClientsOfEveryNode() throws Exception {
+		Client onFirst = connect(FIRST_PORT, atFirst);
+		Client onSecond = connect(SECOND_PORT, atSecond);
+		awaitLink(onFirst, onSecond, atSecond);
+
+		onFirst.sendOutgoingMessage(new Message<>(null, "all"));
+		assertEquals("all", atFirst.poll(5, TimeUnit.SECONDS));
+		assertEquals("all", atSecond.poll(5, TimeUnit.SECONDS));
+		onFirst.stopSocketCommunication();
+		onSecond.stopSocketCommunication();
+	}
+}
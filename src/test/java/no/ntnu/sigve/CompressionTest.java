@@ -0,0 +1,169 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.CompressingMessageCodec;
+import no.ntnu.sigve.communication.CompressionMessage;
+import no.ntnu.sigve.communication.DeflateCompression;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.IncomingStream;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for payload compression negotiated during the handshake.
+ */
+class CompressionTest {
+	private static final int PORT = 8088;
+	private static final int THRESHOLD = 256;
+	private static final String LARGE_TEXT = "compressible text ".repeat(2000);
+
+	private Server server;
+	private CompletableFuture<byte[]> receivedByServer;
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		receivedByServer = new CompletableFuture<>();
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(new Message<>(message.getSource(), message.getPayload()));
+			}
+
+			@Override
+			public void onStream(Server caller, IncomingStream stream) {
+				try (InputStream input = stream.getInputStream()) {
+					receivedByServer.complete(input.readAllBytes());
+				} catch (IOException e) {
+					receivedByServer.completeExceptionally(e);
+				}
+			}
+		});
+		server.setCompressions(THRESHOLD, new DeflateCompression());
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	private Client connect(boolean compressed, BlockingQueue<Object> received)
+			throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client client, Message<?> message) {
+				received.add(message.getPayload());
+			}
+		});
+		if (compressed) {
+			client.setCompressions(THRESHOLD, new DeflateCompression());
+		}
+		client.connect();
+		return client;
+	}
+
+	@Test
+	void largePayloadsAreCompressedBothWays() throws Exception {
+		BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		Client client = connect(true, received);
+
+		client.sendOutgoingMessage(new Message<>(null, LARGE_TEXT));
+		client.sendOutgoingMessage(new Message<>(null, "small"));
+
+		assertEquals(LARGE_TEXT, received.poll(5, TimeUnit.SECONDS));
+		assertEquals("small", received.poll(5, TimeUnit.SECONDS));
+		assertTrue(server.getMetrics().getSnapshot().getBytesIn() < LARGE_TEXT.length() / 10);
+		assertTrue(client.getMetrics().getSnapshot().getBytesIn() < LARGE_TEXT.length() / 10);
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void clientWithoutCompressionIsServedUncompressed() throws Exception {
+		BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		Client client = connect(false, received);
+
+		client.sendOutgoingMessage(new Message<>(null, LARGE_TEXT));
+
+		assertEquals(LARGE_TEXT, received.poll(5, TimeUnit.SECONDS));
+		assertTrue(client.getMetrics().getSnapshot().getBytesIn() > LARGE_TEXT.length());
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void filesAreTransferredOverCompressedConnections() throws Exception {
+		byte[] data = new byte[200_000];
+		new Random(7).nextBytes(data);
+		Path file = Files.write(directory.resolve("data.bin"), data);
+		Client client = connect(true, new LinkedBlockingQueue<>());
+
+		client.sendFile(null, file);
+
+		assertArrayEquals(data, receivedByServer.get(5, TimeUnit.SECONDS));
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void framesBelowThresholdOrIncompressibleAreSentAsTheyAre() throws Exception {
+		CompressingMessageCodec sender = new CompressingMessageCodec(
+				new BinaryMessageCodec(), List.of(new DeflateCompression()), THRESHOLD);
+		CompressingMessageCodec receiver = new CompressingMessageCodec(
+				new BinaryMessageCodec(), List.of(new DeflateCompression()), THRESHOLD);
+		receiver.decode(body(sender.encode(new CompressionMessage(DeflateCompression.NAME))));
+
+		byte[] random = new byte[4096];
+		new Random(3).nextBytes(random);
+		byte[] small = sender.encode(new Message<>(null, "small"));
+		byte[] incompressible = sender.encode(new Message<>(null, random));
+		byte[] compressible = sender.encode(new Message<>(null, LARGE_TEXT));
+
+		assertEquals(0, small[Frames.HEADER_LENGTH]);
+		assertEquals(0, incompressible[Frames.HEADER_LENGTH]);
+		assertEquals(1, compressible[Frames.HEADER_LENGTH]);
+		assertTrue(compressible.length < LARGE_TEXT.length() / 10);
+		assertEquals("small", receiver.decode(body(small)).getPayload());
+		assertArrayEquals(random, (byte[]) receiver.decode(body(incompressible)).getPayload());
+		assertEquals(LARGE_TEXT, receiver.decode(body(compressible)).getPayload());
+	}
+
+	@Test
+	void closedCodecsReleaseTheirCompressors() throws Exception {
+		CompressingMessageCodec sender = new CompressingMessageCodec(
+				new BinaryMessageCodec(), List.of(new DeflateCompression()), THRESHOLD);
+		CompressingMessageCodec receiver = new CompressingMessageCodec(
+				new BinaryMessageCodec(), List.of(new DeflateCompression()), THRESHOLD);
+		receiver.decode(body(sender.encode(new CompressionMessage(DeflateCompression.NAME))));
+		byte[] compressible = sender.encode(new Message<>(null, LARGE_TEXT));
+
+		sender.close();
+		receiver.close();
+		assertThrows(IOException.class, () -> sender.encode(new Message<>(null, LARGE_TEXT)));
+		assertThrows(IOException.class, () -> receiver.decode(body(compressible)));
+	}
+
+	private static byte[] body(byte[] frame) {
+		return Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length);
+	}
+}
@@ -0,0 +1,141 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Dispatcher;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Metrics;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for running protocol callbacks on a dispatch executor.
+ */
+class DispatchTest {
+	private static final int PORT = 8094;
+	private static final int MESSAGE_COUNT = 500;
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	private Server server;
+
+	@AfterEach
+	void stop() {
+		if (server != null) {
+			server.close();
+		}
+		executor.shutdownNow();
+	}
+
+	private Client connect() throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol());
+		client.connect();
+		return client;
+	}
+
+	@Test
+	void slowHandlerDoesNotHoldUpOtherSessions() throws Exception {
+		CountDownLatch otherHandled = new CountDownLatch(1);
+		CountDownLatch slowDone = new CountDownLatch(1);
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				if ("slow".equals(message.getPayload())) {
+					try {
+						assertTrue(otherHandled.await(5, TimeUnit.SECONDS));
+						slowDone.countDown();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				} else {
+					otherHandled.countDown();
+				}
+			}
+		}, new NioServerTransport(1));
+		server.setDispatcher(executor, 1024);
+		server.start();
+
+		Client slow = connect();
+		Client other = connect();
+		slow.sendOutgoingMessage(new Message<>(null, "slow"));
+		other.sendOutgoingMessage(new Message<>(null, "fast"));
+
+		assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+		assertTrue(server.getMetrics().getSnapshot().getDispatchLag().getCount() >= 2);
+		slow.stopSocketCommunication();
+		other.stopSocketCommunication();
+	}
+
+	@Test
+	void messagesOfOneSessionAreHandledInOrder() throws Exception {
+		Map<UUID, List<Integer>> handled = new ConcurrentHashMap<>();
+		AtomicInteger count = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(1);
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				handled.computeIfAbsent(message.getSource(), source -> new ArrayList<>())
+						.add((Integer) message.getPayload());
+				if (count.incrementAndGet() == 2 * MESSAGE_COUNT) {
+					done.countDown();
+				}
+			}
+		});
+		server.setDispatcher(executor, 16);
+		server.start();
+
+		Client first = connect();
+		Client second = connect();
+		for (int i = 0; i < MESSAGE_COUNT; i++) {
+			first.sendOutgoingMessage(new Message<>(null, i));
+			second.sendOutgoingMessage(new Message<>(null, i));
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (List<Integer> session : handled.values()) {
+			for (int i = 0; i < MESSAGE_COUNT; i++) {
+				assertEquals(i, session.get(i));
+			}
+		}
+		first.stopSocketCommunication();
+		second.stopSocketCommunication();
+	}
+
+	@Test
+	void fullDispatcherOnlyLetsNonBlockingCallersThrough() throws Exception {
+		Dispatcher dispatcher = new Dispatcher(executor, 1, new Metrics());
+		CountDownLatch release = new CountDownLatch(1);
+		dispatcher.dispatch("a", () -> {
+			try {
+				release.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}, true);
+
+		dispatcher.dispatch("a", () -> { }, false);
+		assertEquals(2, dispatcher.getQueuedCount());
+
+		CountDownLatch blockedRan = new CountDownLatch(1);
+		Thread blocked = new Thread(() -> dispatcher.dispatch("b", blockedRan::countDown, true));
+		blocked.start();
+		assertFalse(blockedRan.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(blockedRan.await(5, TimeUnit.SECONDS));
+	}
+}
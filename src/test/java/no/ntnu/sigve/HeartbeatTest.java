@@ -0,0 +1,126 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.Heartbeat;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.UuidMessage;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for heartbeats and idle connection detection.
+ */
+class HeartbeatTest {
+	private static final int PORT = 8091;
+	private static final Heartbeat HEARTBEAT =
+			Heartbeat.of(Duration.ofMillis(50), Duration.ofMillis(200));
+
+	private Server server;
+	private final CountDownLatch serverDisconnect = new CountDownLatch(1);
+
+	@AfterEach
+	void stopServer() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private void startServer(boolean nio) throws IOException {
+		TestProtocol protocol = new TestProtocol() {
+			@Override
+			public void onClientDisconnect(Server caller, UUID clientId) {
+				serverDisconnect.countDown();
+			}
+		};
+		server = nio
+				? new Server(PORT, protocol, new NioServerTransport(1))
+				: new Server(PORT, protocol);
+		server.setHeartbeat(HEARTBEAT);
+		server.start();
+	}
+
+	@Test
+	void silentClientIsEvicted() throws Exception {
+		startServer(false);
+		try (Socket silent = new Socket("localhost", PORT)) {
+			assertTrue(serverDisconnect.await(5, TimeUnit.SECONDS));
+			assertEquals(1, server.getMetrics().getSnapshot().getIdleTimeouts());
+		}
+	}
+
+	@Test
+	void silentClientIsEvictedFromEventLoop() throws Exception {
+		startServer(true);
+		try (Socket silent = new Socket("localhost", PORT)) {
+			assertTrue(serverDisconnect.await(5, TimeUnit.SECONDS));
+			assertEquals(1, server.getMetrics().getSnapshot().getIdleTimeouts());
+		}
+	}
+
+	@Test
+	void idleClientAnswersPings() throws Exception {
+		startServer(false);
+		BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		Client client = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message.getPayload());
+			}
+		});
+		client.connect();
+
+		assertFalse(serverDisconnect.await(600, TimeUnit.MILLISECONDS));
+		client.sendOutgoingMessage(new Message<>(client.getSessionId(), "1"));
+		assertEquals("1", received.poll(5, TimeUnit.SECONDS));
+		assertEquals(0, server.getMetrics().getSnapshot().getIdleTimeouts());
+		assertTrue(client.getMetrics().getSnapshot().getMessagesIn() > 1);
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void clientDetectsSilentServer() throws Exception {
+		try (ServerSocket silentServer = new ServerSocket(PORT)) {
+			CountDownLatch clientDisconnect = new CountDownLatch(1);
+			Client client = new Client("localhost", PORT, new TestClientProtocol() {
+				@Override
+				public void onClientDisconnect(Client caller, UUID clientId) {
+					clientDisconnect.countDown();
+				}
+			});
+			client.setHeartbeat(HEARTBEAT);
+			Thread handshake = new Thread(() -> {
+				try (Socket accepted = silentServer.accept()) {
+					OutputStream output = accepted.getOutputStream();
+					output.write(new BinaryMessageCodec().encode(new UuidMessage(UUID.randomUUID())));
+					output.flush();
+					clientDisconnect.await(5, TimeUnit.SECONDS);
+				} catch (IOException | InterruptedException e) {
+					e.printStackTrace();
+				}
+			});
+			handshake.start();
+			client.connect();
+
+			assertTrue(clientDisconnect.await(5, TimeUnit.SECONDS));
+			assertEquals(1, client.getMetrics().getSnapshot().getIdleTimeouts());
+			handshake.join();
+		}
+	}
+}
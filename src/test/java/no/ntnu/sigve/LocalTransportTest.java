@@ -0,0 +1,129 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.server.LocalServerTransport;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for clients connecting to a server in the same JVM.
+ */
+class LocalTransportTest {
+	private static final int PORT = 8096;
+
+	private Server server;
+
+	@AfterEach
+	void stop() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private Client connect(BlockingQueue<Message<?>> received) throws IOException {
+		Client client = Client.inProcess(PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message);
+			}
+		});
+		client.connect();
+		return client;
+	}
+
+	@Test
+	void routedMessagesAreHandedOverWithoutCopying() throws Exception {
+		server = new Server(PORT, new TestProtocol(), new LocalServerTransport());
+		server.start();
+		BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+		Client sender = connect(new LinkedBlockingQueue<>());
+		Client receiver = connect(received);
+
+		Message<String> message = new Message<>(receiver.getSessionId(), "1");
+		sender.sendOutgoingMessage(message);
+
+		Message<?> delivered = received.poll(5, TimeUnit.SECONDS);
+		assertSame(message, delivered);
+		assertEquals(sender.getSessionId(), delivered.getSource());
+		sender.stopSocketCommunication();
+		receiver.stopSocketCommunication();
+	}
+
+	@Test
+	void copyOnSendIsolatesBothSides() throws Exception {
+		BlockingQueue<Message<?>> atServer = new LinkedBlockingQueue<>();
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				atServer.add(message);
+				caller.broadcast(message);
+			}
+		}, new LocalServerTransport(true));
+		server.start();
+		BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+		Client client = connect(received);
+
+		Message<String> message = new Message<>(null, "copied");
+		client.sendOutgoingMessage(message);
+
+		Message<?> handled = atServer.poll(5, TimeUnit.SECONDS);
+		Message<?> echoed = received.poll(5, TimeUnit.SECONDS);
+		assertNotSame(message, handled);
+		assertNotSame(handled, echoed);
+		assertEquals("copied", echoed.getPayload());
+		assertNull(message.getSource());
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void requestsAreAnswered() throws Exception {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				Message<String> response = new Message<>(message.getSource(), "pong");
+				response.respondTo(message);
+				caller.route(response);
+			}
+		}, new LocalServerTransport());
+		server.setSessionResumption(Duration.ofSeconds(5), 16);
+		server.start();
+		Client client = connect(new LinkedBlockingQueue<>());
+
+		Message<?> response = client.request(new Message<>(null, "ping"), Duration.ofSeconds(5))
+				.get(5, TimeUnit.SECONDS);
+		assertEquals("pong", response.getPayload());
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void closingTheServerDisconnectsClients() throws Exception {
+		CountDownLatch disconnected = new CountDownLatch(1);
+		server = new Server(PORT, new TestProtocol(), new LocalServerTransport());
+		server.start();
+		Client client = Client.inProcess(PORT, new TestClientProtocol() {
+			@Override
+			public void onClientDisconnect(Client caller, UUID clientId) {
+				disconnected.countDown();
+			}
+		});
+		client.connect();
+
+		server.close();
+		server = null;
+		assertTrue(disconnected.await(5, TimeUnit.SECONDS));
+		assertThrows(IOException.class, () -> connect(new LinkedBlockingQueue<>()));
+	}
+}
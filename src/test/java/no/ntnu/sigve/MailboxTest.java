@@ -0,0 +1,154 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.client.ReconnectPolicy;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import no.ntnu.sigve.testclasses.TestProxy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for keeping messages for offline sessions in a durable mailbox.
+ */
+class MailboxTest {
+	private static final int PORT = 8097;
+	private static final int PROXY_PORT = 8098;
+	private static final int OTHER_PORT = 8106;
+	private static final ReconnectPolicy RECONNECT =
+			ReconnectPolicy.exponentialBackoff(Duration.ofMillis(10), Duration.ofMillis(50));
+
+	@TempDir
+	Path directory;
+
+	private Server server;
+	private TestProxy proxy;
+	private final Semaphore routed = new Semaphore(0);
+	private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+
+	@BeforeEach
+	void startProxy() throws IOException {
+		proxy = new TestProxy(PROXY_PORT, PORT);
+	}
+
+	@AfterEach
+	void stop() throws IOException {
+		proxy.close();
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private Server startServer(Duration retention, CountDownLatch expired) throws IOException {
+		Server started = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(message);
+				routed.release();
+			}
+
+			@Override
+			public void onClientDisconnect(Server caller, UUID clientId) {
+				expired.countDown();
+			}
+		});
+		started.setSessionResumption(retention, 64);
+		started.setMailbox(directory, Duration.ofMinutes(1), 1024 * 1024);
+		started.start();
+		return started;
+	}
+
+	private Client connectThroughProxy() throws IOException {
+		Client client = new Client("localhost", PROXY_PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message.getPayload());
+			}
+		});
+		client.setReconnectPolicy(RECONNECT);
+		client.connect();
+		return client;
+	}
+
+	private Client connectDirectly() throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol());
+		client.connect();
+		return client;
+	}
+
+	@Test
+	void mailForExpiredSessionIsDeliveredOnReturn() throws Exception {
+		CountDownLatch expired = new CountDownLatch(1);
+		server = startServer(Duration.ofMillis(100), expired);
+		Client offline = connectThroughProxy();
+		UUID oldSession = offline.getSessionId();
+		Client sender = connectDirectly();
+
+		proxy.setAccepting(false);
+		proxy.dropConnections();
+		assertTrue(expired.await(5, TimeUnit.SECONDS));
+		sender.sendOutgoingMessage(new Message<>(oldSession, "1"));
+		sender.sendOutgoingMessage(new Message<>(oldSession, "2"));
+		assertTrue(routed.tryAcquire(2, 5, TimeUnit.SECONDS));
+		assertEquals(0, server.getMetrics().getSnapshot().getRouteMisses());
+
+		proxy.setAccepting(true);
+		assertEquals("1", received.poll(5, TimeUnit.SECONDS));
+		assertEquals("2", received.poll(5, TimeUnit.SECONDS));
+		assertNotEquals(oldSession, offline.getSessionId());
+
+		//The mail has been taken, so the old session is unknown from now on
+		sender.sendOutgoingMessage(new Message<>(oldSession, "1"));
+		assertTrue(routed.tryAcquire(1, 5, TimeUnit.SECONDS));
+		assertEquals(1, server.getMetrics().getSnapshot().getRouteMisses());
+		offline.stopSocketCommunication();
+		sender.stopSocketCommunication();
+	}
+
+	@Test
+	void mailSurvivesServerRestart() throws Exception {
+		server = startServer(Duration.ofSeconds(5), new CountDownLatch(1));
+		Client offline = connectThroughProxy();
+		UUID oldSession = offline.getSessionId();
+
+		proxy.setAccepting(false);
+		server.close();
+		server = startServer(Duration.ofSeconds(5), new CountDownLatch(1));
+		Client sender = connectDirectly();
+		sender.sendOutgoingMessage(new Message<>(oldSession, "2"));
+		assertTrue(routed.tryAcquire(1, 5, TimeUnit.SECONDS));
+
+		server.close();
+		server = startServer(Duration.ofSeconds(5), new CountDownLatch(1));
+		proxy.setAccepting(true);
+		assertEquals("2", received.poll(5, TimeUnit.SECONDS));
+		offline.stopSocketCommunication();
+	}
+
+	@Test
+	void oneServerUsesTheDirectoryAtATime() throws Exception {
+		server = startServer(Duration.ofSeconds(5), new CountDownLatch(1));
+		Server other = new Server(OTHER_PORT, new TestProtocol());
+		try {
+			assertThrows(IOException.class,
+					() -> other.setMailbox(directory, Duration.ofMinutes(1), 1024));
+		} finally {
+			other.close();
+		}
+	}
+}
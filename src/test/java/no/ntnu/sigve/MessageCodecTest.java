@@ -0,0 +1,130 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.UUID;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.HeartbeatMessage;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.SerializationMessageCodec;
+import no.ntnu.sigve.communication.UuidMessage;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the message codecs.
+ */
+class MessageCodecTest {
+	private final MessageCodec sender = new BinaryMessageCodec();
+	private final MessageCodec receiver = new BinaryMessageCodec();
+
+	private Message<?> roundTrip(Message<?> message) throws IOException, ClassNotFoundException {
+		byte[] frame = sender.encode(message);
+		return receiver.decode(Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length));
+	}
+
+	@Test
+	void builtInPayloadsKeepTheirValues() throws Exception {
+		UUID destination = UUID.randomUUID();
+		Serializable[] payloads = {"Hello", 42, 42L, 4.2, true, UUID.randomUUID(), null};
+		for (Serializable payload : payloads) {
+			Message<?> decoded = roundTrip(new Message<>(destination, payload));
+			assertEquals(Message.class, decoded.getClass());
+			assertEquals(destination, decoded.getDestination());
+			assertEquals(payload, decoded.getPayload());
+		}
+		byte[] bytes = {1, 2, 3};
+		assertArrayEquals(bytes, (byte[]) roundTrip(new Message<>(destination, bytes)).getPayload());
+	}
+
+	@Test
+	void sourceSurvivesEncoding() throws Exception {
+		UUID source = UUID.randomUUID();
+		Message<String> message = new Message<>(null, "Hello");
+		message.assignSource(source);
+		Message<?> decoded = roundTrip(message);
+		assertEquals(source, decoded.getSource());
+		assertNull(decoded.getDestination());
+	}
+
+	@Test
+	void prioritySurvivesEncoding() throws Exception {
+		for (Priority priority : Priority.values()) {
+			Message<String> message = new Message<>(null, "Hello");
+			message.setPriority(priority);
+			assertEquals(priority, roundTrip(message).getPriority());
+		}
+		assertEquals(Priority.HIGH, roundTrip(HeartbeatMessage.ping()).getPriority());
+	}
+
+	@Test
+	void correlationSurvivesEncoding() throws Exception {
+		Message<String> request = new Message<>(null, "Hello");
+		request.assignCorrelationId(7);
+		Message<?> decodedRequest = roundTrip(request);
+		assertEquals(7, decodedRequest.getCorrelationId());
+		assertFalse(decodedRequest.isResponse());
+
+		Message<String> response = new Message<>(UUID.randomUUID(), "Hi");
+		response.respondTo(decodedRequest);
+		Message<?> decodedResponse = roundTrip(response);
+		assertEquals(7, decodedResponse.getCorrelationId());
+		assertTrue(decodedResponse.isResponse());
+	}
+
+	@Test
+	void uuidMessagesAreBinary() throws Exception {
+		UUID sessionId = UUID.randomUUID();
+		byte[] frame = sender.encode(new UuidMessage(sessionId));
+		assertNotEquals(BinaryMessageCodec.TYPE_SERIALIZED, frame[Frames.HEADER_LENGTH]);
+		Message<?> decoded = roundTrip(new UuidMessage(sessionId));
+		assertInstanceOf(UuidMessage.class, decoded);
+		assertEquals(sessionId, decoded.getPayload());
+	}
+
+	@Test
+	void otherMessagesFallBackToSerialization() throws Exception {
+		Payload payload = new Payload("Hello", 3);
+		for (int i = 0; i < 3; i++) {
+			Message<?> decoded = roundTrip(new CustomMessage(payload));
+			assertInstanceOf(CustomMessage.class, decoded);
+			assertEquals(payload, decoded.getPayload());
+			assertEquals(payload, roundTrip(new Message<>(null, payload)).getPayload());
+		}
+	}
+
+	@Test
+	void sharedFramesDecodeOnEveryConnection() throws Exception {
+		Payload payload = new Payload("Hello", 3);
+		byte[] shared = sender.encodeShared(new CustomMessage(payload));
+		byte[] body = Arrays.copyOfRange(shared, Frames.HEADER_LENGTH, shared.length);
+		for (int i = 0; i < 2; i++) {
+			MessageCodec connection = new BinaryMessageCodec();
+			assertEquals(payload, connection.decode(body).getPayload());
+			assertEquals(payload, roundTrip(new CustomMessage(payload)).getPayload());
+			assertEquals(payload, receiver.decode(body).getPayload());
+		}
+		assertNull(new SerializationMessageCodec().encodeShared(new CustomMessage(payload)));
+	}
+
+	@Test
+	void binaryFramesAreSmallerThanSerializedFrames() throws IOException {
+		Message<String> message = new Message<>(UUID.randomUUID(), "Hello");
+		int binary = new BinaryMessageCodec().encode(message).length;
+		int serialized = new SerializationMessageCodec().encode(message).length;
+		assertTrue(binary < serialized / 4, binary + " vs " + serialized);
+	}
+
+	private record Payload(String text, int count) implements Serializable {}
+
+	private static class CustomMessage extends Message<Payload> {
+		CustomMessage(Payload payload) {
+			super(null, payload);
+		}
+	}
+}
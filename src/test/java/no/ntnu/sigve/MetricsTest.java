@@ -0,0 +1,118 @@
+package no.ntnu.sigve;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.HistogramSnapshot;
+import no.ntnu.sigve.communication.LatencyHistogram;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MetricsSnapshot;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the metrics collected by servers and clients.
+ */
+class MetricsTest {
+	private static final int PORT = 8084;
+
+	private Server server;
+	private Client client;
+	private TestClientProtocol protocol;
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		server = new Server(PORT, new TestProtocol());
+		server.start();
+		protocol = new TestClientProtocol();
+		client = new Client("localhost", PORT, protocol);
+		client.connect();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	@Test
+	void histogramPercentilesAreWithinPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 100_000; value++) {
+			histogram.record(value * 1000);
+		}
+		HistogramSnapshot snapshot = histogram.getSnapshot();
+		assertEquals(100_000, snapshot.getCount());
+		assertEquals(1000, snapshot.getMin());
+		assertEquals(100_000_000, snapshot.getMax());
+		assertEquals(50_000_000, snapshot.getP50(), 50_000_000 * 0.04);
+		assertEquals(99_000_000, snapshot.getP99(), 99_000_000 * 0.04);
+		assertEquals(99_900_000, snapshot.getP999(), 99_900_000 * 0.04);
+	}
+
+	@Test
+	void emptyHistogramReportsZero() {
+		HistogramSnapshot snapshot = new LatencyHistogram().getSnapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getMin());
+		assertEquals(0, snapshot.getP99());
+	}
+
+	@Test
+	void trafficIsCounted() {
+		client.sendOutgoingMessage(new Message<>(client.getSessionId(), "1"));
+		await().atMost(5, TimeUnit.SECONDS).until(protocol::getMessage, Objects::nonNull);
+		//The server counts a message as written after the write returns, so it may lag behind
+		await().atMost(5, TimeUnit.SECONDS)
+				.until(() -> server.getMetrics().getSnapshot().getMessagesOut() == 2);
+
+		MetricsSnapshot serverMetrics = server.getMetrics().getSnapshot();
+		assertEquals(1, serverMetrics.getAccepted());
+		assertEquals(1, serverMetrics.getMessagesIn());
+		assertEquals(2, serverMetrics.getMessagesOut());
+		assertTrue(serverMetrics.getBytesOut() > serverMetrics.getBytesIn());
+		assertEquals(2, serverMetrics.getEncodeTime().getCount());
+		assertEquals(2, serverMetrics.getQueueWait().getCount());
+
+		MetricsSnapshot clientMetrics = client.getMetrics().getSnapshot();
+		assertEquals(1, clientMetrics.getMessagesOut());
+		assertEquals(2, clientMetrics.getMessagesIn());
+		assertEquals(serverMetrics.getBytesOut(), clientMetrics.getBytesIn());
+		assertEquals(1, clientMetrics.getWriteTime().getCount());
+	}
+
+	@Test
+	void routeMissesAndDisconnectsAreCounted() throws IOException {
+		server.route(new Message<>(UUID.randomUUID(), "1"));
+		client.stopSocketCommunication();
+		await().atMost(5, TimeUnit.SECONDS)
+				.until(() -> server.getMetrics().getSnapshot().getDisconnected() == 1);
+		assertEquals(1, server.getMetrics().getSnapshot().getRouteMisses());
+	}
+
+	@Test
+	void metricsCanBeReadOverJmx() throws JMException {
+		server.getMetrics().registerMBean("metrics-test");
+		ObjectName name = new ObjectName(
+				"no.ntnu.sigve:type=Metrics,name=" + ObjectName.quote("metrics-test"));
+		CompositeData snapshot = (CompositeData)
+				ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Snapshot");
+		assertEquals(1L, snapshot.get("accepted"));
+		CompositeData encodeTime = (CompositeData) snapshot.get("encodeTime");
+		assertTrue(encodeTime.containsKey("p99"));
+		server.close();
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+}
@@ -0,0 +1,128 @@
+package no.ntnu.sigve;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.Protocol;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for a server running on the non-blocking transport.
+ */
+class NioServerTest {
+	private static final int PORT = 8081;
+	private static final int SINGLE_LOOP_PORT = 8107;
+
+	private Server server;
+	private Client client;
+	private TestClientProtocol protocol;
+
+	private Client createClient(TestClientProtocol protocol) throws IOException {
+		return createClient(PORT, protocol);
+	}
+
+	private Client createClient(int port, TestClientProtocol protocol) throws IOException {
+		Client client = new Client("localhost", port, protocol);
+		client.connect();
+		return client;
+	}
+
+	private Message<?> waitForMessage(TestClientProtocol protocol) {
+		return await()
+				.atMost(5, TimeUnit.SECONDS)
+				.until(protocol::getMessage, Objects::nonNull);
+	}
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		server = new Server(PORT, new TestProtocol(), new NioServerTransport(2));
+		server.start();
+		protocol = new TestClientProtocol();
+		client = createClient(protocol);
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	@Test
+	void messagesAreRoutedInOrder() {
+		client.sendOutgoingMessage(new Message<>(client.getSessionId(), "1"));
+		client.sendOutgoingMessage(new Message<>(client.getSessionId(), "2"));
+		assertEquals("1", waitForMessage(protocol).getPayload());
+		assertEquals("2", waitForMessage(protocol).getPayload());
+	}
+
+	@Test
+	void broadcastReachesEveryClient() throws IOException {
+		TestClientProtocol otherProtocol = new TestClientProtocol();
+		createClient(otherProtocol);
+		server.broadcast(new Message<>(null, "Hello"));
+		assertEquals("Hello", waitForMessage(protocol).getPayload());
+		assertEquals("Hello", waitForMessage(otherProtocol).getPayload());
+	}
+
+	@Test
+	void largeMessagesSpanSeveralReads() {
+		String payload = "x".repeat(500_000);
+		server.route(new Message<>(client.getSessionId(), payload));
+		assertEquals(payload, waitForMessage(protocol).getPayload());
+		client.sendOutgoingMessage(new Message<>(client.getSessionId(), payload));
+		client.sendOutgoingMessage(new Message<>(client.getSessionId(), "1"));
+		assertEquals("1", waitForMessage(protocol).getPayload());
+	}
+
+	@Test
+	void failingCallbackClosesOnlyItsOwnConnection() throws IOException {
+		Queue<UUID> disconnected = new ConcurrentLinkedQueue<>();
+		Server singleLoop = new Server(SINGLE_LOOP_PORT, new Protocol<>() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				if ("fail".equals(message.getPayload())) {
+					throw new IllegalStateException("Failing on purpose");
+				}
+				caller.route(message);
+			}
+
+			@Override
+			public void onClientConnect(Server caller, UUID clientId) {
+			}
+
+			@Override
+			public void onClientDisconnect(Server caller, UUID clientId) {
+				disconnected.add(clientId);
+			}
+		}, new NioServerTransport(1));
+		singleLoop.start();
+		try {
+			Client failing = createClient(SINGLE_LOOP_PORT, new TestClientProtocol());
+			TestClientProtocol otherProtocol = new TestClientProtocol();
+			Client other = createClient(SINGLE_LOOP_PORT, otherProtocol);
+
+			failing.sendOutgoingMessage(new Message<>(null, "fail"));
+			await().atMost(5, TimeUnit.SECONDS)
+					.until(() -> disconnected.contains(failing.getSessionId()));
+
+			other.sendOutgoingMessage(new Message<>(other.getSessionId(), "still served"));
+			assertEquals("still served", waitForMessage(otherProtocol).getPayload());
+			assertFalse(disconnected.contains(other.getSessionId()));
+		} finally {
+			singleLoop.close();
+		}
+	}
+}
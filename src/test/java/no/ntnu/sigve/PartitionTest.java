@@ -0,0 +1,174 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.server.OverflowPolicy;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for sharding sessions across partitions.
+ */
+class PartitionTest {
+	private static final int PORT = 8104;
+	private static final int CLIENTS = 8;
+	private static final int MESSAGES = 50;
+
+	private Server server;
+
+	@AfterEach
+	void stop() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	@Test
+	void everySessionIsHandledInOrderOnOneThread() throws Exception {
+		Map<UUID, List<Integer>> handled = new ConcurrentHashMap<>();
+		Map<UUID, Set<Thread>> threads = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(CLIENTS * MESSAGES);
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				handled.computeIfAbsent(message.getSource(), id -> new ArrayList<>())
+						.add((Integer) message.getPayload());
+				threads.computeIfAbsent(message.getSource(), id -> ConcurrentHashMap.newKeySet())
+						.add(Thread.currentThread());
+				done.countDown();
+			}
+		});
+		server.setPartitions(4, 1024);
+		server.start();
+
+		List<Client> clients = new ArrayList<>();
+		for (int i = 0; i < CLIENTS; i++) {
+			Client client = new Client("localhost", PORT, new TestClientProtocol());
+			client.connect();
+			clients.add(client);
+		}
+		for (int n = 0; n < MESSAGES; n++) {
+			for (Client client : clients) {
+				client.sendOutgoingMessage(new Message<>(null, n));
+			}
+		}
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+
+		Set<Thread> allThreads = new HashSet<>();
+		for (Client client : clients) {
+			List<Integer> sequence = handled.get(client.getSessionId());
+			for (int n = 0; n < MESSAGES; n++) {
+				assertEquals(n, sequence.get(n));
+			}
+			assertEquals(1, threads.get(client.getSessionId()).size());
+			allThreads.addAll(threads.get(client.getSessionId()));
+			client.stopSocketCommunication();
+		}
+		assertTrue(allThreads.size() > 1);
+	}
+
+	@Test
+	void messagesRoutedAcrossPartitionsArriveInOrder() throws Exception {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(message);
+			}
+		});
+		server.setPartitions(8, 1024);
+		server.start();
+		BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+		List<Client> senders = new ArrayList<>();
+		for (int i = 0; i < CLIENTS; i++) {
+			Client sender = new Client("localhost", PORT, new TestClientProtocol());
+			sender.connect();
+			senders.add(sender);
+		}
+		Client receiver = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message.getPayload());
+			}
+		});
+		receiver.connect();
+
+		Client sender = senders.get(0);
+		for (int n = 0; n < MESSAGES; n++) {
+			sender.sendOutgoingMessage(new Message<>(receiver.getSessionId(), n));
+		}
+		for (int n = 0; n < MESSAGES; n++) {
+			assertEquals(n, received.poll(5, TimeUnit.SECONDS));
+		}
+		for (Client other : senders.subList(1, CLIENTS)) {
+			other.sendOutgoingMessage(new Message<>(receiver.getSessionId(), -1));
+		}
+		for (int i = 1; i < CLIENTS; i++) {
+			assertEquals(-1, received.poll(5, TimeUnit.SECONDS));
+		}
+		assertEquals(0, server.getMetrics().getSnapshot().getRouteMisses());
+		for (Client client : senders) {
+			client.stopSocketCommunication();
+		}
+		receiver.stopSocketCommunication();
+	}
+
+	@Test
+	void slowClientDoesNotStallItsPartition() throws Exception {
+		BlockingQueue<UUID> connected = new LinkedBlockingQueue<>();
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(message);
+			}
+
+			@Override
+			public void onClientConnect(Server caller, UUID clientId) {
+				connected.add(clientId);
+			}
+		});
+		server.setPartitions(1, 1024);
+		server.setOutboundQueue(64 * 1024, OverflowPolicy.BLOCK);
+		server.start();
+		try (Socket stalled = new Socket("localhost", PORT)) {
+			UUID stalledId = connected.poll(5, TimeUnit.SECONDS);
+			BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+			Client client = new Client("localhost", PORT, new TestClientProtocol() {
+				@Override
+				public void receiveMessage(Client caller, Message<?> message) {
+					received.add(message.getPayload());
+				}
+			});
+			client.connect();
+
+			//The reader waits on a stalled partition, so a regression would block the sender too
+			assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+				String payload = "x".repeat(10_000);
+				for (int i = 0; i < 2_000; i++) {
+					client.sendOutgoingMessage(new Message<>(stalledId, payload));
+				}
+				client.sendOutgoingMessage(new Message<>(client.getSessionId(), "through"));
+				assertEquals("through", received.poll(5, TimeUnit.SECONDS));
+			});
+			client.stopSocketCommunication();
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import no.ntnu.sigve.communication.BinaryMessageCodec;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.LaneScheduler;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MessageCodec;
+import no.ntnu.sigve.communication.Priority;
+import no.ntnu.sigve.communication.PriorityLock;
+import no.ntnu.sigve.server.OverflowPolicy;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for priority lanes.
+ */
+class PriorityTest {
+	private static final int PORT = 8095;
+	private static final int BULK_COUNT = 300;
+
+	@Test
+	void highPriorityMessageOvertakesQueuedBulk() throws Exception {
+		Server server = new Server(PORT, new TestProtocol());
+		server.setOutboundQueue(64 * 1024 * 1024, OverflowPolicy.BLOCK);
+		server.getSocketSettings().setBufferSizes(64 * 1024, 64 * 1024);
+		server.start();
+		try (Socket reader = new Socket()) {
+			reader.setReceiveBufferSize(64 * 1024);
+			reader.connect(new InetSocketAddress("localhost", PORT));
+			DataInputStream input =
+					new DataInputStream(new BufferedInputStream(reader.getInputStream()));
+			MessageCodec codec = new BinaryMessageCodec();
+			UUID sessionId = (UUID) codec.decode(Frames.readFrame(input)).getPayload();
+
+			for (int i = 0; i < BULK_COUNT; i++) {
+				Message<byte[]> bulk = new Message<>(sessionId, new byte[64 * 1024]);
+				bulk.setPriority(Priority.LOW);
+				server.route(bulk);
+			}
+			Message<String> urgent = new Message<>(sessionId, "urgent");
+			urgent.setPriority(Priority.HIGH);
+			server.route(urgent);
+
+			int position = 0;
+			while (!"urgent".equals(codec.decode(Frames.readFrame(input)).getPayload())) {
+				position++;
+			}
+			assertTrue(position < BULK_COUNT / 2, "Urgent message arrived after " + position);
+		} finally {
+			server.close();
+		}
+	}
+
+	@Test
+	void lowerLanesAreNotStarved() {
+		LaneScheduler scheduler = new LaneScheduler();
+		int[] served = new int[Priority.values().length];
+		int turns = 10 * (LaneScheduler.FAIRNESS_INTERVAL + 1);
+		for (int i = 0; i < turns; i++) {
+			served[scheduler.next(lane -> true)]++;
+		}
+		assertEquals(turns - 10, served[Priority.HIGH.ordinal()]);
+		assertEquals(5, served[Priority.NORMAL.ordinal()]);
+		assertEquals(5, served[Priority.LOW.ordinal()]);
+	}
+
+	@Test
+	void higherLaneIsServedFirst() {
+		LaneScheduler scheduler = new LaneScheduler();
+		assertEquals(-1, scheduler.next(lane -> false));
+		assertEquals(Priority.NORMAL.ordinal(),
+				scheduler.next(lane -> lane != Priority.HIGH.ordinal()));
+		assertEquals(Priority.LOW.ordinal(), scheduler.next(lane -> lane == Priority.LOW.ordinal()));
+	}
+
+	@Test
+	void tryLockFailsWhileAnotherThreadWrites() throws Exception {
+		PriorityLock lock = new PriorityLock();
+		lock.lock(Priority.NORMAL);
+		assertTrue(lock.tryLock());
+		lock.unlock();
+		assertFalse(CompletableFuture.supplyAsync(lock::tryLock).get());
+		lock.unlock();
+		assertTrue(CompletableFuture.supplyAsync(() -> {
+			boolean taken = lock.tryLock();
+			if (taken) {
+				lock.unlock();
+			}
+			return taken;
+		}).get());
+	}
+}
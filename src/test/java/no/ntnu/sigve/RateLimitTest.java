@@ -0,0 +1,125 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.MetricsSnapshot;
+import no.ntnu.sigve.server.BlockingServerTransport;
+import no.ntnu.sigve.server.NioServerTransport;
+import no.ntnu.sigve.server.RateLimit;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.server.ServerTransport;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for rate limits and the connection cap.
+ */
+class RateLimitTest {
+	private static final int PORT = 8105;
+	private static final int MESSAGES = 30;
+	private static final RateLimit FIFTY_PER_SECOND = RateLimit.unlimited()
+			.withMessagesPerSecond(50)
+			.withBurst(Duration.ofMillis(100));
+
+	private Server server;
+	private final Semaphore handled = new Semaphore(0);
+
+	@AfterEach
+	void stop() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	private void startServer(ServerTransport transport) throws IOException {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				handled.release();
+			}
+		}, transport);
+	}
+
+	private static Client connect() throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol());
+		client.connect();
+		return client;
+	}
+
+	/**
+	 * Sends messages from every client and waits until all of them were handled.
+	 *
+	 * @return the milliseconds it took
+	 */
+	private long flood(Client... clients) throws InterruptedException {
+		long start = System.nanoTime();
+		for (int i = 0; i < MESSAGES; i++) {
+			for (Client client : clients) {
+				client.sendOutgoingMessage(new Message<>(null, i));
+			}
+		}
+		assertTrue(handled.tryAcquire(MESSAGES * clients.length, 10, TimeUnit.SECONDS));
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	@Test
+	void sessionLimitHoldsBackAFloodingClient() throws Exception {
+		startServer(new BlockingServerTransport());
+		server.setRateLimits(FIFTY_PER_SECOND, RateLimit.unlimited());
+		server.start();
+		Client client = connect();
+
+		//A burst of five messages, then one every 20 milliseconds
+		assertTrue(flood(client) >= 400);
+		assertTrue(server.getMetrics().getSnapshot().getThrottled() > 0);
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void globalLimitIsSharedByAllSessions() throws Exception {
+		startServer(new NioServerTransport(1));
+		server.setRateLimits(RateLimit.unlimited(), FIFTY_PER_SECOND);
+		server.start();
+		Client first = connect();
+		Client second = connect();
+
+		assertTrue(flood(first, second) >= 1000);
+		assertTrue(server.getMetrics().getSnapshot().getThrottled() > 0);
+		first.stopSocketCommunication();
+		second.stopSocketCommunication();
+	}
+
+	@Test
+	void connectionsBeyondTheCapAreRejected() throws Exception {
+		startServer(new NioServerTransport(1));
+		server.setMaxConnections(1);
+		server.start();
+		Client first = connect();
+
+		IOException rejected = assertThrows(IOException.class, RateLimitTest::connect);
+		assertTrue(rejected.getMessage().startsWith("Connection rejected"));
+		MetricsSnapshot metrics = server.getMetrics().getSnapshot();
+		assertEquals(1, metrics.getRejectedConnections());
+		assertEquals(1, metrics.getAccepted());
+
+		first.stopSocketCommunication();
+		for (int attempt = 0; attempt < 100; attempt++) {
+			try {
+				connect().stopSocketCommunication();
+				return;
+			} catch (IOException e) {
+				//The first connection is not closed yet
+				Thread.sleep(20);
+			}
+		}
+		fail("The server never made room for a new connection");
+	}
+}
@@ -0,0 +1,106 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.TimeoutWheel;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for requests answered with correlated responses.
+ */
+class RequestResponseTest {
+	private static final int PORT = 8085;
+	private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+	private Server server;
+	private Client client;
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				if (message.getPayload() instanceof Integer number) {
+					Message<Integer> response = new Message<>(message.getSource(), number * 2);
+					response.respondTo(message);
+					caller.route(response);
+				}
+			}
+		});
+		server.start();
+		client = new Client("localhost", PORT, new TestClientProtocol());
+		client.connect();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	@Test
+	void responseCompletesTheFuture() throws Exception {
+		Message<?> response = client.request(new Message<>(null, 21), TIMEOUT)
+				.get(5, TimeUnit.SECONDS);
+		assertEquals(42, response.getPayload());
+		assertTrue(response.isResponse());
+	}
+
+	@Test
+	void pipelinedRequestsGetTheirOwnResponses() throws Exception {
+		List<CompletableFuture<Message<?>>> responses = new ArrayList<>();
+		for (int i = 0; i < 10_000; i++) {
+			responses.add(client.request(new Message<>(null, i), TIMEOUT));
+		}
+		for (int i = 0; i < responses.size(); i++) {
+			assertEquals(i * 2, responses.get(i).get(5, TimeUnit.SECONDS).getPayload());
+		}
+	}
+
+	@Test
+	void unansweredRequestTimesOut() {
+		CompletableFuture<Message<?>> response =
+				client.request(new Message<>(null, "unanswered"), Duration.ofMillis(100));
+		ExecutionException failure =
+				assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(TimeoutException.class, failure.getCause());
+	}
+
+	@Test
+	void pendingRequestsFailWhenTheConnectionCloses() {
+		CompletableFuture<Message<?>> response =
+				client.request(new Message<>(null, "unanswered"), TIMEOUT);
+		server.close();
+		ExecutionException failure =
+				assertThrows(ExecutionException.class, () -> response.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(IOException.class, failure.getCause());
+	}
+
+	@Test
+	void cancelledTimeoutsDoNotRun() throws Exception {
+		AtomicBoolean ran = new AtomicBoolean();
+		TimeoutWheel.Timeout timeout =
+				TimeoutWheel.shared().schedule(() -> ran.set(true), Duration.ofMillis(50));
+		assertTrue(timeout.cancel());
+		CompletableFuture<Void> later = new CompletableFuture<>();
+		TimeoutWheel.shared().schedule(() -> later.complete(null), Duration.ofMillis(100));
+		later.get(5, TimeUnit.SECONDS);
+		assertFalse(ran.get());
+		assertFalse(timeout.isExpired());
+	}
+}
@@ -0,0 +1,127 @@
+package no.ntnu.sigve;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Frames;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.ResetPolicy;
+import no.ntnu.sigve.communication.SerializationMessageCodec;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for resetting the object stream of the serialization codec.
+ */
+class SerializationResetTest {
+	private static final int PORT = 8108;
+	private static final int SOAK_MESSAGES = 1_000_000;
+	private static final int WINDOW = 10_000;
+	private static final ResetPolicy RESET_POLICY = ResetPolicy.every(1000, 64 * 1024);
+
+	private static Message<?> decode(SerializationMessageCodec codec, byte[] frame)
+			throws IOException, ClassNotFoundException {
+		return codec.decode(Arrays.copyOfRange(frame, Frames.HEADER_LENGTH, frame.length));
+	}
+
+	private static long usedHeapAfterGc() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	@Test
+	void handleTablesStayBoundedOverOneLongConnection() throws Exception {
+		AtomicLong received = new AtomicLong();
+		Server server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(message);
+			}
+		});
+		server.setCodecFactory(() -> new SerializationMessageCodec(RESET_POLICY));
+		server.start();
+		Client client = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.incrementAndGet();
+			}
+		});
+		client.setCodecFactory(() -> new SerializationMessageCodec(RESET_POLICY));
+		try {
+			client.connect();
+			UUID self = client.getSessionId();
+			long maxHandles = 0;
+			long heapAfterWarmup = 0;
+			for (int i = 0; i < SOAK_MESSAGES; i++) {
+				client.sendOutgoingMessage(new Message<>(self, new Counter(i)));
+				if (i % WINDOW == 0) {
+					long sent = i;
+					await().atMost(30, TimeUnit.SECONDS).until(() -> received.get() >= sent);
+					maxHandles = Math.max(maxHandles,
+							server.getMetrics().getSnapshot().getStreamHandles());
+					maxHandles = Math.max(maxHandles,
+							client.getMetrics().getSnapshot().getStreamHandles());
+				}
+				if (i == SOAK_MESSAGES / 10) {
+					heapAfterWarmup = usedHeapAfterGc();
+				}
+			}
+			await().atMost(30, TimeUnit.SECONDS).until(() -> received.get() == SOAK_MESSAGES);
+			long heapGrowth = usedHeapAfterGc() - heapAfterWarmup;
+
+			assertTrue(maxHandles <= 3 * 1000, "Handle table grew to " + maxHandles);
+			assertTrue(server.getMetrics().getSnapshot().getStreamResets()
+					>= SOAK_MESSAGES / 1000 - 1);
+			assertTrue(client.getMetrics().getSnapshot().getStreamResets()
+					>= SOAK_MESSAGES / 1000 - 1);
+			assertTrue(heapGrowth < 16 * 1024 * 1024, "Heap grew by " + heapGrowth + " bytes");
+		} finally {
+			client.stopSocketCommunication();
+			server.close();
+		}
+		await().atMost(5, TimeUnit.SECONDS)
+				.until(() -> server.getMetrics().getSnapshot().getStreamHandles() == 0);
+	}
+
+	@Test
+	void handleTableGrowsWithoutResets() throws IOException {
+		SerializationMessageCodec sender = new SerializationMessageCodec(ResetPolicy.never());
+		for (int i = 0; i < 10_000; i++) {
+			sender.encode(new Message<>(null, new Counter(i)));
+		}
+		assertTrue(sender.getHandleCount() >= 20_000);
+		assertEquals(0, sender.getResetCount());
+	}
+
+	@Test
+	void mutatedObjectsAreResentWhenResettingEveryMessage() throws Exception {
+		SerializationMessageCodec sender = new SerializationMessageCodec(ResetPolicy.everyMessage());
+		SerializationMessageCodec receiver = new SerializationMessageCodec();
+		MutableCounter counter = new MutableCounter();
+
+		counter.value = 1;
+		assertEquals(1, ((MutableCounter) decode(receiver,
+				sender.encode(new Message<>(null, counter))).getPayload()).value);
+		counter.value = 2;
+		assertEquals(2, ((MutableCounter) decode(receiver,
+				sender.encode(new Message<>(null, counter))).getPayload()).value);
+	}
+
+	private record Counter(long value) implements Serializable {}
+
+	private static class MutableCounter implements Serializable {
+		private int value;
+	}
+}
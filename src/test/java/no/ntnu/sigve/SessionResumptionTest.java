@@ -0,0 +1,151 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.client.ReconnectPolicy;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.ReplayBuffer;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import no.ntnu.sigve.testclasses.TestProxy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for reconnecting clients and resumed sessions.
+ */
+class SessionResumptionTest {
+	private static final int PORT = 8089;
+	private static final int PROXY_PORT = 8090;
+	private static final ReconnectPolicy RECONNECT =
+			ReconnectPolicy.exponentialBackoff(Duration.ofMillis(10), Duration.ofMillis(100));
+
+	private Server server;
+	private TestProxy proxy;
+	private final AtomicInteger serverDisconnects = new AtomicInteger();
+	private final BlockingQueue<Object> received = new LinkedBlockingQueue<>();
+	private final CountDownLatch clientDisconnected = new CountDownLatch(1);
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(new Message<>(message.getSource(), message.getPayload()));
+			}
+
+			@Override
+			public void onClientDisconnect(Server caller, UUID clientId) {
+				serverDisconnects.incrementAndGet();
+			}
+		});
+		server.setSessionResumption(Duration.ofSeconds(5), 1024);
+		server.start();
+		proxy = new TestProxy(PROXY_PORT, PORT);
+	}
+
+	@AfterEach
+	void stopServer() throws IOException {
+		proxy.close();
+		server.close();
+	}
+
+	private Client connect(ReconnectPolicy policy) throws IOException {
+		Client client = new Client("localhost", PROXY_PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message.getPayload());
+			}
+
+			@Override
+			public void onClientDisconnect(Client caller, UUID clientId) {
+				clientDisconnected.countDown();
+			}
+		});
+		client.setReconnectPolicy(policy);
+		client.connect();
+		return client;
+	}
+
+	@Test
+	void sessionSurvivesDroppedConnection() throws Exception {
+		Client client = connect(RECONNECT);
+		UUID sessionId = client.getSessionId();
+		for (int i = 0; i < 100; i++) {
+			client.sendOutgoingMessage(new Message<>(null, i));
+		}
+		proxy.dropConnections();
+		for (int i = 100; i < 200; i++) {
+			client.sendOutgoingMessage(new Message<>(null, i));
+		}
+
+		for (int i = 0; i < 200; i++) {
+			assertEquals(i, received.poll(5, TimeUnit.SECONDS));
+		}
+		assertEquals(sessionId, client.getSessionId());
+		assertEquals(0, serverDisconnects.get());
+		assertEquals(1, clientDisconnected.getCount());
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void messagesForDetachedSessionAreHeldBack() throws Exception {
+		Client client = connect(RECONNECT);
+		UUID sessionId = client.getSessionId();
+		proxy.setAccepting(false);
+		proxy.dropConnections();
+
+		server.route(new Message<>(sessionId, "while away"));
+		proxy.setAccepting(true);
+
+		assertEquals("while away", received.poll(5, TimeUnit.SECONDS));
+		assertEquals(sessionId, client.getSessionId());
+		client.stopSocketCommunication();
+	}
+
+	@Test
+	void clientGivesUpAfterMaxAttempts() throws Exception {
+		connect(RECONNECT.withMaxAttempts(3));
+		proxy.setAccepting(false);
+		proxy.dropConnections();
+
+		assertTrue(clientDisconnected.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void clientWithoutReconnectPolicyIsServedAsBefore() throws Exception {
+		Client client = connect(null);
+		client.sendOutgoingMessage(new Message<>(null, "plain"));
+		assertEquals("plain", received.poll(5, TimeUnit.SECONDS));
+
+		client.stopSocketCommunication();
+		assertTrue(clientDisconnected.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void replayBufferRewindsToTheReceiversCount() {
+		ReplayBuffer buffer = new ReplayBuffer(3);
+		for (int i = 1; i <= 4; i++) {
+			buffer.sent(i);
+		}
+		assertFalse(buffer.canRewind(0));
+		assertTrue(buffer.canRewind(1));
+		buffer.acknowledge(2);
+		assertTrue(buffer.hold(5));
+
+		assertEquals(List.of(3, 4, 5), buffer.rewind(2));
+		assertEquals(0, buffer.size());
+	}
+}
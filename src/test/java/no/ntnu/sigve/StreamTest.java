@@ -0,0 +1,138 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.IncomingStream;
+import no.ntnu.sigve.communication.SerializationMessageCodec;
+import no.ntnu.sigve.communication.StreamChunkMessage;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for sending large payloads as chunked streams.
+ */
+class StreamTest {
+	private static final int PORT = 8087;
+
+	private Server server;
+	private CompletableFuture<byte[]> receivedByServer;
+
+	@TempDir
+	Path directory;
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		receivedByServer = new CompletableFuture<>();
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void onStream(Server caller, IncomingStream stream) {
+				readInto(stream, receivedByServer);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	private static void readInto(IncomingStream stream, CompletableFuture<byte[]> result) {
+		try (InputStream input = stream.getInputStream()) {
+			result.complete(input.readAllBytes());
+		} catch (IOException e) {
+			result.completeExceptionally(e);
+		}
+	}
+
+	private static byte[] randomBytes(int length) {
+		byte[] bytes = new byte[length];
+		new Random(length).nextBytes(bytes);
+		return bytes;
+	}
+
+	private Client connect(CompletableFuture<byte[]> received) throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void onStream(Client caller, IncomingStream stream) {
+				readInto(stream, received);
+			}
+		});
+		client.connect();
+		return client;
+	}
+
+	@Test
+	void streamReachesTheServer() throws Exception {
+		byte[] data = randomBytes(3 * StreamChunkMessage.CHUNK_SIZE + 17);
+		Client client = connect(new CompletableFuture<>());
+		assertEquals(data.length, client.sendStream(null, new ByteArrayInputStream(data)));
+		assertArrayEquals(data, receivedByServer.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void fileIsRelayedToAnotherClient() throws Exception {
+		byte[] data = randomBytes(5 * 1024 * 1024);
+		Path file = Files.write(directory.resolve("payload.bin"), data);
+		CompletableFuture<byte[]> received = new CompletableFuture<>();
+		Client receiver = connect(received);
+		Client sender = connect(new CompletableFuture<>());
+		sender.sendFile(receiver.getSessionId(), file);
+		assertArrayEquals(data, received.get(10, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void fileIsStreamedWithoutTheBinaryCodec() throws Exception {
+		server.setCodecFactory(SerializationMessageCodec::new);
+		byte[] data = randomBytes(StreamChunkMessage.CHUNK_SIZE);
+		Path file = Files.write(directory.resolve("exact.bin"), data);
+		Client client = new Client("localhost", PORT, new TestClientProtocol());
+		client.setCodecFactory(SerializationMessageCodec::new);
+		client.connect();
+		client.sendFile(null, file);
+		assertArrayEquals(data, receivedByServer.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void serverSendsFilesToClients() throws Exception {
+		byte[] data = new byte[0];
+		Path file = Files.write(directory.resolve("empty.bin"), data);
+		CompletableFuture<byte[]> received = new CompletableFuture<>();
+		Client client = connect(received);
+		server.sendFile(client.getSessionId(), file);
+		assertArrayEquals(data, received.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void failedSourceAbortsTheStream() throws Exception {
+		InputStream failing = new SequenceInputStream(
+				new ByteArrayInputStream(randomBytes(2 * StreamChunkMessage.CHUNK_SIZE)),
+				new InputStream() {
+					@Override
+					public int read() throws IOException {
+						throw new IOException("Disk failure");
+					}
+				});
+		Client client = connect(new CompletableFuture<>());
+		assertThrows(IOException.class, () -> client.sendStream(null, failing));
+		ExecutionException failure = assertThrows(ExecutionException.class,
+				() -> receivedByServer.get(5, TimeUnit.SECONDS));
+		assertInstanceOf(IOException.class, failure.getCause());
+	}
+}
@@ -0,0 +1,118 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for publishing messages to topic subscribers.
+ */
+class TopicTest {
+	private static final int PORT = 8086;
+
+	private Server server;
+
+	@BeforeEach
+	void initializeServer() throws IOException {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				Message<String> response = new Message<>(message.getSource(), "done");
+				response.respondTo(message);
+				caller.route(response);
+			}
+		});
+		server.start();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.close();
+	}
+
+	private Client connect(BlockingQueue<Message<?>> received) throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message);
+			}
+		});
+		client.connect();
+		return client;
+	}
+
+	/**
+	 * Waits until the server has handled everything the client sent so far. Messages from one
+	 * client are handled in order, so a request answered by the server proves it.
+	 */
+	private void sync(Client client) throws Exception {
+		client.request(new Message<>(null, "sync"), Duration.ofSeconds(5)).get(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void publishReachesSubscribersOnly() throws Exception {
+		BlockingQueue<Message<?>> subscriberInbox = new LinkedBlockingQueue<>();
+		BlockingQueue<Message<?>> otherInbox = new LinkedBlockingQueue<>();
+		Client subscriber = connect(subscriberInbox);
+		Client other = connect(otherInbox);
+		subscriber.subscribe("news");
+		other.subscribe("weather");
+		sync(subscriber);
+		sync(other);
+
+		server.publish("news", new Message<>(null, "headline"));
+		assertEquals("headline", subscriberInbox.poll(5, TimeUnit.SECONDS).getPayload());
+		server.publish("weather", new Message<>(null, "rain"));
+		assertEquals("rain", otherInbox.poll(5, TimeUnit.SECONDS).getPayload());
+		assertTrue(subscriberInbox.isEmpty());
+	}
+
+	@Test
+	void wildcardsMatchWholeSegments() throws Exception {
+		BlockingQueue<Message<?>> inbox = new LinkedBlockingQueue<>();
+		Client client = connect(inbox);
+		client.subscribe("sensors/*");
+		client.subscribe("sensors/1/temperature");
+		sync(client);
+
+		server.publish("sensorsX", new Message<>(null, "no match"));
+		server.publish("sensors/1/temperature", new Message<>(null, "once"));
+		server.publish("sensors/2", new Message<>(null, "prefix"));
+		assertEquals("once", inbox.poll(5, TimeUnit.SECONDS).getPayload());
+		assertEquals("prefix", inbox.poll(5, TimeUnit.SECONDS).getPayload());
+		assertNull(inbox.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void unsubscribedClientsNoLongerReceive() throws Exception {
+		BlockingQueue<Message<?>> inbox = new LinkedBlockingQueue<>();
+		Client client = connect(inbox);
+		client.subscribe("*");
+		sync(client);
+		server.publish("anything", new Message<>(null, "first"));
+		assertEquals("first", inbox.poll(5, TimeUnit.SECONDS).getPayload());
+
+		client.unsubscribe("*");
+		sync(client);
+		server.publish("anything", new Message<>(null, "second"));
+		assertNull(inbox.poll(200, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	void publishingToAPatternIsRejected() {
+		assertThrows(IllegalArgumentException.class,
+				() -> server.publish("sensors/*", new Message<>(null, "invalid")));
+	}
+}
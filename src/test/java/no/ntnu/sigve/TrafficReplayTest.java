@@ -0,0 +1,151 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.client.TrafficReplay;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.TrafficCapture;
+import no.ntnu.sigve.communication.TrafficRecorder;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for recording server traffic and replaying it against a fresh server.
+ */
+class TrafficReplayTest {
+	private static final int PORT = 8099;
+
+	@TempDir
+	Path directory;
+
+	private Server server;
+	private final Semaphore handled = new Semaphore(0);
+
+	@AfterEach
+	void stop() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	/**
+	 * Starts a server that answers requests and routes every other message.
+	 */
+	private Server startServer(TrafficRecorder recorder) throws IOException {
+		Server started = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				if (message.getCorrelationId() != 0) {
+					Message<String> response = new Message<>(message.getSource(), "pong");
+					response.respondTo(message);
+					caller.route(response);
+				} else {
+					caller.route(message);
+				}
+				handled.release();
+			}
+		});
+		started.setTrafficRecorder(recorder);
+		started.start();
+		return started;
+	}
+
+	private Client connect() throws IOException {
+		Client client = new Client("localhost", PORT, new TestClientProtocol());
+		client.connect();
+		return client;
+	}
+
+	/**
+	 * Records two clients exchanging three messages and answering two requests, with a pause
+	 * before the last message.
+	 */
+	private Path record(Duration pause) throws Exception {
+		Path file = directory.resolve("traffic.cap");
+		TrafficRecorder recorder = TrafficRecorder.create(file);
+		server = startServer(recorder);
+		Client first = connect();
+		Client second = connect();
+
+		first.sendOutgoingMessage(new Message<>(second.getSessionId(), "1"));
+		first.sendOutgoingMessage(new Message<>(second.getSessionId(), "2"));
+		first.request(new Message<>(null, "ping"), Duration.ofSeconds(5)).get(5, TimeUnit.SECONDS);
+		second.request(new Message<>(null, "ping"), Duration.ofSeconds(5)).get(5, TimeUnit.SECONDS);
+		Thread.sleep(pause.toMillis());
+		second.sendOutgoingMessage(new Message<>(first.getSessionId(), "1"));
+		assertTrue(handled.tryAcquire(5, 5, TimeUnit.SECONDS));
+
+		first.stopSocketCommunication();
+		second.stopSocketCommunication();
+		server.close();
+		server = null;
+		recorder.close();
+		return file;
+	}
+
+	@Test
+	void captureHoldsBothDirectionsOfEveryConnection() throws Exception {
+		Path file = record(Duration.ZERO);
+
+		Map<TrafficCapture.Kind, Integer> counts = new EnumMap<>(TrafficCapture.Kind.class);
+		long lastNanos = 0;
+		try (TrafficCapture capture = new TrafficCapture(file)) {
+			TrafficCapture.Record record;
+			while ((record = capture.next()) != null) {
+				counts.merge(record.getKind(), 1, Integer::sum);
+				assertTrue(record.getChannel() < 2);
+				assertTrue(record.getNanos() >= lastNanos);
+				lastNanos = record.getNanos();
+			}
+		}
+		assertEquals(2, counts.get(TrafficCapture.Kind.OPEN));
+		assertTrue(counts.get(TrafficCapture.Kind.IN) >= 5);
+		//A session ID each, two routed messages to each other and two responses
+		assertTrue(counts.get(TrafficCapture.Kind.OUT) >= 6);
+	}
+
+	@Test
+	void replayAtMaxSpeedReachesTheRecordedSessions() throws Exception {
+		Path file = record(Duration.ZERO);
+		server = startServer(null);
+
+		TrafficReplay.Report report = TrafficReplay.of(file)
+				.withSpeed(Double.POSITIVE_INFINITY)
+				.run("localhost", PORT);
+
+		assertEquals(5, report.getMessagesSent());
+		assertEquals(0, report.getFramesSkipped());
+		assertEquals(0, report.getFailedRequests());
+		assertEquals(2, report.getResponseTimes().getCount());
+		assertEquals(5, report.getSendTimes().getCount());
+		assertTrue(handled.tryAcquire(5, 5, TimeUnit.SECONDS));
+		assertEquals(0, server.getMetrics().getSnapshot().getRouteMisses());
+	}
+
+	@Test
+	void replayKeepsTheRecordedTimingScaledBySpeed() throws Exception {
+		Path file = record(Duration.ofMillis(400));
+		server = startServer(null);
+
+		TrafficReplay.Report report = TrafficReplay.of(file)
+				.withClients(1)
+				.withSpeed(2)
+				.run("localhost", PORT);
+
+		assertEquals(5, report.getMessagesSent());
+		assertTrue(report.getElapsed().toMillis() >= 200, report.toString());
+		assertTrue(report.getElapsed().toMillis() < 2000, report.toString());
+	}
+}
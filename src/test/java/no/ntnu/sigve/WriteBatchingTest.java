@@ -0,0 +1,89 @@
+package no.ntnu.sigve;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import no.ntnu.sigve.client.Client;
+import no.ntnu.sigve.communication.FrameWriter;
+import no.ntnu.sigve.communication.Message;
+import no.ntnu.sigve.communication.WriteBatching;
+import no.ntnu.sigve.server.Server;
+import no.ntnu.sigve.testclasses.TestClientProtocol;
+import no.ntnu.sigve.testclasses.TestProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for batching several frames into one socket write.
+ */
+class WriteBatchingTest {
+	private static final int PORT = 8083;
+
+	private Server server;
+
+	@AfterEach
+	void stopServer() {
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	@Test
+	void batchIsWrittenWhenFull() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FrameWriter writer = new FrameWriter(output, WriteBatching.of(8, Duration.ZERO));
+		writer.write(new byte[] {1, 2, 3, 4, 5}, 0, 5);
+		assertEquals(0, output.size());
+		assertTrue(writer.hasRoom());
+		writer.write(new byte[] {6, 7, 8}, 0, 3);
+		assertEquals(8, output.size());
+		writer.write(new byte[] {9}, 0, 1);
+		writer.flush();
+		assertEquals(9, output.size());
+	}
+
+	@Test
+	void disabledBatchingWritesStraightThrough() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		FrameWriter writer = new FrameWriter(output, WriteBatching.disabled());
+		writer.write(new byte[] {1, 2, 3}, 0, 3);
+		assertEquals(3, output.size());
+		assertFalse(writer.hasRoom());
+	}
+
+	@Test
+	void lingeringBatchesAreDeliveredInOrder() throws IOException, InterruptedException {
+		server = new Server(PORT, new TestProtocol() {
+			@Override
+			public void receiveMessage(Server caller, Message<?> message) {
+				caller.route(message);
+			}
+		});
+		server.setWriteBatching(WriteBatching.of(4096, Duration.ofMillis(2)));
+		server.start();
+
+		BlockingQueue<Message<?>> received = new LinkedBlockingQueue<>();
+		Client client = new Client("localhost", PORT, new TestClientProtocol() {
+			@Override
+			public void receiveMessage(Client caller, Message<?> message) {
+				received.add(message);
+			}
+		});
+		client.setWriteBatching(WriteBatching.of(4096, Duration.ofMillis(2)));
+		client.connect();
+
+		for (int i = 0; i < 1000; i++) {
+			client.sendOutgoingMessage(new Message<>(client.getSessionId(), i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			Message<?> message = received.poll(5, TimeUnit.SECONDS);
+			assertNotNull(message, "message " + i);
+			assertEquals(i, message.getPayload());
+		}
+	}
+}
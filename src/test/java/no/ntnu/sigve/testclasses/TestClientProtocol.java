@@ -16,7 +16,7 @@ public class TestClientProtocol implements Protocol<Client> {
 	}
 
 	@Override
-	public void receiveMessage(Client caller, Message<?> message) {
+	public synchronized void receiveMessage(Client caller, Message<?> message) {
 		this.messages.add(message);
 	}
 
@@ -30,7 +30,7 @@ public class TestClientProtocol implements Protocol<Client> {
 
 	}
 
-	public Message<?> getMessage() {
+	public synchronized Message<?> getMessage() {
 		return messages.isEmpty() ? null : messages.remove(0);
 	}
 }
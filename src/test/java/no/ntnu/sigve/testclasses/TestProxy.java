@@ -0,0 +1,103 @@
+package no.ntnu.sigve.testclasses;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A TCP proxy between clients and a server, for simulating dropped connections.
+ */
+public class TestProxy implements AutoCloseable {
+	private final ServerSocket listener;
+	private final int targetPort;
+	private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+	private volatile boolean accepting = true;
+
+	/**
+	 * Starts a proxy.
+	 *
+	 * @param port       the port to listen on
+	 * @param targetPort the port of the server to forward to
+	 * @throws IOException if the port cannot be bound
+	 */
+	public TestProxy(int port, int targetPort) throws IOException {
+		this.listener = new ServerSocket(port);
+		this.targetPort = targetPort;
+		Thread acceptor = new Thread(this::acceptConnections, "test-proxy");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	private void acceptConnections() {
+		while (!listener.isClosed()) {
+			try {
+				Socket client = listener.accept();
+				if (!accepting) {
+					client.close();
+					continue;
+				}
+				Socket server = new Socket("localhost", targetPort);
+				sockets.add(client);
+				sockets.add(server);
+				forward(client, server);
+				forward(server, client);
+			} catch (IOException e) {
+				//Closed
+			}
+		}
+	}
+
+	private void forward(Socket from, Socket to) {
+		Thread pump = new Thread(() -> {
+			try (InputStream input = from.getInputStream()) {
+				OutputStream output = to.getOutputStream();
+				byte[] buffer = new byte[8192];
+				int count;
+				while ((count = input.read(buffer)) >= 0) {
+					output.write(buffer, 0, count);
+				}
+			} catch (IOException e) {
+				//Dropped
+			} finally {
+				closeQuietly(to);
+			}
+		}, "test-proxy-pump");
+		pump.setDaemon(true);
+		pump.start();
+	}
+
+	/**
+	 * Drops every open connection, on both sides.
+	 */
+	public void dropConnections() {
+		sockets.forEach(TestProxy::closeQuietly);
+		sockets.clear();
+	}
+
+	/**
+	 * Decides whether new connections are forwarded or closed right away.
+	 *
+	 * @param accepting true to forward new connections
+	 */
+	public void setAccepting(boolean accepting) {
+		this.accepting = accepting;
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			//Already closed
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		listener.close();
+		dropConnections();
+	}
+}